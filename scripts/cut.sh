@@ -42,6 +42,16 @@ function help(){
   printf "usage: $0 [-h] -w <working-directory> -i <sequence-file> -k <format> -p 5\n"
   printf "        cut input file into several parts, each of them containing 5 sequences \n\n"
   printf "       <format>: one of fa, fq, gb, em\n\n"
+  printf "       <sequence-file> may be gzip or BGZF compressed.\n"
+  printf "       Other options: -z to gzip resulting files, -a <cores> to set\n"
+  printf "       the number of threads used to decompress a BGZF file, -u to\n"
+  printf "       discard duplicated sequences, -m <mode> to write slices to\n"
+  printf "       named pipes (fifo) or to the standard output (stdout).\n\n"
+  printf "       Batch mode: <sequence-file> can be a quoted glob pattern (e.g. 'data/*.fa')\n"
+  printf "       or @list, list being a file containing one path per line. Use -j <jobs>\n"
+  printf "       to set the number of files cut concurrently.\n\n"
+  printf "       Use -M <file> to create a manifest (TSV, or JSON if file ends with .json)\n"
+  printf "       describing the resulting files.\n\n"
   exit 1
 }
 
@@ -64,12 +74,18 @@ SEQ_FORMAT="fa"
 ARGS_LINE=" "
 
 # *** Handle cmdline arguments
-while getopts hw:i:f:t:p: opt
+while getopts hw:i:f:t:p:za:um:j:M: opt
 do
     case "$opt" in
       p)  ARGS_LINE="$ARGS_LINE -p $OPTARG";;
       f)  ARGS_LINE="$ARGS_LINE -f $OPTARG";;
       t)  ARGS_LINE="$ARGS_LINE -t $OPTARG";;
+      z)  ARGS_LINE="$ARGS_LINE -z";;
+      a)  ARGS_LINE="$ARGS_LINE -a $OPTARG";;
+      u)  ARGS_LINE="$ARGS_LINE -u";;
+      m)  ARGS_LINE="$ARGS_LINE -m $OPTARG";;
+      j)  ARGS_LINE="$ARGS_LINE -j $OPTARG";;
+      M)  ARGS_LINE="$ARGS_LINE -manifest $OPTARG";;
       i)  SEQ_FILE="$OPTARG";;
       w)  KL_WORKING_DIR="$OPTARG";;
       f)  SEQ_FORMAT="$OPTARG";;
@@ -105,5 +121,5 @@ KL_JAR_LIST=`echo $KL_JAR_LIST_TMP | sed 's/ /:/g'`
 
 # *** start application
 KL_APP_MAIN_CLASS=fr.ifremer.bioinfo.bdm.tools.CmdLineCutter
-$KL_JAVA_VM $KL_JAVA_ARGS -classpath $KL_JAR_LIST $KL_APP_MAIN_CLASS -d $KL_WORKING_DIR -i $SEQ_FILE -k $SEQ_FORMAT $ARGS_LINE
+$KL_JAVA_VM $KL_JAVA_ARGS -classpath $KL_JAR_LIST $KL_APP_MAIN_CLASS -d $KL_WORKING_DIR -i "$SEQ_FILE" -k $SEQ_FORMAT $ARGS_LINE
 
@@ -29,8 +29,10 @@ function help(){
   printf "\n$0: a tool to export BLAST or PLAST results (legacy XML) as CSV.\n\n"
   printf "usage: $0 [-h] \n\n"
   printf "required argument is: -i <xml-result-file> \n"
-  printf "   -i: a BLAST or PLAST result file (must be legacy NCBI BLAST XML format)\n"
-  printf "optional arguments are: -o <csv-file> -c <column-ids> -tax <taxonomy-index> -go <GO-index> -ipr <InterPro-index> -ec <Enzyme-index> \n"
+  printf "   -i: a BLAST or PLAST result file (must be legacy NCBI BLAST XML format), or a directory of such files\n"
+  printf "       (all .xml files are dumped in a single CSV file, in slice order; see also -filelist)\n"
+  printf "       files may be gzip, BGZF or zstd compressed (e.g. results.xml.gz); zstd files require the zstd tool\n"
+  printf "optional arguments are: -o <csv-file> -c <column-ids> -tax <taxonomy-index> -go <GO-index> -ipr <InterPro-index> -ec <Enzyme-index> -taxfile <file> -snapdir <dir> -cache <size> -threads <nb> -preresolve -stream -nohits -seqidx <sequence-index> -filelist <file> -bho -fho -evalue <value> -bitscore <value> -identity <percent> -coverage <percent> -of <csv|col|idx> -lca <window> -follow <seconds> -sort <evalue|bitscore|accession> -sortmem <Mb> \n"
   printf "optional arguments default values: \n" 
   printf "   -o      : none. Tool dumps CSV on stdout \n"
   printf "   -c      : 0,1,2,7,4,6,10,11,12,14,16,17,19\n"
@@ -38,6 +40,26 @@ function help(){
   printf "   -ec     : none. Otherwise provide a path to BeeDeeM-based index to Enzyme \n"
   printf "   -ipr    : none. Otherwise provide a path to BeeDeeM-based index to InterPro \n"
   printf "   -go     : none. Otherwise provide a path to BeeDeeM-based index to GeneOntology \n"
+  printf "   -taxfile: <taxonomy-index>.tax. Compact NCBI Taxonomy created from -tax index when missing or outdated \n"
+  printf "   -snapdir: none. Snapshots (see snapshot.sh) are looked for next to -go, -ipr and -ec indexes \n"
+  printf "   -cache  : 100000. Max number of BeeDeeM index lookups kept in memory; 0 disables caching \n"
+  printf "   -threads: 1. Number of threads used to dump data; 0 uses all available cores \n"
+  printf "   -preresolve : not set. If set, all classification identifiers are resolved before dumping data \n"
+  printf "   -stream : not set. If set, XML file is read query by query; memory usage then does not depend on file size \n"
+  printf "   -nohits : not set. If set, only IDs of queries without hits are dumped, ready to be used with query.sh \n"
+  printf "   -seqidx : none. With -nohits, provide a query sequence index (see index.sh) to dump query sequences instead of IDs \n"
+  printf "   -filelist: none. Otherwise provide a file of result files (one per line) to dump in a single CSV file; replaces -i \n"
+  printf "   -bho    : not set. If set, only the best hit of each query is dumped \n"
+  printf "   -fho    : not set. If set, only the first HSP of each hit is dumped \n"
+  printf "   -evalue : none. Otherwise only HSPs having an evalue <= value are dumped \n"
+  printf "   -bitscore: none. Otherwise only HSPs having a bit score >= value are dumped \n"
+  printf "   -identity: none. Otherwise only HSPs having a percentage of identity >= value are dumped \n"
+  printf "   -coverage: none. Otherwise only HSPs covering a percentage of the query >= value are dumped \n"
+  printf "   -of     : csv. Use col to dump a compact binary file of typed and compressed columns (queries without hits are not dumped), idx to dump an indexed store of CSV rows (requires -o; not available with -preresolve, -stream, -lca and -follow) \n"
+  printf "   -lca    : none. Otherwise dump one row per query: best hit, number of hits and lowest common ancestor of hits having an evalue <= best evalue x 10^window; requires -tax; not available with -stream, -follow and -preresolve \n"
+  printf "   -follow : none. Otherwise dump a result file still being written; stop when complete or when it has not grown for that number of seconds; requires -o; run again to resume \n"
+  printf "   -sort   : none. Otherwise sort rows of all queries by evalue, bitscore or accession \n"
+  printf "   -sortmem: 128. Memory used by -sort, in Mb; more rows are sorted using temporary files \n"
   exit 1
 }
 
@@ -0,0 +1,67 @@
+#!/bin/sh
+#
+# -------------------------------------------------------------------
+# A script aims at creating snapshots of BeeDeeM dictionary indexes.
+# Copyright (c) - IFREMER Bioinformatics, 2018
+# -------------------------------------------------------------------
+# User manual:
+#   https://gitlab.ifremer.fr/bioinfo/BeeDeeM-Tools 
+# -------------------------------------------------------------------
+# A script to run Dictionary Snapshot tool.
+#  
+# Sample uses:
+# snapshot.sh -go /biobank/d/GeneOntology_terms/current/GeneOntology_terms/GeneOntology_terms.ldx
+# 
+# Snapshots are then used by dumpcsv.sh instead of BeeDeeM indexes.
+#
+# Use program with -h argument to get help.
+# Note: environment variables are accepted in file path.
+#
+# A log file called DicoSnapshot.log is created within ${java.io.tmpdir}.
+# This default log file can be redirected using JRE variables KL_WORKING_DIR
+# and KL_LOG_FILE. E.g. java ... -DKL_WORKING_DIR=/my-path -DKL_LOG_FILE=query.log
+# or you can also do "export KL_WORKING_DIR=..." before calling this script.
+# 
+# In addition, some parameters can be passed to the JVM for special 
+# configuration purposes:
+# -DKL_DEBUG=true ; if true, if set, log will be in debug mode
+#
+
+function help(){
+  printf "\n$0: a tool to create snapshots of BeeDeeM dictionary indexes.\n\n"
+  printf "usage: $0 [-h] \n\n"
+  printf "arguments are: -go <GO-index> -ipr <InterPro-index> -ec <Enzyme-index> -d <directory> \n"
+  printf "   at least one of -go, -ipr and -ec must be provided \n"
+  printf "optional arguments default values: \n" 
+  printf "   -d      : none. Snapshots are created next to BeeDeeM indexes \n"
+  exit 1
+}
+
+function error() {
+  printf "ERROR: %s\n" "$*" >&2;
+}
+
+# *** Application home
+KL_APP_HOME=$( cd -P -- "$(dirname -- "$(command -v -- "$0")")" && pwd -P )
+
+# *** Working directory for log file 
+if [  ! "$KL_WORKING_DIR"  ]; then
+  KL_WORKING_DIR=/tmp
+fi
+mkdir -p $KL_WORKING_DIR
+if [ $? != 0  ]; then
+  error "unable to create directory $KL_WORKING_DIR"
+  exit 1
+fi
+
+# *** Java VM 
+KL_JAVA_VM=java
+KL_JAVA_ARGS="-Xms1g -Xmx4g -DKL_HOME=$KL_APP_HOME -DKL_WORKING_DIR=$KL_WORKING_DIR"
+
+# *** JARs section
+KL_JAR_LIST_TMP=`\ls $KL_APP_HOME/bin/*.jar`
+KL_JAR_LIST=`echo $KL_JAR_LIST_TMP | sed 's/ /:/g'`
+
+# *** start application
+KL_APP_MAIN_CLASS=fr.ifremer.bioinfo.bdm.tools.CmdLineDicoSnapshot
+$KL_JAVA_VM $KL_JAVA_ARGS -classpath $KL_JAR_LIST $KL_APP_MAIN_CLASS $@
@@ -0,0 +1,116 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter out sequences having exactly the same content as a sequence already
+ * seen. Sequences are compared using a 128-bit hash of their normalized
+ * residues (see SequenceRecordReader.setKeepSequence()), the first sequence
+ * seen being the representative of all identical ones.<br>
+ * <br>
+ * Duplicates are reported within a tab-separated mapping file, one line per
+ * duplicate: duplicate_id TAB representative_id. This file can be used to
+ * expand results computed on representatives to all sequences.
+ *
+ * @author Patrick G. Durand
+ */
+public class SequenceDeduplicator implements Closeable {
+  private SequenceHashTable _table;
+  private List<String>      _representatives;
+  private Writer            _mapping;
+  private File              _mappingFile;
+  private long[]            _hash;
+  private long              _duplicates;
+
+  /**
+   * Constructor.
+   *
+   * @param mappingFile
+   *          the file where to write duplicate/representative mapping
+   */
+  public SequenceDeduplicator(File mappingFile) throws IOException {
+    _table = new SequenceHashTable(1 << 16);
+    _representatives = new ArrayList<>();
+    _hash = new long[2];
+    _mappingFile = mappingFile;
+    _mapping = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(mappingFile), SequenceRecordReader.CHARSET));
+  }
+
+  /**
+   * Check whether a sequence is a representative.
+   *
+   * @param rec
+   *          a sequence entry. Its normalized sequence must be available.
+   *
+   * @return true if the sequence is seen for the first time, false if it is a
+   *         duplicate.
+   */
+  public boolean accept(SequenceRecord rec) throws IOException {
+    if (rec.getSequence() == null) {
+      throw new IllegalArgumentException("sequence not available for: " + rec.getId());
+    }
+    SequenceHashTable.hash(rec.getSequence(), _hash);
+    int rep = _table.putIfAbsent(_hash[0], _hash[1], _representatives.size());
+    if (rep == -1) {
+      _representatives.add(rec.getId());
+      return true;
+    }
+    _duplicates++;
+    _mapping.write(rec.getId());
+    _mapping.write('\t');
+    _mapping.write(_representatives.get(rep));
+    _mapping.write('\n');
+    return false;
+  }
+
+  /**
+   * Return the number of representative sequences.
+   */
+  public long getRepresentatives() {
+    return _representatives.size();
+  }
+
+  /**
+   * Return the number of duplicated sequences discarded.
+   */
+  public long getDuplicates() {
+    return _duplicates;
+  }
+
+  /**
+   * Return the mapping file.
+   */
+  public File getMappingFile() {
+    return _mappingFile;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _mapping.close();
+  }
+}
@@ -0,0 +1,213 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+/**
+ * An open-addressing hash table mapping 128-bit sequence hashes to int values.
+ * Keys and values are stored in primitive arrays (linear probing) to avoid
+ * the boxing and per-entry overhead of a java.util.HashMap when handling
+ * millions of sequences.
+ *
+ * @author Patrick G. Durand
+ */
+public class SequenceHashTable {
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private long[] _hi;
+  private long[] _lo;
+  // values are stored as value+1: 0 denotes an empty slot
+  private int[]  _values;
+  private int    _size;
+  private int    _mask;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedSize
+   *          expected number of distinct keys
+   */
+  public SequenceHashTable(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    _hi = new long[capacity];
+    _lo = new long[capacity];
+    _values = new int[capacity];
+    _mask = capacity - 1;
+  }
+
+  /**
+   * Return the number of keys.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Return the value associated to a key.
+   *
+   * @return the value or -1 if key is not in the table
+   */
+  public int get(long hi, long lo) {
+    int slot = (int) (hi ^ (hi >>> 32)) & _mask;
+    while (_values[slot] != 0) {
+      if (_hi[slot] == hi && _lo[slot] == lo) {
+        return _values[slot] - 1;
+      }
+      slot = (slot + 1) & _mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Associate a value to a key unless the key is already in the table.
+   *
+   * @param value
+   *          a positive or zero value
+   *
+   * @return the value already associated to the key or -1 if the key has been
+   *         added to the table
+   */
+  public int putIfAbsent(long hi, long lo, int value) {
+    int slot = (int) (hi ^ (hi >>> 32)) & _mask;
+    while (_values[slot] != 0) {
+      if (_hi[slot] == hi && _lo[slot] == lo) {
+        return _values[slot] - 1;
+      }
+      slot = (slot + 1) & _mask;
+    }
+    _hi[slot] = hi;
+    _lo[slot] = lo;
+    _values[slot] = value + 1;
+    _size++;
+    if (_size > _values.length * LOAD_FACTOR) {
+      rehash();
+    }
+    return -1;
+  }
+
+  private void rehash() {
+    long[] hi = _hi, lo = _lo;
+    int[] values = _values;
+    allocate(values.length << 1);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != 0) {
+        int slot = (int) (hi[i] ^ (hi[i] >>> 32)) & _mask;
+        while (_values[slot] != 0) {
+          slot = (slot + 1) & _mask;
+        }
+        _hi[slot] = hi[i];
+        _lo[slot] = lo[i];
+        _values[slot] = values[i];
+      }
+    }
+  }
+
+  /**
+   * Compute the 128-bit MurmurHash3 (x64 variant, seed 0) of a sequence. Each
+   * character is handled as a single byte, which is fine for residues.
+   *
+   * @param seq
+   *          the sequence
+   * @param out
+   *          an array of two longs receiving the hash
+   */
+  public static void hash(CharSequence seq, long[] out) {
+    final long c1 = 0x87c37b91114253d5L;
+    final long c2 = 0x4cf5ad432745937fL;
+    int len = seq.length();
+    int nblocks = len / 16;
+    long h1 = 0, h2 = 0, k1, k2;
+
+    for (int i = 0; i < nblocks; i++) {
+      int off = i * 16;
+      k1 = getLong(seq, off);
+      k2 = getLong(seq, off + 8);
+      k1 *= c1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= c2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      k2 *= c2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= c1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    // tail
+    int off = nblocks * 16;
+    k1 = 0;
+    k2 = 0;
+    for (int i = len - off - 1; i >= 8; i--) {
+      k2 ^= ((long) seq.charAt(off + i) & 0xff) << ((i - 8) * 8);
+    }
+    if (len - off > 8) {
+      k2 *= c2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= c1;
+      h2 ^= k2;
+    }
+    for (int i = Math.min(len - off, 8) - 1; i >= 0; i--) {
+      k1 ^= ((long) seq.charAt(off + i) & 0xff) << (i * 8);
+    }
+    if (len - off > 0) {
+      k1 *= c1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= c2;
+      h1 ^= k1;
+    }
+
+    // finalization
+    h1 ^= len;
+    h2 ^= len;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+    out[0] = h1;
+    out[1] = h2;
+  }
+
+  private static long getLong(CharSequence seq, int off) {
+    long v = 0;
+    for (int i = 7; i >= 0; i--) {
+      v = (v << 8) | (seq.charAt(off + i) & 0xff);
+    }
+    return v;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -0,0 +1,93 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+/**
+ * A single sequence entry read from a sequence file.
+ *
+ * @author Patrick G. Durand
+ */
+public class SequenceRecord {
+  private String _id;
+  private String _text;
+  private long   _residues;
+  private String _sequence;
+
+  /**
+   * Constructor.
+   *
+   * @param id
+   *          sequence identifier
+   * @param text
+   *          full text of the entry, as read from the sequence file. Each line
+   *          is terminated by a new line character.
+   * @param residues
+   *          number of residues contained in the sequence
+   */
+  public SequenceRecord(String id, String text, long residues) {
+    this(id, text, residues, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param id
+   *          sequence identifier
+   * @param text
+   *          full text of the entry, as read from the sequence file. Each line
+   *          is terminated by a new line character.
+   * @param residues
+   *          number of residues contained in the sequence
+   * @param sequence
+   *          normalized sequence, i.e. upper-case residues only. Can be null.
+   */
+  public SequenceRecord(String id, String text, long residues, String sequence) {
+    _id = id;
+    _text = text;
+    _residues = residues;
+    _sequence = sequence;
+  }
+
+  /**
+   * Return the sequence identifier.
+   */
+  public String getId() {
+    return _id;
+  }
+
+  /**
+   * Return the full text of the entry.
+   */
+  public String getText() {
+    return _text;
+  }
+
+  /**
+   * Return the number of residues.
+   */
+  public long getResidues() {
+    return _residues;
+  }
+
+  /**
+   * Return the normalized sequence. Only available when the reader has been
+   * asked to keep sequences, otherwise return null.
+   */
+  public String getSequence() {
+    return _sequence;
+  }
+}
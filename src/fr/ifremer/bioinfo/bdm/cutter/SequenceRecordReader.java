@@ -0,0 +1,253 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import bzh.plealog.dbmirror.util.descriptor.DatabankFormat;
+
+/**
+ * A sequential reader of sequence entries. It reads Fasta, FastQ, Genbank and
+ * EMBL formatted data from any stream, so that it can be used with compressed
+ * data without the need of a temporary uncompressed file.
+ *
+ * @author Patrick G. Durand
+ */
+public class SequenceRecordReader implements Closeable {
+
+  /** charset used to read and write sequence files: keep bytes unchanged */
+  public static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+  private static final String GB_ID    = "LOCUS";
+  private static final String GB_SEQ   = "ORIGIN";
+  private static final String EM_ID    = "ID";
+  private static final String EM_SEQ   = "SQ";
+  private static final String END_ENTRY = "//";
+
+  private BufferedReader _reader;
+  private DatabankFormat.DatabankFormatTypes _type;
+  private String _nextLine;
+  private long _records;
+  private StringBuilder _seqBuf;
+
+  /**
+   * Constructor.
+   *
+   * @param is
+   *          the stream to read. It is closed by the close() method of this
+   *          reader.
+   * @param format
+   *          format of the sequence data
+   */
+  public SequenceRecordReader(InputStream is, DatabankFormat format) {
+    _reader = new BufferedReader(new InputStreamReader(is, CHARSET), 256 * 1024);
+    _type = format.getType();
+  }
+
+  /**
+   * Figure out whether or not normalized sequences have to be attached to the
+   * entries. Default is false.
+   */
+  public void setKeepSequence(boolean keep) {
+    _seqBuf = keep ? new StringBuilder(4096) : null;
+  }
+
+  /**
+   * Return the number of entries read so far.
+   */
+  public long getRecordsRead() {
+    return _records;
+  }
+
+  /**
+   * Read next sequence entry.
+   *
+   * @return a sequence entry or null if end of stream has been reached.
+   */
+  public SequenceRecord next() throws IOException {
+    SequenceRecord rec;
+    switch (_type) {
+    case Fasta:
+      rec = nextFasta();
+      break;
+    case FastQ:
+      rec = nextFastq();
+      break;
+    case Genbank:
+      rec = nextFlat(GB_ID, GB_SEQ);
+      break;
+    default:
+      rec = nextFlat(EM_ID, EM_SEQ);
+      break;
+    }
+    if (rec != null) {
+      _records++;
+    }
+    return rec;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _reader.close();
+  }
+
+  private String readLine() throws IOException {
+    if (_nextLine != null) {
+      String line = _nextLine;
+      _nextLine = null;
+      return line;
+    }
+    return _reader.readLine();
+  }
+
+  /**
+   * Return the first word following a given position in a line.
+   */
+  private static String getFirstToken(String line, int from) {
+    int len = line.length();
+    while (from < len && Character.isWhitespace(line.charAt(from))) {
+      from++;
+    }
+    int to = from;
+    while (to < len && !Character.isWhitespace(line.charAt(to))) {
+      to++;
+    }
+    return line.substring(from, to);
+  }
+
+  /**
+   * Count residues contained in a sequence line, i.e. letters and gap symbols.
+   * Residues are also collected when the reader keeps sequences.
+   */
+  private int countResidues(String line) {
+    int n = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (Character.isLetter(c) || c == '-' || c == '*') {
+        n++;
+        if (_seqBuf != null) {
+          _seqBuf.append(Character.toUpperCase(c));
+        }
+      }
+    }
+    return n;
+  }
+
+  private void resetSequence() {
+    if (_seqBuf != null) {
+      _seqBuf.setLength(0);
+    }
+  }
+
+  private SequenceRecord newRecord(String id, StringBuilder text, long residues) {
+    return new SequenceRecord(id, text.toString(), residues, _seqBuf != null ? _seqBuf.toString() : null);
+  }
+
+  private SequenceRecord nextFasta() throws IOException {
+    String line;
+    // skip anything up to the first header
+    while ((line = readLine()) != null && !line.startsWith(">")) {
+    }
+    if (line == null) {
+      return null;
+    }
+    StringBuilder buf = new StringBuilder(line.length() + 1024);
+    String id = getFirstToken(line, 1);
+    long residues = 0;
+    resetSequence();
+    buf.append(line).append('\n');
+    while ((line = readLine()) != null) {
+      if (line.startsWith(">")) {
+        _nextLine = line;
+        break;
+      }
+      residues += countResidues(line);
+      buf.append(line).append('\n');
+    }
+    return newRecord(id, buf, residues);
+  }
+
+  private SequenceRecord nextFastq() throws IOException {
+    String line;
+    while ((line = readLine()) != null && !line.startsWith("@")) {
+    }
+    if (line == null) {
+      return null;
+    }
+    StringBuilder buf = new StringBuilder(line.length() + 1024);
+    String id = getFirstToken(line, 1);
+    long residues = 0;
+    resetSequence();
+    buf.append(line).append('\n');
+    // sequence may span several lines up to the '+' separator
+    while ((line = readLine()) != null && !line.startsWith("+")) {
+      residues += countResidues(line);
+      buf.append(line).append('\n');
+    }
+    if (line == null) {
+      throw new IOException("truncated FastQ entry: " + id);
+    }
+    buf.append(line).append('\n');
+    // quality has exactly the same length as the sequence
+    long qual = 0;
+    while (qual < residues && (line = readLine()) != null) {
+      qual += line.trim().length();
+      buf.append(line).append('\n');
+    }
+    if (qual < residues) {
+      throw new IOException("truncated FastQ entry: " + id);
+    }
+    return newRecord(id, buf, residues);
+  }
+
+  private SequenceRecord nextFlat(String idKey, String seqKey) throws IOException {
+    String line;
+    while ((line = readLine()) != null && line.trim().isEmpty()) {
+    }
+    if (line == null) {
+      return null;
+    }
+    StringBuilder buf = new StringBuilder(4096);
+    String id = null;
+    long residues = 0;
+    boolean inSeq = false;
+    resetSequence();
+    do {
+      buf.append(line).append('\n');
+      if (line.startsWith(END_ENTRY)) {
+        break;
+      }
+      if (inSeq) {
+        residues += countResidues(line);
+      } else if (id == null && line.startsWith(idKey)) {
+        id = getFirstToken(line, idKey.length());
+        if (id.endsWith(";")) {
+          id = id.substring(0, id.length() - 1);
+        }
+      } else if (line.startsWith(seqKey)) {
+        inSeq = true;
+      }
+    } while ((line = readLine()) != null);
+    return newRecord(id, buf, residues);
+  }
+}
@@ -0,0 +1,377 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import fr.ifremer.bioinfo.bdm.io.CompressionUtils;
+
+/**
+ * Cut a stream of sequence entries into slices in a single pass. Contrary to
+ * the BeeDeeM SequenceFileManager, this class does not require a random-access
+ * uncompressed input file: entries are read sequentially from a
+ * SequenceRecordReader.<br>
+ * <br>
+ * Slices are named using the same convention as CmdLineCutter, i.e.
+ * name_from-to.ext, optionally followed by .gz when slices are compressed.<br>
+ * <br>
+ * When a SequenceDeduplicator is set, duplicated sequences are discarded
+ * before slicing: sequence indexes (from/to) then refer to the representative
+ * sequences only.<br>
+ * <br>
+ * Slices can also be streamed instead of being written as regular files (see
+ * OutputMode). In such a case, the consumer drives the pace of the cutter:
+ * writing to a pipe or to stdout blocks as soon as the consumer stops reading.
+ *
+ * @author Patrick G. Durand
+ */
+public class SequenceStreamCutter {
+
+  /** where to write slices */
+  public enum OutputMode {
+    /** one regular file per slice: name_from-to.ext */
+    FILE,
+    /** one named pipe per slice: name_slice-N.ext, N being the slice number */
+    FIFO,
+    /** all slices are written, one after the other, to stdout */
+    STDOUT
+  }
+
+  private static final String TMP_FEXT = ".tmp";
+  private static final String FIFO_LBL = "slice";
+
+  private File    _outDir;
+  private String  _fName;
+  private String  _fExt;
+  private boolean _compress;
+  private SequenceDeduplicator _dedup;
+  private OutputMode _mode = OutputMode.FILE;
+  private SliceListener _listener;
+  private OutputStream _stdout = System.out;
+
+  /**
+   * Constructor.
+   *
+   * @param outDir
+   *          the directory where to create slices
+   * @param sourceFileName
+   *          name of the sequence file. Used to name the slices. A gzip
+   *          extension, if any, is discarded.
+   */
+  public SequenceStreamCutter(File outDir, String sourceFileName) {
+    _outDir = outDir;
+    sourceFileName = CompressionUtils.stripCompressionExtension(new File(sourceFileName).getName());
+    int idx = sourceFileName.lastIndexOf('.');
+    _fName = sourceFileName;
+    _fExt = "";
+    if (idx != -1) {
+      _fName = sourceFileName.substring(0, idx);
+      _fExt = "." + sourceFileName.substring(idx + 1);
+    }
+  }
+
+  /**
+   * Figure out whether or not slices have to be gzip compressed. Default is
+   * false.
+   */
+  public void setCompress(boolean compress) {
+    _compress = compress;
+  }
+
+  /**
+   * Set the output mode. Default is OutputMode.FILE.
+   */
+  public void setOutputMode(OutputMode mode) {
+    _mode = mode;
+  }
+
+  /**
+   * Set the stream used with OutputMode.STDOUT. Default is System.out.
+   */
+  public void setStdout(OutputStream os) {
+    _stdout = os;
+  }
+
+  /**
+   * Set a listener notified as soon as a slice file is available. With
+   * OutputMode.FIFO, it is called before the cutter starts to write into the
+   * pipe. It is not called with OutputMode.STDOUT.
+   */
+  public void setSliceListener(SliceListener listener) {
+    _listener = listener;
+  }
+
+  /**
+   * Set a filter discarding duplicated sequences. Default is none.
+   */
+  public void setDeduplicator(SequenceDeduplicator dedup) {
+    _dedup = dedup;
+  }
+
+  /**
+   * Return a file named after the sequence file, e.g. name_suffix. Such a file
+   * is located in the directory of the slices.
+   */
+  public File getCompanionFile(String suffix) {
+    return new File(_outDir, _fName + suffix);
+  }
+
+  /**
+   * Read the next sequence, skipping duplicates if requested.
+   */
+  private SequenceRecord next(SequenceRecordReader reader) throws IOException {
+    SequenceRecord rec;
+    while ((rec = reader.next()) != null) {
+      if (_dedup == null || _dedup.accept(rec)) {
+        break;
+      }
+    }
+    return rec;
+  }
+
+  /**
+   * Return the file of a slice given its from-to labels.
+   */
+  public File getSliceFile(String from, String to) {
+    String name = String.format("%s_%s-%s%s", _fName, from, to, _fExt);
+    if (_compress) {
+      name += CompressionUtils.GZ_FEXT;
+    }
+    return new File(_outDir, name);
+  }
+
+  /**
+   * Extract a range of sequences.
+   *
+   * @param reader
+   *          the sequence reader
+   * @param from
+   *          index of the first sequence to get. Use either 1 or -1 to start
+   *          from beginning of source.
+   * @param to
+   *          index of the last sequence to get. Use -1 to target end of source
+   *
+   * @return the created slice or an empty list if no sequences were retrieved
+   */
+  public List<SliceInfo> cutRange(SequenceRecordReader reader, int from, int to) throws IOException {
+    List<SliceInfo> slices = new ArrayList<>();
+    long first = from == -1 ? 1 : from;
+    long last = to == -1 ? Long.MAX_VALUE : to;
+    Slice slice = null;
+    long idx = 0;
+    SequenceRecord rec;
+
+    try {
+      while ((rec = next(reader)) != null) {
+        idx++;
+        if (idx < first) {
+          continue;
+        }
+        if (idx > last) {
+          break;
+        }
+        if (slice == null) {
+          slice = openSlice(1, first);
+        }
+        slice.write(rec);
+      }
+      if (slice != null) {
+        slices.add(closeSlice(slice, to == -1 ? "end" : String.valueOf(to)));
+        slice = null;
+      }
+    } finally {
+      discardSlice(slice);
+    }
+    return slices;
+  }
+
+  /**
+   * Cut a sequence source in slices.
+   *
+   * @param reader
+   *          the sequence reader
+   * @param part
+   *          number of sequences per slice
+   *
+   * @return the created slices or an empty list if no sequences were retrieved
+   */
+  public List<SliceInfo> cutParts(SequenceRecordReader reader, int part) throws IOException {
+    List<SliceInfo> slices = new ArrayList<>();
+    SequenceRecord rec;
+    Slice slice = null;
+    long idx = 0;
+
+    try {
+      while ((rec = next(reader)) != null) {
+        idx++;
+        if (slice == null) {
+          slice = openSlice(slices.size() + 1, idx);
+        }
+        slice.write(rec);
+        if (slice.count == part) {
+          slices.add(closeSlice(slice, null));
+          slice = null;
+        }
+      }
+      if (slice != null) {
+        slices.add(closeSlice(slice, null));
+        slice = null;
+      }
+    } finally {
+      discardSlice(slice);
+    }
+    return slices;
+  }
+
+  /**
+   * Prepare a new slice.
+   *
+   * @param num
+   *          slice number (one-based value)
+   * @param first
+   *          index of the first sequence of the slice
+   */
+  private Slice openSlice(int num, long first) throws IOException {
+    Slice slice = new Slice();
+    slice.first = first;
+    OutputStream os;
+    switch (_mode) {
+    case FIFO:
+      slice.file = new File(_outDir, String.format("%s_%s-%d%s%s", _fName, FIFO_LBL, num, _fExt,
+          _compress ? CompressionUtils.GZ_FEXT : ""));
+      createFifo(slice.file);
+      if (_listener != null) {
+        _listener.sliceAvailable(slice.file);
+      }
+      // blocks until a consumer opens the pipe
+      os = new FileOutputStream(slice.file);
+      break;
+    case STDOUT:
+      os = new CloseShieldOutputStream(_stdout);
+      break;
+    default:
+      slice.file = getTmpFile();
+      os = new FileOutputStream(slice.file);
+      break;
+    }
+    // count bytes actually written, i.e. after compression
+    slice.counter = new CountingOutputStream(os);
+    os = CompressionUtils.wrapOutputStream(slice.counter, _compress);
+    slice.writer = new OutputStreamWriter(os, SequenceRecordReader.CHARSET);
+    return slice;
+  }
+
+  /**
+   * Terminate a slice.
+   *
+   * @param slice
+   *          the slice
+   * @param toLabel
+   *          label to use as 'to' value to name a regular file. If null, use
+   *          index of the last sequence of the slice.
+   */
+  private SliceInfo closeSlice(Slice slice, String toLabel) throws IOException {
+    long last = slice.first + slice.count - 1;
+    slice.writer.close();
+    slice.writer = null;
+    if (_mode == OutputMode.STDOUT) {
+      _stdout.flush();
+    } else if (_mode == OutputMode.FILE) {
+      File dest = getSliceFile(String.valueOf(slice.first), toLabel != null ? toLabel : String.valueOf(last));
+      rename(slice.file, dest);
+      slice.file = dest;
+    }
+    SliceInfo info = new SliceInfo(slice.file, slice.first, last, slice.residues, slice.counter.getByteCount());
+    if (_listener != null && _mode == OutputMode.FILE) {
+      _listener.sliceAvailable(slice.file);
+    }
+    return info;
+  }
+
+  /**
+   * Release resources of a slice that cannot be terminated.
+   */
+  private void discardSlice(Slice slice) throws IOException {
+    if (slice == null || slice.writer == null) {
+      return;
+    }
+    slice.writer.close();
+    if (_mode == OutputMode.FILE) {
+      slice.file.delete();
+    }
+  }
+
+  private void createFifo(File f) throws IOException {
+    if (f.exists()) {
+      // a regular file is not a pipe: do not feed it silently
+      if (f.isFile()) {
+        throw new IOException("not a named pipe: " + f);
+      }
+      return;
+    }
+    Process p = new ProcessBuilder("mkfifo", f.getAbsolutePath()).redirectErrorStream(true).start();
+    try {
+      if (p.waitFor() != 0) {
+        throw new IOException("unable to create named pipe: " + f);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  private File getTmpFile() throws IOException {
+    return File.createTempFile(_fName + "_", TMP_FEXT, _outDir);
+  }
+
+  private void rename(File src, File dest) throws IOException {
+    if (dest.exists()) {
+      dest.delete();
+    }
+    if (!src.renameTo(dest)) {
+      throw new IOException("unable to rename " + src + " to " + dest);
+    }
+  }
+
+  /**
+   * A slice being written.
+   */
+  private static class Slice {
+    private File   file;
+    private Writer writer;
+    private CountingOutputStream counter;
+    private long   first;
+    private long   count;
+    private long   residues;
+
+    private void write(SequenceRecord rec) throws IOException {
+      writer.write(rec.getText());
+      count++;
+      residues += rec.getResidues();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+import java.io.File;
+
+/**
+ * Describe a slice created by the SequenceStreamCutter.
+ *
+ * @author Patrick G. Durand
+ */
+public class SliceInfo {
+  private File _file;
+  private long _from;
+  private long _to;
+  private long _residues;
+  private long _bytes;
+
+  /**
+   * Constructor.
+   *
+   * @param file
+   *          the slice file
+   * @param from
+   *          index of the first sequence of the slice (one-based value)
+   * @param to
+   *          index of the last sequence of the slice (one-based value)
+   * @param residues
+   *          total number of residues contained in the slice
+   * @param bytes
+   *          number of bytes written, i.e. size of the slice file
+   */
+  public SliceInfo(File file, long from, long to, long residues, long bytes) {
+    _file = file;
+    _from = from;
+    _to = to;
+    _residues = residues;
+    _bytes = bytes;
+  }
+
+  public File getFile() {
+    return _file;
+  }
+
+  public long getFrom() {
+    return _from;
+  }
+
+  public long getTo() {
+    return _to;
+  }
+
+  public long getRecords() {
+    return _to - _from + 1;
+  }
+
+  public long getResidues() {
+    return _residues;
+  }
+
+  public long getBytes() {
+    return _bytes;
+  }
+}
@@ -0,0 +1,34 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+import java.io.File;
+
+/**
+ * Listener of the SequenceStreamCutter.
+ *
+ * @author Patrick G. Durand
+ */
+public interface SliceListener {
+  /**
+   * Called when a slice can be used by a consumer.
+   *
+   * @param slice
+   *          the slice file or named pipe
+   */
+  void sliceAvailable(File slice);
+}
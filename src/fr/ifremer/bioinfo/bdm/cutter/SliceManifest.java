@@ -0,0 +1,163 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.cutter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A machine-readable description of the slices created by a cutting job. It
+ * is intended to be used by job schedulers: it reports, for each slice, its
+ * path, its sequence range, its number of sequences and residues and its size
+ * in bytes.<br>
+ * <br>
+ * Two formats are available. TSV: one header line followed by one line per
+ * slice with columns source, slice, from, to, sequences, residues, bytes. JSON:
+ * an object containing a 'slices' array of objects using the same keys.
+ *
+ * @author Patrick G. Durand
+ */
+public class SliceManifest {
+
+  /** file extension used to select the JSON format */
+  public static final String JSON_FEXT = ".json";
+
+  private static final String[] KEYS = { "source", "slice", "from", "to", "sequences", "residues", "bytes" };
+
+  private List<String>    _sources = new ArrayList<>();
+  private List<SliceInfo> _slices  = new ArrayList<>();
+
+  /**
+   * Add slices to the manifest. This method is thread-safe.
+   *
+   * @param source
+   *          the sequence file from which slices were created
+   * @param slices
+   *          the slices
+   */
+  public synchronized void add(String source, List<SliceInfo> slices) {
+    for (SliceInfo slice : slices) {
+      _sources.add(source);
+      _slices.add(slice);
+    }
+  }
+
+  /**
+   * Write the manifest. The format is JSON if file name ends with .json, TSV
+   * otherwise.
+   *
+   * @param f
+   *          the file to create
+   */
+  public synchronized void write(File f) throws IOException {
+    boolean json = f.getName().toLowerCase().endsWith(JSON_FEXT);
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8))) {
+      if (json) {
+        writeJson(w);
+      } else {
+        writeTsv(w);
+      }
+    }
+  }
+
+  private Object[] getValues(int i) {
+    SliceInfo slice = _slices.get(i);
+    return new Object[] { _sources.get(i), slice.getFile() != null ? slice.getFile().getPath() : "-",
+        slice.getFrom(), slice.getTo(), slice.getRecords(), slice.getResidues(), slice.getBytes() };
+  }
+
+  private void writeTsv(Writer w) throws IOException {
+    for (int j = 0; j < KEYS.length; j++) {
+      w.write(j == 0 ? "#" : "\t");
+      w.write(KEYS[j]);
+    }
+    w.write('\n');
+    for (int i = 0; i < _slices.size(); i++) {
+      Object[] values = getValues(i);
+      for (int j = 0; j < values.length; j++) {
+        if (j != 0) {
+          w.write('\t');
+        }
+        w.write(values[j].toString());
+      }
+      w.write('\n');
+    }
+  }
+
+  private void writeJson(Writer w) throws IOException {
+    w.write("{\n  \"slices\": [");
+    for (int i = 0; i < _slices.size(); i++) {
+      Object[] values = getValues(i);
+      w.write(i == 0 ? "\n    {" : ",\n    {");
+      for (int j = 0; j < values.length; j++) {
+        if (j != 0) {
+          w.write(", ");
+        }
+        w.write('"');
+        w.write(KEYS[j]);
+        w.write("\": ");
+        if (values[j] instanceof String) {
+          w.write('"');
+          w.write(escapeJson((String) values[j]));
+          w.write('"');
+        } else {
+          w.write(values[j].toString());
+        }
+      }
+      w.write('}');
+    }
+    w.write("\n  ]\n}\n");
+  }
+
+  private static String escapeJson(String str) {
+    StringBuilder buf = new StringBuilder(str.length() + 8);
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      switch (c) {
+      case '"':
+        buf.append("\\\"");
+        break;
+      case '\\':
+        buf.append("\\\\");
+        break;
+      case '\n':
+        buf.append("\\n");
+        break;
+      case '\t':
+        buf.append("\\t");
+        break;
+      case '\r':
+        buf.append("\\r");
+        break;
+      default:
+        if (c < 0x20) {
+          buf.append(String.format("\\u%04x", (int) c));
+        } else {
+          buf.append(c);
+        }
+      }
+    }
+    return buf.toString();
+  }
+}
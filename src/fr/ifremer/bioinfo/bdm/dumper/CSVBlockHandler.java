@@ -0,0 +1,56 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.util.Set;
+
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+
+/**
+ * A CSV export handler that can process the biological classification of a
+ * block of rows at once, before these rows are formatted. Blocks are started
+ * and ended by the thread formatting their rows; several threads may format
+ * their own block at the same time.<br>
+ * <br>
+ * Contrary to a plain CSVExportSROutputHandler, handle() is only called with
+ * the values of biological classification columns, so that other values are
+ * appended to rows without being formatted as Strings beforehand.
+ *
+ * @author Patrick G. Durand
+ */
+public interface CSVBlockHandler extends CSVExportSROutputHandler {
+
+  /**
+   * Figure out whether or not this handler needs blocks. If not, exporters do
+   * not have to collect classification identifiers of their rows.
+   */
+  boolean isBlockEnabled();
+
+  /**
+   * Start a block of rows.
+   *
+   * @param entryIds
+   *          the distinct identifiers contained in the biological
+   *          classification columns of the block
+   */
+  void startBlock(Set<String> entryIds);
+
+  /**
+   * End the block of rows started by the calling thread.
+   */
+  void endBlock();
+}
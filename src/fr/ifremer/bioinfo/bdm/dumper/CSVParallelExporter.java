@@ -0,0 +1,214 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+
+/**
+ * Export a SROutput as CSV using several threads. Iterations are split into
+ * chunks, each chunk being formatted by a worker in its own buffer; buffers
+ * are then written in iteration order, so that the result is exactly the same
+ * as the one of a single CSVExportSROutput.<br>
+ * <br>
+ * Each chunk is formatted with its own CSVRowFormatter, so that workers do not
+ * share any number formatter. A chunk is a block of rows for a data handler
+ * implementing CSVBlockHandler. Since several rows are formatted at the same
+ * time, the data handler has to be thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class CSVParallelExporter {
+
+  /** default number of iterations formatted by a single task */
+  public static final int DEFAULT_CHUNK_SIZE = 100;
+
+  private int[]                    _colIds;
+  private CSVExportSROutputHandler _handler;
+  private boolean                  _bestHitOnly;
+  private boolean                  _firstHspOnly;
+  private int                      _threads;
+  private int                      _chunkSize = DEFAULT_CHUNK_SIZE;
+  private boolean                  _showHeader = true;
+  private DefLineAnnotator         _annotator;
+
+  /**
+   * Constructor.
+   *
+   * @param colIds
+   *          columns to export. Values are TxtExportSROutput column constants.
+   * @param handler
+   *          data handler. Can be null. Must be thread-safe.
+   * @param bestHitOnly
+   *          only export best hit of each query
+   * @param firstHspOnly
+   *          only export first HSP of each hit
+   * @param threads
+   *          number of worker threads. If 1, chunks are formatted by the
+   *          calling thread.
+   */
+  public CSVParallelExporter(int[] colIds, CSVExportSROutputHandler handler, boolean bestHitOnly,
+      boolean firstHspOnly, int threads) {
+    _colIds = colIds;
+    _handler = handler;
+    _bestHitOnly = bestHitOnly;
+    _firstHspOnly = firstHspOnly;
+    _threads = Math.max(1, threads);
+  }
+
+  /**
+   * Set the number of iterations formatted by a single task. Default is
+   * DEFAULT_CHUNK_SIZE.
+   */
+  public void setChunkSize(int chunkSize) {
+    _chunkSize = Math.max(1, chunkSize);
+  }
+
+  /**
+   * Show column header. Default is true.
+   */
+  public void showColumnHeader(boolean showHeader) {
+    _showHeader = showHeader;
+  }
+
+  /**
+   * Set an annotator used to extract biological classification from hit
+   * definition lines of each iteration before it is exported. Default is none.
+   * Iterations are annotated by worker threads: annotator must be thread-safe.
+   */
+  public void setAnnotator(DefLineAnnotator annotator) {
+    _annotator = annotator;
+  }
+
+  /**
+   * Export results.
+   *
+   * @param bo
+   *          the results to export
+   * @param w
+   *          where to write CSV data
+   *
+   * @return number of chunks exported
+   */
+  public int export(SROutput bo, Writer w) throws Exception {
+    ArrayDeque<Future<CSVRowBuilder>> pending = new ArrayDeque<>();
+    ExecutorService pool;
+    CSVRowBuilder buf;
+    int nIter, from, to, chunks = 0;
+    boolean hasHits = false;
+
+    nIter = bo.countIteration();
+    for (int i = 0; i < nIter; i++) {
+      if (bo.getIteration(i).countHit() != 0) {
+        hasHits = true;
+        break;
+      }
+    }
+    if (!hasHits) {
+      // no hits at all: a single n/a row
+      buf = new CSVRowBuilder();
+      appendHeader(buf);
+      new CSVRowFormatter(_colIds, _handler, _bestHitOnly, _firstHspOnly).appendEmptyResult(buf, bo.getRequestInfo());
+      buf.append('\n').writeTo(w);
+      w.flush();
+      return 1;
+    }
+    from = 0;
+    to = Math.min(nIter, _chunkSize);
+    if (_threads == 1) {
+      buf = new CSVRowBuilder();
+      while (from < nIter) {
+        exportChunk(buf.reset(), bo, from, to);
+        buf.writeTo(w);
+        chunks++;
+        from = to;
+        to = Math.min(nIter, from + _chunkSize);
+      }
+      w.flush();
+      return chunks;
+    }
+    pool = Executors.newFixedThreadPool(_threads);
+    try {
+      while (from < nIter) {
+        // bound the number of buffers kept in memory
+        if (pending.size() >= 2 * _threads) {
+          pending.poll().get().writeTo(w);
+        }
+        final int start = from, end = to;
+        pending.add(pool.submit(() -> {
+          CSVRowBuilder chunk = new CSVRowBuilder();
+          exportChunk(chunk, bo, start, end);
+          return chunk;
+        }));
+        chunks++;
+        from = to;
+        to = Math.min(nIter, from + _chunkSize);
+      }
+      while (!pending.isEmpty()) {
+        pending.poll().get().writeTo(w);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    w.flush();
+    return chunks;
+  }
+
+  private void appendHeader(CSVRowBuilder buf) {
+    if (_showHeader) {
+      CSVStreamExporter.appendColumnHeader(buf, _colIds);
+      buf.append('\n');
+    }
+  }
+
+  /**
+   * Format a chunk of iterations as a single block of rows. The first chunk
+   * also contains the header.
+   */
+  private void exportChunk(CSVRowBuilder buf, SROutput bo, int from, int to) {
+    CSVRowFormatter formatter = new CSVRowFormatter(_colIds, _handler, _bestHitOnly, _firstHspOnly);
+    List<SRIteration> iterations = new ArrayList<>(to - from);
+
+    if (from == 0) {
+      appendHeader(buf);
+    }
+    for (int i = from; i < to; i++) {
+      SRIteration iteration = bo.getIteration(i);
+      if (_annotator != null) {
+        _annotator.annotate(iteration);
+      }
+      iterations.add(iteration);
+    }
+    formatter.startBlock(bo.getClassification(), iterations);
+    try {
+      for (SRIteration iteration : iterations) {
+        formatter.appendIteration(buf, bo.getClassification(), iteration);
+      }
+    } finally {
+      formatter.endBlock();
+    }
+  }
+}
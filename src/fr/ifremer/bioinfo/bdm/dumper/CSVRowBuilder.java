@@ -0,0 +1,131 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of CSV data. Contrary to StringWriter, it is not
+ * synchronized and its content can be written to another Writer without
+ * creating a String. An instance must be confined to a thread, or handed over
+ * to another one once filled.
+ *
+ * @author Patrick G. Durand
+ */
+public class CSVRowBuilder extends Writer {
+
+  private char[] _buf = new char[256];
+  private int    _len;
+
+  /**
+   * Empty this builder. Its buffer is kept.
+   */
+  public CSVRowBuilder reset() {
+    _len = 0;
+    return this;
+  }
+
+  /**
+   * Return the number of characters of this builder.
+   */
+  public int length() {
+    return _len;
+  }
+
+  /**
+   * Append a character.
+   */
+  public CSVRowBuilder append(char c) {
+    ensureCapacity(_len + 1);
+    _buf[_len++] = c;
+    return this;
+  }
+
+  /**
+   * Append a part of a string.
+   */
+  public CSVRowBuilder append(String s, int from, int to) {
+    ensureCapacity(_len + to - from);
+    s.getChars(from, to, _buf, _len);
+    _len += to - from;
+    return this;
+  }
+
+  /**
+   * Append a string.
+   */
+  public CSVRowBuilder append(String s) {
+    return append(s, 0, s.length());
+  }
+
+  /**
+   * Append the content of a StringBuffer, e.g. a formatted number.
+   */
+  public CSVRowBuilder append(StringBuffer sb) {
+    ensureCapacity(_len + sb.length());
+    sb.getChars(0, sb.length(), _buf, _len);
+    _len += sb.length();
+    return this;
+  }
+
+  @Override
+  public void write(int c) {
+    append((char) c);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) {
+    ensureCapacity(_len + len);
+    System.arraycopy(cbuf, off, _buf, _len, len);
+    _len += len;
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    append(str, off, off + len);
+  }
+
+  /**
+   * Write the content of this builder.
+   */
+  public void writeTo(Writer w) throws IOException {
+    w.write(_buf, 0, _len);
+  }
+
+  @Override
+  public void flush() {
+    // nothing to flush
+  }
+
+  @Override
+  public void close() {
+    // nothing to close
+  }
+
+  @Override
+  public String toString() {
+    return new String(_buf, 0, _len);
+  }
+
+  private void ensureCapacity(int size) {
+    if (size > _buf.length) {
+      _buf = Arrays.copyOf(_buf, Math.max(2 * _buf.length, size));
+    }
+  }
+}
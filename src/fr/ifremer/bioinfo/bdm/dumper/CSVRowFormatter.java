@@ -0,0 +1,419 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import bzh.plealog.bioinfo.api.data.feature.AnnotationDataModelConstants.ANNOTATION_CATEGORY;
+import bzh.plealog.bioinfo.api.data.searchresult.SRClassification;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SRRequestInfo;
+import bzh.plealog.bioinfo.api.data.sequence.BankSequenceInfo;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+import bzh.plealog.bioinfo.io.searchresult.csv.ExtractAnnotation;
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+
+/**
+ * Format CSV rows exactly as CSVExportSROutput does. Number formatters of
+ * CSVExportSROutput are shared by all its instances; those of this class are
+ * owned by each instance, so that several threads can format rows at the same
+ * time, each one using its own CSVRowFormatter. An instance must be confined
+ * to a thread.
+ *
+ * @author Patrick G. Durand
+ */
+public class CSVRowFormatter {
+
+  private static final char   SEP = ',';
+  private static final String NOT_AVAILABLE = "n/a";
+
+  private int[]                    _colIds;
+  private CSVExportSROutputHandler _handler;
+  private boolean                  _bestHitOnly;
+  private boolean                  _firstHspOnly;
+  private boolean                  _blockStarted;
+
+  private DecimalFormat _scoreFormatter   = createFormatter("#####");
+  private DecimalFormat _evalueFormatter1 = createFormatter("0E000");
+  private DecimalFormat _evalueFormatter2 = createFormatter("##.##");
+  private DecimalFormat _pctFormatter     = createFormatter("###.#");
+  private DecimalFormat _intFormatter     = createFormatter("#########");
+  // numbers and single values are formatted without creating Strings
+  private StringBuffer  _num              = new StringBuffer();
+  private FieldPosition _numPos           = new FieldPosition(0);
+  private CSVRowBuilder _cell             = new CSVRowBuilder();
+
+  /**
+   * Constructor.
+   *
+   * @param colIds
+   *          columns to export. Values are TxtExportSROutput column constants.
+   * @param handler
+   *          data handler. Can be null.
+   * @param bestHitOnly
+   *          only format best hit of each query
+   * @param firstHspOnly
+   *          only format first HSP of each hit
+   */
+  public CSVRowFormatter(int[] colIds, CSVExportSROutputHandler handler, boolean bestHitOnly,
+      boolean firstHspOnly) {
+    _colIds = colIds;
+    _handler = handler;
+    _bestHitOnly = bestHitOnly;
+    _firstHspOnly = firstHspOnly;
+  }
+
+  private static DecimalFormat createFormatter(String pattern) {
+    return new DecimalFormat(pattern, new DecimalFormatSymbols(Locale.US));
+  }
+
+  /**
+   * Append the rows of an iteration: a single row if query has no hits,
+   * otherwise one row per exported HSP.
+   *
+   * @param buf
+   *          where to append rows. Each row ends with a new line.
+   * @param classification
+   *          biological classification of the whole results. Can be null.
+   * @param iteration
+   *          the iteration to format
+   *
+   * @return number of rows appended
+   */
+  public int appendIteration(CSVRowBuilder buf, SRClassification classification, SRIteration iteration) {
+    Map<ANNOTATION_CATEGORY, SRClassification> queryClassif;
+    int nHits, nHsps, rows = 0;
+
+    nHits = iteration.countHit();
+    if (nHits == 0) {
+      appendNoHitRow(buf, iteration.getIterationQueryID());
+      buf.append('\n');
+      return 1;
+    }
+    queryClassif = ExtractAnnotation.prepareClassification(classification, iteration.getIterationQueryFeatureTable());
+    for (int i = 0; i < nHits; i++) {
+      SRHit hit = iteration.getHit(i);
+      nHsps = hit.countHsp();
+      for (int j = 0; j < nHsps; j++) {
+        appendRow(buf, classification, queryClassif, iteration, hit, hit.getHsp(j));
+        buf.append('\n');
+        rows++;
+        if (_firstHspOnly) {
+          break;
+        }
+      }
+      if (_bestHitOnly) {
+        break;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Start a block made of the rows of some iterations. When the data handler
+   * is a CSVBlockHandler needing blocks, it is given the classification
+   * identifiers of these rows. Iterations have to be annotated beforehand and
+   * each call has to be followed by a call to endBlock().
+   *
+   * @param classification
+   *          biological classification of the whole results. Can be null.
+   * @param iterations
+   *          the iterations to format
+   */
+  public void startBlock(SRClassification classification, List<SRIteration> iterations) {
+    ClassificationCollector collector;
+    CSVBlockHandler handler;
+    int nHits, nHsps;
+
+    if (!(_handler instanceof CSVBlockHandler) || !hasClassificationColumn()) {
+      return;
+    }
+    handler = (CSVBlockHandler) _handler;
+    if (!handler.isBlockEnabled()) {
+      return;
+    }
+    collector = new ClassificationCollector();
+    for (SRIteration iteration : iterations) {
+      nHits = _bestHitOnly ? Math.min(1, iteration.countHit()) : iteration.countHit();
+      for (int i = 0; i < nHits; i++) {
+        SRHit hit = iteration.getHit(i);
+        nHsps = _firstHspOnly ? Math.min(1, hit.countHsp()) : hit.countHsp();
+        for (int j = 0; j < nHsps; j++) {
+          SRHsp hsp = hit.getHsp(j);
+          Map<ANNOTATION_CATEGORY, SRClassification> hspClassif = ExtractAnnotation.prepareClassification(
+              classification, hsp.getFeatures());
+          for (int colId : _colIds) {
+            if (ClassificationCollector.isClassificationColumn(colId)) {
+              collector.handle(format(hspClassif, iteration, hit, hsp, colId), colId);
+            }
+          }
+        }
+      }
+    }
+    handler.startBlock(collector.getEntryIds());
+    _blockStarted = true;
+  }
+
+  /**
+   * End the block started by startBlock().
+   */
+  public void endBlock() {
+    if (_blockStarted) {
+      _blockStarted = false;
+      ((CSVBlockHandler) _handler).endBlock();
+    }
+  }
+
+  private boolean hasClassificationColumn() {
+    for (int colId : _colIds) {
+      if (ClassificationCollector.isClassificationColumn(colId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Append a single row, without ending new line.
+   *
+   * @param buf
+   *          where to append the row
+   * @param classification
+   *          biological classification of the whole results. Can be null.
+   * @param queryClassif
+   *          biological classification of the query as returned by
+   *          ExtractAnnotation.prepareClassification(). Can be null.
+   * @param iteration
+   *          the iteration containing hit
+   * @param hit
+   *          the hit containing hsp
+   * @param hsp
+   *          the HSP to format
+   */
+  public void appendRow(CSVRowBuilder buf, SRClassification classification,
+      Map<ANNOTATION_CATEGORY, SRClassification> queryClassif, SRIteration iteration, SRHit hit, SRHsp hsp) {
+    Map<ANNOTATION_CATEGORY, SRClassification> hspClassif = null;
+    Map<ANNOTATION_CATEGORY, SRClassification> classif;
+    boolean hspClassifReady = false;
+
+    buf.append('"').append(iteration.getIterationQueryID()).append('"').append(SEP);
+    for (int i = 0; i < _colIds.length; i++) {
+      int colId = _colIds[i];
+      if (isQueryClassificationColumn(colId)) {
+        classif = queryClassif;
+      } else {
+        if (!hspClassifReady) {
+          hspClassif = ExtractAnnotation.prepareClassification(classification, hsp.getFeatures());
+          hspClassifReady = true;
+        }
+        classif = hspClassif;
+      }
+      if (isHandled(colId)) {
+        buf.append(_handler.handle(format(classif, iteration, hit, hsp, colId), colId));
+      } else {
+        appendValue(buf, classif, iteration, hit, hsp, colId);
+      }
+      if (i + 1 < _colIds.length) {
+        buf.append(SEP);
+      }
+    }
+  }
+
+  /**
+   * Append the row of a query without hits, without ending new line.
+   */
+  public void appendNoHitRow(CSVRowBuilder buf, String queryId) {
+    appendFilledRow(buf, queryId, "-");
+  }
+
+  /**
+   * Append the single row reporting results without any hits, without ending
+   * new line.
+   */
+  public void appendEmptyResult(CSVRowBuilder buf, SRRequestInfo info) {
+    Object qId = info != null ? info.getValue(SRRequestInfo.QUERY_ID_DESCRIPTOR_KEY) : null;
+    appendFilledRow(buf, qId != null ? qId.toString() : "?", NOT_AVAILABLE);
+  }
+
+  private void appendFilledRow(CSVRowBuilder buf, String queryId, String value) {
+    buf.append('"').append(queryId).append('"').append(SEP);
+    for (int i = 0; i < _colIds.length; i++) {
+      buf.append('"').append(value).append('"');
+      if (i + 1 < _colIds.length) {
+        buf.append(SEP);
+      }
+    }
+  }
+
+  private boolean isQueryClassificationColumn(int colId) {
+    return colId >= TxtExportSROutput.QUERY_BIO_CLASSIF && colId <= TxtExportSROutput.QUERY_BIO_CLASSIF_PFM;
+  }
+
+  /**
+   * Figure out whether or not a column has to be given to the data handler.
+   * A CSVBlockHandler only handles biological classification columns.
+   */
+  private boolean isHandled(int colId) {
+    return _handler != null
+        && (!(_handler instanceof CSVBlockHandler) || ClassificationCollector.isClassificationColumn(colId));
+  }
+
+  private CSVRowBuilder appendNumber(CSVRowBuilder buf, NumberFormat formatter, long value) {
+    _num.setLength(0);
+    return buf.append(formatter.format(value, _num, _numPos));
+  }
+
+  private CSVRowBuilder appendNumber(CSVRowBuilder buf, NumberFormat formatter, double value) {
+    _num.setLength(0);
+    return buf.append(formatter.format(value, _num, _numPos));
+  }
+
+  private CSVRowBuilder appendPercent(CSVRowBuilder buf, double value) {
+    return appendNumber(buf, _pctFormatter, value).append('%');
+  }
+
+  private CSVRowBuilder appendQuoted(CSVRowBuilder buf, String value) {
+    return buf.append('"').append(value).append('"');
+  }
+
+  /**
+   * Format a single value as TxtExportSROutput.getFormattedData() does when
+   * used by CSVExportSROutput.
+   */
+  public String format(Map<ANNOTATION_CATEGORY, SRClassification> classif, SRIteration iteration, SRHit hit,
+      SRHsp hsp, int colId) {
+    return appendValue(_cell.reset(), classif, iteration, hit, hsp, colId).toString();
+  }
+
+  /**
+   * Append a single value formatted as format() does, without creating any
+   * intermediate String.
+   */
+  public CSVRowBuilder appendValue(CSVRowBuilder buf, Map<ANNOTATION_CATEGORY, SRClassification> classif,
+      SRIteration iteration, SRHit hit, SRHsp hsp, int colId) {
+    BankSequenceInfo sInfo;
+    String s;
+    double v;
+
+    switch (colId) {
+      case TxtExportSROutput.HIT_NUM:
+        return appendNumber(buf, _scoreFormatter, hit.getHitNum());
+      case TxtExportSROutput.ACCESS_DEF:
+        return buf.append('"').append(hit.getHitAccession()).append("  ").append(hit.getHitDef()).append('"');
+      case TxtExportSROutput.LENGTH:
+        return appendNumber(buf, _intFormatter, hit.getHitLen());
+      case TxtExportSROutput.NBHSPS:
+        return appendNumber(buf, _scoreFormatter, hit.countHsp());
+      case TxtExportSROutput.SCORE_BITS:
+        return appendNumber(buf, _scoreFormatter, hsp.getScores().getBitScore());
+      case TxtExportSROutput.EVALUE:
+      case TxtExportSROutput.SCORE:
+        v = colId == TxtExportSROutput.EVALUE ? hsp.getScores().getEvalue() : hsp.getScores().getScore();
+        return appendNumber(buf, v > 0 && v < 0.1 ? _evalueFormatter1 : _evalueFormatter2, v);
+      case TxtExportSROutput.Q_FROM:
+        return appendNumber(buf, _intFormatter, hsp.getQuery().getFrom());
+      case TxtExportSROutput.Q_TO:
+        return appendNumber(buf, _intFormatter, hsp.getQuery().getTo());
+      case TxtExportSROutput.Q_GAPS:
+        return appendNumber(buf, _intFormatter, hsp.getQuery().getGaps());
+      case TxtExportSROutput.Q_FRAME:
+        return appendNumber(buf, _scoreFormatter, hsp.getQuery().getFrame());
+      case TxtExportSROutput.Q_COVERAGE:
+        return appendPercent(buf, hsp.getQueryCoverage());
+      case TxtExportSROutput.H_FROM:
+        return appendNumber(buf, _intFormatter, hsp.getHit().getFrom());
+      case TxtExportSROutput.H_TO:
+        return appendNumber(buf, _intFormatter, hsp.getHit().getTo());
+      case TxtExportSROutput.H_GAP:
+        return appendNumber(buf, _intFormatter, hsp.getHit().getGaps());
+      case TxtExportSROutput.H_FRAME:
+        return appendNumber(buf, _scoreFormatter, hsp.getHit().getFrame());
+      case TxtExportSROutput.H_COVERAGE:
+        return appendPercent(buf, hsp.getHitCoverage());
+      case TxtExportSROutput.IDENTITY:
+        return appendPercent(buf, hsp.getScores().getIdentityP());
+      case TxtExportSROutput.POSITIVE:
+        return appendPercent(buf, hsp.getScores().getPositiveP());
+      case TxtExportSROutput.GAPS:
+        return appendPercent(buf, hsp.getScores().getGapsP());
+      case TxtExportSROutput.ALI_LEN:
+        return appendNumber(buf, _intFormatter, hsp.getScores().getAlignLen());
+      case TxtExportSROutput.ORGANISM:
+        sInfo = hit.getSequenceInfo();
+        return sInfo != null && sInfo.getOrganism() != null ? appendQuoted(buf, sInfo.getOrganism()) : buf.append('?');
+      case TxtExportSROutput.TAXONOMY:
+        sInfo = hit.getSequenceInfo();
+        return sInfo != null && sInfo.getTaxonomy() != null ? appendQuoted(buf, sInfo.getTaxonomy()) : buf.append('?');
+      case TxtExportSROutput.ACCESSION:
+        return appendQuoted(buf, hit.getHitAccession());
+      case TxtExportSROutput.DEFINITION:
+        return appendQuoted(buf, hit.getHitDef());
+      case TxtExportSROutput.MISMATCHES:
+        return appendNumber(buf, _intFormatter, hsp.getScores().getMismatches());
+      case TxtExportSROutput.T_GAPS:
+        return appendNumber(buf, _intFormatter, hsp.getScores().getGaps());
+      case TxtExportSROutput.BIO_CLASSIF:
+      case TxtExportSROutput.BIO_CLASSIF_TAX:
+      case TxtExportSROutput.BIO_CLASSIF_GO:
+      case TxtExportSROutput.BIO_CLASSIF_IPR:
+      case TxtExportSROutput.BIO_CLASSIF_EC:
+      case TxtExportSROutput.BIO_CLASSIF_PFM:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_GO:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_IPR:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_EC:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_PFM:
+        if (classif == null) {
+          return buf.append(NOT_AVAILABLE);
+        }
+        s = ExtractAnnotation.getFormattedFeatures(classif, getCategory(colId));
+        return appendQuoted(buf, s.length() != 0 ? s : "-");
+      default:
+        return buf.append('?');
+    }
+  }
+
+  private ANNOTATION_CATEGORY getCategory(int colId) {
+    switch (colId) {
+      case TxtExportSROutput.BIO_CLASSIF_TAX:
+        return ANNOTATION_CATEGORY.TAX;
+      case TxtExportSROutput.BIO_CLASSIF_GO:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_GO:
+        return ANNOTATION_CATEGORY.GO;
+      case TxtExportSROutput.BIO_CLASSIF_EC:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_EC:
+        return ANNOTATION_CATEGORY.EC;
+      case TxtExportSROutput.BIO_CLASSIF_IPR:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_IPR:
+        return ANNOTATION_CATEGORY.IPR;
+      case TxtExportSROutput.BIO_CLASSIF_PFM:
+      case TxtExportSROutput.QUERY_BIO_CLASSIF_PFM:
+        return ANNOTATION_CATEGORY.PFM;
+      default:
+        // all categories
+        return null;
+    }
+  }
+}
@@ -0,0 +1,377 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import bzh.plealog.bioinfo.api.data.feature.AnnotationDataModelConstants.ANNOTATION_CATEGORY;
+import bzh.plealog.bioinfo.api.data.searchresult.SRClassification;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.data.searchresult.SRRequestInfo;
+import bzh.plealog.bioinfo.data.searchresult.ISROutput;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+import bzh.plealog.bioinfo.io.searchresult.csv.ExtractAnnotation;
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+
+/**
+ * Export a NCBI BLAST legacy XML file as CSV without loading it entirely in
+ * memory. Iterations are read one at a time and formatted by a
+ * CSVRowFormatter, so that columns have exactly the same content as a regular
+ * export of the whole SROutput by CSVExportSROutput. The rows of an iteration
+ * are a block of rows for a data handler implementing CSVBlockHandler.<br>
+ * <br>
+ * CSVExportSROutput formats a query without hits in two ways: a row of '-'
+ * values when the result contains at least one hit, a single row of 'n/a'
+ * values otherwise. To reproduce this behavior, queries without hits located
+ * before the first query having hits are kept until that query is read. Only
+ * their header data are retained.
+ *
+ * @author Patrick G. Durand
+ */
+public class CSVStreamExporter {
+
+  private static final char SEP = ',';
+
+  private CSVRowFormatter     _formatter;
+  private CSVRowBuilder       _chunk = new CSVRowBuilder();
+  private int[]               _colIds;
+  private boolean             _bestHitOnly;
+  private boolean             _firstHspOnly;
+  private DefLineAnnotator    _annotator;
+
+  /**
+   * Constructor.
+   *
+   * @param colIds
+   *          columns to export. Values are TxtExportSROutput column constants.
+   * @param handler
+   *          data handler. Can be null.
+   * @param bestHitOnly
+   *          only export best hit of each query
+   * @param firstHspOnly
+   *          only export first HSP of each hit
+   */
+  public CSVStreamExporter(int[] colIds, CSVExportSROutputHandler handler, boolean bestHitOnly,
+      boolean firstHspOnly) {
+    _formatter = new CSVRowFormatter(colIds, handler, bestHitOnly, firstHspOnly);
+    _colIds = colIds;
+    _bestHitOnly = bestHitOnly;
+    _firstHspOnly = firstHspOnly;
+  }
+
+  /**
+   * Set an annotator used to extract biological classification from hit
+   * definition lines of each iteration before it is exported. Default is none.
+   */
+  public void setAnnotator(DefLineAnnotator annotator) {
+    _annotator = annotator;
+  }
+
+  /**
+   * Export results.
+   *
+   * @param reader
+   *          the NCBI XML reader
+   * @param w
+   *          where to write CSV data
+   *
+   * @return number of iterations exported
+   */
+  public long export(NcbiXmlIterationReader reader, Writer w) throws Exception {
+    SRRequestInfo info = reader.getRequestInfo();
+    List<SRIteration> pending = new ArrayList<>();
+    boolean started = false;
+    SRIteration iteration;
+
+    while ((iteration = reader.next()) != null) {
+      if (started) {
+        if (iteration.countHit() == 0) {
+          writeNoHitRow(w, iteration);
+        } else {
+          exportChunk(w, info, null, iteration, null, false);
+        }
+      } else if (iteration.countHit() == 0) {
+        pending.add(iteration);
+      } else {
+        exportChunk(w, info, null, iteration, pending, true);
+        pending = null;
+        started = true;
+      }
+    }
+    if (!started) {
+      // no hits at all: header and a single n/a row
+      exportChunk(w, info, null, null, pending, true);
+    }
+    w.flush();
+    return reader.getIterationsRead();
+  }
+
+  /**
+   * Export results of a NCBI XML file that is still being written. Rows of an
+   * iteration are written as soon as it is complete. Contrary to export(), the
+   * header is written first and queries without hits always have a row of '-'
+   * values, even if the file does not contain any hit.
+   *
+   * @param follower
+   *          the NCBI XML follower. It must be opened.
+   * @param w
+   *          where to write CSV data
+   *
+   * @return number of iterations exported, including the ones exported before
+   *         resuming
+   */
+  public long follow(NcbiXmlFollower follower, Writer w) throws Exception {
+    SRRequestInfo info = follower.getRequestInfo();
+    SRIteration iteration;
+
+    follower.setFlushable(w);
+    if (!follower.isResumed()) {
+      CSVRowBuilder buf = new CSVRowBuilder();
+      appendColumnHeader(buf, _colIds);
+      buf.append('\n').writeTo(w);
+    }
+    while ((iteration = follower.next()) != null) {
+      if (iteration.countHit() == 0) {
+        writeNoHitRow(w, iteration);
+      } else {
+        exportChunk(w, info, null, iteration, null, false);
+      }
+    }
+    follower.finish();
+    return follower.getIterationsDone();
+  }
+
+  /**
+   * Export results sorted on a key. Rows are sorted using a bounded amount of
+   * memory, whatever the number of rows. As with follow(), queries without hits
+   * always have a row of '-' values; these rows have no key.
+   *
+   * @param reader
+   *          the NCBI XML reader
+   * @param sorter
+   *          the sorter. It must be empty.
+   * @param w
+   *          where to write CSV data
+   *
+   * @return number of iterations exported
+   */
+  public long exportSorted(NcbiXmlIterationReader reader, ExternalRowSorter sorter, Writer w) throws Exception {
+    CSVRowBuilder buf = new CSVRowBuilder();
+    SRIteration iteration;
+
+    while ((iteration = reader.next()) != null) {
+      sort(reader.getRequestInfo(), null, iteration, sorter, buf);
+    }
+    writeSorted(sorter, w, buf);
+    return reader.getIterationsRead();
+  }
+
+  /**
+   * Export results sorted on a key. Same as
+   * exportSorted(NcbiXmlIterationReader, ExternalRowSorter, Writer) for
+   * results loaded in memory.
+   */
+  public long exportSorted(SROutput bo, ExternalRowSorter sorter, Writer w) throws Exception {
+    CSVRowBuilder buf = new CSVRowBuilder();
+
+    for (int i = 0; i < bo.countIteration(); i++) {
+      sort(bo.getRequestInfo(), bo.getClassification(), bo.getIteration(i), sorter, buf);
+    }
+    writeSorted(sorter, w, buf);
+    return bo.countIteration();
+  }
+
+  /**
+   * Create an indexed store. Its header describes the columns exported by this
+   * exporter.
+   */
+  public ResultStoreWriter createStore(File f) throws IOException {
+    CSVRowBuilder buf = new CSVRowBuilder();
+    appendColumnHeader(buf, _colIds);
+    return new ResultStoreWriter(f, buf.toString());
+  }
+
+  /**
+   * Export results in an indexed store: rows of each query are stored as a
+   * single record. Queries without hits are stored without rows.
+   *
+   * @param reader
+   *          the NCBI XML reader
+   * @param store
+   *          where to write CSV data
+   *
+   * @return number of iterations exported
+   */
+  public long exportIndexed(NcbiXmlIterationReader reader, ResultStoreWriter store) throws Exception {
+    CSVRowBuilder buf = new CSVRowBuilder();
+    SRIteration iteration;
+
+    while ((iteration = reader.next()) != null) {
+      index(reader.getRequestInfo(), null, iteration, store, buf);
+    }
+    return reader.getIterationsRead();
+  }
+
+  /**
+   * Export results in an indexed store. Same as
+   * exportIndexed(NcbiXmlIterationReader, ResultStoreWriter) for results
+   * loaded in memory.
+   */
+  public long exportIndexed(SROutput bo, ResultStoreWriter store) throws Exception {
+    CSVRowBuilder buf = new CSVRowBuilder();
+
+    for (int i = 0; i < bo.countIteration(); i++) {
+      index(bo.getRequestInfo(), bo.getClassification(), bo.getIteration(i), store, buf);
+    }
+    return bo.countIteration();
+  }
+
+  private void index(SRRequestInfo info, SRClassification classification, SRIteration iteration,
+      ResultStoreWriter store, CSVRowBuilder buf) throws Exception {
+    buf.reset();
+    if (iteration.countHit() != 0) {
+      exportChunk(buf, info, classification, iteration, null, false);
+    }
+    store.add(iteration.getIterationQueryID(), buf);
+  }
+
+  /**
+   * Format the rows of an iteration one at a time and give each of them to a
+   * sorter, along with the key of its HSP.
+   */
+  private void sort(SRRequestInfo info, SRClassification classification, SRIteration iteration,
+      ExternalRowSorter sorter, CSVRowBuilder buf) throws IOException {
+    Map<ANNOTATION_CATEGORY, SRClassification> queryClassif;
+    int nHits, nHsps;
+
+    prepare(info, iteration);
+    if (iteration.countHit() == 0) {
+      _formatter.appendNoHitRow(buf.reset(), iteration.getIterationQueryID());
+      addRow(sorter, null, null, buf.toString());
+      return;
+    }
+    queryClassif = ExtractAnnotation.prepareClassification(classification, iteration.getIterationQueryFeatureTable());
+    nHits = _bestHitOnly ? 1 : iteration.countHit();
+    _formatter.startBlock(classification, Collections.singletonList(iteration));
+    try {
+      for (int i = 0; i < nHits; i++) {
+        SRHit hit = iteration.getHit(i);
+        nHsps = _firstHspOnly ? Math.min(1, hit.countHsp()) : hit.countHsp();
+        for (int j = 0; j < nHsps; j++) {
+          SRHsp hsp = hit.getHsp(j);
+          _formatter.appendRow(buf.reset(), classification, queryClassif, iteration, hit, hsp);
+          addRow(sorter, hit, hsp, buf.toString());
+        }
+      }
+    } finally {
+      _formatter.endBlock();
+    }
+  }
+
+  private static void addRow(ExternalRowSorter sorter, SRHit hit, SRHsp hsp, String line) throws IOException {
+    switch (sorter.getKey()) {
+    case EVALUE:
+      sorter.add(hsp != null ? hsp.getScores().getEvalue() : Double.NaN, line);
+      break;
+    case BITSCORE:
+      sorter.add(hsp != null ? hsp.getScores().getBitScore() : Double.NaN, line);
+      break;
+    default:
+      sorter.add(hit != null ? hit.getHitAccession() : null, line);
+    }
+  }
+
+  private void writeSorted(ExternalRowSorter sorter, Writer w, CSVRowBuilder buf) throws IOException {
+    appendColumnHeader(buf.reset(), _colIds);
+    buf.append('\n').writeTo(w);
+    sorter.writeTo(w);
+    w.flush();
+  }
+
+  /**
+   * Append the header row of CSVExportSROutput, without line separator.
+   */
+  static void appendColumnHeader(CSVRowBuilder buf, int[] colIds) {
+    buf.append("\"Query Id\"");
+    for (int colId : colIds) {
+      buf.append(SEP).append('"').append(TxtExportSROutput.DATA_COL_HEADERS[colId].replace('_', ' ')).append('"');
+    }
+  }
+
+  /**
+   * Annotate an iteration and compute its coverages, as a regular export of a
+   * loaded SROutput would.
+   */
+  private void prepare(SRRequestInfo info, SRIteration iteration) {
+    ISROutput bo = new ISROutput();
+
+    if (_annotator != null) {
+      _annotator.annotate(iteration);
+    }
+    bo.setRequestInfo(info);
+    bo.addIteration(iteration);
+    bo.initialize();
+  }
+
+  /**
+   * Format an iteration having hits, preceded by queries without hits and by
+   * the header if requested. Without iteration, the result does not contain
+   * any hit: a single n/a row is formatted.
+   */
+  private void exportChunk(Writer w, SRRequestInfo info, SRClassification classification, SRIteration iteration,
+      List<SRIteration> pending, boolean header) throws IOException {
+    CSVRowBuilder buf = _chunk.reset();
+
+    if (header) {
+      appendColumnHeader(buf, _colIds);
+      buf.append('\n');
+    }
+    if (iteration == null) {
+      _formatter.appendEmptyResult(buf, info);
+      buf.append('\n').writeTo(w);
+      return;
+    }
+    if (pending != null) {
+      for (SRIteration iter : pending) {
+        _formatter.appendNoHitRow(buf, iter.getIterationQueryID());
+        buf.append('\n');
+      }
+    }
+    prepare(info, iteration);
+    _formatter.startBlock(classification, Collections.singletonList(iteration));
+    try {
+      _formatter.appendIteration(buf, classification, iteration);
+    } finally {
+      _formatter.endBlock();
+    }
+    buf.writeTo(w);
+  }
+
+  private void writeNoHitRow(Writer w, SRIteration iteration) throws IOException {
+    _formatter.appendNoHitRow(_chunk.reset(), iteration.getIterationQueryID());
+    _chunk.append('\n').writeTo(w);
+  }
+}
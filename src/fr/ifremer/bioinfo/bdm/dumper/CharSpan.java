@@ -0,0 +1,89 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+/**
+ * A part of a string usable as a hash key. A span can be reset to probe a
+ * map with a part of a CSV cell without copying it into a new String; spans
+ * stored in a map must not be reset afterwards.
+ *
+ * @author Patrick G. Durand
+ */
+public class CharSpan {
+
+  private String _s;
+  private int    _from;
+  private int    _to;
+  private int    _hash;
+
+  /**
+   * Constructor of an empty span.
+   */
+  public CharSpan() {
+    set("", 0, 0);
+  }
+
+  /**
+   * Constructor of a span covering a whole string.
+   */
+  public CharSpan(String s) {
+    set(s, 0, s.length());
+  }
+
+  /**
+   * Make this span cover characters [from, to) of a string.
+   */
+  public CharSpan set(String s, int from, int to) {
+    int h = 0;
+    for (int i = from; i < to; i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    _s = s;
+    _from = from;
+    _to = to;
+    _hash = h;
+    return this;
+  }
+
+  /**
+   * Release the string covered by this span.
+   */
+  public void clear() {
+    set("", 0, 0);
+  }
+
+  @Override
+  public int hashCode() {
+    return _hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof CharSpan)) {
+      return false;
+    }
+    CharSpan span = (CharSpan) obj;
+    int len = _to - _from;
+    return _hash == span._hash && len == span._to - span._from
+        && _s.regionMatches(_from, span._s, span._from, len);
+  }
+
+  @Override
+  public String toString() {
+    return _s.substring(_from, _to);
+  }
+}
@@ -0,0 +1,66 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+
+/**
+ * A CSV export handler collecting the distinct identifiers contained in
+ * biological classification columns (e.g. TAX:xxx, GO:xxx, EC:xxx, IPRxxx).
+ * It does not modify data: it is intended to be used during a first export
+ * pass written to a null Writer.
+ *
+ * @author Patrick G. Durand
+ */
+public class ClassificationCollector implements CSVExportSROutputHandler {
+
+  private Set<String> _entryIds = new HashSet<>();
+
+  /**
+   * Figure out whether or not a column contains biological classification
+   * data.
+   */
+  public static boolean isClassificationColumn(int colType) {
+    return colType == TxtExportSROutput.BIO_CLASSIF || colType == TxtExportSROutput.BIO_CLASSIF_TAX
+        || colType == TxtExportSROutput.BIO_CLASSIF_GO || colType == TxtExportSROutput.BIO_CLASSIF_IPR
+        || colType == TxtExportSROutput.BIO_CLASSIF_EC;
+  }
+
+  @Override
+  public String handle(String s, int colType) {
+    if (isClassificationColumn(colType) && s.length() > 1) {
+      // remove enclosing quotes
+      StringTokenizer tokenizer = new StringTokenizer(s.substring(1, s.length() - 1), ";");
+      while (tokenizer.hasMoreTokens()) {
+        _entryIds.add(tokenizer.nextToken());
+      }
+    }
+    return s;
+  }
+
+  /**
+   * Return the distinct identifiers collected so far.
+   */
+  public Set<String> getEntryIds() {
+    return _entryIds;
+  }
+}
@@ -0,0 +1,136 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+
+/**
+ * The set of NCBI XML hit and HSP elements needed to export some columns.
+ * NcbiXmlIterationReader skips the other elements without reading their
+ * text.<br>
+ * <br>
+ * Only elements listed in OPTIONAL_ELEMENTS can be skipped: hit and HSP
+ * numbers, hit length and HSP coordinates are always read since they are used
+ * to compute coverage values of HSPs.
+ *
+ * @author Patrick G. Durand
+ */
+public class ColumnProjection {
+
+  /** elements that are not read unless a column needs them */
+  public static final Set<String> OPTIONAL_ELEMENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      "Hit_id", "Hit_def", "Hit_accession", "Hsp_bit-score", "Hsp_score", "Hsp_evalue", "Hsp_identity",
+      "Hsp_positive", "Hsp_gaps", "Hsp_align-len", "Hsp_density", "Hsp_qseq", "Hsp_hseq", "Hsp_midline")));
+
+  private HashSet<String> _elements = new HashSet<>();
+
+  /**
+   * Constructor.
+   *
+   * @param colIds
+   *          columns to export. Values are TxtExportSROutput column constants.
+   */
+  public ColumnProjection(int[] colIds) {
+    for (int colId : colIds) {
+      addColumn(colId);
+    }
+  }
+
+  private void addColumn(int colId) {
+    switch (colId) {
+    case TxtExportSROutput.ACCESSION:
+      addElements("Hit_id", "Hit_accession");
+      break;
+    case TxtExportSROutput.DEFINITION:
+      addElements("Hit_id", "Hit_def");
+      break;
+    case TxtExportSROutput.SCORE:
+      addElements("Hsp_score");
+      break;
+    case TxtExportSROutput.SCORE_BITS:
+      addElements("Hsp_bit-score");
+      break;
+    case TxtExportSROutput.EVALUE:
+      addElements("Hsp_evalue");
+      break;
+    case TxtExportSROutput.IDENTITY:
+      addElements("Hsp_identity", "Hsp_align-len");
+      break;
+    case TxtExportSROutput.POSITIVE:
+      addElements("Hsp_positive", "Hsp_align-len");
+      break;
+    case TxtExportSROutput.GAPS:
+      addElements("Hsp_gaps", "Hsp_align-len");
+      break;
+    case TxtExportSROutput.ALI_LEN:
+      addElements("Hsp_align-len");
+      break;
+    case TxtExportSROutput.Q_GAPS:
+      addElements("Hsp_qseq", "Hsp_midline");
+      break;
+    case TxtExportSROutput.H_GAP:
+      addElements("Hsp_hseq", "Hsp_midline");
+      break;
+    case TxtExportSROutput.BIO_CLASSIF:
+    case TxtExportSROutput.BIO_CLASSIF_TAX:
+    case TxtExportSROutput.BIO_CLASSIF_GO:
+    case TxtExportSROutput.BIO_CLASSIF_IPR:
+    case TxtExportSROutput.BIO_CLASSIF_EC:
+    case TxtExportSROutput.ORGANISM:
+      // extracted from hit definition lines
+      addElements("Hit_id", "Hit_def");
+      break;
+    default:
+      // other columns only rely on elements that are always read
+    }
+  }
+
+  /**
+   * Add elements needed to apply the thresholds of a filter.
+   */
+  public void addFilter(HitFilter filter) {
+    if (filter.hasThresholds()) {
+      addElements("Hsp_evalue", "Hsp_bit-score", "Hsp_identity", "Hsp_align-len");
+    }
+  }
+
+  /**
+   * Add elements needed for another purpose than exporting columns.
+   */
+  public void addElements(String... elements) {
+    Collections.addAll(_elements, elements);
+  }
+
+  /**
+   * Figure out whether or not an element has to be read.
+   */
+  public boolean isNeeded(String element) {
+    return _elements.contains(element) || !OPTIONAL_ELEMENTS.contains(element);
+  }
+
+  /**
+   * Figure out whether or not all elements have to be read.
+   */
+  public boolean isComplete() {
+    return _elements.containsAll(OPTIONAL_ELEMENTS);
+  }
+}
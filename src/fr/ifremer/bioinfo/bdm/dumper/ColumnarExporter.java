@@ -0,0 +1,377 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import bzh.plealog.bioinfo.api.data.feature.AnnotationDataModelConstants;
+import bzh.plealog.bioinfo.api.data.searchresult.SRClassification;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.data.searchresult.ISROutput;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+import bzh.plealog.bioinfo.io.searchresult.csv.ExtractAnnotation;
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+
+/**
+ * Export search results as typed columns using a ColumnarWriter. Each HSP is a
+ * row, as in CSV files created by CSVExportSROutput. The first column contains
+ * query IDs; other columns are the requested ones:
+ * <ul>
+ * <li>coordinates, frames, lengths and numbers of HSPs are INT32 values,</li>
+ * <li>scores, evalues, percentages of identity, positives and gaps and
+ * coverages are FLOAT64 values; percentages range from 0 to 100,</li>
+ * <li>other columns (accessions, definitions, biological classification, ...)
+ * are STRING values, formatted as in CSV files.</li>
+ * </ul>
+ * Queries without hits are not exported: use CmdLineDumper -nohits to list
+ * them.
+ *
+ * @author Patrick G. Durand
+ */
+public class ColumnarExporter {
+
+  /** name of the query ID column */
+  public static final String QUERY_ID = "query_id";
+
+  private int[]                    _colIds;
+  private CSVExportSROutputHandler _handler;
+  private boolean                  _bestHitOnly;
+  private boolean                  _firstHspOnly;
+  private int                      _rowGroupSize = ColumnarWriter.DEFAULT_ROW_GROUP_SIZE;
+  private DefLineAnnotator         _annotator;
+  // only used to start a block of rows per iteration
+  private CSVRowFormatter          _blocks;
+
+  /**
+   * Constructor.
+   *
+   * @param colIds
+   *          columns to export. Values are TxtExportSROutput column constants.
+   * @param handler
+   *          data handler applied on STRING values. Can be null.
+   * @param bestHitOnly
+   *          only export best hit of each query
+   * @param firstHspOnly
+   *          only export first HSP of each hit
+   */
+  public ColumnarExporter(int[] colIds, CSVExportSROutputHandler handler, boolean bestHitOnly,
+      boolean firstHspOnly) {
+    _colIds = colIds;
+    _handler = handler;
+    _bestHitOnly = bestHitOnly;
+    _firstHspOnly = firstHspOnly;
+    _blocks = new CSVRowFormatter(colIds, handler, bestHitOnly, firstHspOnly);
+  }
+
+  /**
+   * Set the number of rows of a row group. Default is
+   * ColumnarWriter.DEFAULT_ROW_GROUP_SIZE.
+   */
+  public void setRowGroupSize(int rowGroupSize) {
+    _rowGroupSize = rowGroupSize;
+  }
+
+  /**
+   * Set an annotator used to extract biological classification from hit
+   * definition lines of each iteration before it is exported. Default is none.
+   */
+  public void setAnnotator(DefLineAnnotator annotator) {
+    _annotator = annotator;
+  }
+
+  /**
+   * Create a writer. Its header describes the columns exported by this
+   * exporter.
+   */
+  public ColumnarWriter createWriter(OutputStream os) throws IOException {
+    String[] names = new String[_colIds.length + 1];
+    byte[] types = new byte[_colIds.length + 1];
+
+    names[0] = QUERY_ID;
+    types[0] = ColumnarWriter.STRING;
+    for (int i = 0; i < _colIds.length; i++) {
+      names[i + 1] = getColumnName(_colIds[i]);
+      types[i + 1] = getColumnType(_colIds[i]);
+    }
+    return new ColumnarWriter(os, names, types, _rowGroupSize);
+  }
+
+  /**
+   * Export results.
+   *
+   * @return number of rows exported
+   */
+  public long export(SROutput bo, ColumnarWriter w) throws IOException {
+    long rows = 0;
+    for (int i = 0; i < bo.countIteration(); i++) {
+      rows += export(bo.getIteration(i), bo.getClassification(), w);
+    }
+    return rows;
+  }
+
+  /**
+   * Export results iteration by iteration.
+   *
+   * @param reader
+   *          the NCBI XML reader
+   * @param w
+   *          where to write data
+   *
+   * @return number of iterations exported
+   */
+  public long export(NcbiXmlIterationReader reader, ColumnarWriter w) throws IOException {
+    SRIteration iteration;
+
+    while ((iteration = reader.next()) != null) {
+      if (iteration.countHit() == 0) {
+        continue;
+      }
+      ISROutput bo = new ISROutput();
+      bo.setRequestInfo(reader.getRequestInfo());
+      bo.addIteration(iteration);
+      bo.initialize();
+      export(iteration, bo.getClassification(), w);
+    }
+    return reader.getIterationsRead();
+  }
+
+  /**
+   * Export an iteration. It is annotated first when an annotator is set. Its
+   * rows are a block of rows for a data handler implementing CSVBlockHandler.
+   *
+   * @param classification
+   *          biological classification of results. Can be null.
+   *
+   * @return number of rows exported
+   */
+  public long export(SRIteration iteration, SRClassification classification, ColumnarWriter w) throws IOException {
+    long rows = 0;
+    int nHits = _bestHitOnly ? Math.min(1, iteration.countHit()) : iteration.countHit();
+
+    if (_annotator != null) {
+      _annotator.annotate(iteration);
+    }
+
+    _blocks.startBlock(classification, Collections.singletonList(iteration));
+    try {
+      for (int i = 0; i < nHits; i++) {
+        SRHit hit = iteration.getHit(i);
+        int nHsps = _firstHspOnly ? Math.min(1, hit.countHsp()) : hit.countHsp();
+        for (int j = 0; j < nHsps; j++) {
+          SRHsp hsp = hit.getHsp(j);
+          Map<AnnotationDataModelConstants.ANNOTATION_CATEGORY, SRClassification> classif = null;
+          w.setString(0, iteration.getIterationQueryID());
+          for (int k = 0; k < _colIds.length; k++) {
+            switch (getColumnType(_colIds[k])) {
+            case ColumnarWriter.INT32:
+              w.setInt(k + 1, getInt(hit, hsp, _colIds[k]));
+              break;
+            case ColumnarWriter.FLOAT64:
+              w.setDouble(k + 1, getDouble(hsp, _colIds[k]));
+              break;
+            default:
+              if (classif == null) {
+                classif = ExtractAnnotation.prepareClassification(classification, hsp.getFeatures());
+              }
+              w.setString(k + 1, getString(classif, iteration, hit, hsp, _colIds[k]));
+            }
+          }
+          w.endRow();
+          rows++;
+        }
+      }
+    } finally {
+      _blocks.endBlock();
+    }
+    return rows;
+  }
+
+  private String getString(Map<AnnotationDataModelConstants.ANNOTATION_CATEGORY, SRClassification> classif,
+      SRIteration iteration, SRHit hit, SRHsp hsp, int colId) {
+    String s = TxtExportSROutput.getFormattedData(classif, iteration, hit, hsp, colId, true, false);
+    if (_handler != null) {
+      s = _handler.handle(s, colId);
+    }
+    // remove enclosing quotes added for CSV
+    if (s.length() > 1 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+      s = s.substring(1, s.length() - 1);
+    }
+    return s;
+  }
+
+  private static int getInt(SRHit hit, SRHsp hsp, int colId) {
+    switch (colId) {
+    case TxtExportSROutput.LENGTH:
+      return hit.getHitLen();
+    case TxtExportSROutput.NBHSPS:
+      return hit.countHsp();
+    case TxtExportSROutput.ALI_LEN:
+      return hsp.getScores().getAlignLen();
+    case TxtExportSROutput.MISMATCHES:
+      return hsp.getScores().getMismatches();
+    case TxtExportSROutput.Q_FROM:
+      return hsp.getQuery().getFrom();
+    case TxtExportSROutput.Q_TO:
+      return hsp.getQuery().getTo();
+    case TxtExportSROutput.Q_GAPS:
+      return hsp.getQuery().getGaps();
+    case TxtExportSROutput.Q_FRAME:
+      return hsp.getQuery().getFrame();
+    case TxtExportSROutput.H_FROM:
+      return hsp.getHit().getFrom();
+    case TxtExportSROutput.H_TO:
+      return hsp.getHit().getTo();
+    case TxtExportSROutput.H_GAP:
+      return hsp.getHit().getGaps();
+    default:
+      return hsp.getHit().getFrame();
+    }
+  }
+
+  private static double getDouble(SRHsp hsp, int colId) {
+    switch (colId) {
+    case TxtExportSROutput.SCORE:
+      return hsp.getScores().getScore();
+    case TxtExportSROutput.SCORE_BITS:
+      return hsp.getScores().getBitScore();
+    case TxtExportSROutput.EVALUE:
+      return hsp.getScores().getEvalue();
+    case TxtExportSROutput.IDENTITY:
+      return hsp.getScores().getIdentityP();
+    case TxtExportSROutput.POSITIVE:
+      return hsp.getScores().getPositiveP();
+    case TxtExportSROutput.GAPS:
+      return hsp.getScores().getGapsP();
+    case TxtExportSROutput.Q_COVERAGE:
+      return hsp.getQueryCoverage();
+    default:
+      return hsp.getHitCoverage();
+    }
+  }
+
+  /**
+   * Return the type of a column.
+   *
+   * @param colId
+   *          a TxtExportSROutput column constant
+   *
+   * @return ColumnarWriter.INT32, FLOAT64 or STRING
+   */
+  public static byte getColumnType(int colId) {
+    switch (colId) {
+    case TxtExportSROutput.LENGTH:
+    case TxtExportSROutput.NBHSPS:
+    case TxtExportSROutput.ALI_LEN:
+    case TxtExportSROutput.MISMATCHES:
+    case TxtExportSROutput.Q_FROM:
+    case TxtExportSROutput.Q_TO:
+    case TxtExportSROutput.Q_GAPS:
+    case TxtExportSROutput.Q_FRAME:
+    case TxtExportSROutput.H_FROM:
+    case TxtExportSROutput.H_TO:
+    case TxtExportSROutput.H_GAP:
+    case TxtExportSROutput.H_FRAME:
+      return ColumnarWriter.INT32;
+    case TxtExportSROutput.SCORE:
+    case TxtExportSROutput.SCORE_BITS:
+    case TxtExportSROutput.EVALUE:
+    case TxtExportSROutput.IDENTITY:
+    case TxtExportSROutput.POSITIVE:
+    case TxtExportSROutput.GAPS:
+    case TxtExportSROutput.Q_COVERAGE:
+    case TxtExportSROutput.H_COVERAGE:
+      return ColumnarWriter.FLOAT64;
+    default:
+      return ColumnarWriter.STRING;
+    }
+  }
+
+  /**
+   * Return the name of a column.
+   *
+   * @param colId
+   *          a TxtExportSROutput column constant
+   */
+  public static String getColumnName(int colId) {
+    switch (colId) {
+    case TxtExportSROutput.ACCESSION:
+      return "accession";
+    case TxtExportSROutput.DEFINITION:
+      return "definition";
+    case TxtExportSROutput.LENGTH:
+      return "hit_length";
+    case TxtExportSROutput.NBHSPS:
+      return "nb_hsps";
+    case TxtExportSROutput.SCORE:
+      return "score";
+    case TxtExportSROutput.SCORE_BITS:
+      return "bit_score";
+    case TxtExportSROutput.EVALUE:
+      return "evalue";
+    case TxtExportSROutput.IDENTITY:
+      return "identity";
+    case TxtExportSROutput.POSITIVE:
+      return "positive";
+    case TxtExportSROutput.GAPS:
+      return "gaps";
+    case TxtExportSROutput.ALI_LEN:
+      return "align_length";
+    case TxtExportSROutput.MISMATCHES:
+      return "mismatches";
+    case TxtExportSROutput.Q_FROM:
+      return "query_from";
+    case TxtExportSROutput.Q_TO:
+      return "query_to";
+    case TxtExportSROutput.Q_GAPS:
+      return "query_gaps";
+    case TxtExportSROutput.Q_FRAME:
+      return "query_frame";
+    case TxtExportSROutput.Q_COVERAGE:
+      return "query_coverage";
+    case TxtExportSROutput.H_FROM:
+      return "hit_from";
+    case TxtExportSROutput.H_TO:
+      return "hit_to";
+    case TxtExportSROutput.H_GAP:
+      return "hit_gaps";
+    case TxtExportSROutput.H_FRAME:
+      return "hit_frame";
+    case TxtExportSROutput.H_COVERAGE:
+      return "hit_coverage";
+    case TxtExportSROutput.BIO_CLASSIF:
+      return "classification";
+    case TxtExportSROutput.BIO_CLASSIF_TAX:
+      return "taxonomy_classification";
+    case TxtExportSROutput.BIO_CLASSIF_GO:
+      return "go_classification";
+    case TxtExportSROutput.BIO_CLASSIF_IPR:
+      return "interpro_classification";
+    case TxtExportSROutput.BIO_CLASSIF_EC:
+      return "enzyme_classification";
+    case TxtExportSROutput.ORGANISM:
+      return "organism";
+    default:
+      return "column_" + colId;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read columns of a file created by ColumnarWriter. Each read only
+ * decompresses the chunks of the requested column; chunks of other columns are
+ * skipped.
+ *
+ * @author Patrick G. Durand
+ */
+public class ColumnarReader {
+
+  private File     _file;
+  private String[] _names;
+  private byte[]   _types;
+
+  /**
+   * Constructor. The file header is read immediately.
+   */
+  public ColumnarReader(File f) throws IOException {
+    _file = f;
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)))) {
+      readHeader(dis);
+    }
+  }
+
+  /**
+   * Return column names.
+   */
+  public String[] getColumnNames() {
+    return _names.clone();
+  }
+
+  /**
+   * Return the type of a column: ColumnarWriter.INT32, FLOAT64 or STRING.
+   *
+   * @return a type or -1 if column does not exist
+   */
+  public int getColumnType(String name) {
+    int col = Arrays.asList(_names).indexOf(name);
+    return col == -1 ? -1 : _types[col];
+  }
+
+  /**
+   * Read an INT32 column.
+   */
+  public int[] readInts(String name) throws IOException {
+    int col = getColumn(name, ColumnarWriter.INT32);
+    int[] values = new int[16];
+    int n = 0;
+
+    try (DataInputStream dis = open()) {
+      int rows;
+      while ((rows = dis.readInt()) != 0) {
+        DataInputStream chunk = readChunk(dis, col);
+        if (values.length < n + rows) {
+          values = Arrays.copyOf(values, Math.max(2 * values.length, n + rows));
+        }
+        for (int i = 0; i < rows; i++) {
+          values[n++] = chunk.readInt();
+        }
+      }
+    }
+    return Arrays.copyOf(values, n);
+  }
+
+  /**
+   * Read a FLOAT64 column.
+   */
+  public double[] readDoubles(String name) throws IOException {
+    int col = getColumn(name, ColumnarWriter.FLOAT64);
+    double[] values = new double[16];
+    int n = 0;
+
+    try (DataInputStream dis = open()) {
+      int rows;
+      while ((rows = dis.readInt()) != 0) {
+        DataInputStream chunk = readChunk(dis, col);
+        if (values.length < n + rows) {
+          values = Arrays.copyOf(values, Math.max(2 * values.length, n + rows));
+        }
+        for (int i = 0; i < rows; i++) {
+          values[n++] = chunk.readDouble();
+        }
+      }
+    }
+    return Arrays.copyOf(values, n);
+  }
+
+  /**
+   * Read a STRING column. Rows without value are null.
+   */
+  public String[] readStrings(String name) throws IOException {
+    int col = getColumn(name, ColumnarWriter.STRING);
+    String[] values = new String[16];
+    int n = 0;
+
+    try (DataInputStream dis = open()) {
+      int rows;
+      while ((rows = dis.readInt()) != 0) {
+        DataInputStream chunk = readChunk(dis, col);
+        String[] dico = new String[chunk.readInt()];
+        for (int i = 0; i < dico.length; i++) {
+          dico[i] = readString(chunk);
+        }
+        if (values.length < n + rows) {
+          values = Arrays.copyOf(values, Math.max(2 * values.length, n + rows));
+        }
+        for (int i = 0; i < rows; i++) {
+          int idx = chunk.readInt();
+          values[n++] = idx == -1 ? null : dico[idx];
+        }
+      }
+    }
+    return Arrays.copyOf(values, n);
+  }
+
+  /**
+   * Return the number of rows.
+   */
+  public long getRowCount() throws IOException {
+    try (DataInputStream dis = open()) {
+      while (dis.readInt() != 0) {
+        for (int col = 0; col < _names.length; col++) {
+          skipChunk(dis);
+        }
+      }
+      return dis.readLong();
+    }
+  }
+
+  private int getColumn(String name, byte type) throws IOException {
+    int col = Arrays.asList(_names).indexOf(name);
+    if (col == -1 || _types[col] != type) {
+      throw new IOException("no such column: " + name);
+    }
+    return col;
+  }
+
+  /**
+   * Open the file and read its header.
+   */
+  private DataInputStream open() throws IOException {
+    DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+    try {
+      readHeader(dis);
+      return dis;
+    } catch (IOException e) {
+      dis.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Read the file header: column names and types.
+   */
+  private void readHeader(DataInputStream dis) throws IOException {
+    byte[] magic = new byte[ColumnarWriter.MAGIC.length];
+    dis.readFully(magic);
+    if (!Arrays.equals(magic, ColumnarWriter.MAGIC) || dis.readByte() != ColumnarWriter.VERSION) {
+      throw new IOException("not a columnar file: " + _file.getAbsolutePath());
+    }
+    String[] names = new String[dis.readInt()];
+    byte[] types = new byte[names.length];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = readString(dis);
+      types[i] = dis.readByte();
+    }
+    _names = names;
+    _types = types;
+  }
+
+  /**
+   * Read the chunk of a column within the current row group. Chunks of other
+   * columns are skipped.
+   */
+  private DataInputStream readChunk(DataInputStream dis, int col) throws IOException {
+    DataInputStream chunk = null;
+    for (int i = 0; i < _names.length; i++) {
+      if (i != col) {
+        skipChunk(dis);
+        continue;
+      }
+      byte[] packed = new byte[dis.readInt()];
+      dis.readInt();
+      dis.readFully(packed);
+      chunk = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(packed)));
+    }
+    return chunk;
+  }
+
+  private static void skipChunk(DataInputStream dis) throws IOException {
+    int size = dis.readInt();
+    dis.readInt();
+    while (size > 0) {
+      int skipped = dis.skipBytes(size);
+      if (skipped <= 0) {
+        throw new IOException("truncated file");
+      }
+      size -= skipped;
+    }
+  }
+
+  private static String readString(DataInputStream dis) throws IOException {
+    byte[] bytes = new byte[dis.readInt()];
+    dis.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
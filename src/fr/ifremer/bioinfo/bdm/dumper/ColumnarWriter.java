@@ -0,0 +1,245 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Write typed data columns in a compact binary file. Rows are buffered and
+ * written by groups, each column of a group being compressed on its own, so
+ * that a reader only has to decompress the columns it needs (see
+ * ColumnarReader).<br>
+ * <br>
+ * File layout (numbers are big-endian, as written by DataOutputStream):
+ *
+ * <pre>
+ * header    : magic "BDMCOL" (6 bytes), version (byte, 1), number of columns (int),
+ *             then for each column: name (string), type (byte)
+ * row group : number of rows (int, &gt; 0), then for each column:
+ *             compressed size (int), uncompressed size (int), data compressed using Deflate
+ * end       : 0 (int), total number of rows (long)
+ *
+ * column data, by type:
+ *   INT32   : one int per row
+ *   FLOAT64 : one double per row
+ *   STRING  : dictionary size (int), dictionary entries (string), then one int per
+ *             row: index of the value in the dictionary, -1 if no value
+ * string    : length in bytes (int), UTF-8 bytes
+ * </pre>
+ *
+ * Dictionaries are local to a row group.
+ *
+ * @author Patrick G. Durand
+ */
+public class ColumnarWriter implements Closeable {
+
+  /** file magic */
+  public static final byte[] MAGIC                  = "BDMCOL".getBytes(StandardCharsets.US_ASCII);
+  /** format version */
+  public static final byte   VERSION                = 1;
+  /** column of 32-bit integers */
+  public static final byte   INT32                  = 1;
+  /** column of 64-bit floating point values */
+  public static final byte   FLOAT64                = 2;
+  /** column of dictionary-encoded strings */
+  public static final byte   STRING                 = 3;
+  /** default number of rows of a row group */
+  public static final int    DEFAULT_ROW_GROUP_SIZE = 65536;
+
+  private DataOutputStream _out;
+  private byte[]           _types;
+  private Object[]         _values;
+  private List<HashMap<String, Integer>> _dicos = new ArrayList<>();
+  private List<List<String>> _entries = new ArrayList<>();
+  private int              _rowGroupSize;
+  private int              _rows;
+  private long             _totalRows;
+
+  /**
+   * Constructor. The file header is written immediately.
+   *
+   * @param os
+   *          where to write data. It is closed by the close() method.
+   * @param names
+   *          column names
+   * @param types
+   *          column types: INT32, FLOAT64 or STRING
+   * @param rowGroupSize
+   *          number of rows of a row group
+   */
+  public ColumnarWriter(OutputStream os, String[] names, byte[] types, int rowGroupSize) throws IOException {
+    _out = new DataOutputStream(os);
+    _types = types.clone();
+    _rowGroupSize = Math.max(1, rowGroupSize);
+    _values = new Object[types.length];
+    for (int i = 0; i < types.length; i++) {
+      switch (types[i]) {
+      case INT32:
+        _values[i] = new int[_rowGroupSize];
+        break;
+      case FLOAT64:
+        _values[i] = new double[_rowGroupSize];
+        break;
+      case STRING:
+        _values[i] = new int[_rowGroupSize];
+        break;
+      default:
+        throw new IllegalArgumentException("unknown column type: " + types[i]);
+      }
+      _dicos.add(types[i] == STRING ? new HashMap<>() : null);
+      _entries.add(types[i] == STRING ? new ArrayList<>() : null);
+    }
+    _out.write(MAGIC);
+    _out.writeByte(VERSION);
+    _out.writeInt(names.length);
+    for (int i = 0; i < names.length; i++) {
+      writeString(_out, names[i]);
+      _out.writeByte(_types[i]);
+    }
+  }
+
+  /**
+   * Set the value of an INT32 column for the current row.
+   */
+  public void setInt(int col, int value) {
+    ((int[]) _values[col])[_rows] = value;
+  }
+
+  /**
+   * Set the value of a FLOAT64 column for the current row.
+   */
+  public void setDouble(int col, double value) {
+    ((double[]) _values[col])[_rows] = value;
+  }
+
+  /**
+   * Set the value of a STRING column for the current row.
+   *
+   * @param value
+   *          the value. Can be null.
+   */
+  public void setString(int col, String value) {
+    int idx = -1;
+    if (value != null) {
+      Integer i = _dicos.get(col).get(value);
+      if (i == null) {
+        i = _entries.get(col).size();
+        _dicos.get(col).put(value, i);
+        _entries.get(col).add(value);
+      }
+      idx = i;
+    }
+    ((int[]) _values[col])[_rows] = idx;
+  }
+
+  /**
+   * Terminate the current row. Row group is written when full.
+   */
+  public void endRow() throws IOException {
+    _rows++;
+    _totalRows++;
+    if (_rows == _rowGroupSize) {
+      writeRowGroup();
+    }
+  }
+
+  /**
+   * Return the number of rows written so far.
+   */
+  public long getRowCount() {
+    return _totalRows;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (_rows != 0) {
+        writeRowGroup();
+      }
+      _out.writeInt(0);
+      _out.writeLong(_totalRows);
+      _out.flush();
+    } finally {
+      _out.close();
+    }
+  }
+
+  private void writeRowGroup() throws IOException {
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    ByteArrayOutputStream packed = new ByteArrayOutputStream();
+
+    _out.writeInt(_rows);
+    for (int col = 0; col < _types.length; col++) {
+      raw.reset();
+      DataOutputStream dos = new DataOutputStream(raw);
+      switch (_types[col]) {
+      case INT32:
+        writeInts(dos, (int[]) _values[col]);
+        break;
+      case FLOAT64:
+        double[] doubles = (double[]) _values[col];
+        for (int i = 0; i < _rows; i++) {
+          dos.writeDouble(doubles[i]);
+        }
+        break;
+      default:
+        List<String> entries = _entries.get(col);
+        dos.writeInt(entries.size());
+        for (String entry : entries) {
+          writeString(dos, entry);
+        }
+        writeInts(dos, (int[]) _values[col]);
+        entries.clear();
+        _dicos.get(col).clear();
+      }
+      dos.flush();
+      packed.reset();
+      Deflater deflater = new Deflater();
+      try (DeflaterOutputStream zos = new DeflaterOutputStream(packed, deflater)) {
+        raw.writeTo(zos);
+      } finally {
+        deflater.end();
+      }
+      _out.writeInt(packed.size());
+      _out.writeInt(raw.size());
+      packed.writeTo(_out);
+    }
+    _rows = 0;
+  }
+
+  private void writeInts(DataOutputStream dos, int[] values) throws IOException {
+    for (int i = 0; i < _rows; i++) {
+      dos.writeInt(values[i]);
+    }
+  }
+
+  private static void writeString(DataOutputStream dos, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    dos.writeInt(bytes.length);
+    dos.write(bytes);
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.util.EnumSet;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.data.searchresult.ISRIteration;
+import bzh.plealog.bioinfo.data.searchresult.ISROutput;
+import bzh.plealog.dbmirror.annotator.SRAnnotatorUtils;
+import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.util.xref.DBXrefInstancesManager;
+
+/**
+ * Extract biological classification from hit definition lines of NCBI XML
+ * data, one iteration at a time. Exporters call it just before formatting an
+ * iteration, so that results never have to be annotated as a whole before
+ * being exported.<br>
+ * <br>
+ * An iteration must be annotated only once: SRAnnotatorUtils removes
+ * cross-references from hit definition lines.
+ *
+ * @author Patrick G. Durand
+ */
+public class DefLineAnnotator {
+
+  private DicoTermQuerySystem _dico;
+  private boolean             _bestHitOnly;
+
+  /**
+   * Constructor.
+   *
+   * @param dico
+   *          BeeDeeM dictionary system used to resolve cross-references
+   * @param bestHitOnly
+   *          only annotate best hit of each query, i.e. the only one exported
+   */
+  public DefLineAnnotator(DicoTermQuerySystem dico, boolean bestHitOnly) {
+    _dico = dico;
+    _bestHitOnly = bestHitOnly;
+  }
+
+  private int countHits(SRIteration iteration) {
+    return _bestHitOnly ? Math.min(1, iteration.countHit()) : iteration.countHit();
+  }
+
+  /**
+   * Return the BeeDeeM indexes queried while annotating an iteration, i.e.
+   * NCBI Taxonomy for organisms and the indexes matching cross-references
+   * found in hit definition lines. Must be called before annotate().
+   */
+  public EnumSet<Dicos> getDicos(SRIteration iteration) {
+    EnumSet<Dicos> dicos = EnumSet.noneOf(Dicos.class);
+    int nHits = countHits(iteration);
+    if (nHits == 0) {
+      return dicos;
+    }
+    dicos.add(Dicos.NCBI_TAXONOMY);
+    for (int i = 0; i < nHits; i++) {
+      for (String xref : DBXrefInstancesManager.getDbXrefs(iteration.getHit(i).getHitDef())) {
+        // same matching rule as SRAnnotatorUtils
+        for (Dicos dico : Dicos.values()) {
+          if (dico != Dicos.NCBI_TAXONOMY && xref.startsWith(dico.xrefId)) {
+            dicos.add(dico);
+            break;
+          }
+        }
+      }
+    }
+    return dicos;
+  }
+
+  /**
+   * Annotate hits of an iteration.
+   */
+  public void annotate(SRIteration iteration) {
+    int nHits = countHits(iteration);
+    if (nHits == 0) {
+      return;
+    }
+    // SRAnnotatorUtils works on whole results: wrap hits to annotate
+    ISRIteration hits = new ISRIteration();
+    for (int i = 0; i < nHits; i++) {
+      hits.addHit(iteration.getHit(i));
+    }
+    ISROutput bo = new ISROutput();
+    bo.addIteration(hits);
+    SRAnnotatorUtils.extractDbXrefFromHitDefline(bo, _dico);
+  }
+}
@@ -0,0 +1,70 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.File;
+
+/**
+ * Utility methods to handle files derived from BeeDeeM dictionary indexes
+ * (.ldx folders).
+ *
+ * @author Patrick G. Durand
+ */
+public class DicoFileUtils {
+
+  private DicoFileUtils() {
+  }
+
+  /**
+   * Return a file derived from a BeeDeeM index.
+   *
+   * @param ldxPath
+   *          path to the BeeDeeM index (.ldx folder)
+   * @param dir
+   *          directory of the derived file. If null, it is located next to the
+   *          .ldx folder.
+   * @param extension
+   *          extension of the derived file. It replaces the .ldx one.
+   */
+  public static File getFile(String ldxPath, String dir, String extension) {
+    File ldx = new File(ldxPath).getAbsoluteFile();
+    String name = ldx.getName();
+    int idx = name.lastIndexOf('.');
+    if (idx > 0) {
+      name = name.substring(0, idx);
+    }
+    return new File(dir != null ? new File(dir) : ldx.getParentFile(), name + extension);
+  }
+
+  /**
+   * Figure out whether or not a derived file is older than the BeeDeeM index
+   * it has been built from.
+   */
+  public static boolean isOutdated(File f, String ldxPath) {
+    if (!f.exists()) {
+      return true;
+    }
+    long ldxTime = new File(ldxPath).lastModified();
+    File[] files = new File(ldxPath).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        ldxTime = Math.max(ldxTime, file.lastModified());
+      }
+    }
+    return f.lastModified() < ldxTime;
+  }
+}
@@ -0,0 +1,276 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTerm;
+import bzh.plealog.dbmirror.lucenedico.go.Serialization_GeneOntologyTerm;
+
+/**
+ * A read-only snapshot of a BeeDeeM dictionary index (.ldx folder) mapping
+ * term IDs to their description. Keys are sorted and saved in a single file
+ * that is memory-mapped when used; lookups are binary searches. Several
+ * processes can share the same snapshot file.<br>
+ * <br>
+ * Descriptions are the ones displayed by CmdLineDumper: ontology code and
+ * name for Gene Ontology terms, data field for other dictionaries.<br>
+ * <br>
+ * This class is thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class DicoSnapshot {
+
+  /** default file extension of a snapshot file */
+  public static final String EXTENSION = ".snapshot";
+
+  private static final int MAGIC   = 0x42444b56;
+  private static final int VERSION = 1;
+
+  // BeeDeeM dictionary index fields
+  private static final String ID_FIELD     = "id";
+  private static final String DATA_FIELD   = "name";
+  private static final String OBJECT_FIELD = "object";
+
+  private String     _readerId;
+  private int        _size;
+  private IntBuffer  _keyOffsets;
+  private IntBuffer  _valueOffsets;
+  private ByteBuffer _keys;
+  private ByteBuffer _values;
+
+  private DicoSnapshot(ByteBuffer buf) throws IOException {
+    int keyPoolSize, valuePoolSize;
+    byte[] b;
+
+    if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+      throw new IOException("not a dictionary snapshot file");
+    }
+    b = new byte[buf.getShort()];
+    buf.get(b);
+    _readerId = new String(b, StandardCharsets.UTF_8);
+    _size = buf.getInt();
+    keyPoolSize = buf.getInt();
+    valuePoolSize = buf.getInt();
+    _keyOffsets = slice(buf, 4 * (_size + 1)).asIntBuffer();
+    _valueOffsets = slice(buf, 4 * (_size + 1)).asIntBuffer();
+    _keys = slice(buf, keyPoolSize);
+    _values = slice(buf, valuePoolSize);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buf, int length) {
+    ByteBuffer b = buf.slice();
+    b.limit(length);
+    buf.position(buf.position() + length);
+    return b;
+  }
+
+  /**
+   * Open a snapshot file. File content is memory-mapped.
+   */
+  public static DicoSnapshot open(File f) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel channel = raf.getChannel()) {
+      return new DicoSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Create a snapshot of a BeeDeeM dictionary index. Data are first written in
+   * a temporary file located next to the target one, so that a concurrent
+   * process never reads a partial file.
+   *
+   * @param dico
+   *          the dictionary type
+   * @param ldxPath
+   *          path to the BeeDeeM index (.ldx folder)
+   * @param f
+   *          the snapshot file
+   *
+   * @return number of terms contained in the snapshot
+   */
+  public static int write(Dicos dico, String ldxPath, File f) throws IOException {
+    TreeMap<byte[], byte[]> terms = readTerms(dico, ldxPath);
+    File tmp = new File(f.getAbsolutePath() + ".tmp");
+    int keyPoolSize = 0, valuePoolSize = 0, offset;
+
+    for (Map.Entry<byte[], byte[]> entry : terms.entrySet()) {
+      keyPoolSize += entry.getKey().length;
+      valuePoolSize += entry.getValue().length;
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      byte[] b = dico.readerId.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeShort(b.length);
+      out.write(b);
+      out.writeInt(terms.size());
+      out.writeInt(keyPoolSize);
+      out.writeInt(valuePoolSize);
+      offset = 0;
+      for (byte[] key : terms.keySet()) {
+        out.writeInt(offset);
+        offset += key.length;
+      }
+      out.writeInt(offset);
+      offset = 0;
+      for (byte[] value : terms.values()) {
+        out.writeInt(offset);
+        offset += value.length;
+      }
+      out.writeInt(offset);
+      for (byte[] key : terms.keySet()) {
+        out.write(key);
+      }
+      for (byte[] value : terms.values()) {
+        out.write(value);
+      }
+    }
+    if (!tmp.renameTo(f)) {
+      tmp.delete();
+      throw new IOException("unable to create: " + f.getAbsolutePath());
+    }
+    return terms.size();
+  }
+
+  /**
+   * Read all terms of a BeeDeeM dictionary index. As BeeDeeM does, the first
+   * term having a given ID wins.
+   */
+  private static TreeMap<byte[], byte[]> readTerms(Dicos dico, String ldxPath) throws IOException {
+    TreeMap<byte[], byte[]> terms = new TreeMap<>(DicoSnapshot::compare);
+    HashSet<String> ids = new HashSet<>();
+    MapFieldSelector selector = new MapFieldSelector(new String[] { ID_FIELD, DATA_FIELD, OBJECT_FIELD });
+    IndexReader reader = IndexReader.open(FSDirectory.open(new File(ldxPath)), true);
+    try {
+      for (int i = 0; i < reader.maxDoc(); i++) {
+        if (reader.isDeleted(i)) {
+          continue;
+        }
+        Document doc = reader.document(i, selector);
+        String id = doc.get(ID_FIELD);
+        if (id == null || !ids.add(id)) {
+          continue;
+        }
+        String desc = getDescription(dico, doc);
+        if (desc != null) {
+          terms.put(id.getBytes(StandardCharsets.UTF_8), desc.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return terms;
+  }
+
+  private static String getDescription(Dicos dico, Document doc) {
+    if (dico == Dicos.GENE_ONTOLOGY) {
+      byte[] data = doc.getBinaryValue(OBJECT_FIELD);
+      if (data == null) {
+        return null;
+      }
+      GeneOntologyTerm goTerm = (GeneOntologyTerm) Serialization_GeneOntologyTerm.deserialize(data);
+      return goTerm != null ? goTerm.get_node_ontology_code() + ":" + goTerm.get_node_name() : null;
+    }
+    return doc.get(DATA_FIELD);
+  }
+
+  /**
+   * Compare two UTF-8 strings. Same order as the one of code points.
+   */
+  private static int compare(byte[] b1, byte[] b2) {
+    int len = Math.min(b1.length, b2.length);
+    for (int i = 0; i < len; i++) {
+      int c = (b1[i] & 0xff) - (b2[i] & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return b1.length - b2.length;
+  }
+
+  private int compare(byte[] key, int idx) {
+    int from = _keyOffsets.get(idx);
+    int to = _keyOffsets.get(idx + 1);
+    int len = Math.min(key.length, to - from);
+    for (int i = 0; i < len; i++) {
+      int c = (key[i] & 0xff) - (_keys.get(from + i) & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return key.length - (to - from);
+  }
+
+  /**
+   * Return the BeeDeeM reader ID of the dictionary.
+   */
+  public String getReaderId() {
+    return _readerId;
+  }
+
+  /**
+   * Return the number of terms.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Return the description of a term or null if not found.
+   */
+  public String get(String id) {
+    byte[] key = id.getBytes(StandardCharsets.UTF_8);
+    int low = 0, high = _size - 1, mid, c;
+
+    while (low <= high) {
+      mid = (low + high) >>> 1;
+      c = compare(key, mid);
+      if (c > 0) {
+        low = mid + 1;
+      } else if (c < 0) {
+        high = mid - 1;
+      } else {
+        int from = _valueOffsets.get(mid);
+        byte[] b = new byte[_valueOffsets.get(mid + 1) - from];
+        ByteBuffer values = _values.duplicate();
+        values.position(from);
+        values.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,203 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+
+/**
+ * A bounded cache of BeeDeeM dictionary descriptions keyed by (dictionary,
+ * id). Least recently used entries are evicted first.<br>
+ * <br>
+ * This class is thread-safe: entries are spread over several independent LRU
+ * segments so that concurrent threads rarely wait for each other.
+ *
+ * @author Patrick G. Durand
+ */
+public class DicoTermCache {
+
+  /** default maximum number of entries */
+  public static final int DEFAULT_SIZE = 100000;
+
+  private static final int SEGMENTS = 16;
+
+  private Segment[]  _segments;
+  private ThreadLocal<Key> _probes = ThreadLocal.withInitial(Key::new);
+  private AtomicLong _hits   = new AtomicLong();
+  private AtomicLong _misses = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param size
+   *          maximum number of entries
+   */
+  public DicoTermCache(int size) {
+    int segSize = Math.max(1, size / SEGMENTS);
+    _segments = new Segment[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      _segments[i] = new Segment(segSize);
+    }
+  }
+
+  private Segment getSegment(Key key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return _segments[(h & 0x7fffffff) % SEGMENTS];
+  }
+
+  /**
+   * Get a description.
+   *
+   * @param dico
+   *          the dictionary
+   * @param id
+   *          the term identifier
+   *
+   * @return the description or null if not cached
+   */
+  public String get(Dicos dico, String id) {
+    return get(dico, id, 0, id.length());
+  }
+
+  /**
+   * Get a description without copying the term identifier.
+   *
+   * @param dico
+   *          the dictionary
+   * @param s
+   *          a string containing the term identifier
+   * @param from
+   *          index of the first character of the identifier
+   * @param to
+   *          index following the last character of the identifier
+   *
+   * @return the description or null if not cached
+   */
+  public String get(Dicos dico, String s, int from, int to) {
+    Key key = _probes.get().set(dico, s, from, to);
+    Segment seg = getSegment(key);
+    String value;
+    synchronized (seg) {
+      value = seg.get(key);
+    }
+    key.id.clear();
+    if (value != null) {
+      _hits.incrementAndGet();
+    } else {
+      _misses.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Add a description.
+   *
+   * @param dico
+   *          the dictionary
+   * @param id
+   *          the term identifier
+   * @param desc
+   *          the description
+   */
+  public void put(Dicos dico, String id, String desc) {
+    Key key = new Key(dico, id);
+    Segment seg = getSegment(key);
+    synchronized (seg) {
+      seg.put(key, desc);
+    }
+  }
+
+  /**
+   * Return the number of lookups answered by the cache.
+   */
+  public long getHits() {
+    return _hits.get();
+  }
+
+  /**
+   * Return the number of lookups not answered by the cache.
+   */
+  public long getMisses() {
+    return _misses.get();
+  }
+
+  /**
+   * Return the number of cached entries.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment seg : _segments) {
+      synchronized (seg) {
+        size += seg.size();
+      }
+    }
+    return size;
+  }
+
+  private static class Key {
+    private Dicos    dico;
+    private CharSpan id = new CharSpan();
+    private int      hash;
+
+    private Key() {
+    }
+
+    private Key(Dicos dico, String id) {
+      set(dico, id, 0, id.length());
+    }
+
+    private Key set(Dicos dico, String s, int from, int to) {
+      this.dico = dico;
+      this.id.set(s, from, to);
+      this.hash = 31 * dico.hashCode() + id.hashCode();
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) obj;
+      return dico == k.dico && id.equals(k.id);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class Segment extends LinkedHashMap<Key, String> {
+    private int maxSize;
+
+    private Segment(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
@@ -0,0 +1,425 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sort CSV rows on a typed key using a bounded amount of memory. Rows are
+ * kept in memory up to a budget; then they are sorted and spilled to a
+ * temporary file (a run) in a compressed binary form. Runs are finally merged
+ * while writing rows. At most 64 runs are merged at once: when there are more
+ * runs, they are first merged into larger intermediate runs.<br>
+ * <br>
+ * Sort is stable: rows having the same key are written in the order they were
+ * added. Rows without key are written last.
+ *
+ * @author Patrick G. Durand
+ */
+public class ExternalRowSorter implements Closeable {
+
+  /** default memory budget: 128 Mb */
+  public static final long DEFAULT_MEMORY = 128L * 1024 * 1024;
+
+  /**
+   * Sort keys.
+   */
+  public enum SortKey {
+    /** increasing evalue */
+    EVALUE("evalue", true),
+    /** decreasing bit score */
+    BITSCORE("bitscore", true),
+    /** hit accession, i.e. rows grouped by hit */
+    ACCESSION("accession", false);
+
+    private final String  _name;
+    private final boolean _numeric;
+
+    SortKey(String name, boolean numeric) {
+      _name = name;
+      _numeric = numeric;
+    }
+
+    /**
+     * Return the name of this key, as used on the command-line.
+     */
+    public String getName() {
+      return _name;
+    }
+
+    /**
+     * Figure out whether or not key values are numbers. Otherwise, they are
+     * strings.
+     */
+    public boolean isNumeric() {
+      return _numeric;
+    }
+
+    /**
+     * Return a key given its name or null if not found.
+     */
+    public static SortKey fromName(String name) {
+      for (SortKey key : values()) {
+        if (key._name.equalsIgnoreCase(name)) {
+          return key;
+        }
+      }
+      return null;
+    }
+  }
+
+  // approximate memory used by a row besides its data
+  private static final int ROW_OVERHEAD = 64;
+  // maximum number of runs read at once
+  private static final int MAX_FAN_IN = 64;
+  // bounds of the buffer size of a run being read
+  private static final int MIN_BUFFER = 4096;
+  private static final int MAX_BUFFER = 65536;
+
+  private SortKey    _key;
+  private long       _memory;
+  private File       _tmpDir;
+  private List<Row>  _rows = new ArrayList<>();
+  private long       _used;
+  private long       _seq;
+  private List<File> _runs = new ArrayList<>();
+  private int        _runCount;
+  private int        _bufferSize;
+  private Comparator<Row> _comparator;
+
+  /**
+   * Constructor.
+   *
+   * @param key
+   *          the sort key
+   * @param memory
+   *          memory budget of rows kept in memory, in bytes. It also bounds the
+   *          buffers used to merge runs.
+   * @param tmpDir
+   *          where to create runs. Can be null: default temporary directory is
+   *          used.
+   */
+  public ExternalRowSorter(SortKey key, long memory, File tmpDir) {
+    _key = key;
+    _memory = memory;
+    _tmpDir = tmpDir;
+    _comparator = getComparator(key);
+    _bufferSize = (int) Math.max(MIN_BUFFER, Math.min(MAX_BUFFER, memory / MAX_FAN_IN));
+  }
+
+  /**
+   * Return the sort key.
+   */
+  public SortKey getKey() {
+    return _key;
+  }
+
+  /**
+   * Add a row having a numeric key. Key is ignored if this sorter uses string
+   * keys.
+   *
+   * @param key
+   *          key value. NaN means no key.
+   * @param line
+   *          CSV row, without line separator
+   */
+  public void add(double key, String line) throws IOException {
+    add(new Row(key, null, _seq++, line.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Add a row having a string key. Key is ignored if this sorter uses numeric
+   * keys.
+   *
+   * @param key
+   *          key value. Null means no key.
+   * @param line
+   *          CSV row, without line separator
+   */
+  public void add(String key, String line) throws IOException {
+    add(new Row(Double.NaN, key, _seq++, line.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Return the number of rows added so far.
+   */
+  public long getRowCount() {
+    return _seq;
+  }
+
+  /**
+   * Return the number of runs spilled to disk so far.
+   */
+  public int getRunCount() {
+    return _runCount;
+  }
+
+  /**
+   * Write all rows in order. Rows are separated by a new line character.
+   */
+  public void writeTo(Writer w) throws IOException {
+    if (_runs.isEmpty()) {
+      _rows.sort(_comparator);
+      for (Row row : _rows) {
+        row.write(w);
+      }
+      _rows.clear();
+      return;
+    }
+    if (!_rows.isEmpty()) {
+      spill();
+    }
+    // bound the number of runs opened at once
+    while (_runs.size() > MAX_FAN_IN) {
+      List<File> runs = new ArrayList<>(_runs.subList(0, MAX_FAN_IN));
+      File run = File.createTempFile("sort", ".run", _tmpDir);
+      _runs.add(run);
+      try (RunWriter writer = new RunWriter(run)) {
+        merge(runs, writer::write);
+      }
+      _runs.subList(0, MAX_FAN_IN).clear();
+      for (File merged : runs) {
+        merged.delete();
+      }
+    }
+    merge(_runs, row -> row.write(w));
+  }
+
+  /**
+   * Merge runs: rows are read in order.
+   */
+  private void merge(List<File> runs, RowHandler handler) throws IOException {
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(),
+        (r1, r2) -> _comparator.compare(r1._row, r2._row));
+    try {
+      for (File run : runs) {
+        RunReader reader = new RunReader(run);
+        if (reader.next()) {
+          queue.add(reader);
+        } else {
+          reader.close();
+        }
+      }
+      while (!queue.isEmpty()) {
+        RunReader reader = queue.poll();
+        handler.handle(reader._row);
+        if (reader.next()) {
+          queue.add(reader);
+        } else {
+          reader.close();
+        }
+      }
+    } finally {
+      for (RunReader reader : queue) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Delete runs.
+   */
+  @Override
+  public void close() {
+    for (File run : _runs) {
+      run.delete();
+    }
+    _runs.clear();
+    _rows.clear();
+  }
+
+  private void add(Row row) throws IOException {
+    _rows.add(row);
+    _used += ROW_OVERHEAD + row._line.length + (row._text != null ? 2 * row._text.length() : 0);
+    if (_used >= _memory) {
+      spill();
+    }
+  }
+
+  /**
+   * Sort rows kept in memory and write them in a new run.
+   */
+  private void spill() throws IOException {
+    File run = File.createTempFile("sort", ".run", _tmpDir);
+    _runs.add(run);
+    _runCount++;
+    _rows.sort(_comparator);
+    try (RunWriter writer = new RunWriter(run)) {
+      for (Row row : _rows) {
+        writer.write(row);
+      }
+    }
+    _rows.clear();
+    _used = 0;
+  }
+
+  private static void writeBytes(DataOutputStream dos, byte[] b) throws IOException {
+    dos.writeInt(b.length);
+    dos.write(b);
+  }
+
+  private static byte[] readBytes(DataInputStream dis) throws IOException {
+    byte[] b = new byte[dis.readInt()];
+    dis.readFully(b);
+    return b;
+  }
+
+  private static Comparator<Row> getComparator(SortKey key) {
+    Comparator<Row> cmp;
+    switch (key) {
+    case EVALUE:
+      cmp = (r1, r2) -> compareNumbers(r1._num, r2._num, false);
+      break;
+    case BITSCORE:
+      cmp = (r1, r2) -> compareNumbers(r1._num, r2._num, true);
+      break;
+    default:
+      cmp = (r1, r2) -> {
+        if (r1._text == null || r2._text == null) {
+          return r1._text == null ? (r2._text == null ? 0 : 1) : -1;
+        }
+        return r1._text.compareTo(r2._text);
+      };
+    }
+    return cmp.thenComparingLong(r -> r._seq);
+  }
+
+  private static int compareNumbers(double d1, double d2, boolean decreasing) {
+    // rows without key are last
+    if (Double.isNaN(d1) || Double.isNaN(d2)) {
+      return Double.isNaN(d1) ? (Double.isNaN(d2) ? 0 : 1) : -1;
+    }
+    return decreasing ? Double.compare(d2, d1) : Double.compare(d1, d2);
+  }
+
+  private static class Row {
+    private double _num;
+    private String _text;
+    private long   _seq;
+    private byte[] _line;
+
+    private Row(double num, String text, long seq, byte[] line) {
+      _num = num;
+      _text = text;
+      _seq = seq;
+      _line = line;
+    }
+
+    private void write(Writer w) throws IOException {
+      w.write(new String(_line, StandardCharsets.UTF_8));
+      w.write('\n');
+    }
+  }
+
+  private interface RowHandler {
+    void handle(Row row) throws IOException;
+  }
+
+  /**
+   * Write rows of a run.
+   */
+  private class RunWriter implements Closeable {
+    private Deflater         _deflater = new Deflater(Deflater.BEST_SPEED);
+    private DataOutputStream _dos;
+
+    private RunWriter(File run) throws IOException {
+      try {
+        _dos = new DataOutputStream(new BufferedOutputStream(
+            new DeflaterOutputStream(new FileOutputStream(run), _deflater, 65536)));
+      } catch (IOException e) {
+        _deflater.end();
+        throw e;
+      }
+    }
+
+    private void write(Row row) throws IOException {
+      if (_key.isNumeric()) {
+        _dos.writeDouble(row._num);
+      } else {
+        _dos.writeBoolean(row._text != null);
+        if (row._text != null) {
+          writeBytes(_dos, row._text.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      _dos.writeLong(row._seq);
+      writeBytes(_dos, row._line);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        _dos.close();
+      } finally {
+        _deflater.end();
+      }
+    }
+  }
+
+  /**
+   * Read rows of a run.
+   */
+  private class RunReader implements Closeable {
+    private DataInputStream _dis;
+    private Row             _row;
+
+    private RunReader(File run) throws IOException {
+      _dis = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(run)), 
+          _bufferSize));
+    }
+
+    private boolean next() throws IOException {
+      double num = Double.NaN;
+      String text = null;
+      try {
+        if (_key.isNumeric()) {
+          num = _dis.readDouble();
+        } else if (_dis.readBoolean()) {
+          text = new String(readBytes(_dis), StandardCharsets.UTF_8);
+        }
+      } catch (EOFException e) {
+        _row = null;
+        return false;
+      }
+      long seq = _dis.readLong();
+      _row = new Row(num, text, seq, readBytes(_dis));
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      _dis.close();
+    }
+  }
+}
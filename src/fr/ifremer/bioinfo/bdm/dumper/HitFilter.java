@@ -0,0 +1,224 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.util.Iterator;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHspScore;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+
+/**
+ * Filter hits and HSPs of search results. HSPs are first filtered using
+ * thresholds (evalue, bit score, identity and query coverage); then, if
+ * requested, only the first remaining HSP of each hit and the first remaining
+ * hit of each query are kept. A hit without any remaining HSP is discarded.<br>
+ * <br>
+ * NcbiXmlIterationReader applies a filter while reading data, so that
+ * discarded hits and HSPs are never created. Data loaded by other means are
+ * filtered using filter(SROutput).
+ *
+ * @author Patrick G. Durand
+ */
+public class HitFilter {
+
+  private double  _maxEvalue   = Double.MAX_VALUE;
+  private double  _minBitScore = 0;
+  private double  _minIdentity = 0;
+  private double  _minCoverage = 0;
+  private boolean _bestHitOnly;
+  private boolean _firstHspOnly;
+
+  /**
+   * Only keep HSPs having an evalue less than or equal to a value.
+   */
+  public void setMaxEvalue(double maxEvalue) {
+    _maxEvalue = maxEvalue;
+  }
+
+  /**
+   * Only keep HSPs having a bit score greater than or equal to a value.
+   */
+  public void setMinBitScore(double minBitScore) {
+    _minBitScore = minBitScore;
+  }
+
+  /**
+   * Only keep HSPs having a percentage of identity greater than or equal to a
+   * value. Identity is computed over the alignment length.
+   */
+  public void setMinIdentity(double minIdentity) {
+    _minIdentity = minIdentity;
+  }
+
+  /**
+   * Only keep HSPs covering a percentage of the query greater than or equal to
+   * a value.
+   */
+  public void setMinCoverage(double minCoverage) {
+    _minCoverage = minCoverage;
+  }
+
+  /**
+   * Only keep best hit of each query.
+   */
+  public void setBestHitOnly(boolean bestHitOnly) {
+    _bestHitOnly = bestHitOnly;
+  }
+
+  /**
+   * Only keep first HSP of each hit.
+   */
+  public void setFirstHspOnly(boolean firstHspOnly) {
+    _firstHspOnly = firstHspOnly;
+  }
+
+  public boolean isBestHitOnly() {
+    return _bestHitOnly;
+  }
+
+  public boolean isFirstHspOnly() {
+    return _firstHspOnly;
+  }
+
+  /**
+   * Figure out whether or not at least one threshold is set.
+   */
+  public boolean hasThresholds() {
+    return _maxEvalue != Double.MAX_VALUE || _minBitScore > 0 || _minIdentity > 0 || _minCoverage > 0;
+  }
+
+  /**
+   * Figure out whether or not this filter discards some data.
+   */
+  public boolean isActive() {
+    return _bestHitOnly || _firstHspOnly || hasThresholds();
+  }
+
+  /**
+   * Check whether or not an HSP passes thresholds.
+   *
+   * @param evalue
+   *          HSP evalue
+   * @param bitScore
+   *          HSP bit score
+   * @param identity
+   *          number of identities
+   * @param alignLen
+   *          alignment length
+   * @param qFrom
+   *          query start
+   * @param qTo
+   *          query end
+   * @param qLen
+   *          query length. If not known, coverage is not checked.
+   */
+  public boolean accept(double evalue, double bitScore, int identity, int alignLen, int qFrom, int qTo,
+      int qLen) {
+    if (evalue > _maxEvalue || bitScore < _minBitScore) {
+      return false;
+    }
+    if (_minIdentity > 0 && (alignLen <= 0 || 100.0 * identity / alignLen < _minIdentity)) {
+      return false;
+    }
+    if (_minCoverage > 0 && qLen > 0 && 100.0 * (Math.abs(qTo - qFrom) + 1) / qLen < _minCoverage) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Filter results already loaded in memory.
+   */
+  public void filter(SROutput bo) {
+    Integer qLen;
+    int defQLen;
+
+    if (!isActive()) {
+      return;
+    }
+    qLen = bo.getRequestInfo() != null ? (Integer) bo.getRequestInfo().getValue("qLen") : null;
+    defQLen = qLen != null ? qLen.intValue() : 0;
+    for (int i = 0; i < bo.countIteration(); i++) {
+      filter(bo.getIteration(i), defQLen);
+    }
+  }
+
+  private void filter(SRIteration iteration, int defQLen) {
+    int qLen = iteration.getIterationQueryLength() != 0 ? iteration.getIterationQueryLength() : defQLen;
+    Iterator<SRHit> hits = iteration.getHits().iterator();
+    boolean found = false;
+
+    while (hits.hasNext()) {
+      SRHit hit = hits.next();
+      if (found) {
+        hits.remove();
+        continue;
+      }
+      Iterator<SRHsp> hsps = hit.getHsps().iterator();
+      boolean kept = false;
+      while (hsps.hasNext()) {
+        SRHsp hsp = hsps.next();
+        SRHspScore score = hsp.getScores();
+        if ((kept && _firstHspOnly) || !accept(score.getEvalue(), score.getBitScore(), score.getIdentity(),
+            score.getAlignLen(), hsp.getQuery().getFrom(), hsp.getQuery().getTo(), qLen)) {
+          hsps.remove();
+        } else {
+          kept = true;
+        }
+      }
+      if (!kept) {
+        hits.remove();
+      } else {
+        found = _bestHitOnly;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder();
+    if (_maxEvalue != Double.MAX_VALUE) {
+      append(buf, "evalue<=" + _maxEvalue);
+    }
+    if (_minBitScore > 0) {
+      append(buf, "bitscore>=" + _minBitScore);
+    }
+    if (_minIdentity > 0) {
+      append(buf, "identity>=" + _minIdentity + "%");
+    }
+    if (_minCoverage > 0) {
+      append(buf, "coverage>=" + _minCoverage + "%");
+    }
+    if (_bestHitOnly) {
+      append(buf, "best hit only");
+    }
+    if (_firstHspOnly) {
+      append(buf, "first HSP only");
+    }
+    return buf.toString();
+  }
+
+  private static void append(StringBuilder buf, String s) {
+    if (buf.length() != 0) {
+      buf.append(", ");
+    }
+    buf.append(s);
+  }
+}
@@ -0,0 +1,337 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SRRequestInfo;
+
+/**
+ * Read iterations of a NCBI XML file that is still being written, e.g. by a
+ * running PLAST job. When the end of the file is reached, the follower waits
+ * for more data; it stops when the document is complete or when the file has
+ * not grown for a while. An incomplete trailing iteration is never
+ * returned.<br>
+ * <br>
+ * Progress is saved in a checkpoint file each time the follower has to wait
+ * for data and when finish() is called: offset of the byte following the last
+ * iteration exported and size of the output file at that time (output is
+ * flushed first). A new follower created with the same checkpoint file
+ * resumes from that iteration; the output file is truncated to its
+ * checkpointed size, discarding data written after the checkpoint.
+ *
+ * @author Patrick G. Durand
+ */
+public class NcbiXmlFollower implements Closeable {
+
+  private static final String KEY_FILE       = "file";
+  private static final String KEY_OFFSET     = "offset";
+  private static final String KEY_HEADER     = "header";
+  private static final String KEY_ITERATIONS = "iterations";
+  private static final String KEY_OUTPUT     = "output";
+
+  private File                   _file;
+  private File                   _output;
+  private File                   _checkpoint;
+  private long                   _idleTimeout;
+  private long                   _pollInterval;
+  private Flushable              _flushable;
+  private NcbiXmlIterationReader _reader;
+  private TailInputStream        _tail;
+  private boolean                _resumed;
+  // checkpoint data: file offsets
+  private long                   _resumeOffset;
+  private long                   _headerSize = -1;
+  private long                   _prevIterations;
+  private long                   _doneOutputSize;
+  // last iteration returned by next() and last one exported
+  private long                   _lastOffset = -1;
+  private long                   _doneOffset = -1;
+  private long                   _doneIterations;
+
+  /**
+   * Constructor.
+   *
+   * @param file
+   *          the NCBI XML file to follow
+   * @param output
+   *          the file where exported data are written
+   * @param checkpoint
+   *          the checkpoint file. If it exists, reading resumes from the
+   *          iteration it refers to.
+   * @param idleTimeout
+   *          stop when the file has not grown during that time, in
+   *          milliseconds
+   */
+  public NcbiXmlFollower(File file, File output, File checkpoint, long idleTimeout) throws IOException {
+    _file = file;
+    _output = output;
+    _checkpoint = checkpoint;
+    _idleTimeout = idleTimeout;
+    _pollInterval = Math.max(1, Math.min(500, idleTimeout));
+    if (checkpoint.exists()) {
+      loadCheckpoint();
+    }
+  }
+
+  /**
+   * Figure out whether or not reading resumes from a checkpoint.
+   */
+  public boolean isResumed() {
+    return _resumed;
+  }
+
+  /**
+   * Open the file and read its header. When resuming, the output file is
+   * truncated to its checkpointed size: it has to be opened in append mode
+   * afterwards.
+   *
+   * @return a reader, e.g. to set a filter. Use next() instead of its own
+   *         next() method.
+   */
+  public NcbiXmlIterationReader open() throws IOException {
+    InputStream is;
+
+    if (_resumed) {
+      try (RandomAccessFile raf = new RandomAccessFile(_output, "rw")) {
+        raf.setLength(_doneOutputSize);
+      }
+      // document header followed by the iterations not exported yet
+      byte[] header = new byte[(int) _headerSize];
+      try (RandomAccessFile raf = new RandomAccessFile(_file, "r")) {
+        raf.readFully(header);
+      }
+      _tail = new TailInputStream(_resumeOffset);
+      is = new SequenceInputStream(new ByteArrayInputStream(header), _tail);
+    } else {
+      _tail = new TailInputStream(0);
+      is = _tail;
+    }
+    _reader = new NcbiXmlIterationReader(is);
+    if (!_resumed) {
+      _headerSize = _reader.getIterationsOffset();
+      if (_headerSize == -1) {
+        throw new IOException("BlastOutput_iterations not found: " + _file.getAbsolutePath());
+      }
+      _doneOffset = _headerSize;
+    }
+    return _reader;
+  }
+
+  /**
+   * Set the object flushed before saving a checkpoint, i.e. the writer of the
+   * output file.
+   */
+  public void setFlushable(Flushable flushable) {
+    _flushable = flushable;
+  }
+
+  /**
+   * Return the request information read from the document header.
+   */
+  public SRRequestInfo getRequestInfo() {
+    return _reader.getRequestInfo();
+  }
+
+  /**
+   * Read the next complete iteration, waiting for it if needed. Calling this
+   * method means that the previous iteration has been exported.
+   *
+   * @return an iteration or null when all iterations have been read or when
+   *         the file has stopped growing
+   */
+  public SRIteration next() throws IOException {
+    SRIteration iteration;
+
+    markDone();
+    // an iteration not complete when the file stopped growing is not returned
+    iteration = _reader.next();
+    if (iteration != null) {
+      _lastOffset = toFileOffset(_reader.getPosition());
+    }
+    return iteration;
+  }
+
+  /**
+   * Return the number of iterations exported so far, including the ones
+   * exported before resuming.
+   */
+  public long getIterationsDone() {
+    return _prevIterations + _doneIterations;
+  }
+
+  /**
+   * Figure out whether or not reading stopped because the file has not grown
+   * for a while. Otherwise, the document is complete.
+   */
+  public boolean isStopped() {
+    return _tail.isStopped();
+  }
+
+  /**
+   * Save a checkpoint after the last iteration returned by next(). It must
+   * have been exported.
+   */
+  public void finish() throws IOException {
+    markDone();
+    saveCheckpoint();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (_reader != null) {
+      _reader.close();
+    }
+  }
+
+  private void markDone() {
+    if (_lastOffset != -1) {
+      _doneOffset = _lastOffset;
+      _doneIterations++;
+      _lastOffset = -1;
+    }
+  }
+
+  private long toFileOffset(long position) {
+    if (!_resumed || position < _headerSize) {
+      return position;
+    }
+    return position - _headerSize + _resumeOffset;
+  }
+
+  private void loadCheckpoint() throws IOException {
+    Properties props = new Properties();
+    try (InputStream is = new FileInputStream(_checkpoint)) {
+      props.load(is);
+    }
+    if (!_file.getAbsolutePath().equals(props.getProperty(KEY_FILE))) {
+      throw new IOException("checkpoint " + _checkpoint.getAbsolutePath() + " does not refer to: "
+          + _file.getAbsolutePath());
+    }
+    try {
+      _resumeOffset = Long.parseLong(props.getProperty(KEY_OFFSET));
+      _headerSize = Long.parseLong(props.getProperty(KEY_HEADER));
+      _prevIterations = Long.parseLong(props.getProperty(KEY_ITERATIONS));
+      _doneOutputSize = Long.parseLong(props.getProperty(KEY_OUTPUT));
+    } catch (NumberFormatException | NullPointerException e) {
+      throw new IOException("invalid checkpoint: " + _checkpoint.getAbsolutePath());
+    }
+    if (_output.length() < _doneOutputSize || _file.length() < _resumeOffset) {
+      throw new IOException("checkpoint " + _checkpoint.getAbsolutePath() + " does not match files");
+    }
+    _doneOffset = _resumeOffset;
+    _resumed = true;
+  }
+
+  /**
+   * Save progress. Output is flushed first so that its size includes all
+   * exported iterations.
+   */
+  private void saveCheckpoint() throws IOException {
+    if (_doneOffset == -1) {
+      // header not read yet
+      return;
+    }
+    if (_flushable != null) {
+      _flushable.flush();
+    }
+    Properties props = new Properties();
+    props.setProperty(KEY_FILE, _file.getAbsolutePath());
+    props.setProperty(KEY_OFFSET, Long.toString(_doneOffset));
+    props.setProperty(KEY_HEADER, Long.toString(_headerSize));
+    props.setProperty(KEY_ITERATIONS, Long.toString(getIterationsDone()));
+    props.setProperty(KEY_OUTPUT, Long.toString(_output.length()));
+    // a checkpoint is replaced at once
+    File tmp = new File(_checkpoint.getAbsolutePath() + ".tmp");
+    try (OutputStream os = new FileOutputStream(tmp)) {
+      props.store(os, null);
+    }
+    Files.move(tmp.toPath(), _checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a file from an offset, waiting for data at end of file.
+   */
+  private class TailInputStream extends InputStream {
+    private RandomAccessFile _raf;
+    private boolean          _stopped;
+
+    private TailInputStream(long offset) throws IOException {
+      _raf = new RandomAccessFile(_file, "r");
+      _raf.seek(offset);
+    }
+
+    private boolean isStopped() {
+      return _stopped;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long idleSince = -1;
+      int n;
+
+      while (!_stopped) {
+        n = _raf.read(b, off, len);
+        if (n > 0) {
+          return n;
+        }
+        if (idleSince == -1) {
+          // caught up with the writer of the file
+          saveCheckpoint();
+          idleSince = System.currentTimeMillis();
+        } else if (System.currentTimeMillis() - idleSince >= _idleTimeout) {
+          _stopped = true;
+          break;
+        }
+        try {
+          Thread.sleep(_pollInterval);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+      _raf.close();
+    }
+  }
+}
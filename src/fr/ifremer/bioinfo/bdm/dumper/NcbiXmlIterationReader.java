@@ -0,0 +1,546 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHspSequence;
+import bzh.plealog.bioinfo.data.searchresult.ISRHit;
+import bzh.plealog.bioinfo.data.searchresult.ISRHsp;
+import bzh.plealog.bioinfo.data.searchresult.ISRHspScore;
+import bzh.plealog.bioinfo.data.searchresult.ISRHspSequence;
+import bzh.plealog.bioinfo.data.searchresult.ISRIteration;
+import bzh.plealog.bioinfo.data.searchresult.ISRRequestInfo;
+import bzh.plealog.bioinfo.data.searchresult.ISRStatistics;
+import bzh.plealog.bioinfo.util.DAlphabetUtils;
+
+/**
+ * Pull-parse a NCBI BLAST legacy XML file one Iteration at a time. Contrary to
+ * the BeeDeeM NCBI loader, the whole document is never loaded in memory: only
+ * the iteration being read is materialized.<br>
+ * <br>
+ * Data objects are created exactly as the BeeDeeM NCBI loader does (same
+ * request info keys, same handling of frames, same handling of reverse
+ * complemented blastn HSPs), so that they can be exported using the standard
+ * BeeDeeM exporters.<br>
+ * <br>
+ * A HitFilter can be provided: hits and HSPs it discards are skipped while
+ * reading, so that they are never created. A ColumnProjection can also be
+ * provided: hit and HSP elements not needed to export some columns (e.g.
+ * alignment strings) are skipped without reading their text.<br>
+ * <br>
+ * The document is read by a NcbiXmlScanner working directly on UTF-8 bytes
+ * instead of a generic XML parser.
+ *
+ * @author Patrick G. Durand
+ */
+public class NcbiXmlIterationReader implements Closeable {
+
+  private static final String NOT_SPECIFIED = "-";
+
+  private NcbiXmlScanner  _scanner;
+  private ISRRequestInfo  _requestInfo;
+  private boolean         _blastn;
+  private boolean         _proteic;
+  private boolean         _atIteration;
+  private boolean         _truncated;
+  private long            _iterations;
+  private long            _iterationsOffset = -1;
+  private HitFilter       _filter;
+  private ColumnProjection _projection;
+
+  /**
+   * Constructor. The header of the document (BlastOutput_xxx elements) is read
+   * immediately.
+   *
+   * @param is
+   *          the stream to read. It is closed by the close() method.
+   */
+  public NcbiXmlIterationReader(InputStream is) throws IOException {
+    _scanner = new NcbiXmlScanner(is);
+    try {
+      readHeader();
+    } catch (NumberFormatException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Return the request information read from the document header. Keys are
+   * the ones used by the BeeDeeM NCBI loader: program, prgmVersion, database,
+   * qID, qDef, qLen, qSeq.
+   */
+  public ISRRequestInfo getRequestInfo() {
+    return _requestInfo;
+  }
+
+  /**
+   * Figure out whether or not results are proteic alignments, i.e. produced by
+   * blastp, blastx, tblastn or tblastx.
+   */
+  public boolean isProteic() {
+    return _proteic;
+  }
+
+  /**
+   * Set a filter applied while reading hits and HSPs. Default is none.
+   */
+  public void setHitFilter(HitFilter filter) {
+    _filter = filter != null && filter.isActive() ? filter : null;
+  }
+
+  /**
+   * Set the hit and HSP elements to read. Default is all elements.
+   */
+  public void setProjection(ColumnProjection projection) {
+    _projection = projection != null && !projection.isComplete() ? projection : null;
+  }
+
+  /**
+   * Return the number of iterations read so far.
+   */
+  public long getIterationsRead() {
+    return _iterations;
+  }
+
+  /**
+   * Return the offset of the byte following the BlastOutput_iterations start
+   * tag or -1 if that tag has not been read.
+   */
+  public long getIterationsOffset() {
+    return _iterationsOffset;
+  }
+
+  /**
+   * Return the number of bytes read so far. Just after next() returned an
+   * iteration, that is the offset of the byte following its end tag.
+   */
+  public long getPosition() {
+    return _scanner.getPosition();
+  }
+
+  /**
+   * Figure out whether or not the document ended within an iteration, e.g. a
+   * result file still being written or from an aborted job. That iteration was
+   * not returned by next().
+   */
+  public boolean isTruncated() {
+    return _truncated;
+  }
+
+  /**
+   * Read the next iteration.
+   *
+   * @return an iteration or null when all iterations have been read or when
+   *         the end of the document is reached
+   */
+  public ISRIteration next() throws IOException {
+    ISRIteration iteration;
+    try {
+      if (!_atIteration && !moveToIteration()) {
+        return null;
+      }
+      _atIteration = false;
+      try {
+        iteration = readIteration();
+      } catch (EOFException e) {
+        iteration = null;
+      }
+      if (iteration == null) {
+        _truncated = true;
+        return null;
+      }
+      _iterations++;
+      return iteration;
+    } catch (NumberFormatException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    _scanner.close();
+  }
+
+  /**
+   * Move forward up to the next Iteration start element. Remaining elements
+   * of the document are not read once all iterations have been read.
+   *
+   * @return false if there is no more iteration
+   */
+  private boolean moveToIteration() throws IOException {
+    int event;
+    while ((event = _scanner.next()) != NcbiXmlScanner.END_DOCUMENT) {
+      if (event == NcbiXmlScanner.START_ELEMENT && "Iteration".equals(_scanner.getName())) {
+        return true;
+      }
+      if (event == NcbiXmlScanner.END_ELEMENT && "BlastOutput_iterations".equals(_scanner.getName())) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private void skipElement() throws IOException {
+    _scanner.skipElement();
+  }
+
+  private String text() throws IOException {
+    return _scanner.getElementText();
+  }
+
+  private long longValue() throws IOException {
+    return _scanner.getElementLong();
+  }
+
+  private double doubleValue() throws IOException {
+    return _scanner.getElementDouble();
+  }
+
+  private void readHeader() throws IOException {
+    String program = null, version = null, db = null, qID = null, qDef = null, qSeq = null;
+    long qLen = -1;
+    boolean hasQLen = false;
+
+    int event;
+    while ((event = _scanner.next()) != NcbiXmlScanner.END_DOCUMENT) {
+      if (event != NcbiXmlScanner.START_ELEMENT) {
+        continue;
+      }
+      String name = _scanner.getName();
+      if ("BlastOutput_program".equals(name)) {
+        program = text();
+      } else if ("BlastOutput_version".equals(name)) {
+        version = text();
+      } else if ("BlastOutput_db".equals(name)) {
+        db = text();
+      } else if ("BlastOutput_query-ID".equals(name)) {
+        qID = text();
+      } else if ("BlastOutput_query-def".equals(name)) {
+        qDef = text();
+      } else if ("BlastOutput_query-len".equals(name)) {
+        qLen = longValue();
+        hasQLen = true;
+      } else if ("BlastOutput_query-seq".equals(name)) {
+        qSeq = text();
+      } else if ("BlastOutput_param".equals(name)) {
+        skipElement();
+      } else if ("BlastOutput_iterations".equals(name)) {
+        _iterationsOffset = _scanner.getPosition();
+      } else if ("Iteration".equals(name)) {
+        _atIteration = true;
+        break;
+      }
+    }
+
+    _requestInfo = new ISRRequestInfo();
+    if (program != null) {
+      _requestInfo.setValue("program", program);
+    }
+    if (version != null) {
+      _requestInfo.setValue("prgmVersion", version);
+    }
+    _requestInfo.setValue("database", db != null ? db : "unknown");
+    if (qID != null) {
+      _requestInfo.setValue("qID", qID);
+    }
+    if (qDef != null) {
+      _requestInfo.setValue("qDef", qDef);
+    }
+    if (hasQLen) {
+      _requestInfo.setValue("qLen", Integer.valueOf((int) qLen));
+    }
+    if (qSeq != null) {
+      _requestInfo.setValue("qSeq", qSeq);
+    }
+    program = program != null ? program.toLowerCase() : "";
+    _proteic = "blastp".equals(program) || "tblastx".equals(program) || "blastx".equals(program)
+        || "tblastn".equals(program);
+    _blastn = "blastn".equals(program);
+  }
+
+  /**
+   * Read an iteration.
+   *
+   * @return an iteration or null if the end of the document is reached before
+   *         its end tag
+   */
+  private ISRIteration readIteration() throws IOException {
+    ISRIteration iteration = new ISRIteration();
+    int event;
+    while (true) {
+      event = _scanner.next();
+      if (event == NcbiXmlScanner.END_DOCUMENT) {
+        return null;
+      }
+      if (event == NcbiXmlScanner.END_ELEMENT && "Iteration".equals(_scanner.getName())) {
+        break;
+      }
+      if (event != NcbiXmlScanner.START_ELEMENT) {
+        continue;
+      }
+      String name = _scanner.getName();
+      if ("Iteration_iter-num".equals(name)) {
+        iteration.setIterationIterNum((int) longValue());
+      } else if ("Iteration_query-ID".equals(name)) {
+        iteration.setIterationQueryID(text());
+      } else if ("Iteration_query-def".equals(name)) {
+        iteration.setIterationQueryDesc(text());
+      } else if ("Iteration_query-len".equals(name)) {
+        iteration.setIterationQueryLength((int) longValue());
+      } else if ("Iteration_message".equals(name)) {
+        iteration.setIterationMessage(text());
+      } else if ("Statistics".equals(name)) {
+        iteration.setIterationStat(readStatistics());
+      } else if ("Hit".equals(name)) {
+        if (_filter != null && _filter.isBestHitOnly() && iteration.countHit() != 0) {
+          skipElement();
+          continue;
+        }
+        ISRHit hit = readHit(getQueryLength(iteration));
+        if (hit != null) {
+          iteration.addHit(hit);
+        }
+      }
+    }
+    return iteration;
+  }
+
+  private int getQueryLength(ISRIteration iteration) {
+    Integer qLen;
+
+    if (iteration.getIterationQueryLength() != 0) {
+      return iteration.getIterationQueryLength();
+    }
+    qLen = (Integer) _requestInfo.getValue("qLen");
+    return qLen != null ? qLen.intValue() : 0;
+  }
+
+  private ISRStatistics readStatistics() throws IOException {
+    ISRStatistics stats = new ISRStatistics();
+    int event;
+    while ((event = _scanner.next()) != NcbiXmlScanner.END_DOCUMENT) {
+      if (event == NcbiXmlScanner.END_ELEMENT && "Statistics".equals(_scanner.getName())) {
+        break;
+      }
+      if (event != NcbiXmlScanner.START_ELEMENT) {
+        continue;
+      }
+      String name = _scanner.getName();
+      if ("Statistics_db-len".equals(name)) {
+        stats.setValue("dbLen", Integer.valueOf((int) longValue()));
+      } else if ("Statistics_db-num".equals(name)) {
+        stats.setValue("dbNum", Integer.valueOf((int) longValue()));
+      } else if ("Statistics_hsp-len".equals(name)) {
+        stats.setValue("hspLen", Integer.valueOf((int) longValue()));
+      } else if ("Statistics_eff-space".equals(name)) {
+        stats.setValue("effSpace", Double.valueOf(doubleValue()));
+      } else if ("Statistics_entropy".equals(name)) {
+        // key name is the one used by BeeDeeM
+        stats.setValue("entroy", Double.valueOf(doubleValue()));
+      } else if ("Statistics_kappa".equals(name)) {
+        stats.setValue("kappa", Double.valueOf(doubleValue()));
+      } else if ("Statistics_lambda".equals(name)) {
+        stats.setValue("lambda", Double.valueOf(doubleValue()));
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Read a hit. The hit is only created when its first HSP passes the filter.
+   *
+   * @return a hit or null if it does not contain any HSP
+   */
+  private ISRHit readHit(int qLen) throws IOException {
+    ISRHit hit = null;
+    String id = null, def = null, accession = null;
+    int num = 0, len = 0;
+
+    int event;
+    while ((event = _scanner.next()) != NcbiXmlScanner.END_DOCUMENT) {
+      if (event == NcbiXmlScanner.END_ELEMENT && "Hit".equals(_scanner.getName())) {
+        break;
+      }
+      if (event != NcbiXmlScanner.START_ELEMENT) {
+        continue;
+      }
+      String name = _scanner.getName();
+      if (_projection != null && !_projection.isNeeded(name)) {
+        skipElement();
+        continue;
+      }
+      if ("Hit_num".equals(name)) {
+        num = (int) longValue();
+      } else if ("Hit_id".equals(name)) {
+        id = text();
+      } else if ("Hit_def".equals(name)) {
+        def = text();
+      } else if ("Hit_accession".equals(name)) {
+        accession = text();
+      } else if ("Hit_len".equals(name)) {
+        len = (int) longValue();
+      } else if ("Hsp".equals(name)) {
+        if (hit != null && _filter != null && _filter.isFirstHspOnly()) {
+          skipElement();
+          continue;
+        }
+        ISRHsp hsp = readHsp(qLen);
+        if (hsp != null) {
+          if (hit == null) {
+            hit = new ISRHit();
+          }
+          hit.addHsp(hsp);
+        }
+      }
+    }
+    if (hit == null) {
+      return null;
+    }
+    hit.setHitNum(num);
+    hit.setHitId(id);
+    hit.setHitDef(def);
+    hit.setHitAccession(accession);
+    hit.setHitLen(len);
+    return hit;
+  }
+
+  /**
+   * Read an HSP. Scores precede sequences: when the filter discards the HSP,
+   * sequences are skipped and no object is created.
+   *
+   * @return an HSP or null if it is discarded by the filter
+   */
+  private ISRHsp readHsp(int qLen) throws IOException {
+    String qseq = null, hseq = null, midline = null;
+    double bitScore = 0, rawScore = 0, evalue = 0;
+    int num = 0, qFrom = 0, qTo = 0, hFrom = 0, hTo = 0, qFrame = 0, hFrame = 0;
+    int identity = 0, positive = 0, gaps = 0, alignLen = 0, density = 0;
+    boolean checked = _filter == null;
+
+    int event;
+    while ((event = _scanner.next()) != NcbiXmlScanner.END_DOCUMENT) {
+      if (event == NcbiXmlScanner.END_ELEMENT && "Hsp".equals(_scanner.getName())) {
+        break;
+      }
+      if (event != NcbiXmlScanner.START_ELEMENT) {
+        continue;
+      }
+      String name = _scanner.getName();
+      if (!checked && ("Hsp_qseq".equals(name) || "Hsp_hseq".equals(name) || "Hsp_midline".equals(name))) {
+        checked = true;
+        if (!_filter.accept(evalue, bitScore, identity, alignLen, qFrom, qTo, qLen)) {
+          // skip the current sequence, then the rest of the HSP
+          skipElement();
+          skipElement();
+          return null;
+        }
+      }
+      if (_projection != null && !_projection.isNeeded(name)) {
+        skipElement();
+        continue;
+      }
+      if ("Hsp_num".equals(name)) {
+        num = (int) longValue();
+      } else if ("Hsp_bit-score".equals(name)) {
+        bitScore = doubleValue();
+      } else if ("Hsp_score".equals(name)) {
+        rawScore = doubleValue();
+      } else if ("Hsp_evalue".equals(name)) {
+        evalue = doubleValue();
+      } else if ("Hsp_query-from".equals(name)) {
+        qFrom = (int) longValue();
+      } else if ("Hsp_query-to".equals(name)) {
+        qTo = (int) longValue();
+      } else if ("Hsp_hit-from".equals(name)) {
+        hFrom = (int) longValue();
+      } else if ("Hsp_hit-to".equals(name)) {
+        hTo = (int) longValue();
+      } else if ("Hsp_query-frame".equals(name)) {
+        qFrame = (int) longValue();
+      } else if ("Hsp_hit-frame".equals(name)) {
+        hFrame = (int) longValue();
+      } else if ("Hsp_identity".equals(name)) {
+        identity = (int) longValue();
+      } else if ("Hsp_positive".equals(name)) {
+        positive = (int) longValue();
+      } else if ("Hsp_gaps".equals(name)) {
+        gaps = (int) longValue();
+      } else if ("Hsp_align-len".equals(name)) {
+        alignLen = (int) longValue();
+      } else if ("Hsp_density".equals(name)) {
+        density = (int) longValue();
+      } else if ("Hsp_qseq".equals(name)) {
+        qseq = text();
+      } else if ("Hsp_hseq".equals(name)) {
+        hseq = text();
+      } else if ("Hsp_midline".equals(name)) {
+        midline = text();
+      }
+    }
+    if (!checked && !_filter.accept(evalue, bitScore, identity, alignLen, qFrom, qTo, qLen)) {
+      return null;
+    }
+
+    ISRHspScore score = new ISRHspScore();
+    score.setBitScore(bitScore);
+    score.setScore(rawScore);
+    score.setEvalue(evalue);
+    score.setIdentity(identity);
+    score.setPositive(positive);
+    score.setGaps(gaps);
+    score.setAlignLen(alignLen);
+    score.setDensity(density);
+
+    // same rule as BeeDeeM NCBI loader: blastn HSP on reverse strand
+    boolean rc = _blastn && qFrom > qTo && qFrame > 0;
+
+    ISRHsp hsp = new ISRHsp();
+    hsp.setScores(score);
+    hsp.setQuery(getSequence(qFrame, qFrom, qTo, qseq, rc));
+    hsp.setHit(getSequence(hFrame, hFrom, hTo, hseq, rc));
+    ISRHspSequence mid = new ISRHspSequence();
+    mid.setType(SRHspSequence.TYPE_MIDLINE);
+    if (midline != null) {
+      mid.setSequence(rc ? DAlphabetUtils.reverse(midline.toUpperCase()) : midline.toUpperCase());
+    }
+    hsp.setMidline(mid);
+    hsp.setHspNum(num);
+    hsp.setProteic(_proteic);
+    return hsp;
+  }
+
+  private ISRHspSequence getSequence(int frame, int from, int to, String seq, boolean rc) {
+    ISRHspSequence hspSeq = new ISRHspSequence();
+    hspSeq.setType(SRHspSequence.TYPE_ALIGNED_SEQ);
+    hspSeq.setFrame(frame);
+    if (frame < 0) {
+      hspSeq.setFrom(Math.max(from, to));
+      hspSeq.setTo(Math.min(from, to));
+    } else {
+      hspSeq.setFrom(Math.min(from, to));
+      hspSeq.setTo(Math.max(from, to));
+    }
+    if (seq != null && !NOT_SPECIFIED.equals(seq)) {
+      hspSeq.setSequence(rc ? DAlphabetUtils.reverseComplement(seq.toUpperCase()) : seq.toUpperCase());
+    }
+    return hspSeq;
+  }
+}
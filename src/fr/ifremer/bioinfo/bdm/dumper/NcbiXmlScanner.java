@@ -0,0 +1,540 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal pull scanner of NCBI BLAST legacy XML documents working directly
+ * on UTF-8 bytes. It only handles what these documents contain: elements,
+ * text, the five predefined entities and character references. Attributes
+ * are skipped; XML declaration, processing instructions, comments and
+ * DOCTYPE declaration (the remote DTD is never fetched) are ignored.<br>
+ * <br>
+ * Element names of the NCBI schema are recognized by length and byte
+ * comparison and returned as shared String instances: no String is created
+ * for them. Integer values are parsed directly from bytes.<br>
+ * <br>
+ * An EOFException is thrown when the document ends within an element.
+ *
+ * @author Patrick G. Durand
+ */
+public class NcbiXmlScanner implements Closeable {
+
+  /** event returned when a start tag is read */
+  public static final int START_ELEMENT = 1;
+  /** event returned when an end tag is read */
+  public static final int END_ELEMENT   = 2;
+  /** event returned when the end of the document is reached */
+  public static final int END_DOCUMENT  = 3;
+
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  // elements of NCBI BLAST legacy XML documents
+  private static final String[] KNOWN_NAMES = { "BlastOutput", "BlastOutput_program", "BlastOutput_version",
+      "BlastOutput_reference", "BlastOutput_db", "BlastOutput_query-ID", "BlastOutput_query-def",
+      "BlastOutput_query-len", "BlastOutput_query-seq", "BlastOutput_param", "BlastOutput_iterations",
+      "BlastOutput_mbstat", "Parameters", "Parameters_matrix", "Parameters_expect", "Parameters_include",
+      "Parameters_sc-match", "Parameters_sc-mismatch", "Parameters_gap-open", "Parameters_gap-extend",
+      "Parameters_filter", "Parameters_pattern", "Parameters_entrez-query", "Iteration", "Iteration_iter-num",
+      "Iteration_query-ID", "Iteration_query-def", "Iteration_query-len", "Iteration_hits", "Iteration_stat",
+      "Iteration_message", "Statistics", "Statistics_db-num", "Statistics_db-len", "Statistics_hsp-len",
+      "Statistics_eff-space", "Statistics_kappa", "Statistics_lambda", "Statistics_entropy", "Hit", "Hit_num",
+      "Hit_id", "Hit_def", "Hit_accession", "Hit_len", "Hit_hsps", "Hsp", "Hsp_num", "Hsp_bit-score",
+      "Hsp_score", "Hsp_evalue", "Hsp_query-from", "Hsp_query-to", "Hsp_hit-from", "Hsp_hit-to",
+      "Hsp_pattern-from", "Hsp_pattern-to", "Hsp_query-frame", "Hsp_hit-frame", "Hsp_identity",
+      "Hsp_positive", "Hsp_gaps", "Hsp_align-len", "Hsp_density", "Hsp_qseq", "Hsp_hseq", "Hsp_midline" };
+
+  // known names indexed by length
+  private static final byte[][][] NAME_BYTES;
+  private static final String[][] NAMES;
+
+  // exact powers of ten used by the fast path of double parsing
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+      1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  static {
+    int maxLen = 0;
+    for (String name : KNOWN_NAMES) {
+      maxLen = Math.max(maxLen, name.length());
+    }
+    NAME_BYTES = new byte[maxLen + 1][0][];
+    NAMES = new String[maxLen + 1][0];
+    for (String name : KNOWN_NAMES) {
+      int len = name.length();
+      NAME_BYTES[len] = Arrays.copyOf(NAME_BYTES[len], NAME_BYTES[len].length + 1);
+      NAME_BYTES[len][NAME_BYTES[len].length - 1] = name.getBytes(StandardCharsets.US_ASCII);
+      NAMES[len] = Arrays.copyOf(NAMES[len], NAMES[len].length + 1);
+      NAMES[len][NAMES[len].length - 1] = name;
+    }
+  }
+
+  private InputStream _is;
+  private byte[]      _buf = new byte[BUFFER_SIZE];
+  private int         _pos;
+  private int         _limit;
+  private long        _offset;
+  private byte[]      _name = new byte[64];
+  private int         _nameLen;
+  private String      _nameStr;
+  private boolean     _emptyElement;
+  private boolean     _pendingEnd;
+  private byte[]      _text = new byte[256];
+  private int         _textLen;
+
+  /**
+   * Constructor.
+   *
+   * @param is
+   *          the stream to read. It is closed by the close() method. There is
+   *          no need to buffer it.
+   */
+  public NcbiXmlScanner(InputStream is) {
+    _is = is;
+  }
+
+  /**
+   * Move to the next start or end tag. Text located between tags is skipped.
+   *
+   * @return START_ELEMENT, END_ELEMENT or END_DOCUMENT
+   */
+  public int next() throws IOException {
+    if (_pendingEnd) {
+      // empty element: <name/>
+      _pendingEnd = false;
+      return END_ELEMENT;
+    }
+    _emptyElement = false;
+    while (true) {
+      int b = read();
+      if (b == -1) {
+        return END_DOCUMENT;
+      }
+      if (b != '<') {
+        continue;
+      }
+      b = read();
+      if (b == '/') {
+        readName(read());
+        skipTo('>');
+        return END_ELEMENT;
+      } else if (b == '?') {
+        skipTo("?>");
+      } else if (b == '!') {
+        skipDeclaration();
+      } else {
+        readName(b);
+        readTagEnd();
+        _pendingEnd = _emptyElement;
+        return START_ELEMENT;
+      }
+    }
+  }
+
+  /**
+   * Return the number of bytes read so far, i.e. the offset of the byte
+   * following the current tag or text.
+   */
+  public long getPosition() {
+    return _offset + _pos;
+  }
+
+  /**
+   * Return the name of the current element.
+   */
+  public String getName() {
+    if (_nameStr == null) {
+      _nameStr = new String(_name, 0, _nameLen, StandardCharsets.UTF_8);
+    }
+    return _nameStr;
+  }
+
+  /**
+   * Skip the current element and all its content. Must be called when the
+   * current event is START_ELEMENT.
+   */
+  public void skipElement() throws IOException {
+    int depth = 1;
+    while (depth != 0) {
+      int event = next();
+      if (event == START_ELEMENT) {
+        depth++;
+      } else if (event == END_ELEMENT) {
+        depth--;
+      } else {
+        throw new EOFException("unexpected end of document");
+      }
+    }
+  }
+
+  /**
+   * Read the text of the current element, up to and including its end tag.
+   * Must be called when the current event is START_ELEMENT; the current
+   * element must not contain other elements.
+   */
+  public String getElementText() throws IOException {
+    readText();
+    return new String(_text, 0, _textLen, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read the text of the current element as an integer number. Same contract
+   * as getElementText().
+   */
+  public long getElementLong() throws IOException {
+    readText();
+    int i = 0, end = _textLen;
+    while (i < end && isSpace(_text[i])) {
+      i++;
+    }
+    while (end > i && isSpace(_text[end - 1])) {
+      end--;
+    }
+    boolean negative = i < end && _text[i] == '-';
+    if (negative || (i < end && _text[i] == '+')) {
+      i++;
+    }
+    if (i == end || end - i > 18) {
+      // let the JRE report the error or handle huge values
+      return Long.parseLong(new String(_text, 0, _textLen, StandardCharsets.US_ASCII).trim());
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = _text[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("not a number: " + new String(_text, 0, _textLen, StandardCharsets.UTF_8));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Read the text of the current element as a floating point number. Same
+   * contract as getElementText(). Values having at most 15 significant digits
+   * and a small exponent are computed directly from bytes; other ones are
+   * parsed using Double.parseDouble(), so that results are always the same as
+   * the ones of that method.
+   */
+  public double getElementDouble() throws IOException {
+    readText();
+    int i = 0, end = _textLen;
+    while (i < end && isSpace(_text[i])) {
+      i++;
+    }
+    while (end > i && isSpace(_text[end - 1])) {
+      end--;
+    }
+    int start = i;
+    boolean negative = i < end && _text[i] == '-';
+    if (negative || (i < end && _text[i] == '+')) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0, scale = 0;
+    boolean dot = false, ok = false;
+    for (; i < end; i++) {
+      byte b = _text[i];
+      if (b >= '0' && b <= '9') {
+        ok = true;
+        if (mantissa != 0 || b != '0') {
+          digits++;
+        }
+        mantissa = mantissa * 10 + (b - '0');
+        if (dot) {
+          scale--;
+        }
+        if (digits > 15) {
+          break;
+        }
+      } else if (b == '.' && !dot) {
+        dot = true;
+      } else {
+        break;
+      }
+    }
+    ok &= digits <= 15;
+    if (ok && i < end && (_text[i] == 'e' || _text[i] == 'E')) {
+      i++;
+      boolean negExp = i < end && _text[i] == '-';
+      if (negExp || (i < end && _text[i] == '+')) {
+        i++;
+      }
+      int exp = 0;
+      ok = i < end;
+      for (; i < end && ok; i++) {
+        int digit = _text[i] - '0';
+        ok = digit >= 0 && digit <= 9 && exp < 1000;
+        exp = exp * 10 + digit;
+      }
+      scale += negExp ? -exp : exp;
+    }
+    if (ok && i == end && scale >= -22 && scale <= 22) {
+      // both values are exact doubles: a single rounding, as parseDouble()
+      double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+      return negative ? -value : value;
+    }
+    return Double.parseDouble(new String(_text, start, end - start, StandardCharsets.US_ASCII));
+  }
+
+  @Override
+  public void close() throws IOException {
+    _is.close();
+  }
+
+  private int read() throws IOException {
+    if (_pos == _limit) {
+      _offset += _limit;
+      _limit = _is.read(_buf, 0, _buf.length);
+      _pos = 0;
+      if (_limit <= 0) {
+        _limit = 0;
+        return -1;
+      }
+    }
+    return _buf[_pos++] & 0xff;
+  }
+
+  private int readRequired() throws IOException {
+    int b = read();
+    if (b == -1) {
+      throw new EOFException("unexpected end of document");
+    }
+    return b;
+  }
+
+  private static boolean isSpace(int b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  /**
+   * Read an element name starting with a given byte. Name ends at the first
+   * space, '/' or '>', which is not consumed.
+   */
+  private void readName(int b) throws IOException {
+    _nameLen = 0;
+    while (true) {
+      if (b == -1) {
+        throw new EOFException("unexpected end of document");
+      }
+      if (isSpace(b) || b == '/' || b == '>') {
+        _pos--;
+        break;
+      }
+      if (_nameLen == _name.length) {
+        _name = Arrays.copyOf(_name, 2 * _name.length);
+      }
+      _name[_nameLen++] = (byte) b;
+      b = read();
+    }
+    _nameStr = null;
+    if (_nameLen < NAME_BYTES.length) {
+      byte[][] candidates = NAME_BYTES[_nameLen];
+      for (int i = 0; i < candidates.length; i++) {
+        if (equals(candidates[i], _name, _nameLen)) {
+          _nameStr = NAMES[_nameLen][i];
+          break;
+        }
+      }
+    }
+  }
+
+  private static boolean equals(byte[] known, byte[] name, int len) {
+    // element names mostly differ by their end
+    for (int i = len - 1; i >= 0; i--) {
+      if (known[i] != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Skip attributes of a start tag, up to and including '>'.
+   */
+  private void readTagEnd() throws IOException {
+    int quote = 0, prev = 0;
+    while (true) {
+      int b = readRequired();
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        _emptyElement = prev == '/';
+        return;
+      }
+      prev = b;
+    }
+  }
+
+  private void skipTo(int end) throws IOException {
+    while (readRequired() != end) {
+      // skip
+    }
+  }
+
+  private void skipTo(String end) throws IOException {
+    int matched = 0;
+    while (matched < end.length()) {
+      int b = readRequired();
+      if (b == end.charAt(matched)) {
+        matched++;
+      } else {
+        matched = b == end.charAt(0) ? 1 : 0;
+      }
+    }
+  }
+
+  /**
+   * Skip a comment or a DOCTYPE declaration. Opening '&lt;!' is already read.
+   */
+  private void skipDeclaration() throws IOException {
+    int b = readRequired();
+    if (b == '-') {
+      readRequired();
+      skipTo("-->");
+      return;
+    }
+    // DOCTYPE, possibly with an internal subset
+    int brackets = 0;
+    while (b != '>' || brackets != 0) {
+      if (b == '[') {
+        brackets++;
+      } else if (b == ']') {
+        brackets--;
+      }
+      b = readRequired();
+    }
+  }
+
+  /**
+   * Read text up to the end tag of the current element, decoding entities and
+   * CDATA sections.
+   */
+  private void readText() throws IOException {
+    _textLen = 0;
+    if (_emptyElement) {
+      _pendingEnd = false;
+      _emptyElement = false;
+      return;
+    }
+    while (true) {
+      int b = readRequired();
+      if (b == '<') {
+        b = readRequired();
+        if (b == '/') {
+          readName(read());
+          skipTo('>');
+          return;
+        }
+        if (b == '!' && peek() == '[') {
+          readCData();
+          continue;
+        }
+        if (b == '!') {
+          skipDeclaration();
+          continue;
+        }
+        if (b == '?') {
+          skipTo("?>");
+          continue;
+        }
+        throw new IOException("unexpected element in text of: " + getName());
+      }
+      if (b == '&') {
+        readEntity();
+      } else {
+        appendText(b);
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    int b = read();
+    if (b != -1) {
+      _pos--;
+    }
+    return b;
+  }
+
+  private void readCData() throws IOException {
+    // "[CDATA[" then data up to "]]>"
+    for (int i = 0; i < 7; i++) {
+      readRequired();
+    }
+    while (true) {
+      int b = readRequired();
+      appendText(b);
+      if (b == '>' && _textLen >= 3 && _text[_textLen - 2] == ']' && _text[_textLen - 3] == ']') {
+        _textLen -= 3;
+        return;
+      }
+    }
+  }
+
+  private void readEntity() throws IOException {
+    StringBuilder entity = new StringBuilder();
+    int b;
+    while ((b = readRequired()) != ';') {
+      entity.append((char) b);
+      if (entity.length() > 10) {
+        throw new IOException("invalid entity: &" + entity);
+      }
+    }
+    String s = entity.toString();
+    int c;
+    if ("amp".equals(s)) {
+      c = '&';
+    } else if ("lt".equals(s)) {
+      c = '<';
+    } else if ("gt".equals(s)) {
+      c = '>';
+    } else if ("quot".equals(s)) {
+      c = '"';
+    } else if ("apos".equals(s)) {
+      c = '\'';
+    } else if (s.startsWith("#x") || s.startsWith("#X")) {
+      c = Integer.parseInt(s.substring(2), 16);
+    } else if (s.startsWith("#")) {
+      c = Integer.parseInt(s.substring(1));
+    } else {
+      throw new IOException("unknown entity: &" + s + ";");
+    }
+    if (c < 0x80) {
+      appendText(c);
+    } else {
+      for (byte cb : new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8)) {
+        appendText(cb & 0xff);
+      }
+    }
+  }
+
+  private void appendText(int b) {
+    if (_textLen == _text.length) {
+      _text = Arrays.copyOf(_text, 2 * _text.length);
+    }
+    _text[_textLen++] = (byte) b;
+  }
+}
@@ -0,0 +1,225 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import bzh.plealog.bioinfo.api.data.feature.AnnotationDataModelConstants;
+import bzh.plealog.bioinfo.api.data.searchresult.SRClassification;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+import bzh.plealog.bioinfo.io.searchresult.csv.ExtractAnnotation;
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+
+/**
+ * Export a single CSV row per query instead of a row per HSP. A row contains:
+ * <ul>
+ * <li>the query ID,</li>
+ * <li>the requested columns for the first HSP of the best hit, formatted as
+ * in CSV files created by CSVExportSROutput,</li>
+ * <li>the number of hits,</li>
+ * <li>the lowest common ancestor (ID, name and rank) of the taxa of all hits
+ * whose evalue is within a window of the best one.</li>
+ * </ul>
+ * Queries are summarized while NCBI XML data are read: memory usage is bounded
+ * by the size of a single iteration. Queries without hits have a row of '-'
+ * values and a hit count of 0.
+ *
+ * @author Patrick G. Durand
+ */
+public class QuerySummaryExporter {
+
+  private static final char   SEP = ',';
+  private static final String NONE = "\"-\"";
+
+  private int[]                    _colIds;
+  private CSVExportSROutputHandler _handler;
+  private TaxonomyIndex            _taxonomy;
+  private double                   _evalueFactor;
+  private DefLineAnnotator         _annotator;
+  private boolean                  _showHeader = true;
+  private CSVRowBuilder            _row = new CSVRowBuilder();
+
+  /**
+   * Constructor.
+   *
+   * @param colIds
+   *          columns to export for best hits. Values are TxtExportSROutput
+   *          column constants.
+   * @param handler
+   *          data handler. Can be null.
+   * @param taxonomy
+   *          compact NCBI Taxonomy used to compute lowest common ancestors
+   * @param evalueWindow
+   *          taxa of hits having an evalue lower than or equal to best evalue
+   *          times 10^evalueWindow are used to compute the lowest common
+   *          ancestor. Zero means hits having the best evalue.
+   */
+  public QuerySummaryExporter(int[] colIds, CSVExportSROutputHandler handler, TaxonomyIndex taxonomy,
+      double evalueWindow) {
+    _colIds = colIds;
+    _handler = handler;
+    _taxonomy = taxonomy;
+    _evalueFactor = Math.pow(10, evalueWindow);
+  }
+
+  /**
+   * Set an annotator used to extract biological classification from hit
+   * definition lines of each iteration before it is summarized. Default is
+   * none. It must annotate all hits, not only the best one.
+   */
+  public void setAnnotator(DefLineAnnotator annotator) {
+    _annotator = annotator;
+  }
+
+  /**
+   * Show or not the header row. Default is true.
+   */
+  public void showColumnHeader(boolean showHeader) {
+    _showHeader = showHeader;
+  }
+
+  /**
+   * Export results.
+   *
+   * @param reader
+   *          the NCBI XML reader
+   * @param w
+   *          where to write CSV data
+   *
+   * @return number of iterations exported
+   */
+  public long export(NcbiXmlIterationReader reader, Writer w) throws IOException {
+    SRIteration iteration;
+
+    if (_showHeader) {
+      writeHeader(w);
+    }
+    while ((iteration = reader.next()) != null) {
+      export(iteration, null, w);
+    }
+    w.flush();
+    return reader.getIterationsRead();
+  }
+
+  /**
+   * Write the header row.
+   */
+  public void writeHeader(Writer w) throws IOException {
+    CSVStreamExporter.appendColumnHeader(_row.reset(), _colIds);
+    _row.append(",\"Hit count\",\"LCA Taxon Id\",\"LCA Taxon\",\"LCA Rank\"\n");
+    _row.writeTo(w);
+  }
+
+  /**
+   * Export the summary of an iteration. It is annotated first when an
+   * annotator is set.
+   *
+   * @param classification
+   *          biological classification of results. Can be null.
+   */
+  public void export(SRIteration iteration, SRClassification classification, Writer w) throws IOException {
+    int nHits = iteration.countHit();
+    int lca = -1;
+
+    if (_annotator != null) {
+      _annotator.annotate(iteration);
+    }
+    _row.reset().append('"').append(iteration.getIterationQueryID()).append('"');
+    if (nHits == 0) {
+      for (int i = 0; i < _colIds.length; i++) {
+        _row.append(SEP).append(NONE);
+      }
+      _row.append(",0,").append(NONE).append(SEP).append(NONE).append(SEP).append(NONE).append('\n');
+      _row.writeTo(w);
+      return;
+    }
+    // hits are sorted by increasing evalue of their best HSP
+    SRHit best = iteration.getHit(0);
+    Map<AnnotationDataModelConstants.ANNOTATION_CATEGORY, SRClassification> classif =
+        ExtractAnnotation.prepareClassification(classification, best.getHsp(0).getFeatures());
+    for (int colId : _colIds) {
+      String s = TxtExportSROutput.getFormattedData(classif, iteration, best, best.getHsp(0), colId, true, false);
+      if (_handler != null) {
+        s = _handler.handle(s, colId);
+      }
+      _row.append(SEP).append(s);
+    }
+    double maxEvalue = best.getHsp(0).getScores().getEvalue() * _evalueFactor;
+    for (int i = 0; i < nHits; i++) {
+      SRHit hit = iteration.getHit(i);
+      SRHsp hsp = hit.getHsp(0);
+      if (hsp.getScores().getEvalue() > maxEvalue) {
+        break;
+      }
+      lca = getLca(lca, classification, iteration, hit, hsp);
+    }
+    _row.append(SEP).append(Integer.toString(nHits)).append(SEP);
+    if (lca == -1) {
+      _row.append(NONE).append(SEP).append(NONE).append(SEP).append(NONE);
+    } else {
+      String name = _taxonomy.getName(lca);
+      _row.append(Integer.toString(lca)).append(SEP);
+      _row.append('"').append(name != null ? name : "-").append("\",\"").append(_taxonomy.getRank(lca)).append('"');
+    }
+    _row.append('\n');
+    _row.writeTo(w);
+  }
+
+  /**
+   * Update a lowest common ancestor with the taxa of a hit. Unknown taxa are
+   * ignored.
+   *
+   * @param lca
+   *          current lowest common ancestor or -1 if none yet
+   *
+   * @return new lowest common ancestor or -1 if none yet
+   */
+  private int getLca(int lca, SRClassification classification, SRIteration iteration, SRHit hit, SRHsp hsp) {
+    String s = TxtExportSROutput.getFormattedData(ExtractAnnotation.prepareClassification(classification,
+        hsp.getFeatures()), iteration, hit, hsp, TxtExportSROutput.BIO_CLASSIF_TAX, true, false);
+    int from = 0, to, len = s.length(), taxId;
+
+    // taxon IDs look like "TAX:562;TAX:83333;": prefix and quotes are skipped;
+    // an ID that is not made of digits or that is too long is not a valid taxon
+    while (from < len) {
+      taxId = 0;
+      for (to = from; to < len && s.charAt(to) != ';'; to++) {
+        char c = s.charAt(to);
+        if (c == ':') {
+          taxId = 0;
+        } else if (c >= '0' && c <= '9') {
+          taxId = taxId >= 0 && taxId < 100000000 ? 10 * taxId + (c - '0') : -1;
+        } else if (c != '"') {
+          taxId = -1;
+        }
+      }
+      if (_taxonomy.contains(taxId)) {
+        int tmp = lca == -1 ? taxId : _taxonomy.getLca(lca, taxId);
+        if (tmp != -1) {
+          lca = tmp;
+        }
+      }
+      from = to + 1;
+    }
+    return lca;
+  }
+}
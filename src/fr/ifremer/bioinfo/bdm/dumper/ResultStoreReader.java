@@ -0,0 +1,251 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read rows of queries from a store created by ResultStoreWriter. The index is
+ * memory-mapped; a lookup is a binary search followed by the read of a single
+ * compressed record. Whatever the size of the store, only the index has to
+ * fit in the address space.<br>
+ * <br>
+ * This class is thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class ResultStoreReader implements Closeable {
+
+  private RandomAccessFile _raf;
+  private FileChannel      _channel;
+  private String           _columnHeader;
+  private int              _size;
+  private IntBuffer        _idOffsets;
+  private LongBuffer       _offsets;
+  private IntBuffer        _sizes;
+  private IntBuffer        _rawSizes;
+  private IntBuffer        _rows;
+  private ByteBuffer       _ids;
+
+  /**
+   * Constructor. The file header and the index are read immediately.
+   */
+  public ResultStoreReader(File f) throws IOException {
+    _raf = new RandomAccessFile(f, "r");
+    try {
+      open();
+    } catch (IOException | RuntimeException e) {
+      _raf.close();
+      throw e;
+    }
+  }
+
+  private void open() throws IOException {
+    byte[] magic = new byte[ResultStoreWriter.MAGIC.length];
+    byte[] b;
+    long headerEnd, indexOffset;
+    int poolSize;
+
+    _channel = _raf.getChannel();
+    _raf.readFully(magic);
+    if (!Arrays.equals(magic, ResultStoreWriter.MAGIC) || _raf.readByte() != ResultStoreWriter.VERSION) {
+      throw new IOException("not a result store file");
+    }
+    b = new byte[_raf.readInt()];
+    _raf.readFully(b);
+    _columnHeader = new String(b, StandardCharsets.UTF_8);
+    headerEnd = _raf.getFilePointer();
+    if (_raf.length() < headerEnd + 8) {
+      throw new EOFException("result store file is truncated");
+    }
+    _raf.seek(_raf.length() - 8);
+    indexOffset = _raf.readLong();
+    if (indexOffset < headerEnd || indexOffset > _raf.length() - 8) {
+      throw new IOException("invalid result store file");
+    }
+    ByteBuffer buf = _channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, _raf.length() - 8 - indexOffset);
+    _size = buf.getInt();
+    poolSize = buf.getInt();
+    _idOffsets = slice(buf, 4 * (_size + 1)).asIntBuffer();
+    _offsets = slice(buf, 8 * _size).asLongBuffer();
+    _sizes = slice(buf, 4 * _size).asIntBuffer();
+    _rawSizes = slice(buf, 4 * _size).asIntBuffer();
+    _rows = slice(buf, 4 * _size).asIntBuffer();
+    _ids = slice(buf, poolSize);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buf, int length) {
+    ByteBuffer b = buf.slice();
+    b.limit(length);
+    buf.position(buf.position() + length);
+    return b;
+  }
+
+  /**
+   * Return the CSV header row, without line separator.
+   */
+  public String getColumnHeader() {
+    return _columnHeader;
+  }
+
+  /**
+   * Return the number of queries.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Return a query ID. Queries are sorted by ID.
+   *
+   * @param idx
+   *          a value in [0..size()-1]
+   */
+  public String getQueryId(int idx) {
+    int from = _idOffsets.get(idx);
+    byte[] b = new byte[_idOffsets.get(idx + 1) - from];
+    ByteBuffer ids = _ids.duplicate();
+    ids.position(from);
+    ids.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Figure out whether or not a query is contained in this store.
+   */
+  public boolean contains(String queryId) {
+    return find(queryId.getBytes(StandardCharsets.UTF_8)) != -1;
+  }
+
+  /**
+   * Return the CSV rows of a query, without line separator.
+   *
+   * @return rows of the query, an empty list for a query without hits or null
+   *         if the query is not contained in this store. If several queries
+   *         have that ID, their rows are returned in the order they were
+   *         stored.
+   */
+  public List<String> getRows(String queryId) throws IOException {
+    byte[] key = queryId.getBytes(StandardCharsets.UTF_8);
+    int idx = find(key);
+    List<String> rows;
+    String data;
+    int from;
+
+    if (idx == -1) {
+      return null;
+    }
+    rows = new ArrayList<>();
+    for (; idx < _size && compare(key, idx) == 0; idx++) {
+      data = readRecord(idx);
+      from = 0;
+      for (int i = 0; i < _rows.get(idx); i++) {
+        int to = data.indexOf('\n', from);
+        rows.add(data.substring(from, to));
+        from = to + 1;
+      }
+    }
+    return rows;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _raf.close();
+  }
+
+  /**
+   * Return the index of the first query having an ID or -1 if not found.
+   */
+  private int find(byte[] key) {
+    int low = 0, high = _size - 1, mid, c, found = -1;
+
+    while (low <= high) {
+      mid = (low + high) >>> 1;
+      c = compare(key, mid);
+      if (c > 0) {
+        low = mid + 1;
+      } else {
+        if (c == 0) {
+          found = mid;
+        }
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  private int compare(byte[] key, int idx) {
+    int from = _idOffsets.get(idx);
+    int to = _idOffsets.get(idx + 1);
+    int len = Math.min(key.length, to - from);
+    for (int i = 0; i < len; i++) {
+      int c = (key[i] & 0xff) - (_ids.get(from + i) & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return key.length - (to - from);
+  }
+
+  /**
+   * Read and decompress a record. Positional reads do not change the position
+   * of the channel: concurrent lookups do not interfere.
+   */
+  private String readRecord(int idx) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(_sizes.get(idx));
+    byte[] data = new byte[_rawSizes.get(idx)];
+    long pos = _offsets.get(idx);
+    Inflater inflater;
+
+    if (data.length == 0) {
+      // query without hits
+      return "";
+    }
+    while (buf.hasRemaining()) {
+      int n = _channel.read(buf, pos + buf.position());
+      if (n < 0) {
+        throw new EOFException("result store file is truncated");
+      }
+    }
+    inflater = new Inflater();
+    try {
+      inflater.setInput(buf.array());
+      if (inflater.inflate(data) != data.length || !inflater.finished()) {
+        throw new IOException("invalid record of query: " + getQueryId(idx));
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("invalid record of query: " + getQueryId(idx), e);
+    } finally {
+      inflater.end();
+    }
+    return new String(data, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,213 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Write CSV rows of search results in an indexed store, so that rows of a
+ * query can be retrieved without reading the whole results (see
+ * ResultStoreReader). Rows of a query are stored as a single compressed
+ * record; the index maps query IDs to records.<br>
+ * <br>
+ * File layout (numbers are big-endian, as written by DataOutputStream):
+ *
+ * <pre>
+ * header  : magic "BDMRST" (6 bytes), version (byte, 1), CSV column header (string)
+ * records : for each query, in the order queries are added: its rows (UTF-8,
+ *           each one followed by '\n') compressed using Deflate
+ * index   : number of queries (int), size of the ID pool (int), then, sorted by
+ *           query ID: ID offsets (int, one more than the number of queries),
+ *           record offsets (long), compressed sizes (int), uncompressed sizes
+ *           (int), numbers of rows (int); then the ID pool (UTF-8)
+ * end     : offset of the index (long)
+ * string  : length in bytes (int), UTF-8 bytes
+ * </pre>
+ *
+ * Queries having the same ID are all kept, in the order they were added.
+ *
+ * @author Patrick G. Durand
+ */
+public class ResultStoreWriter implements Closeable {
+
+  /** file magic */
+  public static final byte[] MAGIC   = "BDMRST".getBytes(StandardCharsets.US_ASCII);
+  /** format version */
+  public static final byte   VERSION = 1;
+
+  private DataOutputStream _out;
+  private long             _offset;
+  private Deflater         _deflater = new Deflater(Deflater.BEST_SPEED);
+  private byte[]           _buf = new byte[8192];
+  private List<Entry>      _entries = new ArrayList<>();
+  private long             _rows;
+
+  /**
+   * Constructor. The file header is written immediately.
+   *
+   * @param f
+   *          the store file
+   * @param columnHeader
+   *          CSV header row, without line separator
+   */
+  public ResultStoreWriter(File f, String columnHeader) throws IOException {
+    byte[] b = columnHeader.getBytes(StandardCharsets.UTF_8);
+
+    _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 65536));
+    _out.write(MAGIC);
+    _out.writeByte(VERSION);
+    _out.writeInt(b.length);
+    _out.write(b);
+    _offset = MAGIC.length + 1 + 4 + b.length;
+  }
+
+  /**
+   * Add the rows of a query.
+   *
+   * @param queryId
+   *          the query ID
+   * @param rows
+   *          CSV rows, each one followed by a new line character. Can be empty
+   *          for a query without hits.
+   */
+  public void add(String queryId, CSVRowBuilder rows) throws IOException {
+    byte[] data = rows.toString().getBytes(StandardCharsets.UTF_8);
+    int nRows = 0, size = 0, n;
+
+    for (byte b : data) {
+      if (b == '\n') {
+        nRows++;
+      }
+    }
+    _deflater.reset();
+    _deflater.setInput(data);
+    _deflater.finish();
+    while (!_deflater.finished()) {
+      n = _deflater.deflate(_buf);
+      _out.write(_buf, 0, n);
+      size += n;
+    }
+    _entries.add(new Entry(queryId.getBytes(StandardCharsets.UTF_8), _offset, size, data.length, nRows));
+    _offset += size;
+    _rows += nRows;
+  }
+
+  /**
+   * Return the number of queries added so far.
+   */
+  public int getQueryCount() {
+    return _entries.size();
+  }
+
+  /**
+   * Return the number of rows added so far.
+   */
+  public long getRowCount() {
+    return _rows;
+  }
+
+  /**
+   * Write the index and close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (_out == null) {
+      return;
+    }
+    try {
+      writeIndex();
+    } finally {
+      _out.close();
+      _out = null;
+      _deflater.end();
+    }
+  }
+
+  private void writeIndex() throws IOException {
+    long indexOffset = _offset;
+    int poolSize = 0;
+
+    // stable sort: queries having the same ID keep their order
+    _entries.sort((e1, e2) -> compare(e1._id, e2._id));
+    for (Entry entry : _entries) {
+      poolSize += entry._id.length;
+    }
+    _out.writeInt(_entries.size());
+    _out.writeInt(poolSize);
+    poolSize = 0;
+    for (Entry entry : _entries) {
+      _out.writeInt(poolSize);
+      poolSize += entry._id.length;
+    }
+    _out.writeInt(poolSize);
+    for (Entry entry : _entries) {
+      _out.writeLong(entry._offset);
+    }
+    for (Entry entry : _entries) {
+      _out.writeInt(entry._size);
+    }
+    for (Entry entry : _entries) {
+      _out.writeInt(entry._rawSize);
+    }
+    for (Entry entry : _entries) {
+      _out.writeInt(entry._rows);
+    }
+    for (Entry entry : _entries) {
+      _out.write(entry._id);
+    }
+    _out.writeLong(indexOffset);
+  }
+
+  /**
+   * Compare two UTF-8 strings. Same order as the one of code points.
+   */
+  static int compare(byte[] b1, byte[] b2) {
+    int len = Math.min(b1.length, b2.length);
+    for (int i = 0; i < len; i++) {
+      int c = (b1[i] & 0xff) - (b2[i] & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return b1.length - b2.length;
+  }
+
+  private static class Entry {
+    private byte[] _id;
+    private long   _offset;
+    private int    _size;
+    private int    _rawSize;
+    private int    _rows;
+
+    private Entry(byte[] id, long offset, int size, int rawSize, int rows) {
+      _id = id;
+      _offset = offset;
+      _size = size;
+      _rawSize = rawSize;
+      _rows = rows;
+    }
+  }
+}
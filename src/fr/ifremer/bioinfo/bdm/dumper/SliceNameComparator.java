@@ -0,0 +1,83 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.File;
+import java.util.Comparator;
+
+/**
+ * Sort files by name, numbers contained in names being compared by value. As
+ * a consequence, slices created by CmdLineCutter (e.g. query_1, query_2, ...
+ * query_10) and their results are sorted in slice order.
+ *
+ * @author Patrick G. Durand
+ */
+public class SliceNameComparator implements Comparator<File> {
+
+  @Override
+  public int compare(File f1, File f2) {
+    return compare(f1.getName(), f2.getName());
+  }
+
+  /**
+   * Compare two names, numbers being compared by value.
+   */
+  public static int compare(String s1, String s2) {
+    int i1 = 0, i2 = 0, len1 = s1.length(), len2 = s2.length();
+
+    while (i1 < len1 && i2 < len2) {
+      char c1 = s1.charAt(i1), c2 = s2.charAt(i2);
+      if (Character.isDigit(c1) && Character.isDigit(c2)) {
+        int start1 = i1, start2 = i2;
+        // skip leading zeros
+        while (start1 < len1 - 1 && s1.charAt(start1) == '0' && Character.isDigit(s1.charAt(start1 + 1))) {
+          start1++;
+        }
+        while (start2 < len2 - 1 && s2.charAt(start2) == '0' && Character.isDigit(s2.charAt(start2 + 1))) {
+          start2++;
+        }
+        i1 = start1;
+        i2 = start2;
+        while (i1 < len1 && Character.isDigit(s1.charAt(i1))) {
+          i1++;
+        }
+        while (i2 < len2 && Character.isDigit(s2.charAt(i2))) {
+          i2++;
+        }
+        // a longer number is a greater one
+        int c = (i1 - start1) - (i2 - start2);
+        if (c == 0) {
+          c = s1.substring(start1, i1).compareTo(s2.substring(start2, i2));
+        }
+        if (c != 0) {
+          return c;
+        }
+      } else {
+        if (c1 != c2) {
+          return c1 - c2;
+        }
+        i1++;
+        i2++;
+      }
+    }
+    if ((len1 - i1) != (len2 - i2)) {
+      return (len1 - i1) - (len2 - i2);
+    }
+    // e.g. query_01 and query_1
+    return s1.compareTo(s2);
+  }
+}
@@ -0,0 +1,500 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.dumper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemException;
+import bzh.plealog.dbmirror.lucenedico.tax.TaxonomyRank;
+
+/**
+ * A compact, read-only, representation of the NCBI Taxonomy. It is built once
+ * from a BeeDeeM NCBI Taxonomy index (.ldx folder) and saved in a single file
+ * that is memory-mapped when used. Data are arrays indexed by taxon ID: parent
+ * IDs (int), ranks (byte) and scientific names (UTF-8 string pool).<br>
+ * <br>
+ * Lineage and LCA queries do not allocate any object. getTaxPath() produces
+ * exactly the same string as BeeDeeM DicoTermQuerySystem.getTaxPath(id, true,
+ * true, true) without querying Lucene.<br>
+ * <br>
+ * This class is thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class TaxonomyIndex {
+
+  /** maximum depth of a lineage */
+  public static final int MAX_DEPTH = 256;
+
+  /** default file extension of a compact taxonomy file */
+  public static final String EXTENSION = ".tax";
+
+  private static final int MAGIC   = 0x42544158;
+  private static final int VERSION = 1;
+
+  // BeeDeeM NCBI Taxonomy index content: taxon nodes (o<id>: "o<parent> | rank")
+  // and scientific names (n<id>: name)
+  private static final String ID_FIELD   = "id";
+  private static final String DATA_FIELD = "name";
+  private static final char   NODE       = 'o';
+  private static final char   NAME       = 'n';
+  private static final int    ROOT       = 1;
+  private static final String UNKNOWN    = "unknown";
+
+  private static final TaxonomyRank[] RANKS = TaxonomyRank.values();
+
+  private IntBuffer      _parents;
+  private ByteBuffer     _ranks;
+  private IntBuffer      _nameOffsets;
+  private ByteBuffer     _names;
+  private int            _size;
+  private String[]       _rankNames;
+  private TaxonomyRank[] _exactRanks;
+  private TaxonomyRank[] _aliasRanks;
+
+  private TaxonomyIndex(ByteBuffer buf) throws IOException {
+    int nRanks, poolSize;
+
+    if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+      throw new IOException("not a taxonomy file");
+    }
+    _size = buf.getInt();
+    nRanks = buf.getInt();
+    _rankNames = new String[nRanks];
+    _exactRanks = new TaxonomyRank[nRanks];
+    _aliasRanks = new TaxonomyRank[nRanks];
+    for (int i = 0; i < nRanks; i++) {
+      byte[] b = new byte[buf.getShort()];
+      buf.get(b);
+      _rankNames[i] = new String(b, StandardCharsets.UTF_8);
+      _exactRanks[i] = TaxonomyRank.getTaxonomyRank(_rankNames[i], true);
+      _aliasRanks[i] = TaxonomyRank.getTaxonomyRank(_rankNames[i], false);
+    }
+    poolSize = buf.getInt();
+    _parents = slice(buf, 4 * _size).asIntBuffer();
+    _ranks = slice(buf, _size);
+    _nameOffsets = slice(buf, 4 * (_size + 1)).asIntBuffer();
+    _names = slice(buf, poolSize);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buf, int length) {
+    ByteBuffer b = buf.slice();
+    b.limit(length);
+    buf.position(buf.position() + length);
+    return b;
+  }
+
+  /**
+   * Open a compact taxonomy file. File content is memory-mapped.
+   */
+  public static TaxonomyIndex open(File f) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel channel = raf.getChannel()) {
+      return new TaxonomyIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Build a compact taxonomy from a BeeDeeM NCBI Taxonomy index and keep it in
+   * memory.
+   */
+  public static TaxonomyIndex build(String ldxPath) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    new Builder(ldxPath).write(bos);
+    return new TaxonomyIndex(ByteBuffer.wrap(bos.toByteArray()));
+  }
+
+  /**
+   * Build a compact taxonomy from a BeeDeeM NCBI Taxonomy index and save it in
+   * a file. Data are first written in a temporary file located next to the
+   * target one, so that a concurrent process never reads a partial file.
+   */
+  public static void build(String ldxPath, File f) throws IOException {
+    File tmp = new File(f.getAbsolutePath() + ".tmp");
+    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+      new Builder(ldxPath).write(os);
+    }
+    if (!tmp.renameTo(f)) {
+      tmp.delete();
+      throw new IOException("unable to create: " + f.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Figure out whether or not a taxon exists.
+   */
+  public boolean contains(int taxId) {
+    return taxId > 0 && taxId < _size && _parents.get(taxId) != -1;
+  }
+
+  /**
+   * Return the parent of a taxon or -1 if taxon does not exist. Root taxon is
+   * its own parent.
+   */
+  public int getParent(int taxId) {
+    return taxId > 0 && taxId < _size ? _parents.get(taxId) : -1;
+  }
+
+  /**
+   * Return the scientific name of a taxon or null if not available.
+   */
+  public String getName(int taxId) {
+    if (taxId <= 0 || taxId >= _size) {
+      return null;
+    }
+    int from = _nameOffsets.get(taxId);
+    int to = _nameOffsets.get(taxId + 1);
+    if (from == to) {
+      return null;
+    }
+    byte[] b = new byte[to - from];
+    ByteBuffer names = _names.duplicate();
+    names.position(from);
+    names.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Return the NCBI rank of a taxon or null if taxon does not exist.
+   */
+  public String getRank(int taxId) {
+    int r = rankIndex(taxId);
+    return r != -1 ? _rankNames[r] : null;
+  }
+
+  private int rankIndex(int taxId) {
+    return contains(taxId) ? _ranks.get(taxId) : -1;
+  }
+
+  /**
+   * Get the lineage of a taxon, from root to taxon itself.
+   *
+   * @param taxId
+   *          the taxon
+   * @param lineage
+   *          where to put taxon IDs. MAX_DEPTH is always enough.
+   *
+   * @return size of the lineage or -1 if taxon does not exist or one of its
+   *         ancestors is missing.
+   *
+   * @throws ArrayIndexOutOfBoundsException
+   *           if lineage array is too small
+   */
+  public int getLineage(int taxId, int[] lineage) {
+    int n = 0, tmp;
+
+    if (!contains(taxId)) {
+      return -1;
+    }
+    while (true) {
+      lineage[n++] = taxId;
+      if (taxId == ROOT) {
+        break;
+      }
+      taxId = _parents.get(taxId);
+      if (!contains(taxId)) {
+        return -1;
+      }
+    }
+    for (int i = 0, j = n - 1; i < j; i++, j--) {
+      tmp = lineage[i];
+      lineage[i] = lineage[j];
+      lineage[j] = tmp;
+    }
+    return n;
+  }
+
+  /**
+   * Return the depth of a taxon, root having depth 0, or -1 if taxon does not
+   * exist or one of its ancestors is missing.
+   */
+  public int getDepth(int taxId) {
+    int depth = 0;
+
+    if (!contains(taxId)) {
+      return -1;
+    }
+    while (taxId != ROOT) {
+      taxId = _parents.get(taxId);
+      if (!contains(taxId) || ++depth >= MAX_DEPTH) {
+        return -1;
+      }
+    }
+    return depth;
+  }
+
+  /**
+   * Return the lowest common ancestor of two taxa or -1 if one of them does not
+   * exist.
+   */
+  public int getLca(int taxId1, int taxId2) {
+    int d1 = getDepth(taxId1);
+    int d2 = getDepth(taxId2);
+
+    if (d1 == -1 || d2 == -1) {
+      return -1;
+    }
+    while (d1 > d2) {
+      taxId1 = _parents.get(taxId1);
+      d1--;
+    }
+    while (d2 > d1) {
+      taxId2 = _parents.get(taxId2);
+      d2--;
+    }
+    while (taxId1 != taxId2) {
+      taxId1 = _parents.get(taxId1);
+      taxId2 = _parents.get(taxId2);
+    }
+    return taxId1;
+  }
+
+  /**
+   * Return the simplified taxonomic path of a taxon, e.g.
+   * "root;d__Bacteria;k__unknown;p__Proteobacteria;...". Same as BeeDeeM
+   * DicoTermQuerySystem.getTaxPath(id, true, true, true).
+   *
+   * @return a path or null if taxon does not exist or is the root
+   *
+   * @throws DicoStorageSystemException
+   *           if the lineage of the taxon is not complete
+   */
+  public String getTaxPath(int taxId) throws DicoStorageSystemException {
+    int[] lineage;
+    TaxonomyRank[] ranks;
+    int n, k;
+
+    if (getName(taxId) == null) {
+      return null;
+    }
+    lineage = new int[MAX_DEPTH];
+    n = getLineage(taxId, lineage);
+    if (n == -1) {
+      throw new DicoStorageSystemException("Term not found : " + NODE + taxId);
+    }
+    if (n <= 1) {
+      return null;
+    }
+    // standard ranks first, then replace non standard ones with their
+    // standard equivalent unless already present in the lineage
+    ranks = new TaxonomyRank[n];
+    for (int i = 0; i < n; i++) {
+      ranks[i] = _exactRanks[_ranks.get(lineage[i])];
+    }
+    for (int i = 0; i < n; i++) {
+      if (ranks[i] == null) {
+        TaxonomyRank rank = _aliasRanks[_ranks.get(lineage[i])];
+        if (rank != null && !contains(ranks, rank)) {
+          ranks[i] = rank;
+        }
+      }
+    }
+    StringBuilder buf = new StringBuilder();
+    k = next(ranks, 0);
+    for (TaxonomyRank rank : RANKS) {
+      if (k < n && ranks[k].getLevel() == rank.getLevel()) {
+        String name = getName(lineage[k]);
+        if (name == null) {
+          throw new DicoStorageSystemException("Term not found : " + NAME + lineage[k]);
+        }
+        buf.append(ranks[k].getLevelCode());
+        buf.append(name);
+        k = next(ranks, k + 1);
+      } else {
+        buf.append(rank.getLevelCode());
+        buf.append(UNKNOWN);
+      }
+      buf.append(';');
+    }
+    return buf.toString();
+  }
+
+  private static boolean contains(TaxonomyRank[] ranks, TaxonomyRank rank) {
+    for (TaxonomyRank r : ranks) {
+      if (r == rank) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int next(TaxonomyRank[] ranks, int from) {
+    while (from < ranks.length && ranks[from] == null) {
+      from++;
+    }
+    return from;
+  }
+
+  /**
+   * Read a BeeDeeM NCBI Taxonomy index and write it in the compact format.
+   */
+  private static class Builder {
+    private int[]                    parents = new int[0];
+    private byte[]                   ranks   = new byte[0];
+    private String[]                 names   = new String[0];
+    private List<String>             rankNames = new ArrayList<>();
+    private HashMap<String, Integer> rankIndexes = new HashMap<>();
+    private int                      size;
+
+    private Builder(String ldxPath) throws IOException {
+      MapFieldSelector selector = new MapFieldSelector(new String[] { ID_FIELD, DATA_FIELD });
+      IndexReader reader = IndexReader.open(FSDirectory.open(new File(ldxPath)), true);
+      try {
+        for (int i = 0; i < reader.maxDoc(); i++) {
+          if (reader.isDeleted(i)) {
+            continue;
+          }
+          Document doc = reader.document(i, selector);
+          addEntry(doc.get(ID_FIELD), doc.get(DATA_FIELD));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    private void addEntry(String id, String data) throws IOException {
+      int taxId, idx;
+
+      if (id == null || data == null || id.length() < 2) {
+        return;
+      }
+      try {
+        taxId = Integer.parseInt(id.substring(1));
+      } catch (NumberFormatException e) {
+        return;
+      }
+      if (taxId <= 0) {
+        return;
+      }
+      ensureCapacity(taxId + 1);
+      if (id.charAt(0) == NAME) {
+        if (names[taxId] == null) {
+          names[taxId] = data;
+        }
+      } else if (id.charAt(0) == NODE) {
+        idx = data.indexOf('|');
+        if (taxId == ROOT) {
+          parents[taxId] = ROOT;
+        } else {
+          parents[taxId] = parseParent(idx != -1 ? data.substring(0, idx) : data);
+        }
+        ranks[taxId] = getRankIndex(idx != -1 ? data.substring(idx + 1).trim() : "");
+      }
+    }
+
+    private static int parseParent(String parent) {
+      parent = parent.trim();
+      if (parent.length() != 0 && parent.charAt(0) == NODE) {
+        parent = parent.substring(1);
+      }
+      try {
+        return Integer.parseInt(parent);
+      } catch (NumberFormatException e) {
+        // missing parent: lineage is broken
+        return 0;
+      }
+    }
+
+    private byte getRankIndex(String rank) throws IOException {
+      Integer idx = rankIndexes.get(rank);
+      if (idx == null) {
+        if (rankNames.size() == Byte.MAX_VALUE) {
+          throw new IOException("too many taxonomic ranks");
+        }
+        idx = rankNames.size();
+        rankNames.add(rank);
+        rankIndexes.put(rank, idx);
+      }
+      return idx.byteValue();
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > size) {
+        if (capacity > parents.length) {
+          int newLength = Math.max(capacity, parents.length + (parents.length >> 1));
+          int oldLength = parents.length;
+          parents = Arrays.copyOf(parents, newLength);
+          ranks = Arrays.copyOf(ranks, newLength);
+          names = Arrays.copyOf(names, newLength);
+          Arrays.fill(parents, oldLength, newLength, -1);
+        }
+        size = capacity;
+      }
+    }
+
+    private void write(OutputStream os) throws IOException {
+      DataOutputStream out = new DataOutputStream(os);
+      byte[][] encoded = new byte[size][];
+      int poolSize = 0, offset = 0;
+
+      for (int i = 0; i < size; i++) {
+        if (parents[i] != -1 && names[i] != null) {
+          encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+          poolSize += encoded[i].length;
+        }
+      }
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(size);
+      out.writeInt(rankNames.size());
+      for (String rank : rankNames) {
+        byte[] b = rank.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(b.length);
+        out.write(b);
+      }
+      out.writeInt(poolSize);
+      for (int i = 0; i < size; i++) {
+        out.writeInt(parents[i]);
+      }
+      for (int i = 0; i < size; i++) {
+        out.writeByte(ranks[i]);
+      }
+      for (int i = 0; i < size; i++) {
+        out.writeInt(offset);
+        if (encoded[i] != null) {
+          offset += encoded[i].length;
+        }
+      }
+      out.writeInt(offset);
+      for (int i = 0; i < size; i++) {
+        if (encoded[i] != null) {
+          out.write(encoded[i]);
+        }
+      }
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility methods to read and write possibly compressed files. Compression is
+ * detected from file content (magic numbers), not from file extension.<br>
+ * <br>
+ * No zstd codec is available in Java: zstd files are inflated by the zstd
+ * command-line tool, which has to be installed.
+ *
+ * @author Patrick G. Durand
+ */
+public class CompressionUtils {
+
+  /** compression types handled by this class */
+  public enum Type {
+    NONE, GZIP, BGZF, ZSTD
+  }
+
+  /** file extension of gzip files */
+  public static final String GZ_FEXT = ".gz";
+  /** file extension of zstd files */
+  public static final String ZST_FEXT = ".zst";
+
+  // command used to inflate zstd files
+  private static final String ZSTD_CMD = "zstd";
+
+  private static final int BUF_SIZE = 256 * 1024;
+  private static final int HEADER_SIZE = 16;
+
+  /**
+   * Figure out the compression type of a file.
+   *
+   * @param f
+   *          the file to inspect
+   *
+   * @return a compression type
+   */
+  public static Type getCompressionType(File f) throws IOException {
+    try (InputStream is = new FileInputStream(f)) {
+      byte[] header = new byte[HEADER_SIZE];
+      int n = 0, r;
+      while (n < HEADER_SIZE && (r = is.read(header, n, HEADER_SIZE - n)) > 0) {
+        n += r;
+      }
+      return getCompressionType(header, n);
+    }
+  }
+
+  /**
+   * Figure out the compression type given the first bytes of a stream.
+   */
+  private static Type getCompressionType(byte[] header, int len) {
+    // zstd frame magic number: 0xFD2FB528, little-endian
+    if (len >= 4 && (header[0] & 0xff) == 0x28 && (header[1] & 0xff) == 0xb5 && (header[2] & 0xff) == 0x2f
+        && (header[3] & 0xff) == 0xfd) {
+      return Type.ZSTD;
+    }
+    if (len < 2 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b) {
+      return Type.NONE;
+    }
+    return ParallelBgzfInputStream.isBgzfHeader(header, len) ? Type.BGZF : Type.GZIP;
+  }
+
+  /**
+   * Check whether or not a file is compressed.
+   *
+   * @param f
+   *          the file to inspect
+   *
+   * @return true if file is either a gzip, a BGZF or a zstd file
+   */
+  public static boolean isCompressed(File f) throws IOException {
+    return getCompressionType(f) != Type.NONE;
+  }
+
+  /**
+   * Open a file for reading. Compressed content is transparently inflated.
+   *
+   * @param f
+   *          the file to open
+   * @param threads
+   *          number of threads to use to inflate a BGZF file. When set to 1 or
+   *          less, a BGZF file is inflated sequentially as any other gzip
+   *          file.
+   *
+   * @return an uncompressed input stream
+   */
+  public static InputStream openInputStream(File f, int threads) throws IOException {
+    Type type = getCompressionType(f);
+    InputStream is = new FileInputStream(f);
+    try {
+      switch (type) {
+      case BGZF:
+        if (threads > 1) {
+          return new BufferedInputStream(new ParallelBgzfInputStream(new BufferedInputStream(is, BUF_SIZE), threads),
+              BUF_SIZE);
+        }
+        // a BGZF file is a valid multi-members gzip file
+        return openGzipInputStream(is);
+      case GZIP:
+        return openGzipInputStream(is);
+      case ZSTD:
+        is.close();
+        return new BufferedInputStream(new ZstdInputStream(f), BUF_SIZE);
+      default:
+        return new BufferedInputStream(is, BUF_SIZE);
+      }
+    } catch (IOException ex) {
+      is.close();
+      throw ex;
+    }
+  }
+
+  private static InputStream openGzipInputStream(InputStream is) throws IOException {
+    return new BufferedInputStream(new GZIPInputStream(is, BUF_SIZE), BUF_SIZE);
+  }
+
+  /**
+   * Open a file for writing.
+   *
+   * @param f
+   *          the file to create
+   * @param compress
+   *          if true, content is gzip compressed
+   *
+   * @return an output stream
+   */
+  public static OutputStream openOutputStream(File f, boolean compress) throws IOException {
+    return wrapOutputStream(new FileOutputStream(f), compress);
+  }
+
+  /**
+   * Add buffering and, optionally, gzip compression to a stream.
+   *
+   * @param os
+   *          the stream to wrap
+   * @param compress
+   *          if true, content is gzip compressed
+   *
+   * @return an output stream
+   */
+  public static OutputStream wrapOutputStream(OutputStream os, boolean compress) throws IOException {
+    if (compress) {
+      return new GZIPOutputStream(os, BUF_SIZE);
+    }
+    return new BufferedOutputStream(os, BUF_SIZE);
+  }
+
+  /**
+   * Remove the gzip or zstd extension from a file name, if any.
+   *
+   * @param fName
+   *          a file name
+   *
+   * @return file name without its compression extension
+   */
+  public static String stripCompressionExtension(String fName) {
+    for (String ext : new String[] { GZ_FEXT, ZST_FEXT }) {
+      if (fName.toLowerCase().endsWith(ext)) {
+        return fName.substring(0, fName.length() - ext.length());
+      }
+    }
+    return fName;
+  }
+
+  /**
+   * Read the standard output of zstd inflating a file. An IOException is
+   * raised at the end of the stream if zstd has failed.
+   */
+  private static class ZstdInputStream extends FilterInputStream {
+    private Process _process;
+    private File    _file;
+
+    private ZstdInputStream(File f) throws IOException {
+      super(null);
+      _file = f;
+      try {
+        _process = new ProcessBuilder(ZSTD_CMD, "-d", "-c", "-q", f.getAbsolutePath())
+            .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      } catch (IOException ex) {
+        throw new IOException("unable to run " + ZSTD_CMD + " to read: " + f.getAbsolutePath() + ": " + ex.getMessage());
+      }
+      in = _process.getInputStream();
+    }
+
+    @Override
+    public int read() throws IOException {
+      int c = super.read();
+      if (c == -1) {
+        checkExitCode();
+      }
+      return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n == -1) {
+        checkExitCode();
+      }
+      return n;
+    }
+
+    private void checkExitCode() throws IOException {
+      try {
+        if (_process.waitFor() != 0) {
+          throw new IOException(ZSTD_CMD + " failed to read: " + _file.getAbsolutePath());
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        _process.destroy();
+      }
+    }
+  }
+}
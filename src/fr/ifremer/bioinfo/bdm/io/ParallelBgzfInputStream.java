@@ -0,0 +1,308 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An input stream decompressing a BGZF file (blocked GNU Zip Format, as used
+ * by samtools/htslib) using several threads.<br>
+ * <br>
+ * A BGZF file is a series of independent gzip members, each of them being at
+ * most 64 Kb long and announcing its own size within a 'BC' extra field. Raw
+ * blocks are thus read sequentially from the underlying stream, inflated
+ * concurrently and handed back to the reader in their original order. The
+ * number of blocks in flight is bounded to keep memory usage constant.
+ *
+ * @author Patrick G. Durand
+ */
+public class ParallelBgzfInputStream extends InputStream {
+
+  // gzip magic numbers and BGZF constants
+  private static final int ID1          = 31;
+  private static final int ID2          = 139;
+  private static final int CM_DEFLATE   = 8;
+  private static final int FLG_FEXTRA   = 4;
+  private static final int SI1          = 66; // 'B'
+  private static final int SI2          = 67; // 'C'
+  private static final int HEADER_SIZE  = 12;
+  private static final int TRAILER_SIZE = 8;
+
+  private InputStream                   _in;
+  private ExecutorService               _pool;
+  private Deque<Future<byte[]>>         _pending;
+  private int                           _maxPending;
+  private byte[]                        _current;
+  private int                           _pos;
+  private boolean                       _eof;
+  private boolean                       _closed;
+
+  /**
+   * Constructor.
+   *
+   * @param in
+   *          the raw BGZF stream
+   * @param threads
+   *          number of threads to use to inflate blocks. Must be greater than
+   *          zero.
+   */
+  public ParallelBgzfInputStream(InputStream in, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads: " + threads);
+    }
+    _in = in;
+    _pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "bgzf-inflater");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    _maxPending = threads * 4;
+    _pending = new ArrayDeque<>();
+    _current = new byte[0];
+  }
+
+  /**
+   * Check whether or not a stream header denotes a BGZF block.
+   *
+   * @param header
+   *          at least the 16 first bytes of a stream
+   * @param len
+   *          number of bytes actually available in header
+   *
+   * @return true if header starts with a BGZF block
+   */
+  public static boolean isBgzfHeader(byte[] header, int len) {
+    if (len < 16) {
+      return false;
+    }
+    return (header[0] & 0xff) == ID1 && (header[1] & 0xff) == ID2 && (header[2] & 0xff) == CM_DEFLATE
+        && ((header[3] & 0xff) & FLG_FEXTRA) != 0 && (header[12] & 0xff) == SI1 && (header[13] & 0xff) == SI2;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureData()) {
+      return -1;
+    }
+    return _current[_pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    int n = Math.min(len, _current.length - _pos);
+    System.arraycopy(_current, _pos, b, off, n);
+    _pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return _current.length - _pos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (_closed) {
+      return;
+    }
+    _closed = true;
+    for (Future<byte[]> f : _pending) {
+      f.cancel(true);
+    }
+    _pending.clear();
+    _pool.shutdownNow();
+    _in.close();
+  }
+
+  /**
+   * Make sure some uncompressed data is available.
+   *
+   * @return false when the end of stream has been reached
+   */
+  private boolean ensureData() throws IOException {
+    if (_closed) {
+      throw new IOException("stream closed");
+    }
+    while (_pos >= _current.length) {
+      fillQueue();
+      Future<byte[]> next = _pending.poll();
+      if (next == null) {
+        return false;
+      }
+      try {
+        _current = next.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException(cause);
+      }
+      _pos = 0;
+    }
+    return true;
+  }
+
+  /**
+   * Read raw blocks and submit them to the inflater pool up to the maximum
+   * number of blocks in flight.
+   */
+  private void fillQueue() throws IOException {
+    while (!_eof && _pending.size() < _maxPending) {
+      byte[] block = readRawBlock();
+      if (block == null) {
+        _eof = true;
+        break;
+      }
+      _pending.add(_pool.submit(new InflateTask(block)));
+    }
+  }
+
+  /**
+   * Read a single BGZF block.
+   *
+   * @return the block or null if end of stream is reached
+   */
+  private byte[] readRawBlock() throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    int n = readFully(header, 0, HEADER_SIZE);
+    if (n == 0) {
+      return null;
+    }
+    if (n < HEADER_SIZE) {
+      throw new EOFException("truncated BGZF block header");
+    }
+    if ((header[0] & 0xff) != ID1 || (header[1] & 0xff) != ID2 || (header[2] & 0xff) != CM_DEFLATE
+        || ((header[3] & 0xff) & FLG_FEXTRA) == 0) {
+      throw new IOException("not a BGZF block");
+    }
+    int xlen = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+    byte[] extra = new byte[xlen];
+    if (readFully(extra, 0, xlen) != xlen) {
+      throw new EOFException("truncated BGZF extra field");
+    }
+    // locate the BC sub-field: it contains total block size minus one
+    int bsize = -1, i = 0;
+    while (i + 4 <= xlen) {
+      int slen = (extra[i + 2] & 0xff) | ((extra[i + 3] & 0xff) << 8);
+      if ((extra[i] & 0xff) == SI1 && (extra[i + 1] & 0xff) == SI2 && slen == 2) {
+        bsize = (extra[i + 4] & 0xff) | ((extra[i + 5] & 0xff) << 8);
+        break;
+      }
+      i += 4 + slen;
+    }
+    if (bsize == -1) {
+      throw new IOException("missing BGZF BC field");
+    }
+    int remaining = bsize + 1 - HEADER_SIZE - xlen;
+    if (remaining < TRAILER_SIZE) {
+      throw new IOException("invalid BGZF block size: " + bsize);
+    }
+    byte[] body = new byte[remaining];
+    if (readFully(body, 0, remaining) != remaining) {
+      throw new EOFException("truncated BGZF block");
+    }
+    return body;
+  }
+
+  private int readFully(byte[] buf, int off, int len) throws IOException {
+    int total = 0;
+    while (total < len) {
+      int n = _in.read(buf, off + total, len - total);
+      if (n < 0) {
+        break;
+      }
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Inflate a single BGZF block body (compressed data followed by CRC32 and
+   * ISIZE).
+   */
+  private static class InflateTask implements Callable<byte[]> {
+    private byte[] _body;
+
+    public InflateTask(byte[] body) {
+      _body = body;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      int cdataLen = _body.length - TRAILER_SIZE;
+      long crc = readUInt32(_body, cdataLen);
+      int isize = (int) readUInt32(_body, cdataLen + 4);
+      byte[] data = new byte[isize];
+      Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(_body, 0, cdataLen);
+        int total = 0;
+        while (total < isize) {
+          int n = inflater.inflate(data, total, isize - total);
+          if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+            break;
+          }
+          total += n;
+        }
+        if (total != isize) {
+          throw new IOException("BGZF block size mismatch");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException(e);
+      } finally {
+        inflater.end();
+      }
+      CRC32 checker = new CRC32();
+      checker.update(data, 0, isize);
+      if (checker.getValue() != crc) {
+        throw new IOException("BGZF block CRC mismatch");
+      }
+      return data;
+    }
+
+    private static long readUInt32(byte[] b, int off) {
+      return (b[off] & 0xffL) | ((b[off + 1] & 0xffL) << 8) | ((b[off + 2] & 0xffL) << 16)
+          | ((b[off + 3] & 0xffL) << 24);
+    }
+  }
+}
@@ -17,9 +17,27 @@
 package fr.ifremer.bioinfo.bdm.tools;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -38,6 +56,14 @@ import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.sequence.SequenceFileManager;
 import bzh.plealog.dbmirror.util.sequence.SequenceValidatorCutFile;
 import bzh.plealog.dbmirror.util.sequence.SequenceValidatorPaginate;
+import fr.ifremer.bioinfo.bdm.cutter.SequenceDeduplicator;
+import fr.ifremer.bioinfo.bdm.cutter.SequenceRecordReader;
+import fr.ifremer.bioinfo.bdm.cutter.SequenceStreamCutter;
+import fr.ifremer.bioinfo.bdm.cutter.SequenceStreamCutter.OutputMode;
+import fr.ifremer.bioinfo.bdm.cutter.SliceListener;
+import fr.ifremer.bioinfo.bdm.cutter.SliceManifest;
+import fr.ifremer.bioinfo.bdm.cutter.SliceInfo;
+import fr.ifremer.bioinfo.bdm.io.CompressionUtils;
 import fr.ifremer.bioinfo.resources.CmdMessages;
 
 /**
@@ -56,6 +82,32 @@ import fr.ifremer.bioinfo.resources.CmdMessages;
  * a. tests/databank/fasta_prot/uniprot_1-5.faa<br>
  * b. tests/databank/fasta_prot/uniprot_6-10.faa<br>
  * <br>
+ *
+ * Input file may be gzip or BGZF compressed (e.g. uniprot.faa.gz): it is then
+ * read as a stream, BGZF blocks being inflated in parallel. Use -z to create
+ * gzip compressed slices.<br>
+ * <br>
+ * 
+ * Use -u to discard duplicated sequences: only the first occurrence of a
+ * sequence is kept and identifiers of duplicates are reported within
+ * name_dedup.tsv, next to the slices.<br>
+ * <br>
+ * 
+ * Use -m fifo to stream each slice into a named pipe (name_slice-N.ext) created
+ * within the result directory, or -m stdout to write all slices to the
+ * standard output. The consumer then drives the pace of the cutter.<br>
+ * <br>
+ * 
+ * Batch mode: -i also accepts a glob pattern (e.g. "data/*.fa", quoted to
+ * avoid shell expansion) or @list, list being a file containing one sequence
+ * file path per line. Files are then cut concurrently using -j threads and a
+ * single summary is reported at the end.<br>
+ * <br>
+ * 
+ * Use -manifest file.tsv (or file.json) to get a machine-readable description
+ * of the slices: path, sequence range, number of sequences, number of residues
+ * and size in bytes.<br>
+ * <br>
  * 
  * Use program without any arguments to get help.<br>
  * Note: environment variables are accepted in file path.<br>
@@ -85,6 +137,23 @@ public class CmdLineCutter {
   // where to create the resulting file?
   // if not provided: place the sliced file next to input sequence file
   protected static final String                      DIR_ARG    = "d";
+  // gzip resulting slices
+  private static final String                        ZIP_ARG    = "z";
+  // nb of threads to use to inflate a BGZF input file
+  private static final String                        CORES_ARG  = "a";
+  // discard duplicated sequences
+  private static final String                        DEDUP_ARG  = "u";
+  // output mode: file, fifo or stdout
+  private static final String                        MODE_ARG   = "m";
+  // nb of files to cut concurrently in batch mode
+  private static final String                        JOBS_ARG   = "j";
+  // file describing the created slices
+  private static final String                        MANIFEST_ARG = "manifest";
+
+  private static final String                        DEFAULT_CORES = "4";
+  private static final String                        DEDUP_FSUFFIX = "_dedup.tsv";
+  private static final String                        DEFAULT_JOBS  = "4";
+  private static final String                        LIST_PREFIX   = "@";
 
   private static final Log                           LOGGER     = LogFactory
       .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY + ".CmdLineCutter");
@@ -99,6 +168,15 @@ public class CmdLineCutter {
     formats.put("em", DatabankFormat.swissProt);
   }
 
+  // a convenient mapping to output mode names.
+  private static Hashtable<String, OutputMode> modes;
+  static {
+    modes = new Hashtable<>();
+    modes.put("file", OutputMode.FILE);
+    modes.put("fifo", OutputMode.FIFO);
+    modes.put("stdout", OutputMode.STDOUT);
+  }
+
   /**
    * Setup the valid command-line of the application.
    */
@@ -137,6 +215,32 @@ public class CmdLineCutter {
         .hasArg()
         .withDescription(CmdMessages.getString("Tool.Cutter.arg6.desc"))
         .create(DIR_ARG);
+    Option zip = OptionBuilder
+        .withDescription(CmdMessages.getString("Tool.Cutter.arg7.desc"))
+        .create(ZIP_ARG);
+    Option cores = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Cutter.arg8.lbl"))
+        .hasArg()
+        .withDescription(String.format(CmdMessages.getString("Tool.Cutter.arg8.desc"), DEFAULT_CORES))
+        .create(CORES_ARG);
+    Option dedup = OptionBuilder
+        .withDescription(CmdMessages.getString("Tool.Cutter.arg9.desc"))
+        .create(DEDUP_ARG);
+    Option mode = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Cutter.arg10.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Cutter.arg10.desc"))
+        .create(MODE_ARG);
+    Option jobs = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Cutter.arg11.lbl"))
+        .hasArg()
+        .withDescription(String.format(CmdMessages.getString("Tool.Cutter.arg11.desc"), DEFAULT_JOBS))
+        .create(JOBS_ARG);
+    Option manifest = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Cutter.arg12.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Cutter.arg12.desc"))
+        .create(MANIFEST_ARG);
 
     opts = new Options();
     opts.addOption(part);
@@ -145,6 +249,12 @@ public class CmdLineCutter {
     opts.addOption(file);
     opts.addOption(format);
     opts.addOption(res_dir);
+    opts.addOption(zip);
+    opts.addOption(cores);
+    opts.addOption(dedup);
+    opts.addOption(mode);
+    opts.addOption(jobs);
+    opts.addOption(manifest);
     CmdLineUtils.setHelpOption(opts);
     return opts;
   }
@@ -302,6 +412,320 @@ public class CmdLineCutter {
     return bRet;
   }
 
+  /**
+   * Cut a sequence file using a single pass over a stream. This method is used
+   * for compressed input files, to create compressed slices, to discard
+   * duplicated sequences and to stream slices to pipes or stdout.
+   * 
+   * @param sequenceFile
+   *          the sequence file to cut. Can be gzip or BGZF compressed.
+   * @param resultDir
+   *          the directory to put the resulting slices. Optional. If not
+   *          provided, resulting files are saved next to sequence file.
+   * @param format
+   *          the format of the sequence file
+   * @param from
+   *          index of the first sequence to get from sequence file. Not used
+   *          if part is provided.
+   * @param to
+   *          index of the last sequence to get from sequence file. Not used if
+   *          part is provided.
+   * @param part
+   *          size of a slice. Use -1 to cut a range of sequences using
+   *          from/to.
+   * @param compress
+   *          gzip compress slices
+   * @param cores
+   *          number of threads to use to inflate a BGZF file
+   * @param dedup
+   *          discard duplicated sequences
+   * @param mode
+   *          where to write slices
+   * 
+   * @return the created slices or null if file slicing failed.
+   */
+  private static List<SliceInfo> cutStream(String sequenceFile, String resultDir, DatabankFormat format, int from, int to,
+      int part, boolean compress, int cores, boolean dedup, OutputMode mode) {
+    List<SliceInfo> slices = null;
+
+    sequenceFile = CmdLineUtils.expandEnvVars(sequenceFile);
+    if (resultDir != null) {
+      resultDir = CmdLineUtils.expandEnvVars(resultDir);
+    }
+    File seqFile = new File(sequenceFile);
+    if (seqFile.exists() == false) {
+      String msg = String.format(CmdMessages.getString("Tool.Cutter.msg9"), sequenceFile);
+      LoggerCentral.error(LOGGER, msg);
+      return null;
+    }
+    File outDir = resultDir != null ? new File(resultDir) : seqFile.getAbsoluteFile().getParentFile();
+    SequenceStreamCutter cutter = new SequenceStreamCutter(outDir, seqFile.getName());
+    cutter.setCompress(compress);
+    cutter.setOutputMode(mode);
+    if (mode == OutputMode.FIFO) {
+      // consumers have to know pipe names before we start writing into them
+      cutter.setSliceListener(new SliceListener() {
+        @Override
+        public void sliceAvailable(File slice) {
+          String msg = String.format(CmdMessages.getString("Tool.Cutter.msg12"), slice.getPath());
+          LoggerCentral.info(LOGGER, msg);
+          System.out.println(msg);
+        }
+      });
+    }
+    // with stdout mode, standard output only contains sequences
+    boolean verbose = mode != OutputMode.STDOUT;
+    SequenceDeduplicator deduplicator = null;
+    try (SequenceRecordReader reader = new SequenceRecordReader(
+        CompressionUtils.openInputStream(seqFile, cores), format)) {
+      if (dedup) {
+        deduplicator = new SequenceDeduplicator(cutter.getCompanionFile(DEDUP_FSUFFIX));
+        cutter.setDeduplicator(deduplicator);
+        reader.setKeepSequence(true);
+      }
+      if (part == -1) {
+        slices = cutter.cutRange(reader, from, to);
+      } else {
+        slices = cutter.cutParts(reader, part);
+      }
+      if (slices.isEmpty()) {
+        slices = null;
+        throw new RuntimeException(CmdMessages.getString("Tool.Cutter.msg10"));
+      }
+      if (mode == OutputMode.FILE) {
+        for (SliceInfo slice : slices) {
+          String msg = String.format(CmdMessages.getString("Tool.Cutter.msg1"), slice.getFile().getPath());
+          LoggerCentral.info(LOGGER, msg);
+          System.out.println(msg);
+        }
+      }
+      if (deduplicator != null) {
+        String msg = String.format(CmdMessages.getString("Tool.Cutter.msg11"), deduplicator.getRepresentatives(),
+            deduplicator.getDuplicates(), deduplicator.getMappingFile().getPath());
+        LoggerCentral.info(LOGGER, msg);
+        if (verbose) {
+          System.out.println(msg);
+        }
+      }
+    } catch (Exception ex) {
+      String msg = String.format(CmdMessages.getString("Tool.Cutter.msg2"), ex.toString());
+      LoggerCentral.error(LOGGER, msg);
+      slices = null;
+    } finally {
+      if (deduplicator != null) {
+        try {
+          deduplicator.close();
+        } catch (IOException ex) {
+          LoggerCentral.warn(LOGGER, ex.toString());
+        }
+      }
+    }
+    return slices;
+  }
+
+  /**
+   * Cut several sequence files concurrently. Each file is cut using
+   * cutStream().
+   * 
+   * @param files
+   *          the sequence files to cut
+   * @param jobs
+   *          max number of files to cut concurrently
+   * @param manifest
+   *          where to describe created slices. Can be null.
+   * 
+   * @return true if all files have been cut successfully, false otherwise.
+   * 
+   * @see #cutStream(String, String, DatabankFormat, int, int, int, boolean,
+   *      int, boolean, OutputMode)
+   */
+  private static boolean cutFiles(List<String> files, final String resultDir, final DatabankFormat format,
+      final int from, final int to, final int part, final boolean compress, final int cores, final boolean dedup,
+      final OutputMode mode, int jobs, SliceManifest manifest) {
+    List<Future<List<SliceInfo>>> results = new ArrayList<>();
+    List<String> failed = new ArrayList<>();
+    long slices = 0, sequences = 0, residues = 0;
+    long tim = System.currentTimeMillis();
+    String msg;
+
+    // with stdout mode, files have to be written one after the other
+    if (mode == OutputMode.STDOUT) {
+      jobs = 1;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, files.size())));
+    try {
+      for (final String file : files) {
+        results.add(pool.submit(new Callable<List<SliceInfo>>() {
+          @Override
+          public List<SliceInfo> call() {
+            return cutStream(file, resultDir, format, from, to, part, compress, cores, dedup, mode);
+          }
+        }));
+      }
+      for (int i = 0; i < files.size(); i++) {
+        List<SliceInfo> fileSlices;
+        try {
+          fileSlices = results.get(i).get();
+        } catch (Exception ex) {
+          msg = String.format(CmdMessages.getString("Tool.Cutter.msg2"), ex.toString());
+          LoggerCentral.error(LOGGER, msg);
+          fileSlices = null;
+        }
+        if (fileSlices == null) {
+          failed.add(files.get(i));
+          continue;
+        }
+        slices += fileSlices.size();
+        if (manifest != null) {
+          manifest.add(files.get(i), fileSlices);
+        }
+        for (SliceInfo slice : fileSlices) {
+          sequences += slice.getRecords();
+          residues += slice.getResidues();
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // summary report
+    List<String> report = new ArrayList<>();
+    report.add(String.format(CmdMessages.getString("Tool.Cutter.msg15"), files.size(), files.size() - failed.size(),
+        failed.size()));
+    report.add(String.format(CmdMessages.getString("Tool.Cutter.msg16"), slices, sequences, residues));
+    report.add(String.format(CmdMessages.getString("Tool.Cutter.msg17"),
+        CmdLineCommon.getRunningTime((System.currentTimeMillis() - tim) / 1000)));
+    for (String file : failed) {
+      report.add(String.format(CmdMessages.getString("Tool.Cutter.msg18"), file));
+    }
+    for (String line : report) {
+      LoggerCentral.info(LOGGER, line);
+      if (mode != OutputMode.STDOUT) {
+        System.out.println(line);
+      } else {
+        System.err.println(line);
+      }
+    }
+    return failed.isEmpty();
+  }
+
+  /**
+   * Write the manifest file.
+   * 
+   * @return true if success, false otherwise.
+   */
+  private static boolean writeManifest(SliceManifest manifest, String manifestFile) {
+    String msg;
+    manifestFile = CmdLineUtils.expandEnvVars(manifestFile);
+    try {
+      manifest.write(new File(manifestFile));
+    } catch (IOException ex) {
+      msg = String.format(CmdMessages.getString("Tool.Cutter.msg20"), ex.toString());
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    msg = String.format(CmdMessages.getString("Tool.Cutter.msg19"), manifestFile);
+    LoggerCentral.info(LOGGER, msg);
+    return true;
+  }
+
+  /**
+   * Check whether or not the input file argument denotes a set of files: either
+   * a glob pattern or a list file.
+   */
+  private static boolean isBatch(String file) {
+    file = CmdLineUtils.expandEnvVars(file);
+    if (new File(file).exists()) {
+      return false;
+    }
+    return file.startsWith(LIST_PREFIX) || file.indexOf('*') != -1 || file.indexOf('?') != -1
+        || file.indexOf('[') != -1 || file.indexOf('{') != -1;
+  }
+
+  /**
+   * Return the sequence files denoted by the input file argument.
+   * 
+   * @param file
+   *          either a glob pattern or @list, list being a file containing one
+   *          path per line
+   * 
+   * @return a sorted list of files or null if none can be found
+   */
+  private static List<String> getInputFiles(String file) {
+    List<String> files = new ArrayList<>();
+    String msg;
+
+    file = CmdLineUtils.expandEnvVars(file);
+    try {
+      if (file.startsWith(LIST_PREFIX)) {
+        for (String line : Files.readAllLines(Paths.get(file.substring(1)), StandardCharsets.UTF_8)) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            files.add(CmdLineUtils.expandEnvVars(line));
+          }
+        }
+      } else {
+        // walk from the deepest directory not containing glob characters
+        Path pattern = Paths.get(file).toAbsolutePath().normalize();
+        Path base = pattern.getRoot();
+        int depth = 0;
+        boolean inGlob = false;
+        for (Path elem : pattern) {
+          if (!inGlob && elem.toString().matches(".*[*?\\[{].*")) {
+            inGlob = true;
+          }
+          if (inGlob) {
+            depth = elem.toString().contains("**") ? Integer.MAX_VALUE : depth + 1;
+          } else {
+            base = base.resolve(elem);
+          }
+        }
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.toString());
+        final List<String> found = files;
+        if (Files.isDirectory(base)) {
+          Files.walkFileTree(base, EnumSet.of(FileVisitOption.FOLLOW_LINKS), depth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+              if (attrs.isRegularFile() && matcher.matches(f)) {
+                found.add(f.toString());
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+        }
+        Collections.sort(files);
+      }
+    } catch (IOException ex) {
+      msg = String.format(CmdMessages.getString("Tool.Cutter.msg2"), ex.toString());
+      LoggerCentral.error(LOGGER, msg);
+      return null;
+    }
+    if (files.isEmpty()) {
+      msg = String.format(CmdMessages.getString("Tool.Cutter.msg14"), file);
+      LoggerCentral.error(LOGGER, msg);
+      return null;
+    }
+    return files;
+  }
+
+  /**
+   * Check whether or not a sequence file is compressed.
+   * 
+   * @param sequenceFile
+   *          the sequence file to check
+   * 
+   * @return true if file is compressed. Returns false if file does not exist
+   *         or cannot be read.
+   */
+  private static boolean isCompressed(String sequenceFile) {
+    File f = new File(CmdLineUtils.expandEnvVars(sequenceFile));
+    try {
+      return f.exists() && CompressionUtils.isCompressed(f);
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
   /**
    * Convert a string to a integer.
    * 
@@ -343,6 +767,27 @@ public class CmdLineCutter {
     return dbFormat;
   }
 
+  /**
+   * Return an output mode given a command line mode argument.
+   * 
+   * @param mode
+   *          command line mode argument
+   * 
+   * @return an output mode or null if provided argument denotes an unknown
+   *         mode.
+   */
+  private static OutputMode getOutputMode(String mode) {
+    if (mode == null) {
+      return OutputMode.FILE;
+    }
+    OutputMode outMode = modes.get(mode);
+    if (outMode == null) {
+      String msg = String.format(CmdMessages.getString("Tool.Cutter.msg13"), mode, modes.keySet().toString());
+      LoggerCentral.error(LOGGER, msg);
+    }
+    return outMode;
+  }
+
   /**
    * Run cutting job.
    * 
@@ -353,10 +798,12 @@ public class CmdLineCutter {
    */
   public static boolean doJob(String[] args) {
     CommandLine cmdLine;
-    String msg, toolName, part, from, to, file, format, resultDir;
-    int ipart, ifrom, ito;
+    String msg, toolName, part, from, to, file, format, resultDir, cores, mode, jobs, manifestFile;
+    int ipart, ifrom, ito, icores, ijobs;
+    boolean compress, dedup;
     Options options;
     DatabankFormat dbFormat;
+    OutputMode outMode;
     boolean bRet = true;
 
     toolName = CmdMessages.getString("Tool.Cutter.name");
@@ -378,6 +825,12 @@ public class CmdLineCutter {
     file = cmdLine.getOptionValue(FILE_ARG);
     format = cmdLine.getOptionValue(FORMAT_ARG);
     resultDir = cmdLine.getOptionValue(DIR_ARG);
+    compress = cmdLine.hasOption(ZIP_ARG);
+    dedup = cmdLine.hasOption(DEDUP_ARG);
+    mode = cmdLine.getOptionValue(MODE_ARG);
+    cores = cmdLine.getOptionValue(CORES_ARG, DEFAULT_CORES);
+    jobs = cmdLine.getOptionValue(JOBS_ARG, DEFAULT_JOBS);
+    manifestFile = cmdLine.getOptionValue(MANIFEST_ARG);
 
     // add additional controls on cmdline values
     if (part != null && (from != null || to != null)) {
@@ -391,10 +844,18 @@ public class CmdLineCutter {
       return false;
     }
 
+    // get output mode
+    outMode = getOutputMode(mode);
+    if (outMode == null) {
+      return false;
+    }
+
     // convert Str to int
     ipart = getValue(part);
     ifrom = getValue(from);
     ito = getValue(to);
+    icores = getValue(cores);
+    ijobs = getValue(jobs);
 
     // prepare a message for the user
     if (ipart != -1) {
@@ -409,11 +870,29 @@ public class CmdLineCutter {
     LoggerCentral.info(LOGGER, msg);
 
     // compute new file
-    if (ipart == -1) {
+    SliceManifest manifest = manifestFile != null ? new SliceManifest() : null;
+    if (isBatch(file)) {
+      List<String> files = getInputFiles(file);
+      if (files == null) {
+        return false;
+      }
+      bRet = cutFiles(files, resultDir, dbFormat, ifrom, ito, ipart, compress, icores, dedup, outMode, ijobs,
+          manifest);
+    } else if (compress || dedup || manifest != null || outMode != OutputMode.FILE || isCompressed(file)) {
+      List<SliceInfo> slices = cutStream(file, resultDir, dbFormat, ifrom, ito, ipart, compress, icores, dedup,
+          outMode);
+      bRet = slices != null;
+      if (bRet && manifest != null) {
+        manifest.add(CmdLineUtils.expandEnvVars(file), slices);
+      }
+    } else if (ipart == -1) {
       bRet = cutFile(file, resultDir, dbFormat, ifrom, ito);
     } else {
       bRet = cutFile(file, resultDir, dbFormat, ipart);
     }
+    if (manifest != null && !writeManifest(manifest, manifestFile)) {
+      bRet = false;
+    }
     return bRet;
   }
 
@@ -0,0 +1,207 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package fr.ifremer.bioinfo.bdm.tools;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import bzh.plealog.bioinfo.util.CmdLineUtils;
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.main.StarterUtils;
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+import fr.ifremer.bioinfo.bdm.dumper.DicoFileUtils;
+import fr.ifremer.bioinfo.bdm.dumper.DicoSnapshot;
+import fr.ifremer.bioinfo.resources.CmdMessages;
+
+/**
+ * A utility class to create snapshots of BeeDeeM dictionary indexes. A
+ * snapshot is a compact sorted key/value file that CmdLineDumper
+ * memory-maps instead of opening the Lucene index.<br>
+ * <br>
+ *
+ * Sample use:<br>
+ * CmdLineDicoSnapshot -go "/biobank/d/GeneOntology_terms/current/GeneOntology_terms/GeneOntology_terms.ldx"<br>
+ * -> snapshot GeneOntology_terms.snapshot is created next to the .ldx folder<br>
+ * Supported indexes: Gene Ontology (-go), InterPro (-ipr) and Enzyme (-ec)<br>
+ * <br>
+ *
+ * Use program without any arguments to get help.<br>
+ * Note: environment variables are accepted in file path.<br>
+ *
+ * A log file called DicoSnapshot.log is created within ${java.io.tmpdir}.
+ * This default log file can be redirected using JRE variables KL_WORKING_DIR
+ * and KL_LOG_FILE. E.g. java ... -DKL_WORKING_DIR=/my-path
+ * -DKL_LOG_FILE=query.log<br>
+ * <br>
+ *
+ * @author Patrick G. Durand
+ */
+public class CmdLineDicoSnapshot {
+  // directory where to create snapshots
+  protected static final String DIR_ARG = "d";
+
+  private static final Log LOGGER = LogFactory.getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY + ".CmdLineDicoSnapshot");
+
+  /**
+   * Prepare command-line arguments.
+   *
+   * @return command line options
+   */
+  @SuppressWarnings("static-access")
+  private static Options getCmdLineOptions() {
+    Options opts;
+
+    Option godico = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg5.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg5.desc"))
+        .create(CmdLineDumper.DICO_GO_ARG);
+    Option ecdico = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg6.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg6.desc"))
+        .create(CmdLineDumper.DICO_EC_ARG);
+    Option iprdico = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg7.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg7.desc"))
+        .create(CmdLineDumper.DICO_IPR_ARG);
+    Option dir = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Snapshot.arg1.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Snapshot.arg1.desc"))
+        .create(DIR_ARG);
+
+    opts = new Options();
+    opts.addOption(godico);
+    opts.addOption(ecdico);
+    opts.addOption(iprdico);
+    opts.addOption(dir);
+    CmdLineUtils.setHelpOption(opts);
+    return opts;
+  }
+
+  /**
+   * Create the snapshot of a BeeDeeM dictionary index.
+   *
+   * @param dico
+   *          the dictionary type
+   * @param ldxPath
+   *          path to the BeeDeeM index (.ldx folder)
+   * @param dir
+   *          directory where to create the snapshot. If null, it is created
+   *          next to the index.
+   *
+   * @return true if snapshot is ok, false otherwise.
+   */
+  private static boolean createSnapshot(Dicos dico, String ldxPath, String dir) {
+    String msg;
+    File f;
+    int terms;
+
+    ldxPath = CmdLineUtils.expandEnvVars(ldxPath);
+    if (!new File(ldxPath).exists()) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg2"), ldxPath);
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    f = DicoFileUtils.getFile(ldxPath, dir, DicoSnapshot.EXTENSION);
+    msg = String.format(CmdMessages.getString("Tool.Snapshot.msg1"), ldxPath, f.getAbsolutePath());
+    LoggerCentral.info(LOGGER, msg);
+    try {
+      terms = DicoSnapshot.write(dico, ldxPath, f);
+    } catch (Exception e) {
+      msg = String.format(CmdMessages.getString("Tool.Snapshot.msg2"), ldxPath, e.toString());
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    msg = String.format(CmdMessages.getString("Tool.Snapshot.msg3"), terms);
+    LoggerCentral.info(LOGGER, msg);
+    return true;
+  }
+
+  /**
+   * Run snapshot job.
+   *
+   * @param args
+   *          command line arguments
+   *
+   * @return true if snapshots are ok, false otherwise.
+   */
+  public static boolean doJob(String[] args) {
+    CommandLine cmdLine;
+    String toolName, dir;
+    Options options;
+    boolean bRet = true, found = false;
+
+    toolName = CmdMessages.getString("Tool.Snapshot.name");
+
+    // prepare the Logging system
+    StarterUtils.configureApplication(null, toolName, true, false, true, false);
+    LoggerCentral.info(LOGGER, "*** Starting " + toolName);
+
+    // handle the command-line
+    options = getCmdLineOptions();
+    cmdLine = bzh.plealog.dbmirror.main.CmdLineUtils.handleArguments(args, options, toolName);
+    if (cmdLine == null) {
+      return false;
+    }
+
+    dir = cmdLine.getOptionValue(DIR_ARG);
+    if (dir != null) {
+      dir = CmdLineUtils.expandEnvVars(dir);
+      if (!new File(dir).isDirectory()) {
+        LoggerCentral.error(LOGGER, String.format(CmdMessages.getString("Tool.Dumper.msg2"), dir));
+        return false;
+      }
+    }
+    if (cmdLine.hasOption(CmdLineDumper.DICO_GO_ARG)) {
+      found = true;
+      bRet &= createSnapshot(Dicos.GENE_ONTOLOGY, cmdLine.getOptionValue(CmdLineDumper.DICO_GO_ARG), dir);
+    }
+    if (cmdLine.hasOption(CmdLineDumper.DICO_IPR_ARG)) {
+      found = true;
+      bRet &= createSnapshot(Dicos.INTERPRO, cmdLine.getOptionValue(CmdLineDumper.DICO_IPR_ARG), dir);
+    }
+    if (cmdLine.hasOption(CmdLineDumper.DICO_EC_ARG)) {
+      found = true;
+      bRet &= createSnapshot(Dicos.ENZYME, cmdLine.getOptionValue(CmdLineDumper.DICO_EC_ARG), dir);
+    }
+    if (!found) {
+      LoggerCentral.error(LOGGER, CmdMessages.getString("Tool.Snapshot.msg4"));
+      return false;
+    }
+    return bRet;
+  }
+
+  /**
+   * Start application.
+   *
+   * @param args
+   *          command line arguments
+   */
+  public static void main(String[] args) {
+    CmdLineCommon.informForErrorMsg(!doJob(args));
+  }
+}
@@ -16,29 +16,55 @@
  */
 package fr.ifremer.bioinfo.bdm.tools;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.NullWriter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
 import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
 import bzh.plealog.bioinfo.api.data.searchresult.io.SRLoader;
+import bzh.plealog.bioinfo.data.searchresult.ISROutput;
 import bzh.plealog.bioinfo.io.searchresult.SerializerSystemFactory;
-import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutput;
-import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
 import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
 import bzh.plealog.dbmirror.annotator.SRAnnotatorUtils;
+import bzh.plealog.dbmirror.indexer.LuceneUtils;
 import bzh.plealog.dbmirror.lucenedico.DicoTerm;
 import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
 import bzh.plealog.dbmirror.lucenedico.DicoUtils;
@@ -48,6 +74,29 @@ import bzh.plealog.dbmirror.main.CmdLineUtils;
 import bzh.plealog.dbmirror.main.StarterUtils;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
+import fr.ifremer.bioinfo.bdm.dumper.CSVBlockHandler;
+import fr.ifremer.bioinfo.bdm.dumper.CSVParallelExporter;
+import fr.ifremer.bioinfo.bdm.dumper.CSVRowBuilder;
+import fr.ifremer.bioinfo.bdm.dumper.CSVStreamExporter;
+import fr.ifremer.bioinfo.bdm.dumper.CharSpan;
+import fr.ifremer.bioinfo.bdm.dumper.ClassificationCollector;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnProjection;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnarExporter;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnarWriter;
+import fr.ifremer.bioinfo.bdm.dumper.DefLineAnnotator;
+import fr.ifremer.bioinfo.bdm.dumper.DicoFileUtils;
+import fr.ifremer.bioinfo.bdm.dumper.DicoSnapshot;
+import fr.ifremer.bioinfo.bdm.dumper.DicoTermCache;
+import fr.ifremer.bioinfo.bdm.dumper.ExternalRowSorter;
+import fr.ifremer.bioinfo.bdm.dumper.ExternalRowSorter.SortKey;
+import fr.ifremer.bioinfo.bdm.dumper.HitFilter;
+import fr.ifremer.bioinfo.bdm.dumper.NcbiXmlFollower;
+import fr.ifremer.bioinfo.bdm.dumper.NcbiXmlIterationReader;
+import fr.ifremer.bioinfo.bdm.dumper.QuerySummaryExporter;
+import fr.ifremer.bioinfo.bdm.dumper.ResultStoreWriter;
+import fr.ifremer.bioinfo.bdm.dumper.SliceNameComparator;
+import fr.ifremer.bioinfo.bdm.dumper.TaxonomyIndex;
+import fr.ifremer.bioinfo.bdm.io.CompressionUtils;
 import fr.ifremer.bioinfo.resources.CmdMessages;
 
 /**
@@ -65,7 +114,8 @@ import fr.ifremer.bioinfo.resources.CmdMessages;
  * 
  * CmdLineDumper -i tests/datafile/hits_with_full_annot.zml -f zml -o results.csv -c "22,23,24,25"<br>
  * -> result is dumped in file results.csv using user-defined columns<br>
- * (see program help for more information about -c argument)
+ * (see program help for more information about -c argument). Only data needed by these
+ * columns are read from NCBI XML files (e.g. alignment strings are skipped).
  * <br>
  * 
  * CmdLineDumper -i tests/datafile/hits_with_full_annot.zml -f zml -c "22,23,24,25" -ec "/biobank/d/Enzyme/current/Enzyme/Enzyme.ldx"<br>
@@ -74,6 +124,73 @@ import fr.ifremer.bioinfo.resources.CmdMessages;
  * classification data. However it requires PLAST/BLAST XML/ZML results already contains classification data.
  * This can be done using BeeDeeM Annotator Tool.<br>
  * CmdLineDumper also handles NCBI Taxonomy (-tax xxx), Gene Ontology (-go xxx) and InterPro (-ec xxx).<br>
+ * NCBI Taxonomy lineages are computed using a compact file built once from the -tax index
+ * (see -taxfile argument).<br>
+ * GO, InterPro and Enzyme terms are read from snapshots created by CmdLineDicoSnapshot tool
+ * when available (see -snapdir argument).<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -stream -o results.csv<br>
+ * -> NCBI XML file is read iteration by iteration: memory usage does not depend on
+ * file size. Result is the same as without -stream.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_with_full_annot.zml -f zml -threads 0 -o results.csv<br>
+ * -> data are dumped using all available cores. Result is the same as without -threads.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -nohits -o nomatch.txt<br>
+ * -> only IDs of queries without hits are dumped, formatted as expected by CmdLineUserQuery.<br>
+ * Add -seqidx query.fna.ld to directly get the corresponding query sequences from that
+ * sequence index.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i plast-results/ -threads 8 -o results.csv<br>
+ * -> all xml files of directory plast-results are dumped in a single CSV file, in slice order
+ * (e.g. query_1.xml, query_2.xml, ..., query_10.xml). Use -filelist to provide a file
+ * containing paths to data files instead; then, data files are dumped in that order.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml.gz -stream -o results.csv<br>
+ * -> data files compressed using gzip, BGZF or zstd are inflated while being read,
+ * without any temporary file for xml files; BGZF blocks are inflated in parallel.
+ * Zstd files require the zstd command-line tool.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -stream -of col -o results.col<br>
+ * -> result is dumped in a compact binary file made of typed and compressed columns
+ * (see ColumnarWriter for a description of that format and ColumnarReader to read it).
+ * Queries without hits are not dumped in such a file.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -of idx -o results.idx<br>
+ * -> CSV rows are dumped in an indexed store: rows of a single query are then
+ * retrieved using ResultStoreReader, without reading the whole file (see
+ * ResultStoreWriter for a description of that format).<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -lca 2 -tax "/biobank/d/NCBI_Taxonomy/current/NCBI_Taxonomy/NCBI_Taxonomy.ldx" -o summary.csv<br>
+ * -> a single row per query is dumped: the requested columns for the best hit, the number
+ * of hits and the lowest common ancestor of the taxa of hits having an evalue within two orders
+ * of magnitude of the best one. The NCBI XML file is read iteration by iteration.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i plast-results/query_1.xml -follow 600 -o results.csv<br>
+ * -> result file is dumped while PLAST is still writing it: CSV rows are written as soon
+ * as a query is complete. Dumping stops when the file is complete or when it has not grown
+ * for 10 minutes. Progress is saved in results.csv.ckpt: run the same command to resume.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -sort evalue -sortmem 512 -o results.csv<br>
+ * -> rows of all queries are sorted by increasing evalue (see also bitscore and accession
+ * keys), using at most about 512 Mb of memory: sorted runs of rows are written in temporary
+ * files, then merged.<br>
+ * <br>
+ * 
+ * CmdLineDumper -i tests/datafile/hits_only.xml -bho -evalue 1e-10 -identity 40 -o results.csv<br>
+ * -> only the best hit of each query having an HSP with evalue &lt;= 1e-10 and identity &gt;= 40%
+ * is dumped. Hits and HSPs are filtered while reading NCBI XML data (see also -fho, -bitscore
+ * and -coverage).<br>
  * <br>
  * 
  * Use program without any arguments to get help.<br>
@@ -108,9 +225,51 @@ public class CmdLineDumper {
   protected static final String                      BEST_HIT_ARG = "bho";
   // if set only show first hsp
   protected static final String                      FIRST_HSP_ARG = "fho";
+  // if set, NCBI XML file is read iteration by iteration
+  protected static final String                      STREAM_ARG = "stream";
+  // max number of BeeDeeM index lookups kept in memory
+  protected static final String                      CACHE_ARG = "cache";
+  // if set, classification identifiers are all resolved before export
+  protected static final String                      PRERESOLVE_ARG = "preresolve";
+  // compact NCBI Taxonomy file built from BeeDeeM index
+  protected static final String                      TAX_FILE_ARG = "taxfile";
+  // directory containing snapshots of BeeDeeM indexes
+  protected static final String                      SNAPSHOT_DIR_ARG = "snapdir";
+  // number of threads used to dump data
+  protected static final String                      THREADS_ARG = "threads";
+  // if set, only dump IDs of queries without hits
+  protected static final String                      NOHITS_ARG = "nohits";
+  // sequence index used to retrieve queries without hits
+  protected static final String                      SEQ_INDEX_ARG = "seqidx";
+  // file containing paths to data files
+  protected static final String                      FILE_LIST_ARG = "filelist";
+  // max evalue of dumped HSPs
+  protected static final String                      EVALUE_ARG = "evalue";
+  // min bit score of dumped HSPs
+  protected static final String                      BITSCORE_ARG = "bitscore";
+  // min percentage of identity of dumped HSPs
+  protected static final String                      IDENTITY_ARG = "identity";
+  // min percentage of query coverage of dumped HSPs
+  protected static final String                      COVERAGE_ARG = "coverage";
+  // output format: csv (default), col or idx
+  protected static final String                      OUT_FORMAT_ARG = "of";
+  // one row per query: best hit and lowest common ancestor of hits within an evalue window
+  protected static final String                      LCA_ARG = "lca";
+  // follow a result file still being written; value is the idle timeout in seconds
+  protected static final String                      FOLLOW_ARG = "follow";
+  // sort rows on a key: evalue, bitscore or accession
+  protected static final String                      SORT_ARG = "sort";
+  // memory budget of sort, in Mb
+  protected static final String                      SORT_MEM_ARG = "sortmem";
   
   // constant used to check kind of input file
   private static final String                        NCBI_LEGACY_XML = "xml";
+  // constants used to check kind of output file
+  private static final String                        CSV_FORMAT = "csv";
+  private static final String                        COLUMNAR_FORMAT = "col";
+  private static final String                        INDEXED_FORMAT = "idx";
+  // extension of checkpoint files created by -follow, next to output file
+  private static final String                        CHECKPOINT_EXT = ".ckpt";
   // constant used if no mapping found between ID and BeeDeeM index
   private static final String                        UNK = "unknown";
   // output format data mapper between user-provided values and software internals
@@ -121,6 +280,11 @@ public class CmdLineDumper {
   // class logger
   private static final Log                           LOGGER     = LogFactory
       .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY + ".CmdLineDumper");
+  // zml files are loaded using a serializer shared by all loaders
+  private static final Object                        NATIVE_LOADER_LOCK = new Object();
+  // nb of threads used to inflate a BGZF data file
+  private static final int                           INFLATE_THREADS = 
+      Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
 
   static {
     OUTFMP_MAP = new HashMap<>();
@@ -157,108 +321,450 @@ public class CmdLineDumper {
    * Internal class used to handle mapping of biological classification.
    * BeeDeeM-based.
    * */
-  private static class MyHandler implements CSVExportSROutputHandler{
+  private static class MyHandler implements CSVBlockHandler{
+    // BeeDeeM indexes referred to by classification identifiers
+    private static final Dicos[] DUMPED_DICOS = new Dicos[] {
+        Dicos.NCBI_TAXONOMY, Dicos.GENE_ONTOLOGY, Dicos.INTERPRO, Dicos.ENZYME};
     private DicoTermQuerySystem dicoTermQuerySystem = null;
+    private DicoTermCache cache = null;
+    private Map<CharSpan, String> resolved = null;
+    private TaxonomyIndex taxonomy = null;
+    private Map<Dicos, DicoSnapshot> snapshots = Collections.emptyMap();
+    private EnumMap<Dicos, ReentrantLock> locks = new EnumMap<>(Dicos.class);
+    private ReentrantLock annotatorLock = new ReentrantLock();
+    private boolean enabled = false;
+    private ThreadLocal<CSVRowBuilder> rowBuilders = ThreadLocal.withInitial(CSVRowBuilder::new);
+    private Set<Dicos> luceneDicos = Collections.emptySet();
+    private ExecutorService lookupPool = null;
+    private ThreadLocal<Map<CharSpan, String>> blocks = new ThreadLocal<>();
+    private ThreadLocal<CharSpan> spans = ThreadLocal.withInitial(CharSpan::new);
     
-    private MyHandler(Map<String, String> dicos) {
+    /**
+     * Constructor.
+     * 
+     * @param dicos BeeDeeM indexes to use. Can be null.
+     * @param annotate true if all BeeDeeM indexes are needed to annotate data
+     * @param cacheSize max number of BeeDeeM index lookups kept in memory
+     * @param taxonomy compact NCBI Taxonomy. Can be null.
+     * @param snapshots snapshots of BeeDeeM indexes
+     */
+    private MyHandler(Map<String, String> dicos, boolean annotate, int cacheSize, TaxonomyIndex taxonomy, 
+        Map<Dicos, DicoSnapshot> snapshots) {
       if (dicos!=null) {
-        dicoTermQuerySystem = DicoTermQuerySystem.getDicoTermQuerySystem(dicos);
+        enabled = true;
+        this.taxonomy = taxonomy;
+        this.snapshots = snapshots;
+        if (!annotate) {
+          // dictionaries available in memory do not need their Lucene index
+          dicos = new HashMap<>(dicos);
+          if (taxonomy!=null) {
+            dicos.remove(Dicos.NCBI_TAXONOMY.readerId);
+          }
+          for (Dicos dico : snapshots.keySet()) {
+            dicos.remove(dico.readerId);
+          }
+        }
+        if (!dicos.isEmpty()) {
+          dicoTermQuerySystem = DicoTermQuerySystem.getDicoTermQuerySystem(dicos);
+        }
+        luceneDicos = EnumSet.noneOf(Dicos.class);
+        for (Dicos dico : Dicos.values()) {
+          if (dicos.containsKey(dico.readerId) && !snapshots.containsKey(dico) 
+              && !(dico==Dicos.NCBI_TAXONOMY && taxonomy!=null)) {
+            luceneDicos.add(dico);
+          }
+        }
+        if (luceneDicos.size()>1) {
+          // a thread per BeeDeeM index: identifiers of a block of rows are 
+          // resolved concurrently across indexes
+          AtomicInteger threadCount = new AtomicInteger();
+          lookupPool = Executors.newFixedThreadPool(luceneDicos.size(), r -> {
+            Thread t = new Thread(r, "dico-lookup-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          });
+        }
+        if (cacheSize>0) {
+          cache = new DicoTermCache(cacheSize);
+        }
+        for (Dicos dico : Dicos.values()) {
+          locks.put(dico, new ReentrantLock());
+        }
       }
     }
     private DicoTermQuerySystem getDicoTermQuerySystem() {
       return dicoTermQuerySystem;
     }
+    private boolean isEnabled() {
+      return enabled;
+    }
+    /**
+     * Return an annotator extracting biological classification from hit 
+     * definition lines. Iterations are annotated one at a time, and only the
+     * BeeDeeM indexes an iteration refers to are locked meanwhile, so that 
+     * other threads keep on expanding classification data from other indexes.
+     * 
+     * @return an annotator or null if no BeeDeeM index is opened
+     */
+    private DefLineAnnotator getAnnotator(boolean bestHitOnly) {
+      if (dicoTermQuerySystem==null) {
+        return null;
+      }
+      return new DefLineAnnotator(dicoTermQuerySystem, bestHitOnly) {
+        @Override
+        public void annotate(SRIteration iteration) {
+          // SRAnnotatorUtils is not known to be thread-safe
+          annotatorLock.lock();
+          try {
+            // locks are always acquired in the same order
+            List<ReentrantLock> held = new ArrayList<>();
+            for (Dicos dico : getDicos(iteration)) {
+              ReentrantLock lock = locks.get(dico);
+              lock.lock();
+              held.add(lock);
+            }
+            try {
+              super.annotate(iteration);
+            } finally {
+              for (ReentrantLock lock : held) {
+                lock.unlock();
+              }
+            }
+          } finally {
+            annotatorLock.unlock();
+          }
+        }
+      };
+    }
     private void close() {
+      if (lookupPool!=null) {
+        lookupPool.shutdown();
+      }
       if (dicoTermQuerySystem!=null) {
         DicoTermQuerySystem.closeDicoTermQuerySystem();
       }
+      if (cache!=null) {
+        String msg = String.format(CmdMessages.getString("Tool.Dumper.msg15"), 
+            cache.getHits(), cache.getMisses(), cache.size());
+        LoggerCentral.info(LOGGER, msg);
+      }
+    }
+    /**
+     * Return the BeeDeeM index of the identifier read within [from, to) of
+     * string s, i.e. TAX:xxx, GO:xxx, EC:xxx or IPRxxx.
+     */
+    private static Dicos getDico(String s, int from, int to) {
+      int i = s.indexOf(':', from);
+      int end = i!=-1 && i<to ? i : to;
+      for (Dicos dico : DUMPED_DICOS) {
+        int len = dico.readerId.length();
+        if (end-from >= len && s.regionMatches(true, from, dico.readerId, 0, len)) {
+          return dico;
+        }
+      }
+      return null;
+    }
+    /**
+     * Resolve a set of classification identifiers at once. Then, 
+     * getDescription() only relies on the resulting immutable map.
+     */
+    private void preResolve(Set<String> entryIDs) throws InterruptedException, ExecutionException {
+      resolved = Collections.unmodifiableMap(resolveAll(entryIDs));
+    }
+    /**
+     * Resolve classification identifiers. When they refer to several BeeDeeM
+     * indexes, each index is queried by its own thread; the calling thread 
+     * resolves the identifiers of the first index and the ones available in 
+     * memory.
+     */
+    private Map<CharSpan, String> resolveAll(Collection<String> entryIDs) 
+        throws InterruptedException, ExecutionException {
+      HashMap<CharSpan, String> descs = new HashMap<>();
+      EnumMap<Dicos, List<String>> byDico = new EnumMap<>(Dicos.class);
+      List<Future<Map<CharSpan, String>>> results = new ArrayList<>();
+      List<String> local = new ArrayList<>();
+      
+      for (String entryID : entryIDs) {
+        Dicos dico = getDico(entryID, 0, entryID.length());
+        if (lookupPool!=null && dico!=null && luceneDicos.contains(dico)) {
+          byDico.computeIfAbsent(dico, k -> new ArrayList<>()).add(entryID);
+        }
+        else {
+          local.add(entryID);
+        }
+      }
+      boolean first = true;
+      for (List<String> ids : byDico.values()) {
+        if (first) {
+          local.addAll(ids);
+          first = false;
+          continue;
+        }
+        results.add(lookupPool.submit(() -> {
+          HashMap<CharSpan, String> map = new HashMap<>();
+          for (String entryID : ids) {
+            map.put(new CharSpan(entryID), lookup(entryID, 0, entryID.length()));
+          }
+          return map;
+        }));
+      }
+      for (String entryID : local) {
+        descs.put(new CharSpan(entryID), lookup(entryID, 0, entryID.length()));
+      }
+      for (Future<Map<CharSpan, String>> result : results) {
+        descs.putAll(result.get());
+      }
+      return descs;
+    }
+    @Override
+    public boolean isBlockEnabled() {
+      return lookupPool!=null && resolved==null;
+    }
+    @Override
+    public void startBlock(Set<String> entryIds) {
+      try {
+        blocks.set(resolveAll(entryIds));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+    @Override
+    public void endBlock() {
+      blocks.remove();
+    }
+    /**
+     * Return the description of the identifier read within [from, to) of 
+     * string s. The identifier is only copied when it has to be queried.
+     */
+    private String getDescription(String s, int from, int to) {
+      String desc = null;
+      if (resolved!=null || blocks.get()!=null) {
+        CharSpan span = spans.get().set(s, from, to);
+        if (resolved!=null) {
+          desc = resolved.get(span);
+          span.clear();
+          return desc!=null ? desc : UNK;
+        }
+        // identifiers of a block are resolved beforehand
+        desc = blocks.get().get(span);
+        span.clear();
+      }
+      return desc!=null ? desc : lookup(s, from, to);
     }
-    private String getDescription(String entryID, DicoTermQuerySystem dicoConnector) {
+    private String lookup(String s, int from, int to) {
+      DicoTermQuerySystem dicoConnector = dicoTermQuerySystem;
+      DicoSnapshot snapshot;
       DicoTerm term;
-      String dicoType, id, desc;
+      Dicos dico;
+      String id, desc;
       int i;
       
-      // entryID may have the following form: TAX:xxx, GO:xxx, EC:xxx, IPRxxx
+      // identifier may have the following form: TAX:xxx, GO:xxx, EC:xxx, IPRxxx
       // so we separate bank type and ID
-      i= entryID.indexOf(':');
-      if (i!=-1) {
-        dicoType = entryID.substring(0, i).toLowerCase();
-        id = entryID.substring(i+1);
+      i = s.indexOf(':', from);
+      i = i!=-1 && i<to ? i+1 : from;
+      dico = getDico(s, from, to);
+      if (dico==null) {
+        return UNK;
       }
-      else {
-        dicoType = entryID.toLowerCase();
-        id = entryID;
+      // snapshots are memory-mapped: no need to cache their content
+      snapshot = snapshots.get(dico);
+      if (snapshot!=null) {
+        id = s.substring(i, to);
+        desc = snapshot.get(dico==Dicos.GENE_ONTOLOGY ? Dicos.GENE_ONTOLOGY.xrefId+":"+id : id);
+        return desc!=null ? desc : UNK;
       }
+      // a result file usually references a few distinct terms many times
+      if (cache!=null) {
+        desc = cache.get(dico, s, i, to);
+        if (desc!=null) {
+          return desc;
+        }
+      }
+      id = s.substring(i, to);
       //query BeeDeeM indexes
       desc=UNK;
       try {
-        if (dicoType.startsWith(Dicos.NCBI_TAXONOMY.readerId.toLowerCase())) {
-          term = dicoConnector.getTerm(Dicos.NCBI_TAXONOMY, id);
-          if (term != null) {
-            desc = dicoConnector.getTaxPath(id, true, true, true);
-          }
-        }
-        else if (dicoType.startsWith(Dicos.GENE_ONTOLOGY.readerId.toLowerCase())) {
-          term = dicoConnector.getTerm(Dicos.GENE_ONTOLOGY, Dicos.GENE_ONTOLOGY.xrefId+":"+id);
-          if (term != null) {
-            GeneOntologyTerm goTerm = (GeneOntologyTerm) term.get_dataObject();
-            desc = goTerm.get_node_ontology_code() + ":" + goTerm.get_node_name();
+        if (dico==Dicos.NCBI_TAXONOMY && taxonomy!=null) {
+          // no need to query Lucene: lineage is walked in memory
+          String path = taxonomy.getTaxPath(Integer.parseInt(id));
+          if (path != null) {
+            desc = path;
           }
         }
-        else if (dicoType.startsWith(Dicos.INTERPRO.readerId.toLowerCase())) {
-          term = dicoConnector.getTerm(Dicos.INTERPRO, id);
-          if (term != null) {
-            desc = term.getDataField().toString();
-          }
-        }
-        else if (dicoType.startsWith(Dicos.ENZYME.readerId.toLowerCase())) {
-          term = dicoConnector.getTerm(Dicos.ENZYME, id);
-          if (term != null) {
-            desc = term.getDataField().toString();
+        else if (dicoConnector!=null) {
+          // a BeeDeeM index is queried by a single thread at a time
+          locks.get(dico).lock();
+          try {
+            switch(dico) {
+            case NCBI_TAXONOMY:
+              term = dicoConnector.getTerm(Dicos.NCBI_TAXONOMY, id);
+              if (term != null) {
+                desc = dicoConnector.getTaxPath(id, true, true, true);
+              }
+              break;
+            case GENE_ONTOLOGY:
+              term = dicoConnector.getTerm(Dicos.GENE_ONTOLOGY, Dicos.GENE_ONTOLOGY.xrefId+":"+id);
+              if (term != null) {
+                GeneOntologyTerm goTerm = (GeneOntologyTerm) term.get_dataObject();
+                desc = goTerm.get_node_ontology_code() + ":" + goTerm.get_node_name();
+              }
+              break;
+            default:
+              term = dicoConnector.getTerm(dico, id);
+              if (term != null) {
+                desc = term.getDataField().toString();
+              }
+            }
+          } finally {
+            locks.get(dico).unlock();
           }
         }
       } catch (Exception e) {
-        String msg = String.format(CmdMessages.getString("Tool.Dumper.msg4"), entryID, e.toString());
+        String msg = String.format(CmdMessages.getString("Tool.Dumper.msg4"), s.substring(from, to), e.toString());
         LoggerCentral.error(LOGGER, msg);
+        // do not cache a failure
+        return desc;
+      }
+      if (cache!=null) {
+        cache.put(dico, id, desc);
       }
       return desc;
     }
     @Override
     public String handle(String s, int colType) {
       
-      if ( ! (colType==TxtExportSROutput.BIO_CLASSIF ||
-              colType==TxtExportSROutput.BIO_CLASSIF_TAX ||
-              colType==TxtExportSROutput.BIO_CLASSIF_GO ||
-              colType==TxtExportSROutput.BIO_CLASSIF_IPR ||
-              colType==TxtExportSROutput.BIO_CLASSIF_EC) ) {
+      if ( ! ClassificationCollector.isClassificationColumn(colType) || s.length() < 2 ) {
         return s;
       }
-      else {
-        StringBuffer buf = new StringBuffer();
-        //remove enclosing quotes of string s
-        String dicoIds = s.substring(1, s.length()-1);
-        StringTokenizer tokenizer = new StringTokenizer(dicoIds, ";");
-        buf.append("\"");
-        while(tokenizer.hasMoreTokens()) {
-          String token = tokenizer.nextToken();
-          buf.append(token);
-          if (dicoTermQuerySystem!=null) {
-            token = getDescription(token, dicoTermQuerySystem);
-            if (token.equals(UNK) == false) {
-              buf.append(":");
-              buf.append(token);
-            }
+      // ids are read within enclosing quotes of string s; handle() is called
+      // by several threads, each one reusing its own buffer
+      CSVRowBuilder buf = rowBuilders.get().reset();
+      String desc;
+      int end = s.length() - 1, from = 1, to;
+      buf.append('"');
+      while (from < end) {
+        to = s.indexOf(';', from);
+        if (to == -1 || to > end) {
+          to = end;
+        }
+        if (to > from) {
+          if (buf.length() > 1) {
+            buf.append(';');
           }
-          if (tokenizer.hasMoreTokens()) {
-            buf.append(";");
+          buf.append(s, from, to);
+          desc = enabled ? getDescription(s, from, to) : UNK;
+          if (desc.equals(UNK) == false) {
+            buf.append(':');
+            buf.append(desc);
           }
         }
-        buf.append("\"");
-        return buf.toString();
+        from = to + 1;
       }
+      buf.append('"');
+      return buf.toString();
+    }
+    
+  }
+
+  /**
+   * Options of a dump job, read once from the command-line.
+   */
+  private static class DumpOptions {
+    private String inputFile;
+    private String outputFile;
+    private String format;
+    private boolean ncbiXmlLike;
+    private SRLoader loader;
+    private int colsIds[];
+    private String taxPath;
+    private String goPath;
+    private String ecPath;
+    private String iprPath;
+    private String taxFile;
+    private String snapshotDir;
+    private boolean bestHitOnly;
+    private boolean firstHspOnly;
+    private boolean preResolve;
+    private int cacheSize = DicoTermCache.DEFAULT_SIZE;
+    private int threads = 1;
+    private HitFilter filter;
+    private ColumnProjection projection;
+    private boolean columnar;
+    
+    /**
+     * Constructor. Options needing a validation are set by doJob().
+     */
+    private DumpOptions(CommandLine cmdLine) {
+      inputFile = cmdLine.getOptionValue(FILE_ARG);
+      outputFile = cmdLine.getOptionValue(OUTFILE_ARG);
+      format = cmdLine.getOptionValue(FORMAT_ARG, NCBI_LEGACY_XML);
+      ncbiXmlLike = format.equals(NCBI_LEGACY_XML);
+      taxPath = cmdLine.getOptionValue(DICO_TAX_ARG);
+      goPath = cmdLine.getOptionValue(DICO_GO_ARG);
+      ecPath = cmdLine.getOptionValue(DICO_EC_ARG);
+      iprPath = cmdLine.getOptionValue(DICO_IPR_ARG);
+      taxFile = cmdLine.getOptionValue(TAX_FILE_ARG);
+      snapshotDir = cmdLine.getOptionValue(SNAPSHOT_DIR_ARG);
+      bestHitOnly = cmdLine.hasOption(BEST_HIT_ARG);
+      firstHspOnly = cmdLine.hasOption(FIRST_HSP_ARG);
+      preResolve = cmdLine.hasOption(PRERESOLVE_ARG);
+    }
+    
+    /**
+     * Create the data handler expanding biological classification.
+     * 
+     * @param annotate true if all BeeDeeM indexes are needed to annotate data
+     */
+    private MyHandler createHandler(boolean annotate) {
+      HashMap<String, String> dicos = getDicos(taxPath, goPath, ecPath, iprPath);
+      return newHandler(dicos, annotate, getTaxonomyIndex(taxPath, taxFile));
     }
     
+    /**
+     * Create the data handler expanding biological classification using an
+     * already prepared compact NCBI Taxonomy.
+     * 
+     * @param annotate true if all BeeDeeM indexes are needed to annotate data
+     */
+    private MyHandler createHandler(boolean annotate, TaxonomyIndex taxonomy) {
+      return newHandler(getDicos(taxPath, goPath, ecPath, iprPath), annotate, taxonomy);
+    }
+    
+    private MyHandler newHandler(HashMap<String, String> dicos, boolean annotate, TaxonomyIndex taxonomy) {
+      return new MyHandler(dicos.isEmpty() ? null : dicos, annotate, cacheSize, taxonomy, 
+          getSnapshots(goPath, ecPath, iprPath, snapshotDir));
+    }
+    
+    /**
+     * Open the CSV output: the output file if any, the standard output otherwise.
+     */
+    private Writer openWriter() throws IOException {
+      return new BufferedWriter(outputFile==null ?
+          new OutputStreamWriter(new CloseShieldOutputStream(System.out)) : new FileWriter(outputFile));
+    }
+    
+    /**
+     * Open a NCBI XML file to read it iteration by iteration.
+     */
+    private NcbiXmlIterationReader openReader(File f) throws IOException {
+      NcbiXmlIterationReader reader = new NcbiXmlIterationReader(openDataFile(f));
+      reader.setHitFilter(filter);
+      reader.setProjection(projection);
+      return reader;
+    }
+  }
+  
+  /**
+   * A dump job run with the data handler expanding biological classification.
+   */
+  private interface DumpJob {
+    void run(MyHandler dataHandler) throws Exception;
   }
+
   /**
    * Setup the valid command-line of the application.
    */
@@ -268,7 +774,6 @@ public class CmdLineDumper {
 
     Option input = OptionBuilder
         .withArgName(CmdMessages.getString("Tool.Dumper.arg1.lbl"))
-        .isRequired()
         .hasArg()
         .withDescription(CmdMessages.getString("Tool.Dumper.arg1.desc"))
         .create(FILE_ARG);
@@ -312,7 +817,91 @@ public class CmdLineDumper {
         .create(BEST_HIT_ARG);
     Option firstHspOnly = OptionBuilder
         .withDescription(CmdMessages.getString("Tool.Dumper.arg10.desc"))
-        .create(BEST_HIT_ARG);
+        .create(FIRST_HSP_ARG);
+    Option stream = OptionBuilder
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg11.desc"))
+        .create(STREAM_ARG);
+    Option cache = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg12.lbl"))
+        .hasArg()
+        .withDescription(String.format(CmdMessages.getString("Tool.Dumper.arg12.desc"), DicoTermCache.DEFAULT_SIZE))
+        .create(CACHE_ARG);
+    Option preResolve = OptionBuilder
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg13.desc"))
+        .create(PRERESOLVE_ARG);
+    Option taxFile = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg14.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg14.desc"))
+        .create(TAX_FILE_ARG);
+    Option snapshotDir = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg15.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg15.desc"))
+        .create(SNAPSHOT_DIR_ARG);
+    Option threads = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg16.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg16.desc"))
+        .create(THREADS_ARG);
+    Option noHits = OptionBuilder
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg17.desc"))
+        .create(NOHITS_ARG);
+    Option seqIndex = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg18.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg18.desc"))
+        .create(SEQ_INDEX_ARG);
+    Option fileList = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg19.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg19.desc"))
+        .create(FILE_LIST_ARG);
+    Option evalue = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg20.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg20.desc"))
+        .create(EVALUE_ARG);
+    Option bitScore = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg21.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg21.desc"))
+        .create(BITSCORE_ARG);
+    Option identity = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg22.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg22.desc"))
+        .create(IDENTITY_ARG);
+    Option coverage = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg23.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg23.desc"))
+        .create(COVERAGE_ARG);
+    Option outFormat = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg24.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg24.desc"))
+        .create(OUT_FORMAT_ARG);
+    Option lca = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg25.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg25.desc"))
+        .create(LCA_ARG);
+    Option follow = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg26.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg26.desc"))
+        .create(FOLLOW_ARG);
+    Option sort = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg27.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg27.desc"))
+        .create(SORT_ARG);
+    Option sortMem = OptionBuilder
+        .withArgName(CmdMessages.getString("Tool.Dumper.arg28.lbl"))
+        .hasArg()
+        .withDescription(CmdMessages.getString("Tool.Dumper.arg28.desc"))
+        .create(SORT_MEM_ARG);
 
     opts = new Options();
     opts.addOption(input);
@@ -325,6 +914,24 @@ public class CmdLineDumper {
     opts.addOption(outfile);
     opts.addOption(bestHitOnly);
     opts.addOption(firstHspOnly);
+    opts.addOption(stream);
+    opts.addOption(cache);
+    opts.addOption(preResolve);
+    opts.addOption(taxFile);
+    opts.addOption(snapshotDir);
+    opts.addOption(threads);
+    opts.addOption(noHits);
+    opts.addOption(seqIndex);
+    opts.addOption(fileList);
+    opts.addOption(evalue);
+    opts.addOption(bitScore);
+    opts.addOption(identity);
+    opts.addOption(coverage);
+    opts.addOption(outFormat);
+    opts.addOption(lca);
+    opts.addOption(follow);
+    opts.addOption(sort);
+    opts.addOption(sortMem);
     
     CmdLineUtils.setHelpOption(opts);
 
@@ -352,37 +959,16 @@ public class CmdLineDumper {
     }
   }
   
-  private static boolean dumpData(boolean ncbiXmlLike,String dataFile, SRLoader loader, String outputFile, int colsIds[],
-      String taxPath, String goPath, String ecPath, String iprPath, boolean bestHitOnly, boolean firstHspOnly) {
+  /**
+   * Prepare the BeeDeeM dictionaries to use to expand biological classification.
+   * 
+   * @return a map of reader IDs to index paths. Can be empty.
+   */
+  private static HashMap<String, String> getDicos(String taxPath, String goPath, String ecPath, String iprPath) {
+    HashMap<String, String> dicos;
     String msg;
-    boolean bRet = true;
-    File f = new File(dataFile);
-    MyHandler dataHandler;
-    
-    if (f.exists()==false) {
-      msg = String.format(CmdMessages.getString("Tool.Dumper.msg2"), dataFile);
-      LoggerCentral.error(LOGGER, msg);
-      return false;
-    }
-    // read XML/ZML plast/blast file
-    msg = String.format(CmdMessages.getString("Tool.Dumper.msg8"), f.getAbsolutePath());
-    LOGGER.info(msg);
-    SROutput bo = loader.load(f);
-    LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
-    //Prepare CSV export
-    CSVExportSROutput exporter = new CSVExportSROutput();
-    exporter.showBestHitOnly(bestHitOnly);
-    exporter.showFirstHspOnly(firstHspOnly);
-    exporter.showColumnHeader(true);
-    exporter.showQueryId(true);
-    exporter.showQueryLength(false);
-    exporter.showQueryName(false);
-    
-    //ajouter arg pour controller best-hit only
     
-    HashMap<String, String> dicos;
     dicos = new HashMap<>();
-    
     // Sample Biol. Class. BeeDeeM Lucene indexes used to test the tool:
     //-tax "/biobank/d/NCBI_Taxonomy/current/NCBI_Taxonomy/NCBI_Taxonomy.ldx"
     //-go "/biobank/d/GeneOntology_terms/current/GeneOntology_terms/GeneOntology_terms.ldx"
@@ -409,119 +995,1077 @@ public class CmdLineDumper {
       LOGGER.info(msg);
       dicos.put(DicoUtils.READER_ENZYME, ecPath);
     }
-    dataHandler = new MyHandler(dicos.isEmpty() ? null : dicos);
-    exporter.setCSVExportSROutputHandler(dataHandler);
-    exporter.ssetColumnIds(colsIds);
+    return dicos;
+  }
 
-    // trick to enable handling of biological classification using NCBI XML data file
-    if (dataHandler.getDicoTermQuerySystem()!=null && ncbiXmlLike) {
-      LOGGER.info(CmdMessages.getString("Tool.Dumper.msg9"));
-      SRAnnotatorUtils.extractDbXrefFromHitDefline(bo, dataHandler.getDicoTermQuerySystem());
-      LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
-    }
+  /**
+   * Prepare the compact NCBI Taxonomy used to expand taxonomic classification.
+   * It is built from the BeeDeeM index the first time it is needed, or when
+   * that index has been updated.
+   * 
+   * @return a compact taxonomy or null if not available. In such a case, the
+   * BeeDeeM index is queried directly.
+   */
+  private static TaxonomyIndex getTaxonomyIndex(String taxPath, String taxFile) {
+    File f;
+    String msg;
     
-    LOGGER.info(CmdMessages.getString("Tool.Dumper.msg10"));
-    try (BufferedWriter bw = new BufferedWriter(outputFile==null?new OutputStreamWriter(System.out):new FileWriter(outputFile))) {
-      exporter.export(bw, bo);
-    } catch (Exception ex) {
-      msg = String.format(CmdMessages.getString("Tool.Dumper.msg3"), ex.toString());
+    if (taxPath==null || !new File(taxPath).exists()) {
+      return null;
+    }
+    f = taxFile!=null ? new File(taxFile) : DicoFileUtils.getFile(taxPath, null, TaxonomyIndex.EXTENSION);
+    try {
+      if (DicoFileUtils.isOutdated(f, taxPath)) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg19"), taxPath, f.getAbsolutePath());
+        LOGGER.info(msg);
+        try {
+          TaxonomyIndex.build(taxPath, f);
+        } catch (IOException e) {
+          // e.g. BeeDeeM bank installed in a read-only location
+          msg = String.format(CmdMessages.getString("Tool.Dumper.msg20"), e.toString());
+          LoggerCentral.warn(LOGGER, msg);
+          return TaxonomyIndex.build(taxPath);
+        }
+      }
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg21"), f.getAbsolutePath());
+      LOGGER.info(msg);
+      return TaxonomyIndex.open(f);
+    } catch (Exception e) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg22"), e.toString());
       LoggerCentral.error(LOGGER, msg);
-      bRet = false;
+      return null;
     }
-    LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
+  }
+
+  /**
+   * Prepare the snapshots of BeeDeeM indexes. A snapshot is only used if it is
+   * up to date.
+   * 
+   * @return a map of dictionaries to snapshots. Can be empty.
+   */
+  private static Map<Dicos, DicoSnapshot> getSnapshots(String goPath, String ecPath, String iprPath, String snapshotDir) {
+    HashMap<Dicos, DicoSnapshot> snapshots = new HashMap<>();
     
-    //safely close BeeDeeM Lucene indexes if any are opened
-    dataHandler.close();
+    addSnapshot(snapshots, Dicos.GENE_ONTOLOGY, goPath, snapshotDir);
+    addSnapshot(snapshots, Dicos.ENZYME, ecPath, snapshotDir);
+    addSnapshot(snapshots, Dicos.INTERPRO, iprPath, snapshotDir);
+    return snapshots;
+  }
+
+  private static void addSnapshot(Map<Dicos, DicoSnapshot> snapshots, Dicos dico, String ldxPath, String snapshotDir) {
+    File f;
+    String msg;
     
-    return bRet;
+    if (ldxPath==null || !new File(ldxPath).exists()) {
+      return;
+    }
+    f = DicoFileUtils.getFile(ldxPath, snapshotDir, DicoSnapshot.EXTENSION);
+    if (!f.exists()) {
+      return;
+    }
+    if (DicoFileUtils.isOutdated(f, ldxPath)) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg24"), dico.readerId.toUpperCase(), f.getAbsolutePath());
+      LoggerCentral.warn(LOGGER, msg);
+      return;
+    }
+    try {
+      snapshots.put(dico, DicoSnapshot.open(f));
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg23"), dico.readerId.toUpperCase(), f.getAbsolutePath());
+      LOGGER.info(msg);
+    } catch (Exception e) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg25"), f.getAbsolutePath(), e.toString());
+      LoggerCentral.error(LOGGER, msg);
+    }
   }
-  
-  private static int[] getColumnIDs(String outFmt) {
-    String key, msg;
-    int colsIds[], maxCols, value;
+
+  /**
+   * Load a data file. A NCBI XML file is read using NcbiXmlIterationReader,
+   * which parses bytes directly, so that discarded hits, HSPs and unneeded 
+   * elements are never created. Other data files are filtered once loaded.
+   * 
+   * @return results or null if data file cannot be loaded
+   */
+  private static SROutput loadData(boolean ncbiXmlLike, File f, SRLoader loader, HitFilter filter, 
+      ColumnProjection projection) throws IOException {
+    SRIteration iteration;
+    SROutput bo;
     
-    maxCols = OUTFMP_MAP.size()-1;
-    StringTokenizer tokenizer = new StringTokenizer(
-        outFmt==null ? DEFAULT_OUTFMP_MAP : outFmt.trim(), ",");
-    colsIds = new int[tokenizer.countTokens()];
-    int idx=0;
-    while(tokenizer.hasMoreTokens()) {
-      key = tokenizer.nextToken();
-      try {
-        value = Integer.valueOf(key);
-        if ( ! (value>=0 && value<=maxCols) ){
-          throw new NumberFormatException(CmdMessages.getString("Tool.Dumper.msg7"));
+    if (ncbiXmlLike) {
+      ISROutput ibo = new ISROutput();
+      try (NcbiXmlIterationReader reader = new NcbiXmlIterationReader(openDataFile(f))) {
+        reader.setHitFilter(filter);
+        reader.setProjection(projection);
+        ibo.setRequestInfo(reader.getRequestInfo());
+        while ((iteration = reader.next()) != null) {
+          ibo.addIteration(iteration);
         }
-      } catch (NumberFormatException e) {
-        msg = String.format(CmdMessages.getString("Tool.Dumper.msg6"), key, e.toString());
-        LoggerCentral.error(LOGGER, msg);
-        return null;
+        warnIfTruncated(reader, f);
       }
-      colsIds[idx] = OUTFMP_MAP.get(key);
-      idx++;
+      ibo.initialize();
+      return ibo;
     }
-    return colsIds;
+    bo = loadNative(loader, f);
+    if (bo!=null) {
+      filter.filter(bo);
+    }
+    return bo;
   }
-  
+
   /**
-   * Run cutting job.
-   * 
-   * @param args
-   *          command line arguments
-   * 
-   * @return true if cutting is ok, false otherwise.
-   * @throws FileNotFoundException 
+   * Open a data file. Compressed files (gzip, BGZF or zstd) are inflated while
+   * being read; BGZF blocks are inflated in parallel.
    */
-  public static boolean doJob(String[] args) {
-    CommandLine cmdLine;
-    String msg, toolName, inputFile, format, outputFile;
-    Options options;
-    SRLoader loader;
-    int colsIds[];
-    
-    toolName = CmdMessages.getString("Tool.Dumper.name");
+  private static InputStream openDataFile(File f) throws IOException {
+    return CompressionUtils.openInputStream(f, INFLATE_THREADS);
+  }
 
-    // prepare the Logging system
-    StarterUtils.configureApplication(null, toolName, true, false, true, false);
-    LoggerCentral.info(LOGGER, "*** Starting " + toolName);
+  /**
+   * Load a zml data file. BeeDeeM loaders only read files: a compressed file
+   * is first inflated in a temporary file.
+   */
+  private static SROutput loadNative(SRLoader loader, File f) throws IOException {
+    if (!CompressionUtils.isCompressed(f)) {
+      return loader.load(f);
+    }
+    File tmp = File.createTempFile("dumper", ".zml");
+    try {
+      try (InputStream is = openDataFile(f); OutputStream os = new FileOutputStream(tmp)) {
+        IOUtils.copy(is, os);
+      }
+      return loader.load(tmp);
+    } finally {
+      tmp.delete();
+    }
+  }
 
-    // handle the command-line and control some values
-    options = getCmdLineOptions();
-    cmdLine = CmdLineUtils.handleArguments(args, options, toolName);
-    if (cmdLine == null) {
-      return false;
+  /**
+   * Report a NCBI XML file ending within an iteration, e.g. from an aborted
+   * job: that iteration is not dumped.
+   */
+  private static void warnIfTruncated(NcbiXmlIterationReader reader, File f) {
+    if (reader.isTruncated()) {
+      String msg = String.format(CmdMessages.getString("Tool.Dumper.msg46"), f.getAbsolutePath());
+      LoggerCentral.warn(LOGGER, msg);
+    }
+  }
+
+  /**
+   * Prepare the filter applied while reading data.
+   * 
+   * @return a filter or null if an argument is invalid. In such a case, an error 
+   * has been reported.
+   */
+  private static HitFilter getHitFilter(CommandLine cmdLine, int colsIds[]) {
+    HitFilter filter = new HitFilter();
+    String arg = null, msg;
+    boolean nbHsps = false;
+    
+    try {
+      arg = EVALUE_ARG;
+      if (cmdLine.hasOption(arg)) {
+        filter.setMaxEvalue(getThreshold(cmdLine.getOptionValue(arg), Double.MAX_VALUE));
+      }
+      arg = BITSCORE_ARG;
+      if (cmdLine.hasOption(arg)) {
+        filter.setMinBitScore(getThreshold(cmdLine.getOptionValue(arg), Double.MAX_VALUE));
+      }
+      arg = IDENTITY_ARG;
+      if (cmdLine.hasOption(arg)) {
+        filter.setMinIdentity(getThreshold(cmdLine.getOptionValue(arg), 100));
+      }
+      arg = COVERAGE_ARG;
+      if (cmdLine.hasOption(arg)) {
+        filter.setMinCoverage(getThreshold(cmdLine.getOptionValue(arg), 100));
+      }
+    } catch (NumberFormatException e) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg35"), arg, cmdLine.getOptionValue(arg));
+      LoggerCentral.error(LOGGER, msg);
+      return null;
     }
-    inputFile = cmdLine.getOptionValue(FILE_ARG);
+    filter.setBestHitOnly(cmdLine.hasOption(BEST_HIT_ARG));
+    // number of HSPs column requires all HSPs: first HSP is then selected 
+    // at export time
+    for (int colId : colsIds) {
+      nbHsps |= colId==TxtExportSROutput.NBHSPS;
+    }
+    filter.setFirstHspOnly(cmdLine.hasOption(FIRST_HSP_ARG) && !nbHsps);
+    if (filter.isActive()) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg36"), filter.toString());
+      LOGGER.info(msg);
+    }
+    return filter;
+  }
+
+  /**
+   * Prepare the set of NCBI XML elements to read.
+   * 
+   * @param colsIds columns to export
+   * @param filter filter applied while reading data
+   * @param annotate true if hit definition lines are used to retrieve biological
+   * classification
+   */
+  private static ColumnProjection getProjection(int colsIds[], HitFilter filter, boolean annotate) {
+    ColumnProjection projection = new ColumnProjection(colsIds);
     
-    format = cmdLine.getOptionValue(FORMAT_ARG);
-    if (format==null) {
-      format=NCBI_LEGACY_XML;
+    projection.addFilter(filter);
+    if (annotate) {
+      projection.addElements("Hit_id", "Hit_def");
     }
-    colsIds = getColumnIDs(cmdLine.getOptionValue(OUTFMT_ARG));
-    if (colsIds==null) {
-      return false;
+    return projection;
+  }
+
+  private static double getThreshold(String value, double max) {
+    double d = Double.parseDouble(value);
+    if (!(d>=0 && d<=max)) {
+      throw new NumberFormatException(CmdMessages.getString("Tool.Dumper.msg7"));
     }
-    outputFile = cmdLine.getOptionValue(OUTFILE_ARG);
-    loader = getFileLoader(format);
-    if (loader==null) {
-      msg = String.format(CmdMessages.getString("Tool.Dumper.msg1"), format);
+    return d;
+  }
+
+  /**
+   * Check that a data file exists. Otherwise, an error is reported.
+   */
+  private static boolean checkDataFile(File f) {
+    if (f.exists()==false) {
+      String msg = String.format(CmdMessages.getString("Tool.Dumper.msg2"), f.getPath());
       LoggerCentral.error(LOGGER, msg);
       return false;
     }
-    // run job
-    return dumpData(
-          format.equals(NCBI_LEGACY_XML),
-          inputFile, 
-          loader, 
-          outputFile, 
-          colsIds,
-          cmdLine.getOptionValue(DICO_TAX_ARG),
-          cmdLine.getOptionValue(DICO_GO_ARG),
-          cmdLine.getOptionValue(DICO_EC_ARG),
-          cmdLine.getOptionValue(DICO_IPR_ARG),
-          cmdLine.hasOption(BEST_HIT_ARG),
-          cmdLine.hasOption(FIRST_HSP_ARG)
-          );
+    return true;
+  }
+
+  /**
+   * Run a dump job on the data file of a dump: check that this file exists,
+   * report the start of the job, create the data handler, run the job and
+   * close the data handler.
+   * 
+   * @param startMsg message reporting the start of the job
+   * @param annotate true if all BeeDeeM indexes are needed to annotate data
+   * 
+   * @return true if the job succeeded. Otherwise, an error has been reported.
+   */
+  private static boolean runDump(DumpOptions opts, File f, String startMsg, boolean annotate, DumpJob job) {
+    if (!checkDataFile(f)) {
+      return false;
+    }
+    LOGGER.info(startMsg);
+    return runJob(opts.createHandler(annotate), job);
+  }
+
+  /**
+   * Run a dump job then close its data handler.
+   * 
+   * @return true if the job succeeded. Otherwise, an error has been reported.
+   */
+  private static boolean runJob(MyHandler dataHandler, DumpJob job) {
+    String msg;
+    boolean bRet = true;
+    
+    try {
+      job.run(dataHandler);
+    } catch (Exception ex) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg3"), 
+          (ex instanceof ExecutionException ? ex.getCause() : ex).toString());
+      LoggerCentral.error(LOGGER, msg);
+      bRet = false;
+    }
+
+    //safely close BeeDeeM Lucene indexes if any are opened
+    dataHandler.close();
+
+    return bRet;
+  }
+
+  /**
+   * Load a data file in memory.
+   */
+  private static SROutput loadResults(DumpOptions opts, File f, SRLoader loader) throws IOException {
+    SROutput bo = loadData(opts.ncbiXmlLike, f, loader, opts.filter, opts.projection);
+    if (bo==null) {
+      throw new IOException(String.format(CmdMessages.getString("Tool.Dumper.msg31"), f.getAbsolutePath()));
+    }
+    return bo;
+  }
+
+  /**
+   * Create an exporter writing CSV data iteration by iteration.
+   */
+  private static CSVStreamExporter createStreamExporter(DumpOptions opts, MyHandler dataHandler) {
+    CSVStreamExporter exporter = new CSVStreamExporter(opts.colsIds, dataHandler, opts.bestHitOnly, 
+        opts.firstHspOnly);
+    if (opts.ncbiXmlLike) {
+      // trick to enable handling of biological classification using NCBI XML data file
+      exporter.setAnnotator(dataHandler.getAnnotator(opts.bestHitOnly));
+    }
+    return exporter;
+  }
+
+  private static boolean dumpData(DumpOptions opts) {
+    File f = new File(opts.inputFile);
+    // read XML/ZML plast/blast file
+    String startMsg = String.format(CmdMessages.getString("Tool.Dumper.msg8"), f.getAbsolutePath());
+    
+    return runDump(opts, f, startMsg, opts.ncbiXmlLike, dataHandler -> {
+      DefLineAnnotator annotator = null;
+      SROutput bo = loadResults(opts, f, opts.loader);
+      LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
+      
+      // trick to enable handling of biological classification using NCBI XML data file
+      if (dataHandler.getDicoTermQuerySystem()!=null && opts.ncbiXmlLike) {
+        if (opts.preResolve) {
+          // both export passes need annotated data: annotate them once, beforehand
+          LOGGER.info(CmdMessages.getString("Tool.Dumper.msg9"));
+          SRAnnotatorUtils.extractDbXrefFromHitDefline(bo, dataHandler.getDicoTermQuerySystem());
+          LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
+        }
+        else {
+          // hits are annotated while being exported
+          annotator = dataHandler.getAnnotator(opts.bestHitOnly);
+        }
+      }
+      
+      LOGGER.info(CmdMessages.getString("Tool.Dumper.msg10"));
+      if (opts.columnar) {
+        dumpColumnar(opts, bo, dataHandler, annotator);
+      }
+      else {
+        dumpCsv(opts, bo, dataHandler, annotator);
+      }
+      LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
+    });
+  }
+
+  /**
+   * Dump results loaded in memory using the CSV format.
+   */
+  private static void dumpCsv(DumpOptions opts, SROutput bo, MyHandler dataHandler, DefLineAnnotator annotator) 
+      throws Exception {
+    String msg;
+    
+    try (Writer bw = opts.openWriter()) {
+      if (opts.preResolve && dataHandler.isEnabled()) {
+        preResolve(opts, dataHandler, bo);
+      }
+      if (opts.threads>1) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg26"), opts.threads);
+        LOGGER.info(msg);
+      }
+      // classification identifiers are resolved per block of rows
+      CSVParallelExporter exporter = new CSVParallelExporter(opts.colsIds, dataHandler, opts.bestHitOnly, 
+          opts.firstHspOnly, opts.threads);
+      exporter.setAnnotator(annotator);
+      exporter.export(bo, bw);
+    }
+  }
+
+  /**
+   * Dump results loaded in memory using the columnar format. See
+   * ColumnarWriter for a description of that format.
+   */
+  private static void dumpColumnar(DumpOptions opts, SROutput bo, MyHandler dataHandler, 
+      DefLineAnnotator annotator) throws Exception {
+    ColumnarExporter exporter = new ColumnarExporter(opts.colsIds, dataHandler, opts.bestHitOnly, 
+        opts.firstHspOnly);
+    String msg;
+    long rows;
+    
+    exporter.setAnnotator(annotator);
+    try (ColumnarWriter w = exporter.createWriter(openOutputStream(opts.outputFile))) {
+      if (opts.preResolve && dataHandler.isEnabled()) {
+        preResolve(opts, dataHandler, bo);
+      }
+      rows = exporter.export(bo, w);
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg38"), rows);
+      LOGGER.info(msg);
+    }
+  }
+
+  private static OutputStream openOutputStream(String outputFile) throws IOException {
+    return new BufferedOutputStream(outputFile==null ? 
+        new CloseShieldOutputStream(System.out) : new FileOutputStream(outputFile));
+  }
+
+  /**
+   * Dump a NCBI XML file iteration by iteration. Contrary to dumpData(), memory
+   * usage does not depend on the size of the data file.
+   */
+  private static boolean dumpDataStream(DumpOptions opts) {
+    File f = new File(opts.inputFile);
+    String startMsg = String.format(CmdMessages.getString("Tool.Dumper.msg13"), f.getAbsolutePath());
+
+    // NCBI XML data are annotated: all BeeDeeM indexes are needed
+    return runDump(opts, f, startMsg, true, dataHandler -> {
+      String msg;
+      long iterations;
+      
+      if (opts.preResolve && dataHandler.isEnabled()) {
+        // first pass: only collect classification identifiers
+        ClassificationCollector collector = new ClassificationCollector();
+        CSVStreamExporter collectExporter = new CSVStreamExporter(opts.colsIds, collector, opts.bestHitOnly, 
+            opts.firstHspOnly);
+        collectExporter.setAnnotator(dataHandler.getAnnotator(opts.bestHitOnly));
+        try (NcbiXmlIterationReader collectReader = opts.openReader(f)) {
+          collectExporter.export(collectReader, new NullWriter());
+        }
+        preResolve(dataHandler, collector);
+      }
+      try (NcbiXmlIterationReader reader = opts.openReader(f)) {
+        if (opts.columnar) {
+          ColumnarExporter colExporter = new ColumnarExporter(opts.colsIds, dataHandler, opts.bestHitOnly, 
+              opts.firstHspOnly);
+          colExporter.setAnnotator(dataHandler.getAnnotator(opts.bestHitOnly));
+          try (ColumnarWriter w = colExporter.createWriter(openOutputStream(opts.outputFile))) {
+            iterations = colExporter.export(reader, w);
+            msg = String.format(CmdMessages.getString("Tool.Dumper.msg38"), w.getRowCount());
+            LOGGER.info(msg);
+          }
+        }
+        else {
+          try (Writer bw = opts.openWriter()) {
+            iterations = createStreamExporter(opts, dataHandler).export(reader, bw);
+          }
+        }
+        warnIfTruncated(reader, f);
+      }
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg14"), iterations);
+      LOGGER.info(msg);
+    });
+  }
+
+  /**
+   * Dump a NCBI XML file still being written, iteration by iteration. Progress
+   * is saved in a checkpoint file located next to the output file; a previous
+   * run is resumed when that file exists.
+   */
+  private static boolean dumpDataFollow(DumpOptions opts, double idleTimeout) {
+    String msg;
+    File f = new File(opts.inputFile);
+    File checkpoint = new File(opts.outputFile + CHECKPOINT_EXT);
+
+    if (!checkDataFile(f)) {
+      return false;
+    }
+    try {
+      if (CompressionUtils.isCompressed(f)) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg50"), FOLLOW_ARG, f.getAbsolutePath());
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+    } catch (IOException ex) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg3"), ex.toString());
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    msg = String.format(CmdMessages.getString("Tool.Dumper.msg43"), f.getAbsolutePath());
+    LOGGER.info(msg);
+    // NCBI XML data are annotated: all BeeDeeM indexes are needed
+    return runJob(opts.createHandler(true), dataHandler -> {
+      CSVStreamExporter exporter = createStreamExporter(opts, dataHandler);
+      String jobMsg;
+      
+      try (NcbiXmlFollower follower = new NcbiXmlFollower(f, new File(opts.outputFile), checkpoint, 
+          (long) (idleTimeout * 1000))) {
+        if (follower.isResumed()) {
+          jobMsg = String.format(CmdMessages.getString("Tool.Dumper.msg44"), checkpoint.getAbsolutePath());
+          LOGGER.info(jobMsg);
+        }
+        NcbiXmlIterationReader reader = follower.open();
+        reader.setHitFilter(opts.filter);
+        reader.setProjection(opts.projection);
+        try (Writer bw = new BufferedWriter(new FileWriter(opts.outputFile, follower.isResumed()))) {
+          jobMsg = String.format(CmdMessages.getString("Tool.Dumper.msg14"), exporter.follow(follower, bw));
+          LOGGER.info(jobMsg);
+        }
+        if (follower.isStopped()) {
+          jobMsg = String.format(CmdMessages.getString("Tool.Dumper.msg45"), idleTimeout);
+          LOGGER.info(jobMsg);
+        }
+      }
+    });
+  }
+
+  /**
+   * Dump a data file with rows sorted on a key. NCBI XML files are read
+   * iteration by iteration; rows are sorted using a bounded amount of memory.
+   */
+  private static boolean dumpSorted(DumpOptions opts, SortKey key, long memory) {
+    File f = new File(opts.inputFile);
+    String startMsg = String.format(CmdMessages.getString("Tool.Dumper.msg47"), f.getAbsolutePath(), 
+        key.getName());
+
+    return runDump(opts, f, startMsg, opts.ncbiXmlLike, dataHandler -> {
+      CSVStreamExporter exporter = createStreamExporter(opts, dataHandler);
+      String msg;
+      long iterations;
+      
+      try (ExternalRowSorter sorter = new ExternalRowSorter(key, memory, null);
+          Writer bw = opts.openWriter()) {
+        if (opts.ncbiXmlLike) {
+          try (NcbiXmlIterationReader reader = opts.openReader(f)) {
+            iterations = exporter.exportSorted(reader, sorter, bw);
+            warnIfTruncated(reader, f);
+          }
+        }
+        else {
+          iterations = exporter.exportSorted(loadResults(opts, f, opts.loader), sorter, bw);
+        }
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg48"), sorter.getRowCount(), sorter.getRunCount());
+        LOGGER.info(msg);
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg14"), iterations);
+        LOGGER.info(msg);
+      }
+    });
+  }
+
+  /**
+   * Dump a data file in an indexed store: CSV rows of a query can then be
+   * retrieved using ResultStoreReader. NCBI XML files are read iteration by
+   * iteration.
+   */
+  private static boolean dumpIndexed(DumpOptions opts) {
+    File f = new File(opts.inputFile);
+    String startMsg = String.format(CmdMessages.getString("Tool.Dumper.msg49"), f.getAbsolutePath());
+
+    return runDump(opts, f, startMsg, opts.ncbiXmlLike, dataHandler -> {
+      CSVStreamExporter exporter = createStreamExporter(opts, dataHandler);
+      String msg;
+      long iterations;
+      
+      try (ResultStoreWriter store = exporter.createStore(new File(opts.outputFile))) {
+        if (opts.ncbiXmlLike) {
+          try (NcbiXmlIterationReader reader = opts.openReader(f)) {
+            iterations = exporter.exportIndexed(reader, store);
+            warnIfTruncated(reader, f);
+          }
+        }
+        else {
+          iterations = exporter.exportIndexed(loadResults(opts, f, opts.loader), store);
+        }
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg38"), store.getRowCount());
+        LOGGER.info(msg);
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg14"), iterations);
+        LOGGER.info(msg);
+      }
+    });
+  }
+
+  /**
+   * Dump a single row per query of a NCBI XML file, read iteration by iteration.
+   * Lowest common ancestors of hits are computed using the compact NCBI Taxonomy.
+   */
+  private static boolean dumpSummary(DumpOptions opts, double evalueWindow) {
+    String msg;
+    File f = new File(opts.inputFile);
+    TaxonomyIndex taxonomy;
+
+    if (!checkDataFile(f)) {
+      return false;
+    }
+    taxonomy = getTaxonomyIndex(opts.taxPath, opts.taxFile);
+    if (taxonomy==null) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg39"), LCA_ARG, DICO_TAX_ARG);
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    msg = String.format(CmdMessages.getString("Tool.Dumper.msg13"), f.getAbsolutePath());
+    LOGGER.info(msg);
+    // NCBI XML data are annotated: all BeeDeeM indexes are needed
+    return runJob(opts.createHandler(true, taxonomy), dataHandler -> {
+      QuerySummaryExporter exporter = new QuerySummaryExporter(opts.colsIds, dataHandler, taxonomy, evalueWindow);
+      // taxa of all hits are needed, not only the ones of best hits
+      exporter.setAnnotator(dataHandler.getAnnotator(false));
+      
+      try (NcbiXmlIterationReader reader = opts.openReader(f); Writer bw = opts.openWriter()) {
+        String jobMsg = String.format(CmdMessages.getString("Tool.Dumper.msg14"), exporter.export(reader, bw));
+        LOGGER.info(jobMsg);
+      }
+    });
+  }
+
+  /**
+   * Dump several data files in a single CSV file. Files are loaded and exported
+   * concurrently, sharing BeeDeeM indexes and caches. CSV data are written in
+   * file order, with a single header.
+   */
+  private static boolean dumpFiles(DumpOptions opts, List<File> files) {
+    String msg;
+
+    for (File f : files) {
+      if (!checkDataFile(f)) {
+        return false;
+      }
+    }
+    msg = String.format(CmdMessages.getString("Tool.Dumper.msg30"), files.size(), opts.threads);
+    LOGGER.info(msg);
+    return runJob(opts.createHandler(opts.ncbiXmlLike), dataHandler -> {
+      ArrayDeque<Future<CSVRowBuilder>> pending = new ArrayDeque<>();
+      ExecutorService pool = Executors.newFixedThreadPool(opts.threads);
+      
+      try (Writer bw = opts.openWriter()) {
+        for (int i=0; i<files.size(); i++) {
+          // bound the number of CSV data kept in memory
+          if (pending.size()>=opts.threads) {
+            pending.poll().get().writeTo(bw);
+          }
+          final File f = files.get(i);
+          final boolean header = (i==0);
+          pending.add(pool.submit(() -> dumpFile(opts, f, dataHandler, header)));
+        }
+        while (!pending.isEmpty()) {
+          pending.poll().get().writeTo(bw);
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+      LOGGER.info(CmdMessages.getString("Tool.Dumper.msg11"));
+    });
+  }
+
+  /**
+   * Dump a single data file as part of a multi-file job.
+   * 
+   * @return CSV data
+   */
+  private static CSVRowBuilder dumpFile(DumpOptions opts, File f, MyHandler dataHandler, boolean header) 
+      throws Exception {
+    CSVRowBuilder w = new CSVRowBuilder();
+    String msg;
+
+    msg = String.format(CmdMessages.getString("Tool.Dumper.msg8"), f.getAbsolutePath());
+    LOGGER.info(msg);
+    SROutput bo;
+    if (opts.ncbiXmlLike) {
+      // loaders are not shared among threads
+      bo = loadResults(opts, f, getFileLoader(opts.format));
+    }
+    else {
+      synchronized(NATIVE_LOADER_LOCK) {
+        bo = loadResults(opts, f, getFileLoader(opts.format));
+      }
+    }
+    CSVParallelExporter exporter = new CSVParallelExporter(opts.colsIds, dataHandler, opts.bestHitOnly, 
+        opts.firstHspOnly, 1);
+    if (opts.ncbiXmlLike) {
+      // trick to enable handling of biological classification using NCBI XML data file
+      exporter.setAnnotator(dataHandler.getAnnotator(opts.bestHitOnly));
+    }
+    exporter.showColumnHeader(header);
+    exporter.export(bo, w);
+    return w;
+  }
+
+  /**
+   * Collect the data files to dump when several ones are provided.
+   * 
+   * @param input value of -i argument: a data file or a directory. Can be null.
+   * @param fileList value of -filelist argument. Can be null.
+   * @param format data file format
+   * 
+   * @return data files or null if input is a single data file or if an error
+   * occurred. In the latter case, an error has been reported.
+   */
+  private static List<File> getDataFiles(String input, String fileList, String format) throws IOException {
+    List<File> files = new ArrayList<>();
+    String msg;
+
+    if (fileList!=null) {
+      for (String line : FileUtils.readLines(new File(fileList), "UTF-8")) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          files.add(new File(line));
+        }
+      }
+    }
+    else if (new File(input).isDirectory()) {
+      File[] dirFiles = new File(input).listFiles(
+          f -> f.isFile() && CompressionUtils.stripCompressionExtension(f.getName().toLowerCase())
+              .endsWith("."+format.toLowerCase()));
+      if (dirFiles!=null) {
+        Collections.addAll(files, dirFiles);
+      }
+      files.sort(new SliceNameComparator());
+    }
+    else {
+      return null;
+    }
+    if (files.isEmpty()) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg32"), fileList!=null ? fileList : input);
+      LoggerCentral.error(LOGGER, msg);
+    }
+    return files;
+  }
+
+  /**
+   * Dump IDs of queries without hits. A NCBI XML file is read iteration by
+   * iteration. IDs are formatted as expected by a sequence index (see
+   * CmdLineUserQuery), e.g. lcl|seq1 becomes seq1, and each ID is dumped once.
+   * When a sequence index is provided, query sequences are retrieved from it
+   * and dumped instead of their IDs.
+   */
+  private static boolean dumpNoHits(DumpOptions opts, String seqIndex) {
+    HashSet<String> ids = new HashSet<>();
+    String msg;
+    boolean bRet = true;
+    File f = new File(opts.inputFile);
+    SRIteration iteration;
+
+    if (!checkDataFile(f)) {
+      return false;
+    }
+    if (seqIndex!=null) {
+      seqIndex = bzh.plealog.bioinfo.util.CmdLineUtils.expandEnvVars(seqIndex);
+      if (!new File(seqIndex).exists()) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg2"), seqIndex);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+    }
+    msg = String.format(CmdMessages.getString("Tool.Dumper.msg28"), f.getAbsolutePath());
+    LOGGER.info(msg);
+    try (Writer bw = opts.openWriter()) {
+      if (opts.ncbiXmlLike) {
+        try (NcbiXmlIterationReader reader = opts.openReader(f)) {
+          while ((iteration = reader.next()) != null) {
+            bRet &= dumpNoHit(iteration, ids, seqIndex, bw);
+          }
+        }
+      }
+      else {
+        SROutput bo = loadNative(opts.loader, f);
+        opts.filter.filter(bo);
+        for (int i=0; i<bo.countIteration(); i++) {
+          bRet &= dumpNoHit(bo.getIteration(i), ids, seqIndex, bw);
+        }
+      }
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg29"), ids.size());
+      LOGGER.info(msg);
+    } catch (Exception ex) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg3"), ex.toString());
+      LoggerCentral.error(LOGGER, msg);
+      bRet = false;
+    } finally {
+      if (seqIndex!=null) {
+        LuceneUtils.closeStorages();
+      }
+    }
+    return bRet;
+  }
+
+  private static boolean dumpNoHit(SRIteration iteration, Set<String> ids, String seqIndex, Writer w) 
+      throws IOException {
+    if (iteration.countHit()!=0) {
+      return true;
+    }
+    String id = CmdLineUserQuery.sliceId(iteration.getIterationQueryID());
+    if (!ids.add(id)) {
+      return true;
+    }
+    if (seqIndex!=null) {
+      return CmdLineUserQuery.dumpEntry(seqIndex, id, w);
+    }
+    w.write(id);
+    w.write("\n");
+    return true;
+  }
+
+  /**
+   * Resolve all classification identifiers collected during a first export
+   * pass.
+   */
+  private static void preResolve(MyHandler dataHandler, ClassificationCollector collector) throws Exception {
+    String msg = String.format(CmdMessages.getString("Tool.Dumper.msg17"), collector.getEntryIds().size());
+    LOGGER.info(msg);
+    long tim = System.currentTimeMillis();
+    dataHandler.preResolve(collector.getEntryIds());
+    msg = String.format(CmdMessages.getString("Tool.Dumper.msg18"), System.currentTimeMillis()-tim);
+    LOGGER.info(msg);
+  }
+  /**
+   * Resolve all classification identifiers of results loaded in memory,
+   * collected during a first export pass.
+   */
+  private static void preResolve(DumpOptions opts, MyHandler dataHandler, SROutput bo) throws Exception {
+    // first pass: only collect classification identifiers
+    ClassificationCollector collector = new ClassificationCollector();
+    CSVParallelExporter exporter = new CSVParallelExporter(opts.colsIds, collector, opts.bestHitOnly, 
+        opts.firstHspOnly, 1);
+    exporter.export(bo, new NullWriter());
+    preResolve(dataHandler, collector);
+  }
+
+
+  private static int[] getColumnIDs(String outFmt) {
+    String key, msg;
+    int colsIds[], maxCols, value;
+    
+    maxCols = OUTFMP_MAP.size()-1;
+    StringTokenizer tokenizer = new StringTokenizer(
+        outFmt==null ? DEFAULT_OUTFMP_MAP : outFmt.trim(), ",");
+    colsIds = new int[tokenizer.countTokens()];
+    int idx=0;
+    while(tokenizer.hasMoreTokens()) {
+      key = tokenizer.nextToken();
+      try {
+        value = Integer.valueOf(key);
+        if ( ! (value>=0 && value<=maxCols) ){
+          throw new NumberFormatException(CmdMessages.getString("Tool.Dumper.msg7"));
+        }
+      } catch (NumberFormatException e) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg6"), key, e.toString());
+        LoggerCentral.error(LOGGER, msg);
+        return null;
+      }
+      colsIds[idx] = OUTFMP_MAP.get(key);
+      idx++;
+    }
+    return colsIds;
+  }
+  
+  /**
+   * Run cutting job.
+   * 
+   * @param args
+   *          command line arguments
+   * 
+   * @return true if cutting is ok, false otherwise.
+   * @throws FileNotFoundException 
+   */
+  public static boolean doJob(String[] args) {
+    CommandLine cmdLine;
+    String msg, toolName;
+    Options options;
+    DumpOptions opts;
+    boolean indexed;
+    
+    toolName = CmdMessages.getString("Tool.Dumper.name");
+
+    // prepare the Logging system
+    StarterUtils.configureApplication(null, toolName, true, false, true, false);
+    LoggerCentral.info(LOGGER, "*** Starting " + toolName);
+
+    // handle the command-line and control some values
+    options = getCmdLineOptions();
+    cmdLine = CmdLineUtils.handleArguments(args, options, toolName);
+    if (cmdLine == null) {
+      return false;
+    }
+    opts = new DumpOptions(cmdLine);
+    opts.colsIds = getColumnIDs(cmdLine.getOptionValue(OUTFMT_ARG));
+    if (opts.colsIds==null) {
+      return false;
+    }
+    opts.loader = getFileLoader(opts.format);
+    if (opts.loader==null) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg1"), opts.format);
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    if (cmdLine.hasOption(CACHE_ARG)) {
+      try {
+        opts.cacheSize = Integer.parseInt(cmdLine.getOptionValue(CACHE_ARG));
+        if (opts.cacheSize<0) {
+          throw new NumberFormatException(CmdMessages.getString("Tool.Dumper.msg7"));
+        }
+      } catch (NumberFormatException e) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg16"), cmdLine.getOptionValue(CACHE_ARG));
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+    }
+    if (cmdLine.hasOption(THREADS_ARG)) {
+      try {
+        opts.threads = Integer.parseInt(cmdLine.getOptionValue(THREADS_ARG));
+        if (opts.threads<0) {
+          throw new NumberFormatException(CmdMessages.getString("Tool.Dumper.msg7"));
+        }
+        if (opts.threads==0) {
+          opts.threads = Runtime.getRuntime().availableProcessors();
+        }
+      } catch (NumberFormatException e) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg27"), cmdLine.getOptionValue(THREADS_ARG));
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+    }
+    msg = cmdLine.getOptionValue(OUT_FORMAT_ARG, CSV_FORMAT);
+    if (!msg.equals(CSV_FORMAT) && !msg.equals(COLUMNAR_FORMAT) && !msg.equals(INDEXED_FORMAT)) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg37"), msg);
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    opts.columnar = msg.equals(COLUMNAR_FORMAT);
+    indexed = msg.equals(INDEXED_FORMAT);
+    opts.filter = getHitFilter(cmdLine, opts.colsIds);
+    if (opts.filter==null) {
+      return false;
+    }
+    // queries without hits: no hit data are needed
+    opts.projection = getProjection(cmdLine.hasOption(NOHITS_ARG) ? new int[0] : opts.colsIds, opts.filter, 
+        opts.taxPath!=null || opts.goPath!=null || opts.ecPath!=null || opts.iprPath!=null);
+    // run job
+    if ((opts.inputFile==null) == (cmdLine.getOptionValue(FILE_LIST_ARG)==null)) {
+      LoggerCentral.error(LOGGER, CmdMessages.getString("Tool.Dumper.msg33"));
+      return false;
+    }
+    List<File> files;
+    try {
+      files = getDataFiles(opts.inputFile, cmdLine.getOptionValue(FILE_LIST_ARG), opts.format);
+    } catch (IOException e) {
+      msg = String.format(CmdMessages.getString("Tool.Dumper.msg3"), e.toString());
+      LoggerCentral.error(LOGGER, msg);
+      return false;
+    }
+    if (files!=null) {
+      if (files.isEmpty()) {
+        return false;
+      }
+      for (String arg : new String[] {NOHITS_ARG, STREAM_ARG, PRERESOLVE_ARG, LCA_ARG, FOLLOW_ARG, SORT_ARG}) {
+        if (cmdLine.hasOption(arg)) {
+          msg = String.format(CmdMessages.getString("Tool.Dumper.msg34"), arg);
+          LoggerCentral.error(LOGGER, msg);
+          return false;
+        }
+      }
+      if (opts.columnar || indexed) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg34"), OUT_FORMAT_ARG + " " + 
+            cmdLine.getOptionValue(OUT_FORMAT_ARG));
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      return dumpFiles(opts, files);
+    }
+    if (cmdLine.hasOption(SORT_ARG)) {
+      SortKey key;
+      long memory = ExternalRowSorter.DEFAULT_MEMORY;
+      for (String arg : new String[] {NOHITS_ARG, LCA_ARG, FOLLOW_ARG, PRERESOLVE_ARG}) {
+        if (cmdLine.hasOption(arg)) {
+          msg = String.format(CmdMessages.getString("Tool.Dumper.msg42"), arg, SORT_ARG);
+          LoggerCentral.error(LOGGER, msg);
+          return false;
+        }
+      }
+      if (opts.columnar || indexed) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg40"), SORT_ARG);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      key = SortKey.fromName(cmdLine.getOptionValue(SORT_ARG));
+      if (key==null) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg35"), SORT_ARG, cmdLine.getOptionValue(SORT_ARG));
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      if (cmdLine.hasOption(SORT_MEM_ARG)) {
+        try {
+          memory = Long.parseLong(cmdLine.getOptionValue(SORT_MEM_ARG));
+          if (memory<=0) {
+            throw new NumberFormatException(CmdMessages.getString("Tool.Dumper.msg7"));
+          }
+          memory *= 1024L * 1024L;
+        } catch (NumberFormatException e) {
+          msg = String.format(CmdMessages.getString("Tool.Dumper.msg35"), SORT_MEM_ARG, cmdLine.getOptionValue(SORT_MEM_ARG));
+          LoggerCentral.error(LOGGER, msg);
+          return false;
+        }
+      }
+      // keys are read from HSPs
+      opts.projection.addElements("Hit_id", "Hit_accession", "Hsp_evalue", "Hsp_bit-score");
+      return dumpSorted(opts, key, memory);
+    }
+    if (indexed) {
+      for (String arg : new String[] {NOHITS_ARG, PRERESOLVE_ARG, LCA_ARG, FOLLOW_ARG, STREAM_ARG}) {
+        if (cmdLine.hasOption(arg)) {
+          msg = String.format(CmdMessages.getString("Tool.Dumper.msg42"), arg, OUT_FORMAT_ARG + " " + INDEXED_FORMAT);
+          LoggerCentral.error(LOGGER, msg);
+          return false;
+        }
+      }
+      if (opts.outputFile==null) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg41"), OUT_FORMAT_ARG + " " + INDEXED_FORMAT, 
+            OUTFILE_ARG);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      return dumpIndexed(opts);
+    }
+    if (cmdLine.hasOption(NOHITS_ARG)) {
+      if (opts.columnar) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg42"), NOHITS_ARG, OUT_FORMAT_ARG + " " + COLUMNAR_FORMAT);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      return dumpNoHits(opts, cmdLine.getOptionValue(SEQ_INDEX_ARG));
+    }
+    if (cmdLine.hasOption(LCA_ARG)) {
+      double evalueWindow;
+      for (String arg : new String[] {FOLLOW_ARG, STREAM_ARG, PRERESOLVE_ARG}) {
+        if (cmdLine.hasOption(arg)) {
+          msg = String.format(CmdMessages.getString("Tool.Dumper.msg42"), arg, LCA_ARG);
+          LoggerCentral.error(LOGGER, msg);
+          return false;
+        }
+      }
+      if (!opts.ncbiXmlLike) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg51"), LCA_ARG, opts.format);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      if (opts.columnar) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg40"), LCA_ARG);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      try {
+        evalueWindow = getThreshold(cmdLine.getOptionValue(LCA_ARG), Double.MAX_VALUE);
+      } catch (NumberFormatException e) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg35"), LCA_ARG, cmdLine.getOptionValue(LCA_ARG));
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      // best hits are selected using evalues
+      opts.projection.addElements("Hsp_evalue");
+      return dumpSummary(opts, evalueWindow);
+    }
+    if (cmdLine.hasOption(FOLLOW_ARG)) {
+      double idleTimeout;
+      if (!opts.ncbiXmlLike) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg51"), FOLLOW_ARG, opts.format);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      if (opts.outputFile==null) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg41"), FOLLOW_ARG, OUTFILE_ARG);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      if (opts.columnar) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg40"), FOLLOW_ARG);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      if (opts.preResolve) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg42"), PRERESOLVE_ARG, FOLLOW_ARG);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      try {
+        idleTimeout = getThreshold(cmdLine.getOptionValue(FOLLOW_ARG), Double.MAX_VALUE);
+      } catch (NumberFormatException e) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg35"), FOLLOW_ARG, cmdLine.getOptionValue(FOLLOW_ARG));
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      return dumpDataFollow(opts, idleTimeout);
+    }
+    if (cmdLine.hasOption(STREAM_ARG)) {
+      if (!opts.ncbiXmlLike) {
+        msg = String.format(CmdMessages.getString("Tool.Dumper.msg12"), opts.format);
+        LoggerCentral.error(LOGGER, msg);
+        return false;
+      }
+      return dumpDataStream(opts);
+    }
+    return dumpData(opts);
   }
 
   /**
@@ -185,7 +185,7 @@ public class CmdLineUserQuery {
    * @param w
    *          final destination of the sequence
    */
-  private static boolean dumpEntry(String index, String id, Writer w) {
+  static boolean dumpEntry(String index, String id, Writer w) {
     String msg;
     DBEntry entry;
     File dbFile;
@@ -308,7 +308,7 @@ public class CmdLineUserQuery {
    * 
    * @return true if found, false otherwise.
    */
-  private static String sliceId(String id) {
+  static String sliceId(String id) {
     // take into account that a sequence ID may be formatted using
     // NBCI rules, e.g. sp|P97756|KKCC1_RAT
     StringTokenizer tokenizer = new StringTokenizer(id, "|");
@@ -317,8 +317,8 @@ public class CmdLineUserQuery {
     while (tokenizer.hasMoreTokens()) {
       token = tokenizer.nextToken();
       // do we have to stkip bank name ?
-      if (LuceneUtils.DB_TOKENS.contains(token)) {
-        if ("GNL".equals(token)) {
+      if (LuceneUtils.DB_TOKENS.contains(token.toUpperCase())) {
+        if ("GNL".equalsIgnoreCase(token)) {
           // before skipping, check if it is possible to do so
           if (tokenizer.hasMoreTokens())
             tokenizer.nextToken();
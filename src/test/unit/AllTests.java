@@ -31,6 +31,7 @@ import org.junit.runners.Suite.SuiteClasses;
   CmdLineIndexerTest.class,
   CmdLineUserQueryTest.class,
   CmdLineDumperTest.class,
+  CmdLineDicoSnapshotTest.class,
   PlastRunnerTest.class
   })
 public class AllTests {
@@ -0,0 +1,64 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Utility methods to create BGZF test data.
+ */
+final class BgzfTestUtils {
+
+  private BgzfTestUtils() {
+  }
+
+  /**
+   * Write data using the BGZF format: a series of small gzip blocks, each of 
+   * them announcing its own size within a 'BC' extra field.
+   */
+  static void writeBgzf(byte[] data, File f, int blockSize) throws IOException {
+    try (OutputStream os = new FileOutputStream(f)) {
+      for (int off = 0; off <= data.length; off += blockSize) {
+        // last iteration writes the empty EOF block
+        int len = Math.min(blockSize, data.length - off);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] cdata = new byte[len + 1024];
+        int clen = deflater.deflate(cdata);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        int bsize = clen + 25;
+        os.write(new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66, 67, 2, 0, 
+            (byte) bsize, (byte) (bsize >> 8) });
+        os.write(cdata, 0, clen);
+        writeInt(os, crc.getValue());
+        writeInt(os, len);
+      }
+    }
+  }
+  
+  private static void writeInt(OutputStream os, long v) throws IOException {
+    os.write(new byte[] { (byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24) });
+  }
+}
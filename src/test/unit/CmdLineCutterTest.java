@@ -1,8 +1,24 @@
 package test.unit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.BasicConfigurator;
 import org.junit.AfterClass;
@@ -25,6 +41,13 @@ public class CmdLineCutterTest {
   private static final String DATA_PATH = "tests/databank/fasta_prot/";
   // the data file to index
   private static final String DATA_FILE = "uniprot.faa";
+  // compressed copies of the data file
+  private static final String DATA_FILE_GZ = "uniprot.faa.gz";
+  private static final String DATA_FILE_BGZ = "uniprot_bgzf.faa.gz";
+  // a copy of the data file containing duplicated sequences
+  private static final String DATA_FILE_DUP = "uniprot_dup.faa";
+  // names of the sequence files used to test batch mode
+  private static final String BATCH_FILES[] = {"s1.faa", "s2.faa", "s3.faa"};
   // the working directory for the test
   private static final String WK_DIR_BASE = 
       EZFileUtils.terminatePath(System.getProperty("java.io.tmpdir"))+
@@ -32,6 +55,9 @@ public class CmdLineCutterTest {
   // a second directory to check specific arguments of CmdLineIndexer tool
   private static final String WK_DIR_DATA = 
       WK_DIR_BASE+"data"+File.separator;
+  // a third directory to check batch mode
+  private static final String WK_DIR_BATCH = 
+      WK_DIR_BASE+"batch"+File.separator;
 
   //expected result files for the various tests
   private static final String RES_FILE_1 = "uniprot_3-end.faa";
@@ -42,6 +68,15 @@ public class CmdLineCutterTest {
       "uniprot_4-6.faa",
       "uniprot_7-9.faa",
       "uniprot_10-10.faa"};
+  private static final String RES_FILE_5[] = {
+      "uniprot_bgzf_1-3.faa",
+      "uniprot_bgzf_4-6.faa",
+      "uniprot_bgzf_7-9.faa",
+      "uniprot_bgzf_10-10.faa"};
+  private static final String RES_FILE_6[] = {
+      "uniprot_dup_1-5.faa",
+      "uniprot_dup_6-10.faa"};
+  private static final String RES_FILE_6_MAP = "uniprot_dup_dedup.tsv";
   
   @BeforeClass
   public static void setUpBeforeClass() throws Exception {
@@ -55,9 +90,46 @@ public class CmdLineCutterTest {
     
     // if needed, create working directory
     assertTrue(new File(WK_DIR_DATA).mkdirs());
+    assertTrue(new File(WK_DIR_BATCH).mkdirs());
     
     // copy sequence data file to working directory
     EZFileUtils.copyFile(new File(DATA_PATH+DATA_FILE), new File(WK_DIR_BASE+DATA_FILE));
+    
+    // prepare a gzip and a BGZF copy of the sequence data file
+    byte[] data = Files.readAllBytes(new File(DATA_PATH+DATA_FILE).toPath());
+    try (OutputStream os = new GZIPOutputStream(new FileOutputStream(WK_DIR_BASE+DATA_FILE_GZ))) {
+      os.write(data);
+    }
+    BgzfTestUtils.writeBgzf(data, new File(WK_DIR_BASE+DATA_FILE_BGZ), 1024);
+    
+    // prepare a copy of the data file where the first two sequences are 
+    // duplicated using other IDs, lower case letters and a single line
+    String text = new String(data);
+    String[] entries = text.substring(1).split("\n>");
+    StringBuilder dups = new StringBuilder(text);
+    for (int i = 0; i < 2; i++) {
+      String seq = entries[i].substring(entries[i].indexOf('\n') + 1);
+      dups.append(">dup").append(i + 1).append(" duplicate\n");
+      dups.append(seq.replace("\n", "").toLowerCase()).append("\n");
+    }
+    Files.write(new File(WK_DIR_BASE+DATA_FILE_DUP).toPath(), dups.toString().getBytes());
+    
+    // prepare several sequence files to test batch mode
+    for (String file : BATCH_FILES) {
+      EZFileUtils.copyFile(new File(DATA_PATH+DATA_FILE), new File(WK_DIR_BATCH+file));
+    }
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException {
+    try (InputStream in = is) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        bos.write(buf, 0, n);
+      }
+      return bos.toByteArray();
+    }
   }
 
   @AfterClass
@@ -182,4 +254,259 @@ public class CmdLineCutterTest {
     }
   }
 
+  @Test
+  public void test_part_gzip() throws IOException {
+    // input file is gzip compressed: it is read as a stream
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BASE+DATA_FILE_GZ,// input file (contains 10 sequences)
+        "-p", "3"});                   // cut input file using slices of 3 sequences
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // slices do exist and have the same content as the source file?
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    for(String slice : RES_FILE_4) {
+      File f = new File(WK_DIR_BASE+slice);
+      assertTrue(f.exists());
+      bos.write(Files.readAllBytes(f.toPath()));
+      // immediately delete file to avoid pollute other tests
+      assertTrue(f.delete());
+    }
+    assertEquals(new String(Files.readAllBytes(new File(DATA_PATH+DATA_FILE).toPath())), bos.toString());
+  }
+
+  @Test
+  public void test_part_bgzf() throws IOException {
+    // input file is BGZF compressed: blocks are inflated in parallel
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BASE+DATA_FILE_BGZ,// input file (contains 10 sequences)
+        "-a", "3",                      // use 3 threads to inflate data
+        "-p", "3"});                    // cut input file using slices of 3 sequences
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // slices do exist and have the same content as the source file?
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    for(String slice : RES_FILE_5) {
+      File f = new File(WK_DIR_BASE+slice);
+      assertTrue(f.exists());
+      bos.write(Files.readAllBytes(f.toPath()));
+      // immediately delete file to avoid pollute other tests
+      assertTrue(f.delete());
+    }
+    assertEquals(new String(Files.readAllBytes(new File(DATA_PATH+DATA_FILE).toPath())), bos.toString());
+  }
+
+  @Test
+  public void test_range_gzip_output() throws IOException {
+    // create a compressed slice
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BASE+DATA_FILE,// input file (contains 10 sequences)
+        "-d", WK_DIR_DATA,          // create result file in that directory
+        "-z",                       // gzip the result file
+        "-f", "7","-t", "9"});      //get sequences from 7 up to 9 from input file
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // compressed slice does exist and contains 3 sequences?
+    File f = new File(WK_DIR_DATA+RES_FILE_3+".gz");
+    assertTrue(f.exists());
+    String slice = new String(readAll(new GZIPInputStream(new FileInputStream(f))));
+    assertEquals(3, slice.split(">", -1).length - 1);
+    // immediately delete file to avoid pollute other tests
+    assertTrue(f.delete());
+  }
+
+  @Test
+  public void test_part_dedup() throws IOException {
+    // discard duplicated sequences
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BASE+DATA_FILE_DUP,// input file (contains 12 sequences, 10 distinct)
+        "-u",                           // discard duplicates
+        "-p", "5"});                    // cut input file using slices of 5 sequences
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // slices do exist and contain unique sequences only?
+    for(String slice : RES_FILE_6) {
+      File f = new File(WK_DIR_BASE+slice);
+      assertTrue(f.exists());
+      String content = new String(Files.readAllBytes(f.toPath()));
+      assertEquals(5, content.split(">", -1).length - 1);
+      assertTrue(content.indexOf(">dup") == -1);
+      // immediately delete file to avoid pollute other tests
+      assertTrue(f.delete());
+    }
+    // duplicates are mapped to their representative?
+    File f = new File(WK_DIR_BASE+RES_FILE_6_MAP);
+    assertTrue(f.exists());
+    List<String> lines = Files.readAllLines(f.toPath());
+    assertEquals(2, lines.size());
+    assertEquals("dup1\tsp|P97756|KKCC1_RAT", lines.get(0));
+    assertTrue(lines.get(1).startsWith("dup2\t"));
+    assertTrue(f.delete());
+  }
+
+  @Test
+  public void test_range_stdout() throws IOException {
+    // write the slice to stdout instead of a file
+    PrintStream stdout = System.out;
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    boolean bRet;
+    System.setOut(new PrintStream(bos));
+    try {
+      bRet = CmdLineCutter.doJob(new String[] {
+          "-i", WK_DIR_BASE+DATA_FILE,// input file (contains 10 sequences)
+          "-m", "stdout",             // write sequences to stdout
+          "-f", "7","-t", "9"});      //get sequences from 7 up to 9 from input file
+    } finally {
+      System.setOut(stdout);
+    }
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // stdout only contains the 3 sequences, no file created
+    String slice = bos.toString();
+    assertTrue(slice.startsWith(">"));
+    assertEquals(3, slice.split(">", -1).length - 1);
+    assertTrue(new File(WK_DIR_BASE+RES_FILE_3).exists() == false);
+  }
+
+  @Test
+  public void test_part_fifo() throws Exception {
+    // stream slices into named pipes: a consumer reads them while the cutter 
+    // produces them
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Boolean> job = executor.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return CmdLineCutter.doJob(new String[] {
+            "-i", WK_DIR_BASE+DATA_FILE,// input file (contains 10 sequences)
+            "-d", WK_DIR_DATA,          // create named pipes in that directory
+            "-m", "fifo",               // one named pipe per slice
+            "-p", "5"});                // cut input file using slices of 5 sequences
+      }
+    });
+    // consume both slices
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    for (int i = 1; i <= 2; i++) {
+      File f = new File(WK_DIR_DATA + "uniprot_slice-" + i + ".faa");
+      for (int j = 0; j < 200 && !f.exists(); j++) {
+        Thread.sleep(50);
+      }
+      assertTrue(f.exists());
+      bos.write(readAll(new FileInputStream(f)));
+      assertTrue(f.delete());
+    }
+    // cutting OK?
+    assertTrue(job.get());
+    executor.shutdown();
+    assertEquals(new String(Files.readAllBytes(new File(DATA_PATH+DATA_FILE).toPath())), bos.toString());
+  }
+
+  @Test
+  public void test_batch_glob() {
+    // cut several files at once using a glob pattern
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BATCH+"*.faa", // input files (each contains 10 sequences)
+        "-d", WK_DIR_DATA,          // create result files in that directory
+        "-j", "2",                  // cut two files at a time
+        "-p", "5"});                // cut input files using slices of 5 sequences
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // slices do exist?
+    for (String file : BATCH_FILES) {
+      String name = file.substring(0, file.indexOf('.'));
+      for (String range : new String[] {"_1-5.faa", "_6-10.faa"}) {
+        File f = new File(WK_DIR_DATA+name+range);
+        assertTrue(f.exists());
+        // immediately delete file to avoid pollute other tests
+        assertTrue(f.delete());
+      }
+    }
+  }
+
+  @Test
+  public void test_batch_list() throws IOException {
+    // cut several files at once using a list of files; one of them does
+    // not exist
+    File list = new File(WK_DIR_BASE+"files.txt");
+    Files.write(list.toPath(), (WK_DIR_BATCH+BATCH_FILES[0]+"\n"+WK_DIR_BATCH+"none.faa\n").getBytes());
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", "@"+list.getPath(),   // input files
+        "-d", WK_DIR_DATA,          // create result files in that directory
+        "-f", "9"});                // get sequences from 9 up to the end
+    
+    // cutting reports the error
+    assertTrue(bRet == false);
+    
+    // slice of the existing file has been created anyway
+    File f = new File(WK_DIR_DATA+"s1_9-end.faa");
+    assertTrue(f.exists());
+    assertTrue(f.delete());
+    assertTrue(list.delete());
+  }
+
+  @Test
+  public void test_part_manifest() throws IOException {
+    // describe created slices within a TSV manifest
+    File manifest = new File(WK_DIR_DATA+"manifest.tsv");
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BASE+DATA_FILE,// input file (contains 10 sequences)
+        "-d", WK_DIR_DATA,          // create result files in that directory
+        "-manifest", manifest.getPath(),
+        "-p", "3"});                // cut input file using slices of 3 sequences
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // manifest contains a header and one line per slice
+    List<String> lines = Files.readAllLines(manifest.toPath());
+    assertEquals(1 + RES_FILE_4.length, lines.size());
+    assertTrue(lines.get(0).startsWith("#source\tslice\tfrom\tto\tsequences\tresidues\tbytes"));
+    long sequences = 0;
+    for (int i = 0; i < RES_FILE_4.length; i++) {
+      String[] values = lines.get(i + 1).split("\t");
+      File f = new File(WK_DIR_DATA+RES_FILE_4[i]);
+      assertEquals(f.getPath(), values[1]);
+      assertEquals(String.valueOf(f.length()), values[6]);
+      sequences += Long.valueOf(values[4]);
+      // immediately delete file to avoid pollute other tests
+      assertTrue(f.delete());
+    }
+    assertEquals(10, sequences);
+    assertTrue(manifest.delete());
+  }
+
+  @Test
+  public void test_batch_manifest_json() throws IOException {
+    // describe slices created from several files within a JSON manifest
+    File manifest = new File(WK_DIR_DATA+"manifest.json");
+    boolean bRet = CmdLineCutter.doJob(new String[] {
+        "-i", WK_DIR_BATCH+"*.faa", // input files (each contains 10 sequences)
+        "-d", WK_DIR_DATA,          // create result files in that directory
+        "-manifest", manifest.getPath(),
+        "-t", "4"});                // get sequences from 1 up to 4
+    
+    // cutting OK?
+    assertTrue(bRet);
+    
+    // manifest contains one object per slice
+    String content = new String(Files.readAllBytes(manifest.toPath()));
+    assertTrue(content.startsWith("{\n  \"slices\": ["));
+    assertEquals(BATCH_FILES.length, content.split("\"sequences\": 4,", -1).length - 1);
+    for (String file : BATCH_FILES) {
+      File f = new File(WK_DIR_DATA+file.substring(0, file.indexOf('.'))+"_1-4.faa");
+      assertTrue(content.contains("\"slice\": \""+f.getPath()+"\""));
+      assertTrue(f.delete());
+    }
+    assertTrue(manifest.delete());
+  }
 }
@@ -0,0 +1,154 @@
+/* Copyright (C) 2018 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.log4j.BasicConfigurator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.plealog.genericapp.api.file.EZFileUtils;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemImplem;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTerm;
+import fr.ifremer.bioinfo.bdm.dumper.DicoSnapshot;
+import fr.ifremer.bioinfo.bdm.tools.CmdLineDicoSnapshot;
+import fr.ifremer.bioinfo.bdm.tools.CmdLineDumper;
+
+/**
+ * A class to test CmdLineDicoSnapshot tool.
+ */
+public class CmdLineDicoSnapshotTest {
+
+  // path with test data included in this project
+  private static final String DATA_PATH = "tests/datafile/";
+  // a data file with biological classification
+  private static final String DATA_FILE = "hits_with_bco.zml";
+  // the working directory for the test
+  private static final String WK_DIR_BASE = 
+      EZFileUtils.terminatePath(System.getProperty("java.io.tmpdir"))+
+      EZFileUtils.terminatePath(CmdLineDicoSnapshotTest.class.getName());
+  // where to create snapshots
+  private static final String WK_DIR_SNAPSHOT = WK_DIR_BASE+"snapshots";
+  // BeeDeeM indexes
+  private static final String GO_INDEX = WK_DIR_BASE+"GeneOntology_terms.ldx";
+  private static final String EC_INDEX = WK_DIR_BASE+"Enzyme.ldx";
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    // Called libraries (e.g. BeeDeeM dictionary framework) rely on Log4J
+    BasicConfigurator.configure();
+    
+    // if needed, clean working directory
+    if (new File(WK_DIR_BASE).exists()) {
+      assertTrue(EZFileUtils.deleteDirectory(WK_DIR_BASE));
+    }
+    assertTrue(new File(WK_DIR_SNAPSHOT).mkdirs());
+
+    // tiny BeeDeeM indexes, same data layout as BeeDeeM parsers
+    DicoStorageSystem storage = new DicoStorageSystemImplem();
+    assertTrue(storage.open(GO_INDEX, DicoStorageSystem.WRITE_MODE));
+    storage.addBinaryEntry("GO:0005524", new GeneOntologyTerm("GO:0005524", "ATP binding", "molecular_function"));
+    storage.addBinaryEntry("GO:0005634", new GeneOntologyTerm("GO:0005634", "nucleus", "cellular_component"));
+    storage.addBinaryEntry("GO:0006915", new GeneOntologyTerm("GO:0006915", "apoptotic process", "biological_process"));
+    storage.close();
+    storage = new DicoStorageSystemImplem();
+    assertTrue(storage.open(EC_INDEX, DicoStorageSystem.WRITE_MODE));
+    storage.addEntry("2.7.12.2", "Mitogen-activated protein kinase kinase");
+    storage.addEntry("1.1.1.1", "Alcohol dehydrogenase");
+    storage.close();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    assertTrue(EZFileUtils.deleteDirectory(WK_DIR_BASE));
+  }
+
+  @Test
+  public void test_snapshot() throws Exception {
+    boolean bRet = CmdLineDicoSnapshot.doJob(new String[] {
+        "-go", GO_INDEX,
+        "-ec", EC_INDEX,
+        "-d", WK_DIR_SNAPSHOT});
+    assertTrue(bRet);
+    
+    File goFile = new File(WK_DIR_SNAPSHOT, "GeneOntology_terms"+DicoSnapshot.EXTENSION);
+    File ecFile = new File(WK_DIR_SNAPSHOT, "Enzyme"+DicoSnapshot.EXTENSION);
+    assertTrue(goFile.exists());
+    assertTrue(ecFile.exists());
+    
+    DicoSnapshot snapshot = DicoSnapshot.open(goFile);
+    assertEquals(3, snapshot.size());
+    assertEquals("F:ATP binding", snapshot.get("GO:0005524"));
+    assertEquals("C:nucleus", snapshot.get("GO:0005634"));
+    assertNull(snapshot.get("GO:0000001"));
+    snapshot = DicoSnapshot.open(ecFile);
+    assertEquals(2, snapshot.size());
+    assertEquals("Alcohol dehydrogenase", snapshot.get("1.1.1.1"));
+    assertEquals("Mitogen-activated protein kinase kinase", snapshot.get("2.7.12.2"));
+  }
+
+  @Test
+  public void test_snapshot_no_index() {
+    assertFalse(CmdLineDicoSnapshot.doJob(new String[] {"-d", WK_DIR_SNAPSHOT}));
+    assertFalse(CmdLineDicoSnapshot.doJob(new String[] {"-go", WK_DIR_BASE+"foo.ldx"}));
+  }
+
+  @Test
+  public void test_dumper_with_snapshot() throws Exception {
+    assertTrue(CmdLineDicoSnapshot.doJob(new String[] {
+        "-go", GO_INDEX,
+        "-ec", EC_INDEX,
+        "-d", WK_DIR_SNAPSHOT}));
+    
+    // BeeDeeM indexes
+    File ref = new File(WK_DIR_BASE+"ref.csv");
+    assertTrue(CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE,
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-go", GO_INDEX,
+        "-ec", EC_INDEX,
+        "-o", ref.getAbsolutePath()}));
+    
+    // snapshots
+    File result = new File(WK_DIR_BASE+"result.csv");
+    assertTrue(CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE,
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-go", GO_INDEX,
+        "-ec", EC_INDEX,
+        "-snapdir", WK_DIR_SNAPSHOT,
+        "-o", result.getAbsolutePath()}));
+    
+    String refData = new String(Files.readAllBytes(ref.toPath()), StandardCharsets.UTF_8);
+    assertTrue(refData.contains("GO:0005524:F:ATP binding"));
+    assertTrue(refData.contains("EC:2.7.12.2:Mitogen-activated protein kinase kinase"));
+    assertEquals(refData, new String(Files.readAllBytes(result.toPath()), StandardCharsets.UTF_8));
+  }
+}
@@ -16,18 +16,91 @@
  */
 package test.unit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.log4j.BasicConfigurator;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.data.searchresult.ISRIteration;
+import bzh.plealog.bioinfo.data.searchresult.ISROutput;
+import bzh.plealog.bioinfo.io.searchresult.SerializerSystemFactory;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutput;
+import bzh.plealog.bioinfo.io.searchresult.csv.CSVExportSROutputHandler;
+import bzh.plealog.bioinfo.io.searchresult.txt.TxtExportSROutput;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemImplem;
+import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.indexer.LuceneUtils;
+import bzh.plealog.dbmirror.lucenedico.DicoUtils;
 import bzh.plealog.dbmirror.util.runner.DBMSExecNativeCommand;
+import fr.ifremer.bioinfo.bdm.dumper.CSVBlockHandler;
+import fr.ifremer.bioinfo.bdm.dumper.CSVParallelExporter;
+import fr.ifremer.bioinfo.bdm.dumper.CSVRowBuilder;
+import fr.ifremer.bioinfo.bdm.dumper.CharSpan;
+import fr.ifremer.bioinfo.bdm.dumper.ClassificationCollector;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnProjection;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnarExporter;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnarReader;
+import fr.ifremer.bioinfo.bdm.dumper.ColumnarWriter;
+import fr.ifremer.bioinfo.bdm.dumper.DefLineAnnotator;
+import fr.ifremer.bioinfo.bdm.dumper.DicoFileUtils;
+import fr.ifremer.bioinfo.bdm.dumper.DicoTermCache;
+import fr.ifremer.bioinfo.bdm.dumper.ExternalRowSorter;
+import fr.ifremer.bioinfo.bdm.dumper.ExternalRowSorter.SortKey;
+import fr.ifremer.bioinfo.bdm.dumper.NcbiXmlIterationReader;
+import fr.ifremer.bioinfo.bdm.dumper.NcbiXmlScanner;
+import fr.ifremer.bioinfo.bdm.dumper.ResultStoreReader;
+import fr.ifremer.bioinfo.bdm.dumper.ResultStoreWriter;
+import fr.ifremer.bioinfo.bdm.dumper.SliceNameComparator;
+import fr.ifremer.bioinfo.bdm.dumper.TaxonomyIndex;
+import fr.ifremer.bioinfo.bdm.io.CompressionUtils;
 import fr.ifremer.bioinfo.bdm.tools.CmdLineDumper;
+import fr.ifremer.bioinfo.bdm.tools.CmdLineIndexer;
 
 /**
  * A class to test CmdLineDumper tool.
@@ -47,7 +120,25 @@ public class CmdLineDumperTest {
   // a reference file
   private static final String DATA_FILE_3_REF = "hits_only_xml_bco.csv";
   
+  // a tiny NCBI Taxonomy: taxon ID, parent ID, rank, name
+  private static final String[][] TAXONOMY = {
+      {"1", "1", "root", "root"},
+      {"131567", "1", "no rank", "cellular organisms"},
+      {"2", "131567", "superkingdom", "Bacteria"},
+      {"1224", "2", "phylum", "Proteobacteria"},
+      {"1236", "1224", "class", "Gammaproteobacteria"},
+      {"91347", "1236", "order", "Enterobacterales"},
+      {"543", "91347", "family", "Enterobacteriaceae"},
+      {"999", "543", "subfamily", "Fakeinae"},
+      {"561", "999", "genus", "Escherichia"},
+      {"562", "561", "species", "Escherichia coli"},
+      {"83333", "562", "strain", "Escherichia coli K-12"},
+      {"777", "1224", "superclass", "Fakeclassia"},
+      {"778", "777", "species", "Fake species"}};
+  
   private static File data_file;
+  // temporary directories of the running test
+  private static List<File> tempDirs = new ArrayList<>();
   
   @BeforeClass
   public static void setUpBeforeClass() throws Exception {
@@ -59,12 +150,22 @@ public class CmdLineDumperTest {
 
   @AfterClass
   public static void tearDownAfterClass() throws Exception {
+    data_file.delete();
+    new File(data_file.getAbsolutePath() + ".ckpt").delete();
   }
 
   @Before
   public void setUp() throws Exception {
   }
 
+  @After
+  public void tearDown() throws Exception {
+    for (File dir : tempDirs) {
+      FileUtils.deleteQuietly(dir);
+    }
+    tempDirs.clear();
+  }
+
   @Test
   public void test_dumper_xml() {
     // this is the most basic way of using the tool
@@ -121,4 +222,1421 @@ public class CmdLineDumperTest {
     assertTrue(runner.getExitCode()==0);
   }
 
+  @Test
+  public void test_dumper_xml_stream() {
+    // streaming mode must produce exactly the same result as the default mode
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_1,
+        "-stream",
+        "-o", data_file.getAbsolutePath()
+        });              
+    
+    // Job running OK?
+    assertTrue(bRet);
+    
+    // Job generated file OK?
+    DBMSExecNativeCommand runner = new DBMSExecNativeCommand();
+    String cmd = "diff "+data_file.getAbsolutePath()+" "+DATA_PATH+DATA_FILE_1_REF;
+    runner.execute(cmd);
+    assertTrue(runner.getExitCode()==0);
+  }
+
+  @Test
+  public void test_dumper_zml_stream() {
+    // streaming mode only handles NCBI XML files
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_2,
+        "-f", "zml",
+        "-stream",
+        "-o", data_file.getAbsolutePath()
+        });              
+    
+    assertFalse(bRet);
+  }
+
+  @Test
+  public void test_dumper_cache() {
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_3,
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-cache", "10",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    DBMSExecNativeCommand runner = new DBMSExecNativeCommand();
+    String cmd = "diff "+data_file.getAbsolutePath()+" "+DATA_PATH+DATA_FILE_3_REF;
+    runner.execute(cmd);
+    assertTrue(runner.getExitCode()==0);
+
+    // invalid cache size
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_3,
+        "-f", "zml",
+        "-cache", "many",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertFalse(bRet);
+  }
+
+  @Test
+  public void test_dumper_preresolve() {
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_3,
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-preresolve",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    DBMSExecNativeCommand runner = new DBMSExecNativeCommand();
+    String cmd = "diff "+data_file.getAbsolutePath()+" "+DATA_PATH+DATA_FILE_3_REF;
+    runner.execute(cmd);
+    assertTrue(runner.getExitCode()==0);
+  }
+
+  @Test
+  public void test_dumper_taxonomy_index() throws Exception {
+    File ldxDir = createTaxonomyIndex();
+
+    // the compact taxonomy must behave as BeeDeeM
+    File taxFile = DicoFileUtils.getFile(ldxDir.getAbsolutePath(), null, TaxonomyIndex.EXTENSION);
+    assertTrue(DicoFileUtils.isOutdated(taxFile, ldxDir.getAbsolutePath()));
+    TaxonomyIndex.build(ldxDir.getAbsolutePath(), taxFile);
+    assertFalse(DicoFileUtils.isOutdated(taxFile, ldxDir.getAbsolutePath()));
+    TaxonomyIndex mapped = TaxonomyIndex.open(taxFile);
+    TaxonomyIndex inMemory = TaxonomyIndex.build(ldxDir.getAbsolutePath());
+    HashMap<String, String> dicos = new HashMap<>();
+    dicos.put(DicoUtils.READER_NCBI_TAXONOMY, ldxDir.getAbsolutePath());
+    DicoTermQuerySystem dico = DicoTermQuerySystem.getDicoTermQuerySystem(dicos);
+    try {
+      for (String[] taxon : TAXONOMY) {
+        String expected = dico.getTaxPath(taxon[0], true, true, true);
+        assertEquals(expected, mapped.getTaxPath(Integer.parseInt(taxon[0])));
+        assertEquals(expected, inMemory.getTaxPath(Integer.parseInt(taxon[0])));
+        assertEquals(taxon[3], mapped.getName(Integer.parseInt(taxon[0])));
+      }
+    } finally {
+      DicoTermQuerySystem.closeDicoTermQuerySystem();
+    }
+    assertEquals("root;d__Bacteria;k__unknown;p__Proteobacteria;c__Gammaproteobacteria;o__Enterobacterales;"
+        + "f__Enterobacteriaceae;g__Escherichia;s__Escherichia coli;", mapped.getTaxPath(562));
+    assertNull(mapped.getTaxPath(12345));
+    int[] lineage = new int[TaxonomyIndex.MAX_DEPTH];
+    assertEquals(11, mapped.getLineage(83333, lineage));
+    assertEquals(1, lineage[0]);
+    assertEquals(83333, lineage[10]);
+    assertEquals(1236, mapped.getLca(562, 1236));
+    assertEquals(1224, mapped.getLca(83333, 778));
+    assertEquals(-1, mapped.getLca(83333, 12345));
+
+    // taxonomy file is used by the tool
+    taxFile.delete();
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_3,
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-tax", ldxDir.getAbsolutePath(),
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    assertTrue(taxFile.exists());
+  }
+
+  @Test
+  public void test_dumper_threads() {
+    // multi-threaded export must produce exactly the same result as the default mode
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_3,
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-threads", "4",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    DBMSExecNativeCommand runner = new DBMSExecNativeCommand();
+    String cmd = "diff "+data_file.getAbsolutePath()+" "+DATA_PATH+DATA_FILE_3_REF;
+    runner.execute(cmd);
+    assertTrue(runner.getExitCode()==0);
+
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_1,
+        "-threads", "0",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    cmd = "diff "+data_file.getAbsolutePath()+" "+DATA_PATH+DATA_FILE_1_REF;
+    runner.execute(cmd);
+    assertTrue(runner.getExitCode()==0);
+
+    // invalid number of threads
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_1,
+        "-threads", "-2",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertFalse(bRet);
+  }
+
+  @Test
+  public void test_dumper_parallel_exporter() throws Exception {
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NATIVE_LOADER)
+        .load(new File(DATA_PATH+DATA_FILE_3));
+    int[] colIds = new int[] { TxtExportSROutput.ACCESSION, TxtExportSROutput.SCORE, TxtExportSROutput.EVALUE,
+        TxtExportSROutput.IDENTITY, TxtExportSROutput.BIO_CLASSIF_TAX, TxtExportSROutput.BIO_CLASSIF_GO };
+    CSVExportSROutputHandler handler = (s, colType) -> 
+      ClassificationCollector.isClassificationColumn(colType) ? s.toLowerCase() : s;
+
+    // queries without hits located before, between and after queries having hits
+    ISROutput multi = new ISROutput();
+    multi.setRequestInfo(bo.getRequestInfo());
+    multi.setClassification(bo.getClassification());
+    for (int i = 0; i < 12; i++) {
+      ISRIteration iteration;
+      if (i % 4 == 1 || i == 7) {
+        iteration = (ISRIteration) bo.getIteration(0).clone(false);
+      } else {
+        iteration = new ISRIteration();
+        iteration.setIterationQueryLength(100);
+      }
+      iteration.setIterationQueryID("query_" + i);
+      multi.addIteration(iteration);
+    }
+    ISROutput noHits = new ISROutput();
+    noHits.setRequestInfo(bo.getRequestInfo());
+    for (int i = 0; i < 3; i++) {
+      ISRIteration iteration = new ISRIteration();
+      iteration.setIterationQueryID("query_" + i);
+      noHits.addIteration(iteration);
+    }
+
+    for (SROutput data : new SROutput[] { bo, multi, noHits }) {
+      for (boolean bestHitOnly : new boolean[] { false, true }) {
+        CSVExportSROutput exporter = new CSVExportSROutput();
+        exporter.showBestHitOnly(bestHitOnly);
+        exporter.showColumnHeader(true);
+        exporter.showQueryId(true);
+        exporter.showQueryLength(false);
+        exporter.showQueryName(false);
+        exporter.setCSVExportSROutputHandler(handler);
+        exporter.ssetColumnIds(colIds);
+        StringWriter expected = new StringWriter();
+        exporter.export(expected, data);
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+          CSVParallelExporter parallel = new CSVParallelExporter(colIds, handler, bestHitOnly, false, 3);
+          parallel.setChunkSize(chunkSize);
+          StringWriter w = new StringWriter();
+          parallel.export(data, w);
+          assertEquals(expected.toString(), w.toString());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void test_dumper_parallel_exporter_concurrency() throws Exception {
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NATIVE_LOADER)
+        .load(new File(DATA_PATH+DATA_FILE_3));
+    int[] colIds = TxtExportSROutput.DATA_COL_IDS;
+    ISROutput multi = new ISROutput();
+    multi.setRequestInfo(bo.getRequestInfo());
+    multi.setClassification(bo.getClassification());
+    for (int i = 0; i < 8; i++) {
+      ISRIteration iteration = (ISRIteration) bo.getIteration(0).clone(false);
+      iteration.setIterationQueryID("query_" + i);
+      multi.addIteration(iteration);
+    }
+    CSVExportSROutput exporter = new CSVExportSROutput();
+    exporter.showColumnHeader(true);
+    exporter.showQueryId(true);
+    exporter.showQueryLength(false);
+    exporter.showQueryName(false);
+    exporter.ssetColumnIds(colIds);
+    StringWriter expected = new StringWriter();
+    exporter.export(expected, multi);
+
+    // every column is formatted as CSVExportSROutput does
+    CSVParallelExporter single = new CSVParallelExporter(colIds, null, false, false, 1);
+    StringWriter w = new StringWriter();
+    single.export(multi, w);
+    assertEquals(expected.toString(), w.toString());
+
+    // two workers must be able to format rows at the same time: each one waits
+    // for the other one while formatting its first number
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    AtomicBoolean concurrent = new AtomicBoolean();
+    CSVExportSROutputHandler handler = (s, colType) -> {
+      if (colType == TxtExportSROutput.SCORE_BITS && workers.add(Thread.currentThread())) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+          concurrent.set(true);
+        } catch (Exception e) {
+          // other worker never came: formatting is serialized
+        }
+      }
+      return s;
+    };
+    CSVParallelExporter parallel = new CSVParallelExporter(colIds, handler, false, false, 2);
+    parallel.setChunkSize(1);
+    w = new StringWriter();
+    parallel.export(multi, w);
+    assertTrue(concurrent.get());
+    assertEquals(expected.toString(), w.toString());
+  }
+
+  @Test
+  public void test_dumper_nohits() throws Exception {
+    // add queries without hits to a NCBI XML file
+    String noHit = "        <Iteration>\n"
+        + "            <Iteration_iter-num>%d</Iteration_iter-num>\n"
+        + "            <Iteration_query-ID>%s</Iteration_query-ID>\n"
+        + "            <Iteration_query-def>no definition</Iteration_query-def>\n"
+        + "            <Iteration_query-len>100</Iteration_query-len>\n"
+        + "            <Iteration_hits>\n"
+        + "            </Iteration_hits>\n"
+        + "            <Iteration_message>No hits found</Iteration_message>\n"
+        + "        </Iteration>\n";
+    String xml = readDataFile().replace("    </BlastOutput_iterations>", 
+        String.format(noHit, 2, "lcl|M4K2_HUMAN") 
+        + String.format(noHit, 3, "sp|P47809|MP2K4_MOUSE") 
+        + String.format(noHit, 4, "lcl|M4K2_HUMAN") 
+        + "    </BlastOutput_iterations>");
+    File wkDir = createTempDir();
+    File xmlFile = writeDataFile(wkDir, "nohits.xml", xml);
+
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(),
+        "-nohits",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    List<String> ids = Files.readAllLines(data_file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(2, ids.size());
+    assertEquals("M4K2_HUMAN", ids.get(0));
+    assertEquals("P47809", ids.get(1));
+
+    // all queries of this file have hits
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_2,
+        "-f", "zml",
+        "-nohits",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    assertEquals(0, data_file.length());
+
+    // get query sequences from a sequence index
+    File fasta = new File(wkDir, "uniprot.faa");
+    Files.copy(new File("tests/databank/fasta_prot/uniprot.faa").toPath(), fasta.toPath());
+    assertTrue(CmdLineIndexer.doJob(new String[] {"-i", fasta.getAbsolutePath()}));
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(),
+        "-nohits",
+        "-seqidx", fasta.getAbsolutePath()+LuceneUtils.DIR_OK_FEXT,
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    List<String> lines = Files.readAllLines(data_file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(2, lines.stream().filter(line -> line.startsWith(">")).count());
+    assertTrue(lines.get(0).startsWith(">sp|Q12851|M4K2_HUMAN"));
+    assertTrue(lines.stream().anyMatch(line -> line.startsWith(">sp|P47809|MP2K4_MOUSE")));
+
+    // unknown sequence index
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(),
+        "-nohits",
+        "-seqidx", new File(wkDir, "none.ld").getAbsolutePath(),
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertFalse(bRet);
+
+    // query IDs are not dumped in binary formats
+    for (String of : new String[] {"col", "idx"}) {
+      bRet = CmdLineDumper.doJob(new String[] {
+          "-i", xmlFile.getAbsolutePath(),
+          "-nohits",
+          "-of", of,
+          "-o", data_file.getAbsolutePath()
+          });              
+      assertFalse(bRet);
+    }
+  }
+
+  @Test
+  public void test_dumper_multi_files() throws Exception {
+    assertTrue(SliceNameComparator.compare("query_2.xml", "query_10.xml") < 0);
+    assertTrue(SliceNameComparator.compare("query_10.xml", "query_9.xml") > 0);
+    assertTrue(SliceNameComparator.compare("query_1.xml", "query_1.xml") == 0);
+    assertTrue(SliceNameComparator.compare("query.xml", "query_1.xml") < 0);
+
+    // slices of a distributed job: each one has its own query
+    File wkDir = createTempDir();
+    String xml = readDataFile();
+    List<String> ref = Files.readAllLines(new File(DATA_PATH+DATA_FILE_1_REF).toPath(), StandardCharsets.UTF_8);
+    int[] slices = new int[] {10, 1, 2};
+    List<String> files = new ArrayList<>();
+    for (int slice : slices) {
+      File f = writeDataFile(wkDir, "query_" + slice + ".xml", 
+          xml.replace("<Iteration_query-ID>KKCC1_RAT<", "<Iteration_query-ID>Q" + slice + "<"));
+      files.add(f.getAbsolutePath());
+    }
+    // not a data file
+    writeDataFile(wkDir, "README.txt", "slices");
+
+    boolean bRet = CmdLineDumper.doJob(new String[] {
+        "-i", wkDir.getAbsolutePath(),
+        "-threads", "2",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    assertEquals(getMultiRef(ref, 1, 2, 10), Files.readAllLines(data_file.toPath(), StandardCharsets.UTF_8));
+
+    // file order is kept
+    File fileList = new File(wkDir, "files.txt");
+    Files.write(fileList.toPath(), files, StandardCharsets.UTF_8);
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-filelist", fileList.getAbsolutePath(),
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    assertEquals(getMultiRef(ref, 10, 1, 2), Files.readAllLines(data_file.toPath(), StandardCharsets.UTF_8));
+
+    // classification data using shared dictionaries
+    File zmlDir = new File(wkDir, "zml");
+    assertTrue(zmlDir.mkdirs());
+    for (int slice : slices) {
+      Files.copy(new File(DATA_PATH+DATA_FILE_3).toPath(), new File(zmlDir, "query_" + slice + ".zml").toPath());
+    }
+    bRet = CmdLineDumper.doJob(new String[] {
+        "-i", zmlDir.getAbsolutePath(),
+        "-f", "zml",
+        "-c", "0,22,23,24,25",
+        "-threads", "3",
+        "-o", data_file.getAbsolutePath()
+        });              
+    assertTrue(bRet);
+    List<String> ref3 = Files.readAllLines(new File(DATA_PATH+DATA_FILE_3_REF).toPath(), StandardCharsets.UTF_8);
+    List<String> expected = new ArrayList<>(ref3);
+    expected.addAll(ref3.subList(1, ref3.size()));
+    expected.addAll(ref3.subList(1, ref3.size()));
+    assertEquals(expected, Files.readAllLines(data_file.toPath(), StandardCharsets.UTF_8));
+
+    // invalid arguments
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", wkDir.getAbsolutePath(),
+        "-filelist", fileList.getAbsolutePath(),
+        "-o", data_file.getAbsolutePath()
+        }));
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", wkDir.getAbsolutePath(),
+        "-stream",
+        "-o", data_file.getAbsolutePath()
+        }));
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", zmlDir.getAbsolutePath(),
+        "-o", data_file.getAbsolutePath()
+        }));
+  }
+
+  @Test
+  public void test_dumper_filters() throws Exception {
+    // each hit gets a second HSP having a poor evalue
+    File wkDir = createTempDir();
+    File xmlFile = writeDataFile(wkDir, "hsps.xml", replaceEach(readDataFile(), "(?s)<Hsp>.*?</Hsp>", (i, hsp) -> 
+        hsp + "\n" + hsp.replace("<Hsp_num>1</Hsp_num>", "<Hsp_num>2</Hsp_num>")
+            .replaceAll("<Hsp_evalue>[^<]*</Hsp_evalue>", "<Hsp_evalue>0.5</Hsp_evalue>")));
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER).load(xmlFile);
+    int[] colIds = new int[] { TxtExportSROutput.ACCESSION, TxtExportSROutput.SCORE, TxtExportSROutput.SCORE_BITS,
+        TxtExportSROutput.EVALUE, TxtExportSROutput.IDENTITY, TxtExportSROutput.Q_FROM, TxtExportSROutput.Q_TO };
+    String cols = "0,4,5,6,7,11,12";
+
+    // filtering while reading must give the same result as filtering at export time
+    for (boolean bestHitOnly : new boolean[] { false, true }) {
+      for (boolean firstHspOnly : new boolean[] { false, true }) {
+        CSVExportSROutput exporter = new CSVExportSROutput();
+        exporter.showBestHitOnly(bestHitOnly);
+        exporter.showFirstHspOnly(firstHspOnly);
+        exporter.showColumnHeader(true);
+        exporter.showQueryId(true);
+        exporter.showQueryLength(false);
+        exporter.showQueryName(false);
+        exporter.ssetColumnIds(colIds);
+        StringWriter expected = new StringWriter();
+        exporter.export(expected, bo);
+        for (String mode : new String[] { "-stream", "-threads", "-i" }) {
+          List<String> args = new ArrayList<>(Arrays.asList(
+              "-i", xmlFile.getAbsolutePath(), "-c", cols, "-o", data_file.getAbsolutePath()));
+          if (mode.equals("-stream")) {
+            args.add(mode);
+          } else if (mode.equals("-threads")) {
+            args.addAll(Arrays.asList(mode, "2"));
+          }
+          if (bestHitOnly) {
+            args.add("-bho");
+          }
+          if (firstHspOnly) {
+            args.add("-fho");
+          }
+          assertTrue(CmdLineDumper.doJob(args.toArray(new String[0])));
+          assertEquals(expected.toString(),
+              new String(Files.readAllBytes(data_file.toPath()), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    String firstHsps = dumpFiltered(xmlFile, cols, "-fho");
+    assertEquals(firstHsps, dumpFiltered(xmlFile, cols, "-evalue", "0.1"));
+    assertEquals(firstHsps, dumpFiltered(xmlFile, cols, "-evalue", "0.1", "-stream"));
+
+    // thresholds
+    assertEquals(3, countRows(dumpFiltered(xmlFile, cols, "-evalue", "1e-15")));
+    assertEquals(6, countRows(dumpFiltered(xmlFile, cols, "-bitscore", "70")));
+    assertEquals(6, countRows(dumpFiltered(xmlFile, cols, "-identity", "35")));
+    assertEquals(4, countRows(dumpFiltered(xmlFile, cols, "-coverage", "50")));
+    assertEquals(2, countRows(dumpFiltered(xmlFile, cols, "-coverage", "50", "-fho")));
+    assertEquals(1, countRows(dumpFiltered(xmlFile, cols, "-identity", "35", "-bho", "-fho")));
+    // no HSP passes thresholds: same as a query without hits
+    assertEquals(1, countRows(dumpFiltered(xmlFile, cols, "-evalue", "1e-300")));
+    assertTrue(dumpFiltered(xmlFile, cols, "-evalue", "1e-300").contains("n/a"));
+    // loaded data are filtered the same way
+    assertEquals(dumpFiltered(new File(DATA_PATH+DATA_FILE_1), cols, "-evalue", "1e-15", "-identity", "35"),
+        dumpFiltered(new File(DATA_PATH+DATA_FILE_2), cols, "-evalue", "1e-15", "-identity", "35", "-f", "zml"));
+
+    // number of HSPs is still reported when only first HSPs are dumped
+    String nbHsps = dumpFiltered(xmlFile, "0,3", "-fho");
+    assertEquals(6, countRows(nbHsps));
+    for (String line : nbHsps.split("\n")) {
+      assertTrue(line.startsWith("\"Query Id\"") || line.endsWith(",2"));
+    }
+
+    // invalid thresholds
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-identity", "150", "-o", data_file.getAbsolutePath() }));
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-evalue", "abc", "-o", data_file.getAbsolutePath() }));
+  }
+
+  @Test
+  public void test_dumper_projection() throws Exception {
+    // only elements needed by columns are read
+    ColumnProjection projection = new ColumnProjection(
+        new int[] { TxtExportSROutput.ACCESSION, TxtExportSROutput.EVALUE });
+    assertTrue(projection.isNeeded("Hit_accession"));
+    assertTrue(projection.isNeeded("Hsp_evalue"));
+    assertTrue(projection.isNeeded("Hsp_query-from"));
+    assertFalse(projection.isNeeded("Hit_def"));
+    assertFalse(projection.isNeeded("Hsp_qseq"));
+    assertFalse(projection.isComplete());
+    try (NcbiXmlIterationReader reader = new NcbiXmlIterationReader(
+        new FileInputStream(DATA_PATH+DATA_FILE_1))) {
+      reader.setProjection(projection);
+      SRIteration iteration = reader.next();
+      assertEquals(6, iteration.countHit());
+      SRHit hit = iteration.getHit(0);
+      assertEquals("KKCC1_RAT", hit.getHitAccession());
+      assertNull(hit.getHitDef());
+      assertEquals(505, hit.getHitLen());
+      SRHsp hsp = hit.getHsp(0);
+      assertNull(hsp.getQuery().getSequence());
+      assertNull(hsp.getHit().getSequence());
+      assertEquals(0, hsp.getScores().getAlignLen());
+      assertEquals(1.2737E-281, hsp.getScores().getEvalue(), 0);
+      assertEquals(505, hsp.getQuery().getTo());
+    }
+
+    // each column gets the same content as when all data are loaded
+    for (int col = 0; col <= 26; col++) {
+      String cols = "0," + col;
+      String expected = dumpFiltered(new File(DATA_PATH+DATA_FILE_2), cols, "-f", "zml");
+      assertEquals(cols, expected, dumpFiltered(new File(DATA_PATH+DATA_FILE_1), cols));
+      assertEquals(cols, expected, dumpFiltered(new File(DATA_PATH+DATA_FILE_1), cols, "-stream"));
+    }
+
+    // same with alignment strings containing gaps
+    String xml = readDataFile().replace("<Hsp_qseq>-</Hsp_qseq>", "<Hsp_qseq>MK-LV--PQ</Hsp_qseq>")
+        .replace("<Hsp_hseq>-</Hsp_hseq>", "<Hsp_hseq>M--LVAAPQ</Hsp_hseq><Hsp_midline>M  LV  PQ</Hsp_midline>");
+    File xmlFile = writeDataFile(createTempDir(), "seqs.xml", xml);
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER).load(xmlFile);
+    int[] allCols = new int[] { TxtExportSROutput.ACCESSION, TxtExportSROutput.DEFINITION,
+        TxtExportSROutput.LENGTH, TxtExportSROutput.NBHSPS, TxtExportSROutput.SCORE, TxtExportSROutput.SCORE_BITS,
+        TxtExportSROutput.EVALUE, TxtExportSROutput.IDENTITY, TxtExportSROutput.POSITIVE, TxtExportSROutput.GAPS,
+        TxtExportSROutput.ALI_LEN, TxtExportSROutput.Q_FROM, TxtExportSROutput.Q_TO, TxtExportSROutput.Q_GAPS,
+        TxtExportSROutput.Q_FRAME, TxtExportSROutput.Q_COVERAGE, TxtExportSROutput.H_FROM, TxtExportSROutput.H_TO,
+        TxtExportSROutput.H_GAP, TxtExportSROutput.H_FRAME, TxtExportSROutput.H_COVERAGE };
+    for (int col = 0; col < allCols.length; col++) {
+      CSVExportSROutput exporter = new CSVExportSROutput();
+      exporter.showColumnHeader(true);
+      exporter.showQueryId(true);
+      exporter.showQueryLength(false);
+      exporter.showQueryName(false);
+      exporter.ssetColumnIds(new int[] { TxtExportSROutput.ACCESSION, allCols[col] });
+      StringWriter expected = new StringWriter();
+      exporter.export(expected, bo);
+      assertEquals("0," + col, expected.toString(), dumpFiltered(xmlFile, "0," + col));
+    }
+  }
+
+  @Test
+  public void test_dumper_columnar() throws Exception {
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER)
+        .load(new File(DATA_PATH+DATA_FILE_1));
+    int[] colIds = new int[] { TxtExportSROutput.ACCESSION, TxtExportSROutput.LENGTH, TxtExportSROutput.EVALUE,
+        TxtExportSROutput.IDENTITY, TxtExportSROutput.Q_FROM, TxtExportSROutput.Q_TO,
+        TxtExportSROutput.Q_COVERAGE, TxtExportSROutput.ORGANISM };
+    File colFile = new File(createTempDir(), "hits.col");
+
+    // small row groups: values are split over several groups
+    ColumnarExporter exporter = new ColumnarExporter(colIds, null, false, false);
+    exporter.setRowGroupSize(4);
+    try (ColumnarWriter w = exporter.createWriter(new FileOutputStream(colFile))) {
+      assertEquals(6, exporter.export(bo, w));
+    }
+    ColumnarReader reader = new ColumnarReader(colFile);
+    assertEquals(Arrays.asList(ColumnarExporter.QUERY_ID, "accession", "hit_length", "evalue", "identity",
+        "query_from", "query_to", "query_coverage", "organism"), Arrays.asList(reader.getColumnNames()));
+    assertEquals(ColumnarWriter.STRING, reader.getColumnType("accession"));
+    assertEquals(ColumnarWriter.INT32, reader.getColumnType("query_from"));
+    assertEquals(ColumnarWriter.FLOAT64, reader.getColumnType("evalue"));
+    assertEquals(-1, reader.getColumnType("foo"));
+    assertEquals(6, reader.getRowCount());
+    String[] queries = reader.readStrings(ColumnarExporter.QUERY_ID);
+    String[] accessions = reader.readStrings("accession");
+    String[] organisms = reader.readStrings("organism");
+    int[] lengths = reader.readInts("hit_length");
+    int[] froms = reader.readInts("query_from");
+    int[] tos = reader.readInts("query_to");
+    double[] evalues = reader.readDoubles("evalue");
+    double[] identities = reader.readDoubles("identity");
+    double[] coverages = reader.readDoubles("query_coverage");
+    SRIteration iteration = bo.getIteration(0);
+    for (int i = 0; i < 6; i++) {
+      SRHit hit = iteration.getHit(i);
+      SRHsp hsp = hit.getHsp(0);
+      assertEquals(iteration.getIterationQueryID(), queries[i]);
+      assertEquals(hit.getHitAccession(), accessions[i]);
+      assertEquals("?", organisms[i]);
+      assertEquals(hit.getHitLen(), lengths[i]);
+      assertEquals(hsp.getQuery().getFrom(), froms[i]);
+      assertEquals(hsp.getQuery().getTo(), tos[i]);
+      assertEquals(hsp.getScores().getEvalue(), evalues[i], 0);
+      assertEquals(hsp.getScores().getIdentityP(), identities[i], 0);
+      assertEquals(hsp.getQueryCoverage(), coverages[i], 0);
+    }
+
+    // best hit only: a single row
+    exporter = new ColumnarExporter(colIds, null, true, false);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ColumnarWriter w = exporter.createWriter(bos)) {
+      assertEquals(1, exporter.export(bo, w));
+    }
+
+    // command line: same values whatever the way data are read
+    String cols = "0,1,6,11";
+    String csv = dumpFiltered(new File(DATA_PATH+DATA_FILE_1), cols);
+    String[] csvRows = csv.split("\n");
+    for (String[] mode : new String[][] { {}, { "-stream" }, { "-threads", "2" }, { "-f", "zml" } }) {
+      File dataFile = new File(DATA_PATH + (mode.length == 2 && mode[0].equals("-f") ? DATA_FILE_2 : DATA_FILE_1));
+      List<String> args = new ArrayList<>(Arrays.asList(mode));
+      args.addAll(Arrays.asList("-of", "col"));
+      dumpFiltered(dataFile, cols, args.toArray(new String[0]));
+      reader = new ColumnarReader(data_file);
+      assertEquals(csvRows.length - 1, reader.getRowCount());
+      queries = reader.readStrings(ColumnarExporter.QUERY_ID);
+      accessions = reader.readStrings("accession");
+      String[] definitions = reader.readStrings("definition");
+      evalues = reader.readDoubles("evalue");
+      froms = reader.readInts("query_from");
+      for (int i = 1; i < csvRows.length; i++) {
+        SRHsp hsp = iteration.getHit(i - 1).getHsp(0);
+        assertEquals(csvRows[i], "\"" + queries[i - 1] + "\",\"" + accessions[i - 1] + "\",\"" 
+            + definitions[i - 1] + "\"," + csvRows[i].substring(csvRows[i].lastIndexOf("\",") + 2));
+        assertEquals(hsp.getScores().getEvalue(), evalues[i - 1], 0);
+        assertEquals(hsp.getQuery().getFrom(), froms[i - 1]);
+      }
+      // typed and compressed columns are smaller than CSV data
+      assertTrue(data_file.length() < csv.length());
+    }
+
+    // invalid output format, columnar format with several data files
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_1, "-of", "parquet", "-o", data_file.getAbsolutePath() }));
+    File wkDir = createTempDir();
+    writeDataFile(wkDir, "query_1.xml", readDataFile());
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", wkDir.getAbsolutePath(), "-of", "col", "-o", data_file.getAbsolutePath() }));
+    assertTrue(CmdLineDumper.doJob(new String[] {
+        "-i", wkDir.getAbsolutePath(), "-of", "csv", "-o", data_file.getAbsolutePath() }));
+  }
+
+  @Test
+  public void test_dumper_xml_scanner() throws Exception {
+    String xml = "<?xml version=\"1.0\"?>\n"
+        + "<!DOCTYPE BlastOutput PUBLIC \"-//NCBI//NCBI BlastOutput/EN\" \"NCBI_BlastOutput.dtd\">\n"
+        + "<!-- comment <Hit> -->\n<BlastOutput a=\"x>y\">\n"
+        + "  <Hit_def>a &amp; b &lt;&#65;&#x42;&gt; \u00e9</Hit_def>\n"
+        + "  <Hit_id/>\n  <Other><![CDATA[<x>]]></Other>\n"
+        + "  <Hsp_evalue> 1.5e-10 </Hsp_evalue><Hsp_num>-42</Hsp_num>\n"
+        + "  <Hit><Hit_num>1</Hit_num><Hit_len>2</Hit_len></Hit>\n</BlastOutput>\n";
+    try (NcbiXmlScanner scanner = new NcbiXmlScanner(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))) {
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals("BlastOutput", scanner.getName());
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals("Hit_def", scanner.getName());
+      assertEquals("a & b <AB> \u00e9", scanner.getElementText());
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals("Hit_id", scanner.getName());
+      assertEquals("", scanner.getElementText());
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals("Other", scanner.getName());
+      assertEquals("<x>", scanner.getElementText());
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals(1.5e-10, scanner.getElementDouble(), 0);
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals(-42, scanner.getElementLong());
+      assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+      assertEquals("Hit", scanner.getName());
+      scanner.skipElement();
+      assertEquals(NcbiXmlScanner.END_ELEMENT, scanner.next());
+      assertEquals("BlastOutput", scanner.getName());
+      assertEquals(NcbiXmlScanner.END_DOCUMENT, scanner.next());
+    }
+
+    // numbers are parsed exactly as Double.parseDouble() does
+    Random rnd = new Random(42);
+    StringBuilder buf = new StringBuilder("<BlastOutput>");
+    List<String> values = new ArrayList<>(Arrays.asList("0", "-0", "1e-281", "0.000123", "123.456",
+        "2464", "1E+5", "9007199254740993", "3.14159265358979323846", "1e22", "1e23", "4.9e-324"));
+    for (int i = 0; i < 2000; i++) {
+      double d = rnd.nextDouble() * Math.pow(10, rnd.nextInt(40) - 20);
+      values.add(i % 2 == 0 ? Double.toString(d) : String.format("%." + rnd.nextInt(12) + "g", d));
+    }
+    for (String value : values) {
+      buf.append("<Hsp_evalue>").append(value).append("</Hsp_evalue>");
+    }
+    buf.append("</BlastOutput>");
+    try (NcbiXmlScanner scanner = new NcbiXmlScanner(
+        new ByteArrayInputStream(buf.toString().getBytes(StandardCharsets.UTF_8)))) {
+      scanner.next();
+      for (String value : values) {
+        assertEquals(NcbiXmlScanner.START_ELEMENT, scanner.next());
+        assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+            Double.doubleToLongBits(scanner.getElementDouble()));
+      }
+    }
+
+    // same data as the ones loaded by BeeDeeM NCBI loader
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER)
+        .load(new File(DATA_PATH+DATA_FILE_1));
+    ISROutput ibo = new ISROutput();
+    try (NcbiXmlIterationReader reader = new NcbiXmlIterationReader(new FileInputStream(DATA_PATH+DATA_FILE_1))) {
+      ibo.setRequestInfo(reader.getRequestInfo());
+      SRIteration iteration;
+      while ((iteration = reader.next()) != null) {
+        ibo.addIteration(iteration);
+      }
+    }
+    ibo.initialize();
+    for (int i = 0; i < bo.getIteration(0).countHit(); i++) {
+      SRHit expected = bo.getIteration(0).getHit(i), hit = ibo.getIteration(0).getHit(i);
+      assertEquals(expected.getHitDef(), hit.getHitDef());
+      assertEquals(expected.getHitId(), hit.getHitId());
+      assertEquals(expected.getHsp(0).getScores().getEvalue(), hit.getHsp(0).getScores().getEvalue(), 0);
+      assertEquals(expected.getHsp(0).getScores().getBitScore(), hit.getHsp(0).getScores().getBitScore(), 0);
+    }
+    assertEquals(bo.getIteration(0).getIterationQueryID(), ibo.getIteration(0).getIterationQueryID());
+  }
+
+  @Test
+  public void test_dumper_lazy_annotation() throws Exception {
+    File ldxDir = createTaxonomyIndex();
+    // hits refer to taxa of the tiny NCBI Taxonomy
+    File wkDir = createTempDir();
+    File xmlFile = writeDataFile(wkDir, "query_1.xml", replaceEach(readDataFile(), "\\[\\[taxon:\\d+", 
+        (i, taxon) -> "[[taxon:" + (i % 2 == 0 ? "562" : "83333")));
+    String cols = "0,21,22";
+
+    // data annotated beforehand (-preresolve) or while being exported
+    String expected = dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath(), "-preresolve");
+    assertTrue(expected, expected.contains("s__Escherichia coli"));
+    assertEquals(expected, dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath()));
+    assertEquals(expected, dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath(), "-threads", "2"));
+    assertEquals(expected, dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath(), "-stream"));
+    assertEquals(expected, dumpFiltered(wkDir, cols, "-tax", ldxDir.getAbsolutePath()));
+    String bestHit = dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath(), "-bho", "-preresolve");
+    assertEquals(2, bestHit.split("\n").length);
+    assertEquals(bestHit, dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath(), "-bho"));
+    assertEquals(bestHit, dumpFiltered(xmlFile, cols, "-tax", ldxDir.getAbsolutePath(), "-bho", "-stream"));
+
+    // columnar format
+    for (String mode : new String[] { "-preresolve", "-stream", "-i" }) {
+      List<String> args = new ArrayList<>(Arrays.asList("-tax", ldxDir.getAbsolutePath(), "-of", "col"));
+      if (!mode.equals("-i")) {
+        args.add(mode);
+      }
+      dumpFiltered(xmlFile, cols, args.toArray(new String[0]));
+      String[] taxonomy = new ColumnarReader(data_file).readStrings("taxonomy_classification");
+      String[] rows = expected.split("\n");
+      assertEquals(rows.length - 1, taxonomy.length);
+      for (int i = 0; i < taxonomy.length; i++) {
+        assertTrue(rows[i + 1], rows[i + 1].endsWith(",\"" + taxonomy[i] + "\""));
+      }
+    }
+  }
+
+  @Test
+  public void test_dumper_row_builder() throws Exception {
+    CSVRowBuilder buf = new CSVRowBuilder();
+    StringBuilder ref = new StringBuilder();
+    // buffer grows as needed
+    for (int i = 0; i < 1000; i++) {
+      String field = "\"field_" + i + "\"";
+      buf.append(field, 1, field.length() - 1).append(';');
+      buf.write(field, 0, 1);
+      buf.write(new char[] { 'x', 'y', 'z' }, 1, 2);
+      ref.append(field, 1, field.length() - 1).append(';').append('"').append("yz");
+    }
+    assertEquals(ref.length(), buf.length());
+    assertEquals(ref.toString(), buf.toString());
+    StringWriter w = new StringWriter();
+    buf.writeTo(w);
+    assertEquals(ref.toString(), w.toString());
+    // buffer is reused
+    assertEquals("a,b", buf.reset().append("a").append(',').append("b").toString());
+    assertEquals("a12.5", buf.reset().append("a").append(new StringBuffer("12.5")).toString());
+
+    // identifiers of a cell are looked up without being copied
+    String cell = "\"IPR000719;GO:0005524;EC:2.7.11.1\"";
+    CharSpan span = new CharSpan().set(cell, 11, 21);
+    assertEquals("GO:0005524", span.toString());
+    assertEquals(new CharSpan("GO:0005524"), span);
+    assertEquals("GO:0005524".hashCode(), span.hashCode());
+    assertFalse(new CharSpan("GO:0005525").equals(span));
+    HashMap<CharSpan, String> map = new HashMap<>();
+    map.put(new CharSpan("IPR000719"), "Protein kinase domain");
+    assertEquals("Protein kinase domain", map.get(span.set(cell, 1, 10)));
+    DicoTermCache cache = new DicoTermCache(10);
+    cache.put(Dicos.GENE_ONTOLOGY, "0005524", "F:ATP binding");
+    assertEquals("F:ATP binding", cache.get(Dicos.GENE_ONTOLOGY, cell, 14, 21));
+    assertNull(cache.get(Dicos.INTERPRO, cell, 14, 21));
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void test_dumper_lca() throws Exception {
+    File ldxDir = createTaxonomyIndex();
+    // hits refer to taxa of the tiny NCBI Taxonomy; evalues are 1e-281, 5e-22, 3e-16, ...
+    String[] taxa = { "83333", "562", "778", "562", "562", "562" };
+    File xmlFile = writeDataFile(createTempDir(), "query_1.xml", replaceEach(readDataFile(), 
+        "<Hit_def>[^<]*\\[\\[taxon:\\d+", (i, def) -> def.substring(0, def.lastIndexOf(':') + 1) + taxa[i]));
+    String tax = ldxDir.getAbsolutePath();
+
+    // a single row per query, starting with the columns of the best hit
+    String bestHit = dumpFiltered(xmlFile, "0,6", "-bho", "-fho").split("\n")[1];
+    String[] rows = dumpFiltered(xmlFile, "0,6", "-lca", "0", "-tax", tax).split("\n");
+    assertEquals(2, rows.length);
+    assertEquals("\"Query Id\",\"Hit Accession\",\"E Value \",\"Hit count\",\"LCA Taxon Id\","
+        + "\"LCA Taxon\",\"LCA Rank\"", rows[0]);
+    assertEquals(bestHit + ",6,83333,\"Escherichia coli K-12\",\"strain\"", rows[1]);
+    // evalue window
+    rows = dumpFiltered(xmlFile, "0,6", "-lca", "261", "-tax", tax).split("\n");
+    assertEquals(bestHit + ",6,562,\"Escherichia coli\",\"species\"", rows[1]);
+    rows = dumpFiltered(xmlFile, "0,6", "-lca", "300", "-tax", tax).split("\n");
+    assertEquals(bestHit + ",6,1224,\"Proteobacteria\",\"phylum\"", rows[1]);
+    // hits are filtered while reading data
+    rows = dumpFiltered(xmlFile, "0,6", "-lca", "300", "-tax", tax, "-evalue", "1e-15").split("\n");
+    assertEquals(bestHit + ",3,1224,\"Proteobacteria\",\"phylum\"", rows[1]);
+    rows = dumpFiltered(xmlFile, "0,6", "-lca", "300", "-tax", tax, "-evalue", "1e-300").split("\n");
+    assertEquals("\"KKCC1_RAT\",\"-\",\"-\",0,\"-\",\"-\",\"-\"", rows[1]);
+    // classification columns of best hits are expanded
+    rows = dumpFiltered(xmlFile, "22", "-lca", "0", "-tax", tax).split("\n");
+    assertTrue(rows[1], rows[1].contains("83333:root;") && rows[1].endsWith(",6,83333,\"Escherichia coli K-12\",\"strain\""));
+
+    // invalid uses
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "-i", xmlFile.getAbsolutePath(), "-o", data_file.getAbsolutePath(), "-lca", "0"));
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+    args.addAll(Arrays.asList("-tax", tax, "-of", "col"));
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+    args.set(args.size() - 1, "csv");
+    args.set(5, "-1");
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+    args.set(5, "0");
+    assertTrue(CmdLineDumper.doJob(args.toArray(new String[0])));
+    for (String[] arg : new String[][] {{"-follow", "1"}, {"-stream"}, {"-preresolve"}}) {
+      List<String> invalid = new ArrayList<>(args);
+      invalid.addAll(Arrays.asList(arg));
+      assertFalse(arg[0], CmdLineDumper.doJob(invalid.toArray(new String[0])));
+    }
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_2, "-f", "zml", "-o", data_file.getAbsolutePath(), "-lca", "0", "-tax", tax}));
+  }
+
+  @Test
+  public void test_dumper_follow() throws Exception {
+    // three queries, the second one without hits
+    String full = createThreeQueries("KKCC1_RAT", "Q3");
+    File xmlFile = writeDataFile(createTempDir(), "query_1.xml", full);
+    String expected = dumpFiltered(xmlFile, "0,1,6", "-stream");
+    assertEquals(1 + 6 + 1 + 6, expected.split("\n").length);
+
+    // complete file
+    File ckpt = new File(data_file.getAbsolutePath() + ".ckpt");
+    ckpt.delete();
+    assertEquals(expected, dumpFiltered(xmlFile, "0,1,6", "-follow", "0.2"));
+    assertTrue(ckpt.delete());
+
+    // file stopped growing within the second query: resume once complete
+    int cut = full.indexOf("Q2<") + 10;
+    Files.write(xmlFile.toPath(), full.substring(0, cut).getBytes(StandardCharsets.UTF_8));
+    String partial = dumpFiltered(xmlFile, "0,1,6", "-follow", "0.2");
+    assertEquals(7, partial.split("\n").length);
+    assertTrue(expected.startsWith(partial));
+    assertTrue(ckpt.exists());
+    try (NcbiXmlIterationReader reader = new NcbiXmlIterationReader(
+        new ByteArrayInputStream(full.substring(0, cut).getBytes(StandardCharsets.UTF_8)))) {
+      assertNotNull(reader.next());
+      assertNull(reader.next());
+      assertTrue(reader.isTruncated());
+      assertEquals(1, reader.getIterationsRead());
+    }
+    // data written after the checkpoint are discarded
+    Files.write(data_file.toPath(), "garbage".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Files.write(xmlFile.toPath(), full.substring(cut).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    assertEquals(expected, dumpFiltered(xmlFile, "0,1,6", "-follow", "0.2"));
+    // nothing left to dump
+    assertEquals(expected, dumpFiltered(xmlFile, "0,1,6", "-follow", "0.2"));
+    assertTrue(ckpt.delete());
+
+    // file growing while being dumped
+    Files.write(xmlFile.toPath(), full.substring(0, cut).getBytes(StandardCharsets.UTF_8));
+    assertTrue(data_file.delete());
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      Future<String> result = pool.submit(() -> dumpFiltered(xmlFile, "0,1,6", "-follow", "30"));
+      // rows of the first query are written before the file is complete
+      long end = System.currentTimeMillis() + 20000;
+      while ((!data_file.exists() || data_file.length() < partial.length()) && System.currentTimeMillis() < end) {
+        Thread.sleep(50);
+      }
+      assertEquals(partial, new String(Files.readAllBytes(data_file.toPath()), StandardCharsets.UTF_8));
+      Files.write(xmlFile.toPath(), full.substring(cut).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+      assertEquals(expected, result.get(20, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+      ckpt.delete();
+    }
+
+    // invalid uses
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_2, "-f", "zml", "-o", data_file.getAbsolutePath(), "-follow", "1"}));
+    assertFalse(CmdLineDumper.doJob(new String[] {"-i", xmlFile.getAbsolutePath(), "-follow", "1"}));
+  }
+
+  @Test
+  public void test_dumper_sort() throws Exception {
+    // a tiny memory budget forces rows to be spilled in several runs
+    Random rnd = new Random(7);
+    List<double[]> values = new ArrayList<>();
+    File runDir = createTempDir();
+    try (ExternalRowSorter sorter = new ExternalRowSorter(SortKey.BITSCORE, 512, runDir)) {
+      for (int i = 0; i < 1000; i++) {
+        // few distinct keys to check that sort is stable; some rows without key
+        double key = i % 50 == 0 ? Double.NaN : rnd.nextInt(20);
+        values.add(new double[] { key, i });
+        sorter.add(key, "row" + i + ",\u00e9");
+      }
+      // more runs than merged at once: intermediate runs are merged first
+      assertTrue(sorter.getRunCount() > 64);
+      StringWriter w = new StringWriter();
+      sorter.writeTo(w);
+      assertTrue(runDir.list().length <= 64);
+      values.sort((v1, v2) -> Double.isNaN(v1[0]) || Double.isNaN(v2[0]) ? 
+          Boolean.compare(Double.isNaN(v1[0]), Double.isNaN(v2[0])) : Double.compare(v2[0], v1[0]));
+      StringBuilder expected = new StringBuilder();
+      for (double[] v : values) {
+        expected.append("row").append((int) v[1]).append(",\u00e9\n");
+      }
+      assertEquals(expected.toString(), w.toString());
+      assertEquals(1000, sorter.getRowCount());
+    }
+    assertEquals(0, runDir.list().length);
+    try (ExternalRowSorter sorter = new ExternalRowSorter(SortKey.ACCESSION, 256, null)) {
+      for (int i = 0; i < 100; i++) {
+        sorter.add(i % 3 == 0 ? null : "ACC" + (i % 7), Integer.toString(i));
+      }
+      StringWriter w = new StringWriter();
+      sorter.writeTo(w);
+      String[] rows = w.toString().split("\n");
+      assertEquals(100, rows.length);
+      assertEquals("7", rows[0]);
+      assertEquals("0", rows[66]);
+      assertEquals("99", rows[99]);
+    }
+
+    // three queries, the second one without hits
+    File xmlFile = writeDataFile(createTempDir(), "query_1.xml", createThreeQueries("KKCC1_RAT", "Q3"));
+
+    // same rows as a regular dump, ordered by increasing evalue; ties keep query order
+    List<String> rows = new ArrayList<>(Arrays.asList(dumpFiltered(xmlFile, "0,1,15,20,6", "-stream").split("\n")));
+    String header = rows.remove(0);
+    rows.sort((r1, r2) -> Double.compare(getLastValue(r1), getLastValue(r2)));
+    String[] sorted = dumpFiltered(xmlFile, "0,1,15,20,6", "-sort", "evalue").split("\n");
+    assertEquals(header, sorted[0]);
+    assertEquals(rows, Arrays.asList(sorted).subList(1, sorted.length));
+    assertTrue(sorted[1].startsWith("\"KKCC1_RAT\""));
+    assertTrue(sorted[2].startsWith("\"Q3\""));
+    assertTrue(sorted[sorted.length - 1].startsWith("\"Q2\",\"-\""));
+    // decreasing bit scores: same order on these data
+    assertEquals(Arrays.asList(sorted), Arrays.asList(dumpFiltered(xmlFile, "0,1,15,20,6", "-sort", "bitscore", 
+        "-sortmem", "1").split("\n")));
+    // rows grouped by hit accession; best hit only
+    sorted = dumpFiltered(xmlFile, "0,6", "-sort", "accession", "-bho").split("\n");
+    assertEquals(4, sorted.length);
+    assertTrue(sorted[1].startsWith("\"KKCC1_RAT\""));
+    assertTrue(sorted[2].startsWith("\"Q3\""));
+
+    // zml data files
+    File zmlFile = new File(DATA_PATH+DATA_FILE_2);
+    rows = new ArrayList<>(Arrays.asList(dumpFiltered(zmlFile, "0,1,6", "-f", "zml").split("\n")));
+    header = rows.remove(0);
+    rows.sort((r1, r2) -> Double.compare(getLastValue(r1), getLastValue(r2)));
+    sorted = dumpFiltered(zmlFile, "0,1,6", "-f", "zml", "-sort", "evalue").split("\n");
+    assertEquals(header, sorted[0]);
+    assertEquals(rows, Arrays.asList(sorted).subList(1, sorted.length));
+
+    // invalid uses
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "-i", xmlFile.getAbsolutePath(), "-o", data_file.getAbsolutePath(), "-sort", "length"));
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+    args.set(args.size() - 1, "evalue");
+    args.addAll(Arrays.asList("-sortmem", "0"));
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+    args.set(args.size() - 1, "1");
+    args.addAll(Arrays.asList("-of", "col"));
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+    args.set(args.size() - 2, "-nohits");
+    args.remove(args.size() - 1);
+    assertFalse(CmdLineDumper.doJob(args.toArray(new String[0])));
+  }
+
+  @Test
+  public void test_dumper_invalid_input() throws Exception {
+    // every dump mode reports a missing or unreadable data file
+    File garbage = writeDataFile(createTempDir(), "query_1.xml", 
+        readDataFile().replaceFirst("<Iteration_query-len>[^<]*", "<Iteration_query-len>none"));
+    String[][] modes = {
+        {"-sort", "evalue"},
+        {"-of", "idx"},
+        {"-stream"},
+        {"-stream", "-of", "col"},
+        {"-of", "csv"},
+        {"-of", "col"},
+        {"-threads", "2", "-preresolve"},
+        {"-nohits"},
+        {"-lca", "0", "-tax", createTaxonomyIndex().getAbsolutePath()},
+        {"-follow", "0.2"}};
+    for (String[] mode : modes) {
+      for (String input : new String[] {DATA_PATH+"missing.xml", garbage.getAbsolutePath()}) {
+        List<String> args = new ArrayList<>(Arrays.asList("-i", input, "-o", data_file.getAbsolutePath()));
+        args.addAll(Arrays.asList(mode));
+        assertFalse(args.toString(), CmdLineDumper.doJob(args.toArray(new String[0])));
+      }
+    }
+    new File(data_file.getAbsolutePath() + ".ckpt").delete();
+    // a single invalid file fails a multi-file dump
+    File fileList = new File(garbage.getParentFile(), "files.txt");
+    for (String input : new String[] {DATA_PATH+"missing.xml", garbage.getAbsolutePath()}) {
+      Files.write(fileList.toPath(), (DATA_PATH+DATA_FILE_1 + "\n" + input + "\n").getBytes(StandardCharsets.UTF_8));
+      assertFalse(input, CmdLineDumper.doJob(new String[] {
+          "-filelist", fileList.getAbsolutePath(), "-o", data_file.getAbsolutePath(), "-threads", "2"}));
+    }
+  }
+
+  @Test
+  public void test_dumper_indexed_store() throws Exception {
+    // three queries, the second one without hits
+    File wkDir = createTempDir();
+    File xmlFile = writeDataFile(wkDir, "query_1.xml", createThreeQueries("Q3", "KKCC1_RAT"));
+    List<String> rows = new ArrayList<>(Arrays.asList(dumpFiltered(xmlFile, "0,1,6", "-stream").split("\n")));
+    String header = rows.remove(0);
+    File store = new File(wkDir, "results.idx");
+
+    // rows of a query are the ones of a regular dump
+    assertTrue(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-c", "0,1,6", "-of", "idx", "-o", store.getAbsolutePath()}));
+    try (ResultStoreReader reader = new ResultStoreReader(store)) {
+      assertEquals(header, reader.getColumnHeader());
+      assertEquals(3, reader.size());
+      // queries are sorted by ID
+      assertEquals("KKCC1_RAT", reader.getQueryId(0));
+      assertEquals("Q2", reader.getQueryId(1));
+      assertEquals("Q3", reader.getQueryId(2));
+      assertEquals(rows.subList(0, 6), reader.getRows("Q3"));
+      assertEquals(rows.subList(7, 13), reader.getRows("KKCC1_RAT"));
+      assertTrue(reader.contains("Q2"));
+      assertTrue(reader.getRows("Q2").isEmpty());
+      assertFalse(reader.contains("Q1"));
+      assertNull(reader.getRows("Q1"));
+      assertNull(reader.getRows("Q"));
+      assertNull(reader.getRows("Q30"));
+      // concurrent lookups
+      ExecutorService pool = Executors.newFixedThreadPool(4);
+      try {
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+          results.add(pool.submit(() -> reader.getRows("KKCC1_RAT")));
+        }
+        for (Future<List<String>> result : results) {
+          assertEquals(rows.subList(7, 13), result.get());
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+    // filters and best hits
+    assertTrue(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-c", "0,1,6", "-of", "idx", "-o", store.getAbsolutePath(), "-bho",
+        "-evalue", "1e-20"}));
+    try (ResultStoreReader reader = new ResultStoreReader(store)) {
+      assertEquals(Arrays.asList(rows.get(7)), reader.getRows("KKCC1_RAT"));
+    }
+
+    // zml data files
+    rows = new ArrayList<>(Arrays.asList(dumpFiltered(new File(DATA_PATH+DATA_FILE_2), "0,1,6", "-f", "zml").split("\n")));
+    assertTrue(CmdLineDumper.doJob(new String[] {
+        "-i", DATA_PATH+DATA_FILE_2, "-f", "zml", "-c", "0,1,6", "-of", "idx", "-o", store.getAbsolutePath()}));
+    try (ResultStoreReader reader = new ResultStoreReader(store)) {
+      assertEquals(rows.get(0), reader.getColumnHeader());
+      assertEquals(1, reader.size());
+      assertEquals(rows.subList(1, rows.size()), reader.getRows("KKCC1_RAT"));
+    }
+
+    // queries having the same ID are all kept
+    CSVRowBuilder buf = new CSVRowBuilder();
+    try (ResultStoreWriter writer = new ResultStoreWriter(store, "\"Query Id\"")) {
+      writer.add("B", buf.reset().append("\"B\",1\n\"B\",2\n"));
+      writer.add("A", buf.reset());
+      writer.add("B", buf.reset().append("\"B\",3\n"));
+      assertEquals(3, writer.getQueryCount());
+      assertEquals(3, writer.getRowCount());
+    }
+    try (ResultStoreReader reader = new ResultStoreReader(store)) {
+      assertEquals(3, reader.size());
+      assertEquals(Arrays.asList("\"B\",1", "\"B\",2", "\"B\",3"), reader.getRows("B"));
+      assertEquals(0, reader.getRows("A").size());
+    }
+
+    // invalid uses
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-of", "idx"}));
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-of", "idx", "-o", store.getAbsolutePath(), "-nohits"}));
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", xmlFile.getAbsolutePath(), "-of", "idx", "-o", store.getAbsolutePath(), "-sort", "evalue"}));
+    for (String[] arg : new String[][] {{"-lca", "0"}, {"-follow", "1"}, {"-stream"}}) {
+      List<String> args = new ArrayList<>(Arrays.asList(
+          "-i", xmlFile.getAbsolutePath(), "-of", "idx", "-o", store.getAbsolutePath()));
+      args.addAll(Arrays.asList(arg));
+      assertFalse(arg[0], CmdLineDumper.doJob(args.toArray(new String[0])));
+    }
+  }
+
+  @Test
+  public void test_dumper_compressed() throws Exception {
+    byte[] xml = readDataFile().getBytes(StandardCharsets.UTF_8);
+    String ref = new String(Files.readAllBytes(new File(DATA_PATH+DATA_FILE_1_REF).toPath()), StandardCharsets.UTF_8);
+    File wkDir = createTempDir();
+    File gzFile = new File(wkDir, "query_1.xml.gz");
+    try (OutputStream os = new GZIPOutputStream(new FileOutputStream(gzFile))) {
+      os.write(xml);
+    }
+    File bgzfFile = new File(wkDir, "query_2.xml.gz");
+    BgzfTestUtils.writeBgzf(xml, bgzfFile, 1024);
+    assertEquals(CompressionUtils.Type.BGZF, CompressionUtils.getCompressionType(bgzfFile));
+
+    // xml files are inflated while being read, whatever the dump mode
+    String tax = createTaxonomyIndex().getAbsolutePath();
+    String lca = dumpFiltered(new File(DATA_PATH+DATA_FILE_1), "0,6", "-lca", "0", "-tax", tax);
+    for (File f : new File[] {gzFile, bgzfFile}) {
+      assertEquals(ref, dumpFiltered(f, null));
+      assertEquals(ref, dumpFiltered(f, null, "-stream"));
+      assertEquals(lca, dumpFiltered(f, "0,6", "-lca", "0", "-tax", tax));
+    }
+    // zml files
+    File zmlFile = new File(wkDir, "hits_only.zml.gz");
+    try (OutputStream os = new GZIPOutputStream(new FileOutputStream(zmlFile))) {
+      os.write(Files.readAllBytes(new File(DATA_PATH+DATA_FILE_2).toPath()));
+    }
+    assertEquals(ref, dumpFiltered(zmlFile, null, "-f", "zml"));
+    // compressed xml files of a directory are dumped
+    assertEquals(ref + ref.substring(ref.indexOf('\n') + 1), dumpFiltered(wkDir, null));
+    // a compressed file cannot be followed
+    assertFalse(CmdLineDumper.doJob(new String[] {
+        "-i", gzFile.getAbsolutePath(), "-o", data_file.getAbsolutePath(), "-follow", "1"}));
+
+    // zstd files are inflated by the zstd tool, when available
+    File zstFile = new File(wkDir, "query_3.xml.zst");
+    boolean zstd;
+    try {
+      zstd = new ProcessBuilder("zstd", "-q", "-o", zstFile.getAbsolutePath(), new File(DATA_PATH+DATA_FILE_1)
+          .getAbsolutePath()).start().waitFor() == 0;
+    } catch (IOException e) {
+      zstd = false;
+    }
+    if (zstd) {
+      assertEquals(CompressionUtils.Type.ZSTD, CompressionUtils.getCompressionType(zstFile));
+      assertEquals(ref, dumpFiltered(zstFile, null, "-stream"));
+    }
+    else {
+      // zstd frame magic number followed by garbage
+      Files.write(zstFile.toPath(), new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 1, 2, 3});
+      assertEquals(CompressionUtils.Type.ZSTD, CompressionUtils.getCompressionType(zstFile));
+      assertFalse(CmdLineDumper.doJob(new String[] {
+          "-i", zstFile.getAbsolutePath(), "-o", data_file.getAbsolutePath(), "-stream"}));
+    }
+  }
+
+  @Test
+  public void test_dumper_concurrent_lookups() throws Exception {
+    // classification cells mix identifiers of several BeeDeeM indexes
+    File ldx = createTempDir();
+    File iprDir = createTermIndex(new File(ldx, "InterPro_terms.ldx"), 
+        "IPR017441", "Protein kinase, ATP binding site", "IPR000719", "Protein kinase domain", 
+        "IPR011009", "Protein kinase-like domain superfamily");
+    File ecDir = createTermIndex(new File(ldx, "Enzyme.ldx"), 
+        "2.7.11.17", "Calcium/calmodulin-dependent protein kinase");
+    File taxDir = createTaxonomyIndex();
+    File dataFile = new File(DATA_PATH+DATA_FILE_3);
+    String cols = "0,1,21";
+    String[] dicos = new String[] {"-f", "zml", "-tax", taxDir.getAbsolutePath(), 
+        "-ipr", iprDir.getAbsolutePath(), "-ec", ecDir.getAbsolutePath()};
+
+    // identifiers resolved beforehand, one index at a time
+    List<String> args = new ArrayList<>(Arrays.asList(dicos));
+    args.add("-preresolve");
+    String expected = dumpFiltered(dataFile, cols, args.toArray(new String[0]));
+    assertTrue(expected, expected.contains("IPR000719:Protein kinase domain"));
+    // identifiers of a block of rows resolved concurrently across indexes
+    assertEquals(expected, dumpFiltered(dataFile, cols, dicos));
+    args = new ArrayList<>(Arrays.asList(dicos));
+    args.addAll(Arrays.asList("-cache", "0", "-threads", "4"));
+    assertEquals(expected, dumpFiltered(dataFile, cols, args.toArray(new String[0])));
+  }
+
+  @Test
+  public void test_dumper_annotation_lookups() throws Exception {
+    File ldx = createTempDir();
+    File iprDir = createTermIndex(new File(ldx, "InterPro_terms.ldx"), 
+        "IPR017441", "Protein kinase, ATP binding site", "IPR000719", "Protein kinase domain", 
+        "IPR011009", "Protein kinase-like domain superfamily");
+    File ecDir = createTermIndex(new File(ldx, "Enzyme.ldx"), 
+        "2.7.12.2", "Mitogen-activated protein kinase kinase");
+    File taxDir = createTaxonomyIndex();
+    // hits refer to taxa of the tiny NCBI Taxonomy
+    File xmlFile = writeDataFile(createTempDir(), "query_1.xml", 
+        readDataFile().replaceAll("\\[\\[taxon:\\d+", "[[taxon:562"));
+
+    // only indexes referred to by hit definition lines are locked while annotating
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER).load(xmlFile);
+    SRIteration iteration = bo.getIteration(0);
+    DefLineAnnotator annotator = new DefLineAnnotator(null, true);
+    iteration.getHit(0).setHitDef("Protein kinase [[taxon:562;InterPro:IPR000719]]");
+    assertEquals(EnumSet.of(Dicos.NCBI_TAXONOMY, Dicos.INTERPRO), annotator.getDicos(iteration));
+    iteration.getHit(0).setHitDef("Protein kinase [Escherichia coli]");
+    assertEquals(EnumSet.of(Dicos.NCBI_TAXONOMY), annotator.getDicos(iteration));
+    assertEquals(EnumSet.noneOf(Dicos.class), annotator.getDicos(new ISRIteration()));
+
+    // hits annotated by exporter threads while other ones expand classification
+    String cols = "0,21";
+    String[] dicos = new String[] {"-tax", taxDir.getAbsolutePath(), 
+        "-ipr", iprDir.getAbsolutePath(), "-ec", ecDir.getAbsolutePath(), "-cache", "0"};
+    List<String> args = new ArrayList<>(Arrays.asList(dicos));
+    args.add("-preresolve");
+    String expected = dumpFiltered(xmlFile, cols, args.toArray(new String[0]));
+    assertTrue(expected, expected.contains("IPR000719:Protein kinase domain"));
+    assertTrue(expected, expected.contains("s__Escherichia coli"));
+    assertEquals(expected, dumpFiltered(xmlFile, cols, dicos));
+    for (String threads : new String[] { "2", "4" }) {
+      args = new ArrayList<>(Arrays.asList(dicos));
+      args.addAll(Arrays.asList("-threads", threads));
+      assertEquals(expected, dumpFiltered(xmlFile, cols, args.toArray(new String[0])));
+    }
+  }
+
+  @Test
+  public void test_dumper_block_handler() throws Exception {
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NATIVE_LOADER)
+        .load(new File(DATA_PATH+DATA_FILE_3));
+    int[] colIds = new int[] { TxtExportSROutput.ACCESSION, TxtExportSROutput.BIO_CLASSIF_TAX, 
+        TxtExportSROutput.BIO_CLASSIF_GO, TxtExportSROutput.EVALUE };
+    ISROutput multi = new ISROutput();
+    multi.setRequestInfo(bo.getRequestInfo());
+    multi.setClassification(bo.getClassification());
+    for (int i = 0; i < 12; i++) {
+      ISRIteration iteration = (ISRIteration) bo.getIteration(0).clone(false);
+      iteration.setIterationQueryID("query_" + i);
+      multi.addIteration(iteration);
+    }
+    ClassificationCollector collector = new ClassificationCollector();
+    CSVParallelExporter parallel = new CSVParallelExporter(colIds, collector, false, false, 1);
+    StringWriter expected = new StringWriter();
+    parallel.export(multi, expected);
+    assertFalse(collector.getEntryIds().isEmpty());
+
+    // a block per chunk, started with all identifiers of its rows
+    List<Set<String>> blocks = Collections.synchronizedList(new ArrayList<>());
+    ThreadLocal<Set<String>> current = new ThreadLocal<>();
+    CSVBlockHandler handler = new CSVBlockHandler() {
+      @Override
+      public String handle(String s, int colType) {
+        if (ClassificationCollector.isClassificationColumn(colType)) {
+          ClassificationCollector cell = new ClassificationCollector();
+          cell.handle(s, colType);
+          assertTrue(current.get().containsAll(cell.getEntryIds()));
+        }
+        return s;
+      }
+      @Override
+      public boolean isBlockEnabled() {
+        return true;
+      }
+      @Override
+      public void startBlock(Set<String> entryIds) {
+        assertNull(current.get());
+        current.set(entryIds);
+        blocks.add(entryIds);
+      }
+      @Override
+      public void endBlock() {
+        current.remove();
+      }
+    };
+    parallel = new CSVParallelExporter(colIds, handler, false, false, 2);
+    parallel.setChunkSize(5);
+    StringWriter w = new StringWriter();
+    parallel.export(multi, w);
+    assertEquals(expected.toString(), w.toString());
+    assertEquals(3, blocks.size());
+    for (Set<String> block : blocks) {
+      assertEquals(collector.getEntryIds(), block);
+    }
+  }
+
+  /**
+   * Create a BeeDeeM index of terms having a plain text description.
+   */
+  private static File createTermIndex(File ldxDir, String... terms) {
+    DicoStorageSystem storage = new DicoStorageSystemImplem();
+    assertTrue(storage.open(ldxDir.getAbsolutePath(), DicoStorageSystem.WRITE_MODE));
+    for (int i = 0; i < terms.length; i += 2) {
+      storage.addEntry(terms[i], terms[i + 1]);
+    }
+    storage.close();
+    return ldxDir;
+  }
+
+  /**
+   * Create a BeeDeeM index of the tiny NCBI Taxonomy.
+   */
+  private static File createTaxonomyIndex() throws Exception {
+    File ldx = createTempDir();
+    File ldxDir = new File(ldx, "NCBI_Taxonomy.ldx");
+    DicoStorageSystem storage = new DicoStorageSystemImplem();
+    assertTrue(storage.open(ldxDir.getAbsolutePath(), DicoStorageSystem.WRITE_MODE));
+    for (String[] taxon : TAXONOMY) {
+      // same data layout as BeeDeeM NCBI Taxonomy parsers
+      storage.addEntry("o" + taxon[0], taxon[0].equals("1") ? "1|root" : "o" + taxon[1] + "\t|\t" + taxon[2]);
+      storage.addEntry("n" + taxon[0], taxon[3]);
+    }
+    storage.close();
+    return ldxDir;
+  }
+
+  /**
+   * Create a temporary directory, deleted once the running test is done.
+   */
+  private static File createTempDir() throws IOException {
+    File dir = Files.createTempDirectory("dumper").toFile();
+    tempDirs.add(dir);
+    return dir;
+  }
+
+  /**
+   * Return the content of DATA_FILE_1, used as a template of test data files.
+   */
+  private static String readDataFile() throws IOException {
+    return new String(Files.readAllBytes(new File(DATA_PATH+DATA_FILE_1).toPath()), StandardCharsets.UTF_8);
+  }
+
+  private static File writeDataFile(File dir, String name, String content) throws IOException {
+    File f = new File(dir, name);
+    Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return f;
+  }
+
+  /**
+   * Replace each match of a regular expression: the i-th match m becomes
+   * replacement.apply(i, m).
+   */
+  private static String replaceEach(String xml, String regex, BiFunction<Integer, String, String> replacement) {
+    Matcher matcher = Pattern.compile(regex).matcher(xml);
+    StringBuffer buf = new StringBuffer();
+    for (int i = 0; matcher.find(); i++) {
+      matcher.appendReplacement(buf, Matcher.quoteReplacement(replacement.apply(i, matcher.group())));
+    }
+    matcher.appendTail(buf);
+    return buf.toString();
+  }
+
+  /**
+   * Return DATA_FILE_1 made of three queries: its own query KKCC1_RAT, a copy
+   * of it without hits (Q2) and another one having all its hits (Q3), ordered
+   * after first and last query IDs.
+   */
+  private static String createThreeQueries(String firstId, String lastId) throws IOException {
+    String xml = readDataFile();
+    int from = xml.indexOf("<Iteration>"), to = xml.indexOf("</Iteration>") + "</Iteration>".length();
+    String iteration = xml.substring(from, to);
+    String noHits = iteration.replaceAll("(?s)<Iteration_hits>.*</Iteration_hits>", 
+        "<Iteration_hits></Iteration_hits>");
+    return xml.substring(0, from) + iteration.replace("KKCC1_RAT<", firstId + "<") + "\n" 
+        + noHits.replace("KKCC1_RAT<", "Q2<") + "\n" 
+        + iteration.replace("KKCC1_RAT<", lastId + "<") + xml.substring(to);
+  }
+
+  /**
+   * Dump a data file and return the resulting CSV. Default columns are dumped
+   * when cols is null.
+   */
+  private static String dumpFiltered(File dataFile, String cols, String... filters) throws Exception {
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "-i", dataFile.getAbsolutePath(), "-o", data_file.getAbsolutePath()));
+    if (cols != null) {
+      args.addAll(Arrays.asList("-c", cols));
+    }
+    args.addAll(Arrays.asList(filters));
+    assertTrue(CmdLineDumper.doJob(args.toArray(new String[0])));
+    return new String(Files.readAllBytes(data_file.toPath()), StandardCharsets.UTF_8);
+  }
+
+  private static double getLastValue(String row) {
+    // rows without hits are last
+    String value = row.substring(row.lastIndexOf(',') + 1);
+    return value.equals("\"-\"") ? Double.MAX_VALUE : Double.parseDouble(value);
+  }
+
+  private static int countRows(String csv) {
+    // header is not a row
+    return csv.split("\n").length - 1;
+  }
+
+  private static List<String> getMultiRef(List<String> ref, int... slices) {
+    List<String> lines = new ArrayList<>(Arrays.asList(ref.get(0)));
+    for (int slice : slices) {
+      for (String line : ref.subList(1, ref.size())) {
+        lines.add(line.replaceFirst("^\"KKCC1_RAT\"", "\"Q" + slice + "\""));
+      }
+    }
+    return lines;
+  }
 }